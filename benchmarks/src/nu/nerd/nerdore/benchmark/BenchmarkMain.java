@@ -0,0 +1,47 @@
+package nu.nerd.nerdore.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// ----------------------------------------------------------------------------
+/**
+ * Runs the benchmarks, writing results as JSON by default so that they can be
+ * compared from release to release.
+ *
+ * All of the usual JMH command line options are accepted; e.g. "-rf csv" or
+ * "-rff results.json" override the defaults, and a regular expression
+ * selects benchmarks.
+ */
+public class BenchmarkMain {
+    // ------------------------------------------------------------------------
+    /**
+     * Main program.
+     *
+     * @param args command line arguments, as for the JMH runner.
+     */
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cli);
+        if (!cli.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!cli.getResult().hasValue()) {
+            options.result(RESULT_FILE);
+        }
+        new Runner(options.build()).run();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The default results file, named for the version of NerdOre being
+     * measured.
+     */
+    private static final String RESULT_FILE = "nerdore-benchmarks-" +
+                                              BenchmarkMain.class.getPackage().getImplementationVersion() +
+                                              ".json";
+} // class BenchmarkMain
@@ -0,0 +1,111 @@
+package nu.nerd.nerdore.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.block.Biome;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import nu.nerd.nerdore.BiomeGrid;
+import nu.nerd.nerdore.ClearPlan;
+import nu.nerd.nerdore.ClearRule;
+import nu.nerd.nerdore.ClearScanner;
+import nu.nerd.nerdore.RuleIndex;
+
+// ----------------------------------------------------------------------------
+/**
+ * Benchmarks of biome-filtered rule evaluation: rules that each affect one
+ * biome, in chunks of one biome or of several.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BiomeFilterBenchmark {
+    // ------------------------------------------------------------------------
+    /**
+     * The number of clear rules.
+     */
+    @Param({ "10", "50" })
+    public int rules;
+
+    /**
+     * The number of distinct biomes in the chunk.
+     */
+    @Param({ "1", "4" })
+    public int chunkBiomes;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Generate the terrain and the rules.
+     */
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        Biome[] biomes = Arrays.copyOf(Fixtures.BIOMES, chunkBiomes);
+        _terrain = MemoryChunk.generate(Fixtures.WORLD, 0, 0, Fixtures.SEED, biomes);
+        _index = Fixtures.clearRules(rules, true);
+        _scanner = new ClearScanner(_index, true);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the biomes of a chunk and find the rules that affect it.
+     *
+     * @return the table of active rules.
+     */
+    @Benchmark
+    public boolean[] activeRules() {
+        return _index.getActiveRules(new BiomeGrid(_terrain));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Look up the rules of the biome of every column of a chunk.
+     *
+     * @return the total number of rules over all columns.
+     */
+    @Benchmark
+    public int rulesByColumn() {
+        int count = 0;
+        for (int x = 0; x < 16; ++x) {
+            for (int z = 0; z < 16; ++z) {
+                count += _index.getRules(_terrain.getBiome(x, z)).length;
+            }
+        }
+        return count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * List the candidate blocks of the biome-filtered rules in a chunk.
+     *
+     * @return the candidates.
+     */
+    @Benchmark
+    public ClearPlan scan() {
+        return _scanner.scan(_terrain, new BiomeGrid(_terrain));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The terrain.
+     */
+    private MemoryChunk _terrain;
+
+    /**
+     * The biome index of the rules.
+     */
+    private RuleIndex<ClearRule> _index;
+
+    /**
+     * Lists candidate blocks.
+     */
+    private ClearScanner _scanner;
+} // class BiomeFilterBenchmark
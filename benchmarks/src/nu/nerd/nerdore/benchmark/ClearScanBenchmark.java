@@ -0,0 +1,130 @@
+package nu.nerd.nerdore.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import nu.nerd.nerdore.BiomeGrid;
+import nu.nerd.nerdore.ClearPlan;
+import nu.nerd.nerdore.ClearRule;
+import nu.nerd.nerdore.ClearScanner;
+import nu.nerd.nerdore.SplitMixRandom;
+
+// ----------------------------------------------------------------------------
+/**
+ * Benchmarks of full-chunk clear scans, as performed by
+ * OreTask.applyClearRules(), with 1, 10 and 50 rules.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ClearScanBenchmark {
+    // ------------------------------------------------------------------------
+    /**
+     * The number of clear rules.
+     */
+    @Param({ "1", "10", "50" })
+    public int rules;
+
+    /**
+     * If true, candidates are listed in fused order; otherwise, in legacy
+     * (rule by rule) order.
+     */
+    @Param({ "true", "false" })
+    public boolean fused;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Generate the terrain and the rules.
+     */
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        _terrain = MemoryChunk.generate(Fixtures.WORLD, 0, 0, Fixtures.SEED, Fixtures.BIOMES);
+        _chunk = _terrain.copy();
+        _biomes = new BiomeGrid(_terrain);
+        _scanner = new ClearScanner(Fixtures.clearRules(rules, false), fused);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Restore the terrain overwritten by the previous invocation.
+     */
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        _chunk.copyFrom(_terrain);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * List the candidate blocks of all rules in a chunk.
+     *
+     * @return the candidates.
+     */
+    @Benchmark
+    public ClearPlan scan() {
+        return _scanner.scan(_terrain, _biomes);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * List the candidate blocks of all rules in a chunk and apply the rules
+     * to them, with one random number stream per rule.
+     *
+     * @return the number of blocks replaced.
+     */
+    @Benchmark
+    public int scanAndApply() {
+        ClearPlan plan = _scanner.scan(_chunk, _biomes);
+        ClearRule[] rules = _scanner.getRules();
+        Random[] randoms = new Random[rules.length];
+        for (int r = 0; r < rules.length; ++r) {
+            randoms[r] = new SplitMixRandom(SplitMixRandom.streamSeed(Fixtures.SEED, Fixtures.WORLD, 0, 0,
+                                                                      SplitMixRandom.CLEAR_STREAM, rules[r].getId()));
+        }
+
+        int cleared = 0;
+        MemoryChunk.Block block = _chunk.getBlock();
+        for (int i = 0; i < plan.size(); ++i) {
+            int candidate = plan.get(i);
+            int ruleIndex = ClearPlan.ruleIndex(candidate);
+            ClearRule rule = rules[ruleIndex];
+            Random random = randoms[ruleIndex];
+            block.moveTo(ClearPlan.x(candidate), ClearPlan.y(candidate), ClearPlan.z(candidate));
+            if (rule.matches(block, null) && random.nextDouble() <= rule.getProbability()) {
+                rule.apply(block, random, null);
+                ++cleared;
+            }
+        }
+        return cleared;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The original terrain.
+     */
+    private MemoryChunk _terrain;
+
+    /**
+     * The terrain modified by each invocation.
+     */
+    private MemoryChunk _chunk;
+
+    /**
+     * The biomes of the terrain.
+     */
+    private BiomeGrid _biomes;
+
+    /**
+     * Lists candidate blocks.
+     */
+    private ClearScanner _scanner;
+} // class ClearScanBenchmark
@@ -0,0 +1,132 @@
+package nu.nerd.nerdore.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Material;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import nu.nerd.nerdore.BiomeGrid;
+import nu.nerd.nerdore.ClearScanner;
+import nu.nerd.nerdore.DepositPlan;
+import nu.nerd.nerdore.DepositPlanner;
+import nu.nerd.nerdore.DepositShape;
+import nu.nerd.nerdore.NerdOre;
+import nu.nerd.nerdore.SplitMixRandom;
+
+// ----------------------------------------------------------------------------
+/**
+ * Benchmarks of the two halves of ore generation at several deposit sizes.
+ *
+ * {@link #voxelise()} measures the placement loop of OreTask.generate(),
+ * which visits the blocks of one deposit's shape and replaces the replaceable
+ * ones in a chunk. {@link #plan()} measures DepositPlanner.plan(), which
+ * chooses where a rule's deposits go in a chunk, as the worker threads do
+ * before the deposits are placed on the main thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DepositBenchmark {
+    // ------------------------------------------------------------------------
+    /**
+     * The number of blocks in each deposit.
+     */
+    @Param({ "4", "8", "16", "32", "64" })
+    public int size;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Generate the terrain and the rules.
+     */
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        Fixtures.configureReplaceable();
+        _terrain = MemoryChunk.generate(Fixtures.WORLD, 0, 0, Fixtures.SEED, Fixtures.BIOMES);
+        _chunk = _terrain.copy();
+        _planner = new DepositPlanner(Fixtures.oreRule(Material.DIAMOND_ORE, size, 16, 8, 56),
+                                      new ClearScanner(Fixtures.clearRules(0, false), true));
+        _biomes = new BiomeGrid(_terrain);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Restore the terrain overwritten by the previous invocation.
+     */
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        _chunk.copyFrom(_terrain);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Place one deposit at the centre of the chunk, replacing only
+     * replaceable blocks, and stopping once the deposit has the required
+     * number of blocks.
+     *
+     * @return the number of blocks placed.
+     */
+    @Benchmark
+    public int voxelise() {
+        SplitMixRandom random = new SplitMixRandom(_seed++);
+        MemoryChunk.Block block = _chunk.getBlock();
+        int[] generated = { 0 };
+        DepositShape.visit(random, 8, 32, 8, DepositShape.getEffectiveSize(size), (x, y, z) -> {
+            if (x < 0 || x > 15 || y < 0 || y > 255 || z < 0 || z > 15) {
+                return true;
+            }
+            block.moveTo(x, y, z);
+            if (NerdOre.CONFIG.isReplaceable(block.getType())) {
+                block.setType(Material.DIAMOND_ORE);
+                return ++generated[0] < size;
+            }
+            return true;
+        });
+        return generated[0];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Plan all deposits of one ore rule in a chunk, from a snapshot.
+     *
+     * @return the plan.
+     */
+    @Benchmark
+    public DepositPlan plan() {
+        return _planner.plan(_terrain, _biomes, _seed++);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The original terrain.
+     */
+    private MemoryChunk _terrain;
+
+    /**
+     * The terrain modified by each invocation.
+     */
+    private MemoryChunk _chunk;
+
+    /**
+     * Plans deposits of one rule.
+     */
+    private DepositPlanner _planner;
+
+    /**
+     * The biomes of the terrain.
+     */
+    private BiomeGrid _biomes;
+
+    /**
+     * The seed of the next invocation, varied so that deposits have
+     * different shapes.
+     */
+    private long _seed = Fixtures.SEED;
+} // class DepositBenchmark
@@ -0,0 +1,132 @@
+package nu.nerd.nerdore.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.bukkit.Material;
+import org.bukkit.block.Biome;
+import org.bukkit.configuration.MemoryConfiguration;
+
+import nu.nerd.nerdore.ClearRule;
+import nu.nerd.nerdore.Configuration;
+import nu.nerd.nerdore.NerdOre;
+import nu.nerd.nerdore.OreRule;
+import nu.nerd.nerdore.RuleIndex;
+
+// ----------------------------------------------------------------------------
+/**
+ * Rules and settings shared by the benchmarks, built in memory without a
+ * server or a config.yml.
+ */
+public class Fixtures {
+    // ------------------------------------------------------------------------
+    /**
+     * Set the replaceable materials of {@link NerdOre#CONFIG} to those of the
+     * default config.yml.
+     */
+    public static void configureReplaceable() {
+        Configuration config = NerdOre.CONFIG;
+        config.REPLACEABLE_MATERIALS = EnumSet.of(Material.STONE, Material.GRANITE, Material.DIORITE,
+                                                  Material.ANDESITE, Material.DIRT, Material.GRAVEL);
+        long[] bits = new long[(Material.values().length + 63) / 64];
+        for (Material material : config.REPLACEABLE_MATERIALS) {
+            bits[material.ordinal() >>> 6] |= 1L << material.ordinal();
+        }
+        config.REPLACEABLE_BITS = bits;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the biome index of a number of clear rules.
+     *
+     * The rules cycle through {@link #CLEAR_SOURCES}, and each pass through
+     * the list uses a different band of Y coordinates, so that more rules
+     * mean more distinct (Material, Y) combinations, as in a large
+     * configuration. Each rule replaces half of the matching blocks.
+     *
+     * @param count the number of rules.
+     * @param biomeFiltered if true, each rule affects one of
+     *        {@link #BIOMES}, in turn; otherwise, every rule affects all
+     *        biomes.
+     * @return the biome index of the rules.
+     */
+    public static RuleIndex<ClearRule> clearRules(int count, boolean biomeFiltered) {
+        int bands = Math.max(1, (count + CLEAR_SOURCES.length - 1) / CLEAR_SOURCES.length);
+        int bandHeight = 256 / bands;
+        List<ClearRule> rules = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            Material[] source = CLEAR_SOURCES[i % CLEAR_SOURCES.length];
+            int band = i / CLEAR_SOURCES.length;
+            MemoryConfiguration section = new MemoryConfiguration();
+            section.set("block", source[0].name());
+            section.set("replacement", source[1].name());
+            section.set("probability", 0.5);
+            section.set("min-height", band * bandHeight);
+            section.set("max-height", band * bandHeight + bandHeight - 1);
+            if (biomeFiltered) {
+                section.set("biomes", Arrays.asList(BIOMES[i % BIOMES.length].name()));
+            }
+            ClearRule rule = new ClearRule(section);
+            rule.setId(i);
+            rules.add(rule);
+        }
+        return new RuleIndex<>(rules, ClearRule[]::new);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the biome index of one ore rule.
+     *
+     * @param material the ore Material.
+     * @param size the number of blocks in each deposit.
+     * @param rounds the number of deposits attempted per chunk.
+     * @param minHeight the minimum Y coordinate of deposit centres.
+     * @param maxHeight the maximum Y coordinate of deposit centres.
+     * @return the biome index of the rule.
+     */
+    public static RuleIndex<OreRule> oreRule(Material material, int size, int rounds, int minHeight, int maxHeight) {
+        MemoryConfiguration section = new MemoryConfiguration();
+        section.set("block", material.name());
+        section.set("min-size", size);
+        section.set("min-rounds", rounds);
+        section.set("min-height", minHeight);
+        section.set("max-height", maxHeight);
+        OreRule rule = new OreRule(section);
+        rule.setId(0);
+        return new RuleIndex<>(Arrays.asList(rule), OreRule[]::new);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The biomes of generated chunks, and of biome-filtered rules.
+     */
+    public static final Biome[] BIOMES = { Biome.PLAINS, Biome.DESERT, Biome.SWAMP, Biome.FOREST };
+
+    /**
+     * The removed and replacement Materials of clear rules, in order.
+     */
+    public static final Material[][] CLEAR_SOURCES = {
+        { Material.COAL_ORE, Material.STONE },
+        { Material.IRON_ORE, Material.STONE },
+        { Material.GOLD_ORE, Material.STONE },
+        { Material.REDSTONE_ORE, Material.STONE },
+        { Material.DIAMOND_ORE, Material.STONE },
+        { Material.GRANITE, Material.STONE },
+        { Material.DIORITE, Material.ANDESITE },
+        { Material.ANDESITE, Material.STONE },
+        { Material.GRAVEL, Material.DIRT },
+        { Material.LAVA, Material.OBSIDIAN }
+    };
+
+    /**
+     * The world name of generated chunks.
+     */
+    public static final String WORLD = "world";
+
+    /**
+     * The seed of generated terrain and of ore generation.
+     */
+    public static final long SEED = 20181010L;
+} // class Fixtures
@@ -0,0 +1,119 @@
+package nu.nerd.nerdore.benchmark;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+
+// ----------------------------------------------------------------------------
+/**
+ * The Bukkit Server seen by NerdOre when it runs outside of a server: it
+ * knows the {@link MemoryWorld}s added to it, has no players, and logs
+ * broadcasts.
+ *
+ * Bukkit's Server is a singleton that can only be set once per JVM, so the
+ * worlds can be replaced but the server cannot.
+ */
+public class HeadlessServer {
+    // ------------------------------------------------------------------------
+    /**
+     * Return the server, installing it as the Bukkit Server if necessary.
+     *
+     * @return the server.
+     */
+    public static synchronized HeadlessServer getInstance() {
+        if (_instance == null) {
+            _instance = new HeadlessServer();
+            Bukkit.setServer(MemoryWorld.proxy(Server.class, _instance::invoke));
+        }
+        return _instance;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a world, replacing any world with the same name.
+     *
+     * @param world the world.
+     */
+    public void addWorld(MemoryWorld world) {
+        _worlds.put(world.getName(), world);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove a world.
+     *
+     * @param world the world.
+     */
+    public void removeWorld(MemoryWorld world) {
+        _worlds.remove(world.getName(), world);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Logger of the server.
+     *
+     * @return the Logger.
+     */
+    public Logger getLogger() {
+        return _logger;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle a call to the Server.
+     */
+    protected Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+        case "getName":
+            return "NerdOre Headless";
+        case "getVersion":
+        case "getBukkitVersion":
+            String version = Server.class.getPackage().getImplementationVersion();
+            return (version != null) ? version : "headless";
+        case "getLogger":
+            return _logger;
+        case "getWorld":
+            if (args[0] instanceof String) {
+                MemoryWorld world = _worlds.get(args[0]);
+                return (world != null) ? world.getWorld() : null;
+            }
+            break;
+        case "getWorlds":
+            ArrayList<Object> worlds = new ArrayList<>();
+            _worlds.values().forEach(w -> worlds.add(w.getWorld()));
+            return worlds;
+        case "getOnlinePlayers":
+            return Collections.emptyList();
+        case "broadcast":
+            _logger.info((String) args[0]);
+            return 0;
+        case "isPrimaryThread":
+            return true;
+        case "getViewDistance":
+            return 10;
+        }
+        return MemoryWorld.invokeObject(proxy, method, args, "HeadlessServer");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The installed server.
+     */
+    private static HeadlessServer _instance;
+
+    /**
+     * The worlds, by name.
+     */
+    protected final Map<String, MemoryWorld> _worlds = new LinkedHashMap<>();
+
+    /**
+     * The Logger.
+     */
+    protected final Logger _logger = Logger.getLogger("Server");
+} // class HeadlessServer
@@ -0,0 +1,223 @@
+package nu.nerd.nerdore.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.bukkit.Material;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.entity.EntityType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import nu.nerd.nerdore.blockstate.BlockAccess;
+import nu.nerd.nerdore.blockstate.MatcherForLiquid;
+import nu.nerd.nerdore.blockstate.MatcherForSpawner;
+import nu.nerd.nerdore.blockstate.SpawnerAccess;
+
+// ----------------------------------------------------------------------------
+/**
+ * Benchmarks of the blockstate Matchers, through {@link BlockAccess}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MatcherBenchmark {
+    // ------------------------------------------------------------------------
+    /**
+     * Generate the terrain, find its liquids and load the Matchers.
+     */
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        // The terrain dips below sea level around this chunk, so it has water.
+        _terrain = MemoryChunk.generate(Fixtures.WORLD, 6, 3, Fixtures.SEED, Fixtures.BIOMES);
+        _liquids = new int[65536];
+        int count = 0;
+        for (int y = 0; y < 256; ++y) {
+            for (int z = 0; z < 16; ++z) {
+                for (int x = 0; x < 16; ++x) {
+                    Material type = _terrain.getBlockType(x, y, z);
+                    if (type == Material.WATER || type == Material.LAVA) {
+                        _liquids[count++] = (y << 8) | (z << 4) | x;
+                    }
+                }
+            }
+        }
+        _liquids = Arrays.copyOf(_liquids, count);
+
+        Logger logger = Logger.getLogger(getClass().getName());
+        MemoryConfiguration liquid = new MemoryConfiguration();
+        liquid.set("unstable", true);
+        _liquidMatcher.load(liquid, logger);
+
+        MemoryConfiguration spawner = new MemoryConfiguration();
+        spawner.set("spawned-types", Arrays.asList("ZOMBIE", "SKELETON"));
+        _spawnerMatcher.load(spawner, logger);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Test every liquid block of a chunk for instability.
+     *
+     * @return the number of unstable liquid blocks.
+     */
+    @Benchmark
+    public int unstableLiquid() {
+        int matched = 0;
+        MemoryChunk.Block block = _terrain.getBlock();
+        for (int liquid : _liquids) {
+            block.moveTo(liquid & 15, liquid >>> 8, (liquid >>> 4) & 15);
+            if (_liquidMatcher.matches(block, null)) {
+                ++matched;
+            }
+        }
+        return matched;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Test spawners of all spawned types against a list of two types.
+     *
+     * @return the number of matching spawners.
+     */
+    @Benchmark
+    public int spawnedType() {
+        int matched = 0;
+        for (EntityType type : SPAWNED_TYPES) {
+            _spawner._spawnedType = type;
+            if (_spawnerMatcher.matches(_spawner, null)) {
+                ++matched;
+            }
+        }
+        return matched;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A single spawner block, whose spawned type is changed between tests.
+     */
+    static final class SpawnerBlock implements BlockAccess, SpawnerAccess {
+        @Override
+        public String getWorldName() {
+            return Fixtures.WORLD;
+        }
+
+        @Override
+        public int getX() {
+            return 0;
+        }
+
+        @Override
+        public int getY() {
+            return 32;
+        }
+
+        @Override
+        public int getZ() {
+            return 0;
+        }
+
+        @Override
+        public Material getType() {
+            return Material.SPAWNER;
+        }
+
+        @Override
+        public void setType(Material material) {
+        }
+
+        @Override
+        public int getLevel() {
+            return 0;
+        }
+
+        @Override
+        public Material getRelativeType(int dx, int dy, int dz) {
+            return null;
+        }
+
+        @Override
+        public SpawnerAccess getSpawner() {
+            return this;
+        }
+
+        @Override
+        public EntityType getSpawnedType() {
+            return _spawnedType;
+        }
+
+        @Override
+        public void setSpawnedType(EntityType type) {
+            _spawnedType = type;
+        }
+
+        @Override
+        public void setRequiredPlayerRange(int range) {
+        }
+
+        @Override
+        public void setMinSpawnDelay(int ticks) {
+        }
+
+        @Override
+        public void setMaxSpawnDelay(int ticks) {
+        }
+
+        @Override
+        public void setSpawnCount(int count) {
+        }
+
+        @Override
+        public void setSpawnRange(int range) {
+        }
+
+        @Override
+        public void setMaxNearbyEntities(int count) {
+        }
+
+        /**
+         * The type of entity spawned.
+         */
+        EntityType _spawnedType = EntityType.PIG;
+    } // class SpawnerBlock
+
+    // ------------------------------------------------------------------------
+    /**
+     * The spawned types of dungeon spawners, and some that are not.
+     */
+    private static final EntityType[] SPAWNED_TYPES = {
+        EntityType.ZOMBIE, EntityType.SKELETON, EntityType.SPIDER, EntityType.CAVE_SPIDER,
+        EntityType.BLAZE, EntityType.SILVERFISH, EntityType.PIG, EntityType.CREEPER
+    };
+
+    /**
+     * The terrain.
+     */
+    private MemoryChunk _terrain;
+
+    /**
+     * The packed (x, y, z) coordinates of the liquid blocks of the terrain.
+     */
+    private int[] _liquids;
+
+    /**
+     * Matches unstable liquid source blocks.
+     */
+    private final MatcherForLiquid _liquidMatcher = new MatcherForLiquid();
+
+    /**
+     * Matches zombie and skeleton spawners.
+     */
+    private final MatcherForSpawner _spawnerMatcher = new MatcherForSpawner();
+
+    /**
+     * The spawner tested by {@link #spawnedType()}.
+     */
+    private final SpawnerBlock _spawner = new SpawnerBlock();
+} // class MatcherBenchmark
@@ -0,0 +1,768 @@
+package nu.nerd.nerdore.benchmark;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.block.Biome;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.EntityType;
+
+import nu.nerd.nerdore.blockstate.BlockAccess;
+import nu.nerd.nerdore.blockstate.SpawnerAccess;
+
+// ----------------------------------------------------------------------------
+/**
+ * An in-memory block store for one chunk, filled with synthetic terrain.
+ *
+ * It serves both as the ChunkSnapshot that the scanners and planners read,
+ * and, through {@link #getBlock()}, as the {@link BlockAccess} that rules are
+ * applied to, so benchmarks measure NerdOre's code rather than the server's.
+ * Block types, liquid levels, spawner settings and biomes are stored.
+ */
+public class MemoryChunk implements ChunkSnapshot {
+    // ------------------------------------------------------------------------
+    /**
+     * Generate a chunk of synthetic overworld terrain with the default
+     * {@link Terrain} densities: caves, but no dungeons or liquid pockets.
+     *
+     * @param worldName the name of the world.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @param seed the terrain seed.
+     * @param biomes the biomes, assigned to 8 x 8 column quadrants in turn.
+     * @return the chunk.
+     */
+    public static MemoryChunk generate(String worldName, int chunkX, int chunkZ, long seed, Biome... biomes) {
+        return generate(worldName, chunkX, chunkZ, seed, new Terrain(), biomes);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Generate a chunk of synthetic overworld terrain.
+     *
+     * The terrain is bedrock at the bottom, then stone with patches of
+     * granite, diorite, andesite and gravel, scattered ores, pockets of water
+     * and lava, air caves and lava at the bottom of caves, and dungeon rooms
+     * with spawners, covered by dirt and grass around Y 64, with water up to
+     * sea level in hollows. The same arguments always produce the same
+     * blocks.
+     *
+     * @param worldName the name of the world.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @param seed the terrain seed.
+     * @param terrain the densities of terrain features.
+     * @param biomes the biomes, assigned to 8 x 8 column quadrants in turn.
+     * @return the chunk.
+     */
+    public static MemoryChunk generate(String worldName, int chunkX, int chunkZ, long seed, Terrain terrain,
+                                       Biome... biomes) {
+        MemoryChunk chunk = new MemoryChunk(worldName, chunkX, chunkZ);
+        Random random = new Random(seed ^ (chunkX * 341873128712L + chunkZ * 132897987541L));
+        for (int x = 0; x < 16; ++x) {
+            for (int z = 0; z < 16; ++z) {
+                chunk.setBiome(x, z, biomes[((x >> 3) + 2 * (z >> 3)) % biomes.length]);
+
+                double worldX = chunkX * 16 + x;
+                double worldZ = chunkZ * 16 + z;
+                int surface = 64 + (int) (4 * Math.sin(worldX / 23.0) + 3 * Math.cos(worldZ / 17.0));
+                chunk.setBlockType(x, 0, z, Material.BEDROCK);
+                for (int y = 1; y <= surface; ++y) {
+                    chunk.setBlockType(x, y, z, getUndergroundType(random, y, surface));
+                }
+                for (int y = surface + 1; y <= SEA_LEVEL; ++y) {
+                    chunk.setBlockType(x, y, z, Material.WATER);
+                }
+            }
+        }
+
+        // Embed pockets of liquid in the stone, partly flowing.
+        int pockets = count(random, terrain.LIQUID_POCKETS_PER_CHUNK);
+        for (int p = 0; p < pockets; ++p) {
+            int cy = 5 + random.nextInt(56);
+            Material liquid = (cy < 32) ? Material.LAVA : Material.WATER;
+            fillSphere(chunk, random.nextInt(16), cy, random.nextInt(16), 1 + random.nextInt(2), (x, y, z) -> {
+                chunk.setBlockType(x, y, z, liquid);
+                if (random.nextDouble() < terrain.FLOWING_FRACTION) {
+                    chunk.setLevel(x, y, z, 1 + random.nextInt(7));
+                }
+            });
+        }
+
+        // Carve spherical caves, flooding their floors with lava when deep.
+        int caves = terrain.MIN_CAVES + random.nextInt(Math.max(1, terrain.MAX_CAVES - terrain.MIN_CAVES + 1));
+        for (int c = 0; c < caves; ++c) {
+            fillSphere(chunk, random.nextInt(16), 8 + random.nextInt(40), random.nextInt(16), 2 + random.nextInt(4),
+                       (x, y, z) -> chunk.setBlockType(x, y, z, (y < LAVA_LEVEL) ? Material.LAVA : Material.CAVE_AIR));
+        }
+
+        // Hollow out dungeon rooms with a spawner in the middle of the floor.
+        int dungeons = count(random, terrain.SPAWNERS_PER_CHUNK);
+        for (int d = 0; d < dungeons; ++d) {
+            int cx = 3 + random.nextInt(10);
+            int cy = 12 + random.nextInt(40);
+            int cz = 3 + random.nextInt(10);
+            for (int x = cx - 2; x <= cx + 2; ++x) {
+                for (int y = cy; y < cy + 4; ++y) {
+                    for (int z = cz - 2; z <= cz + 2; ++z) {
+                        chunk.setBlockType(x, y, z, Material.CAVE_AIR);
+                    }
+                }
+            }
+            chunk.setBlockType(cx, cy, cz, Material.SPAWNER);
+            chunk.getSpawner(cx, cy, cz).setSpawnedType(DUNGEON_MOBS[random.nextInt(DUNGEON_MOBS.length)]);
+        }
+        return chunk;
+    } // generate
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * The chunk is initially all air, in plains.
+     *
+     * @param worldName the name of the world.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     */
+    public MemoryChunk(String worldName, int chunkX, int chunkZ) {
+        _worldName = worldName;
+        _x = chunkX;
+        _z = chunkZ;
+        Arrays.fill(_blocks, Material.AIR);
+        Arrays.fill(_biomes, Biome.PLAINS);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Copy the blocks and biomes of another chunk into this one, e.g. to
+     * restore a chunk between benchmark invocations.
+     *
+     * @param other the other chunk.
+     */
+    public void copyFrom(MemoryChunk other) {
+        System.arraycopy(other._blocks, 0, _blocks, 0, _blocks.length);
+        System.arraycopy(other._levels, 0, _levels, 0, _levels.length);
+        System.arraycopy(other._biomes, 0, _biomes, 0, _biomes.length);
+        _spawners.clear();
+        for (Map.Entry<Integer, Spawner> entry : other._spawners.entrySet()) {
+            _spawners.put(entry.getKey(), entry.getValue().copy());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a copy of this chunk.
+     *
+     * @return the copy.
+     */
+    public MemoryChunk copy() {
+        MemoryChunk copy = new MemoryChunk(_worldName, _x, _z);
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the type of a block.
+     *
+     * Liquids are placed as source blocks, and the settings of a replaced
+     * spawner are discarded.
+     *
+     * @param x the chunk-relative X coordinate, [0,15].
+     * @param y the Y coordinate, [0,255].
+     * @param z the chunk-relative Z coordinate, [0,15].
+     * @param material the Material.
+     */
+    public void setBlockType(int x, int y, int z, Material material) {
+        int index = index(x, y, z);
+        if (_blocks[index] == Material.SPAWNER) {
+            _spawners.remove(index);
+        }
+        _blocks[index] = material;
+        _levels[index] = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the level of a liquid block: 0 for a source block.
+     *
+     * @param x the chunk-relative X coordinate, [0,15].
+     * @param y the Y coordinate, [0,255].
+     * @param z the chunk-relative Z coordinate, [0,15].
+     * @return the level.
+     */
+    public int getLevel(int x, int y, int z) {
+        return _levels[index(x, y, z)];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the level of a liquid block.
+     *
+     * @param x the chunk-relative X coordinate, [0,15].
+     * @param y the Y coordinate, [0,255].
+     * @param z the chunk-relative Z coordinate, [0,15].
+     * @param level the level: 0 for a source block, up to 15.
+     */
+    public void setLevel(int x, int y, int z, int level) {
+        _levels[index(x, y, z)] = (byte) level;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the settings of a spawner block, creating the default settings
+     * of a new spawner if necessary.
+     *
+     * @param x the chunk-relative X coordinate, [0,15].
+     * @param y the Y coordinate, [0,255].
+     * @param z the chunk-relative Z coordinate, [0,15].
+     * @return the spawner, or null if the block is not a spawner.
+     */
+    public Spawner getSpawner(int x, int y, int z) {
+        int index = index(x, y, z);
+        return (_blocks[index] == Material.SPAWNER) ? _spawners.computeIfAbsent(index, k -> new Spawner()) : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the biome of a column.
+     *
+     * @param x the chunk-relative X coordinate, [0,15].
+     * @param z the chunk-relative Z coordinate, [0,15].
+     * @param biome the biome.
+     */
+    public void setBiome(int x, int z, Biome biome) {
+        _biomes[(x << 4) | z] = biome;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a {@link BlockAccess} for the blocks of this chunk, initially at
+     * (0, 0, 0).
+     *
+     * @return the block access.
+     */
+    public Block getBlock() {
+        return new Block();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A movable {@link BlockAccess} for one block of the chunk.
+     */
+    public final class Block implements BlockAccess {
+        /**
+         * Move to another block of the chunk.
+         *
+         * @param x the chunk-relative X coordinate, [0,15].
+         * @param y the Y coordinate, [0,255].
+         * @param z the chunk-relative Z coordinate, [0,15].
+         * @return this block.
+         */
+        public Block moveTo(int x, int y, int z) {
+            _bx = x;
+            _by = y;
+            _bz = z;
+            return this;
+        }
+
+        @Override
+        public String getWorldName() {
+            return _worldName;
+        }
+
+        @Override
+        public int getX() {
+            return _x * 16 + _bx;
+        }
+
+        @Override
+        public int getY() {
+            return _by;
+        }
+
+        @Override
+        public int getZ() {
+            return _z * 16 + _bz;
+        }
+
+        @Override
+        public Material getType() {
+            return _blocks[index(_bx, _by, _bz)];
+        }
+
+        @Override
+        public void setType(Material material) {
+            setBlockType(_bx, _by, _bz, material);
+        }
+
+        @Override
+        public int getLevel() {
+            return _levels[index(_bx, _by, _bz)];
+        }
+
+        @Override
+        public Material getRelativeType(int dx, int dy, int dz) {
+            int x = _bx + dx;
+            int y = _by + dy;
+            int z = _bz + dz;
+            return (x < 0 || x > 15 || y < 0 || y > 255 || z < 0 || z > 15) ? null : _blocks[index(x, y, z)];
+        }
+
+        @Override
+        public SpawnerAccess getSpawner() {
+            return MemoryChunk.this.getSpawner(_bx, _by, _bz);
+        }
+
+        /**
+         * The chunk-relative X coordinate.
+         */
+        int _bx;
+
+        /**
+         * The Y coordinate.
+         */
+        int _by;
+
+        /**
+         * The chunk-relative Z coordinate.
+         */
+        int _bz;
+    } // class Block
+
+    // ------------------------------------------------------------------------
+    /**
+     * The settings of a spawner, with the defaults of a new spawner.
+     */
+    public static final class Spawner implements SpawnerAccess {
+        /**
+         * Return a copy of these settings.
+         *
+         * @return the copy.
+         */
+        public Spawner copy() {
+            Spawner copy = new Spawner();
+            copy.copyFrom(this);
+            return copy;
+        }
+
+        /**
+         * Replace these settings with a copy of others.
+         *
+         * @param other the other settings.
+         */
+        public void copyFrom(Spawner other) {
+            _spawnedType = other._spawnedType;
+            _requiredPlayerRange = other._requiredPlayerRange;
+            _minSpawnDelay = other._minSpawnDelay;
+            _maxSpawnDelay = other._maxSpawnDelay;
+            _spawnCount = other._spawnCount;
+            _spawnRange = other._spawnRange;
+            _maxNearbyEntities = other._maxNearbyEntities;
+        }
+
+        @Override
+        public EntityType getSpawnedType() {
+            return _spawnedType;
+        }
+
+        @Override
+        public void setSpawnedType(EntityType type) {
+            _spawnedType = type;
+        }
+
+        public int getRequiredPlayerRange() {
+            return _requiredPlayerRange;
+        }
+
+        @Override
+        public void setRequiredPlayerRange(int range) {
+            _requiredPlayerRange = range;
+        }
+
+        public int getMinSpawnDelay() {
+            return _minSpawnDelay;
+        }
+
+        @Override
+        public void setMinSpawnDelay(int ticks) {
+            _minSpawnDelay = ticks;
+        }
+
+        public int getMaxSpawnDelay() {
+            return _maxSpawnDelay;
+        }
+
+        @Override
+        public void setMaxSpawnDelay(int ticks) {
+            _maxSpawnDelay = ticks;
+        }
+
+        public int getSpawnCount() {
+            return _spawnCount;
+        }
+
+        @Override
+        public void setSpawnCount(int count) {
+            _spawnCount = count;
+        }
+
+        public int getSpawnRange() {
+            return _spawnRange;
+        }
+
+        @Override
+        public void setSpawnRange(int range) {
+            _spawnRange = range;
+        }
+
+        public int getMaxNearbyEntities() {
+            return _maxNearbyEntities;
+        }
+
+        @Override
+        public void setMaxNearbyEntities(int count) {
+            _maxNearbyEntities = count;
+        }
+
+        /**
+         * The type of entity spawned.
+         */
+        EntityType _spawnedType = EntityType.PIG;
+
+        /**
+         * The distance within which a player activates the spawner.
+         */
+        int _requiredPlayerRange = 16;
+
+        /**
+         * The minimum delay between spawns, in ticks.
+         */
+        int _minSpawnDelay = 200;
+
+        /**
+         * The maximum delay between spawns, in ticks.
+         */
+        int _maxSpawnDelay = 800;
+
+        /**
+         * The number of entities spawned at once.
+         */
+        int _spawnCount = 4;
+
+        /**
+         * The horizontal distance from the spawner within which entities
+         * spawn.
+         */
+        int _spawnRange = 4;
+
+        /**
+         * The number of nearby entities above which spawning stops.
+         */
+        int _maxNearbyEntities = 6;
+    } // class Spawner
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see ChunkSnapshot#getX()
+     */
+    @Override
+    public int getX() {
+        return _x;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see ChunkSnapshot#getZ()
+     */
+    @Override
+    public int getZ() {
+        return _z;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see ChunkSnapshot#getWorldName()
+     */
+    @Override
+    public String getWorldName() {
+        return _worldName;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see ChunkSnapshot#getBlockType(int, int, int)
+     */
+    @Override
+    public Material getBlockType(int x, int y, int z) {
+        return _blocks[index(x, y, z)];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Block data requires a server.
+     *
+     * @see ChunkSnapshot#getBlockData(int, int, int)
+     */
+    @Override
+    public BlockData getBlockData(int x, int y, int z) {
+        throw new UnsupportedOperationException("block data requires a server");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see ChunkSnapshot#getData(int, int, int)
+     */
+    @Override
+    @Deprecated
+    public int getData(int x, int y, int z) {
+        return 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see ChunkSnapshot#getBlockSkyLight(int, int, int)
+     */
+    @Override
+    public int getBlockSkyLight(int x, int y, int z) {
+        return 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see ChunkSnapshot#getBlockEmittedLight(int, int, int)
+     */
+    @Override
+    public int getBlockEmittedLight(int x, int y, int z) {
+        return 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see ChunkSnapshot#getHighestBlockYAt(int, int)
+     */
+    @Override
+    public int getHighestBlockYAt(int x, int z) {
+        for (int y = 255; y >= 0; --y) {
+            Material type = getBlockType(x, y, z);
+            if (type != Material.AIR && type != Material.CAVE_AIR) {
+                return y + 1;
+            }
+        }
+        return 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see ChunkSnapshot#getBiome(int, int)
+     */
+    @Override
+    public Biome getBiome(int x, int z) {
+        return _biomes[(x << 4) | z];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see ChunkSnapshot#getRawBiomeTemperature(int, int)
+     */
+    @Override
+    public double getRawBiomeTemperature(int x, int z) {
+        return 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see ChunkSnapshot#getRawBiomeRainfall(int, int)
+     */
+    @Override
+    public double getRawBiomeRainfall(int x, int z) {
+        return 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see ChunkSnapshot#getCaptureFullTime()
+     */
+    @Override
+    public long getCaptureFullTime() {
+        return 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see ChunkSnapshot#isSectionEmpty(int)
+     */
+    @Override
+    public boolean isSectionEmpty(int sy) {
+        for (int i = sy << 12; i < (sy + 1) << 12; ++i) {
+            if (_blocks[i] != Material.AIR) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * An action on one block of a generated feature.
+     */
+    protected interface BlockAction {
+        /**
+         * Act on one block.
+         *
+         * @param x the chunk-relative X coordinate, [0,15].
+         * @param y the Y coordinate, [1,255].
+         * @param z the chunk-relative Z coordinate, [0,15].
+         */
+        void apply(int x, int y, int z);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of features to generate in a chunk, given their
+     * expected number per chunk.
+     *
+     * @param random the terrain Random.
+     * @param density the expected number per chunk.
+     * @return the number of features.
+     */
+    protected static int count(Random random, double density) {
+        int count = (int) density;
+        return (random.nextDouble() < density - count) ? count + 1 : count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Apply an action to every block of a sphere that lies in the chunk,
+     * above bedrock.
+     *
+     * @param chunk the chunk.
+     * @param cx the chunk-relative X coordinate of the centre.
+     * @param cy the Y coordinate of the centre.
+     * @param cz the chunk-relative Z coordinate of the centre.
+     * @param radius the radius.
+     * @param action the action.
+     */
+    protected static void fillSphere(MemoryChunk chunk, int cx, int cy, int cz, int radius, BlockAction action) {
+        for (int x = Math.max(0, cx - radius); x <= Math.min(15, cx + radius); ++x) {
+            for (int y = Math.max(1, cy - radius); y <= Math.min(255, cy + radius); ++y) {
+                for (int z = Math.max(0, cz - radius); z <= Math.min(15, cz + radius); ++z) {
+                    int dx = x - cx;
+                    int dy = y - cy;
+                    int dz = z - cz;
+                    if (dx * dx + dy * dy + dz * dz <= radius * radius) {
+                        action.apply(x, y, z);
+                    }
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Material of an underground block of the synthetic terrain.
+     *
+     * @param random the terrain Random.
+     * @param y the Y coordinate.
+     * @param surface the Y coordinate of the surface of the column.
+     * @return the Material.
+     */
+    protected static Material getUndergroundType(Random random, int y, int surface) {
+        if (y == surface) {
+            return (surface >= SEA_LEVEL) ? Material.GRASS_BLOCK : Material.DIRT;
+        } else if (y > surface - 4) {
+            return Material.DIRT;
+        }
+
+        double r = random.nextDouble();
+        if (y < 16 && r < 0.001) {
+            return Material.DIAMOND_ORE;
+        } else if (y < 16 && r < 0.01) {
+            return Material.REDSTONE_ORE;
+        } else if (y < 32 && r < 0.012) {
+            return Material.GOLD_ORE;
+        } else if (y < 64 && r < 0.02) {
+            return Material.IRON_ORE;
+        } else if (r < 0.035) {
+            return Material.COAL_ORE;
+        } else if (r < 0.06) {
+            return Material.GRANITE;
+        } else if (r < 0.085) {
+            return Material.DIORITE;
+        } else if (r < 0.11) {
+            return Material.ANDESITE;
+        } else if (r < 0.12) {
+            return Material.GRAVEL;
+        }
+        return Material.STONE;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of a block in _blocks.
+     *
+     * @param x the chunk-relative X coordinate, [0,15].
+     * @param y the Y coordinate, [0,255].
+     * @param z the chunk-relative Z coordinate, [0,15].
+     * @return the index.
+     */
+    protected static int index(int x, int y, int z) {
+        return (y << 8) | (z << 4) | x;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The Y coordinate of the surface of oceans.
+     */
+    public static final int SEA_LEVEL = 62;
+
+    /**
+     * Caves below this Y coordinate are filled with lava.
+     */
+    public static final int LAVA_LEVEL = 11;
+
+    /**
+     * The mobs spawned by dungeon spawners.
+     */
+    protected static final EntityType[] DUNGEON_MOBS = { EntityType.ZOMBIE, EntityType.SKELETON, EntityType.SPIDER };
+
+    /**
+     * The name of the world.
+     */
+    protected final String _worldName;
+
+    /**
+     * The chunk X coordinate.
+     */
+    protected final int _x;
+
+    /**
+     * The chunk Z coordinate.
+     */
+    protected final int _z;
+
+    /**
+     * The type of each block, indexed by {@link #index(int, int, int)}.
+     */
+    protected final Material[] _blocks = new Material[65536];
+
+    /**
+     * The level of each liquid block, indexed like _blocks.
+     */
+    protected final byte[] _levels = new byte[65536];
+
+    /**
+     * The settings of spawners, indexed like _blocks.
+     */
+    protected final Map<Integer, Spawner> _spawners = new HashMap<>();
+
+    /**
+     * The biome of each column, indexed by (x << 4) | z.
+     */
+    protected final Biome[] _biomes = new Biome[256];
+} // class MemoryChunk
@@ -0,0 +1,688 @@
+package nu.nerd.nerdore.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Biome;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.CreatureSpawner;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.Levelled;
+import org.bukkit.entity.EntityType;
+import org.bukkit.generator.BlockPopulator;
+
+import nu.nerd.nerdore.Util;
+
+// ----------------------------------------------------------------------------
+/**
+ * An in-memory World of {@link MemoryChunk}s, so that
+ * {@link nu.nerd.nerdore.OreTask} can run without a server.
+ *
+ * The World, Chunk, Block, BlockState, CreatureSpawner and BlockData objects
+ * handed out are dynamic proxies that implement the part of those Bukkit
+ * interfaces that NerdOre uses; any other method throws an
+ * UnsupportedOperationException naming the method. As on the server, a new
+ * Block is created by every lookup, BlockStates and BlockData are copies
+ * that are written back by update() or setBlockData(), and chunk snapshots
+ * are copies.
+ *
+ * Every chunk exists; chunks are generated from synthetic {@link Terrain}
+ * when first needed, and keep their blocks when unloaded. All methods must be
+ * called from one thread, except that chunk snapshots may be read anywhere.
+ */
+public class MemoryWorld {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param name the name of the world.
+     * @param seed the world seed, which also seeds the terrain.
+     * @param terrain the densities of terrain features.
+     * @param biomes the biomes of generated chunks, assigned to 8 x 8 column
+     *        quadrants in turn.
+     */
+    public MemoryWorld(String name, long seed, Terrain terrain, Biome... biomes) {
+        _name = name;
+        _seed = seed;
+        _terrain = terrain;
+        _biomes = biomes;
+        _world = proxy(World.class, this::invokeWorld);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Bukkit World view of this world.
+     *
+     * @return the World.
+     */
+    public World getWorld() {
+        return _world;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the name of this world.
+     *
+     * @return the name.
+     */
+    public String getName() {
+        return _name;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Generate the chunks in a box of chunk coordinates, without loading them,
+     * so that terrain generation is not measured along with processing.
+     *
+     * @param minX the minimum chunk X coordinate.
+     * @param minZ the minimum chunk Z coordinate.
+     * @param maxX the maximum chunk X coordinate.
+     * @param maxZ the maximum chunk Z coordinate.
+     */
+    public void generate(int minX, int minZ, int maxX, int maxZ) {
+        for (int x = minX; x <= maxX; ++x) {
+            for (int z = minZ; z <= maxZ; ++z) {
+                getMemoryChunk(x, z);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the blocks of a chunk, generating them if necessary.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return the chunk's blocks.
+     */
+    public MemoryChunk getMemoryChunk(int chunkX, int chunkZ) {
+        return _chunks.computeIfAbsent(Util.chunkKey(chunkX, chunkZ),
+                                       k -> MemoryChunk.generate(_name, chunkX, chunkZ, _seed, _terrain, _biomes));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of loaded chunks.
+     *
+     * @return the number of loaded chunks.
+     */
+    public int getLoadedChunkCount() {
+        return _loaded.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of calls to Block.setType() and
+     * Block.setBlockData().
+     *
+     * @return the number of block changes.
+     */
+    public long getChangedBlocks() {
+        return _changedBlocks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of blocks of a Material placed through
+     * Block.setType() or Block.setBlockData().
+     *
+     * @param material the Material.
+     * @return the number of blocks placed.
+     */
+    public long getPlaced(Material material) {
+        return _placed[material.ordinal()];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle a call to the World.
+     */
+    protected Object invokeWorld(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+        case "getName":
+            return _name;
+        case "getUID":
+            return UUID.nameUUIDFromBytes(_name.getBytes(StandardCharsets.UTF_8));
+        case "getSeed":
+            return _seed;
+        case "getMaxHeight":
+            return 256;
+        case "getEnvironment":
+            return World.Environment.NORMAL;
+        case "getBiome":
+            return getMemoryChunk((int) args[0] >> 4, (int) args[1] >> 4).getBiome((int) args[0] & 15,
+                                                                                 (int) args[1] & 15);
+        case "getChunkAt":
+            if (args.length == 2) {
+                return load((int) args[0], (int) args[1]);
+            }
+            break;
+        case "getBlockAt":
+            if (args.length == 3) {
+                return getBlockAt((int) args[0], (int) args[1], (int) args[2]);
+            }
+            break;
+        case "isChunkLoaded":
+            if (args.length == 2) {
+                return _loaded.contains(Util.chunkKey((int) args[0], (int) args[1]));
+            }
+            break;
+        case "isChunkGenerated":
+            return true;
+        case "isChunkInUse":
+            return false;
+        case "loadChunk":
+            if (args.length >= 2 && args[0] instanceof Integer) {
+                load((int) args[0], (int) args[1]);
+                return (method.getReturnType() == boolean.class) ? Boolean.TRUE : null;
+            }
+            break;
+        case "unloadChunk":
+        case "unloadChunkRequest":
+            if (args.length >= 2 && args[0] instanceof Integer) {
+                return _loaded.remove(Util.chunkKey((int) args[0], (int) args[1]));
+            }
+            break;
+        case "getLoadedChunks":
+            return _loaded.stream().map(key -> load(Util.chunkX(key), Util.chunkZ(key))).toArray(Chunk[]::new);
+        case "getPlayers":
+            return Collections.emptyList();
+        case "getPopulators":
+            return _populators;
+        }
+        return invokeObject(proxy, method, args, "MemoryWorld{name=" + _name + "}");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load a chunk, generating it if necessary, and return its Chunk.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return the Chunk.
+     */
+    protected Chunk load(int chunkX, int chunkZ) {
+        long key = Util.chunkKey(chunkX, chunkZ);
+        _loaded.add(key);
+        return _chunkViews.computeIfAbsent(key, k -> {
+            MemoryChunk chunk = getMemoryChunk(chunkX, chunkZ);
+            return proxy(Chunk.class, (proxy, method, args) -> invokeChunk(proxy, method, args, chunk));
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle a call to a Chunk.
+     */
+    protected Object invokeChunk(Object proxy, Method method, Object[] args, MemoryChunk chunk) {
+        long key = Util.chunkKey(chunk.getX(), chunk.getZ());
+        switch (method.getName()) {
+        case "getX":
+            return chunk.getX();
+        case "getZ":
+            return chunk.getZ();
+        case "getWorld":
+            return _world;
+        case "getBlock":
+            return getBlock(chunk, chunk.getX() * 16 + (int) args[0], (int) args[1], chunk.getZ() * 16 + (int) args[2]);
+        case "getChunkSnapshot":
+            return chunk.copy();
+        case "isLoaded":
+            return _loaded.contains(key);
+        case "load":
+            _loaded.add(key);
+            return true;
+        case "unload":
+            return _loaded.remove(key);
+        case "getTileEntities":
+            List<BlockState> states = new ArrayList<>();
+            for (int index : chunk._spawners.keySet()) {
+                states.add(getBlock(chunk, chunk.getX() * 16 + (index & 15), index >>> 8,
+                                    chunk.getZ() * 16 + ((index >>> 4) & 15)).getState());
+            }
+            return states.toArray(new BlockState[states.size()]);
+        }
+        return invokeObject(proxy, method, args,
+                            "MemoryChunk{world=" + _name + ",x=" + chunk.getX() + ",z=" + chunk.getZ() + "}");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a new Block at the specified world coordinates, loading its chunk.
+     *
+     * @param x the world X coordinate.
+     * @param y the world Y coordinate.
+     * @param z the world Z coordinate.
+     * @return the Block.
+     */
+    protected Block getBlockAt(int x, int y, int z) {
+        load(x >> 4, z >> 4);
+        return getBlock(getMemoryChunk(x >> 4, z >> 4), x, y, z);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a new Block in the specified chunk.
+     *
+     * @param chunk the chunk.
+     * @param x the world X coordinate.
+     * @param y the world Y coordinate.
+     * @param z the world Z coordinate.
+     * @return the Block.
+     */
+    protected Block getBlock(MemoryChunk chunk, int x, int y, int z) {
+        return proxy(Block.class, (proxy, method, args) -> invokeBlock((Block) proxy, method, args, chunk, x, y, z));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle a call to a Block.
+     */
+    protected Object invokeBlock(Block proxy, Method method, Object[] args, MemoryChunk chunk, int x, int y, int z) {
+        int bx = x & 15;
+        int bz = z & 15;
+        switch (method.getName()) {
+        case "getType":
+            return chunk.getBlockType(bx, y, bz);
+        case "setType":
+            setType(chunk, bx, y, bz, (Material) args[0], 0);
+            return null;
+        case "getBlockData":
+            return newBlockData(chunk.getBlockType(bx, y, bz), chunk.getLevel(bx, y, bz));
+        case "setBlockData":
+            BlockData data = (BlockData) args[0];
+            setType(chunk, bx, y, bz, data.getMaterial(), (data instanceof Levelled) ? ((Levelled) data).getLevel() : 0);
+            return null;
+        case "getState":
+            return newBlockState(proxy, chunk, bx, y, bz);
+        case "getX":
+            return x;
+        case "getY":
+            return y;
+        case "getZ":
+            return z;
+        case "getWorld":
+            return _world;
+        case "getChunk":
+            return load(chunk.getX(), chunk.getZ());
+        case "getBiome":
+            return chunk.getBiome(bx, bz);
+        case "getLocation":
+            if (args == null) {
+                return new Location(_world, x, y, z);
+            }
+            break;
+        case "getRelative":
+            if (args.length == 1) {
+                BlockFace face = (BlockFace) args[0];
+                return getBlockAt(x + face.getModX(), y + face.getModY(), z + face.getModZ());
+            } else if (args.length == 3) {
+                return getBlockAt(x + (int) args[0], y + (int) args[1], z + (int) args[2]);
+            }
+            break;
+        case "isEmpty":
+            Material type = chunk.getBlockType(bx, y, bz);
+            return type == Material.AIR || type == Material.CAVE_AIR;
+        case "isLiquid":
+            type = chunk.getBlockType(bx, y, bz);
+            return type == Material.WATER || type == Material.LAVA;
+        }
+        return invokeObject(proxy, method, args, "MemoryBlock{world=" + _name + ",x=" + x + ",y=" + y + ",z=" + z +
+                                                 ",type=" + chunk.getBlockType(bx, y, bz) + "}");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Change a block and count the change.
+     *
+     * @param chunk the chunk.
+     * @param x the chunk-relative X coordinate.
+     * @param y the Y coordinate.
+     * @param z the chunk-relative Z coordinate.
+     * @param material the new Material.
+     * @param level the new liquid level.
+     */
+    protected void setType(MemoryChunk chunk, int x, int y, int z, Material material, int level) {
+        chunk.setBlockType(x, y, z, material);
+        chunk.setLevel(x, y, z, level);
+        ++_changedBlocks;
+        ++_placed[material.ordinal()];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a new BlockState holding a copy of the state of a block: a
+     * CreatureSpawner for a spawner.
+     *
+     * @param block the Block.
+     * @param chunk the chunk.
+     * @param x the chunk-relative X coordinate.
+     * @param y the Y coordinate.
+     * @param z the chunk-relative Z coordinate.
+     * @return the BlockState.
+     */
+    protected BlockState newBlockState(Block block, MemoryChunk chunk, int x, int y, int z) {
+        Material type = chunk.getBlockType(x, y, z);
+        MemoryChunk.Spawner spawner = chunk.getSpawner(x, y, z);
+        State state = new State(block, chunk, x, y, z, type, chunk.getLevel(x, y, z),
+                                (spawner != null) ? spawner.copy() : null);
+        return (spawner != null) ? proxy(CreatureSpawner.class, state) : proxy(BlockState.class, state);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return new BlockData: Levelled for a liquid.
+     *
+     * @param material the Material.
+     * @param level the liquid level.
+     * @return the BlockData.
+     */
+    protected static BlockData newBlockData(Material material, int level) {
+        int[] currentLevel = { level };
+        boolean liquid = (material == Material.WATER || material == Material.LAVA);
+        InvocationHandler handler = (proxy, method, args) -> {
+            switch (method.getName()) {
+            case "getMaterial":
+                return material;
+            case "getLevel":
+                return currentLevel[0];
+            case "setLevel":
+                currentLevel[0] = (int) args[0];
+                return null;
+            case "getMaximumLevel":
+                return 15;
+            case "getAsString":
+                return "minecraft:" + material.name().toLowerCase() + (liquid ? "[level=" + currentLevel[0] + "]" : "");
+            case "clone":
+                return newBlockData(material, currentLevel[0]);
+            }
+            return invokeObject(proxy, method, args, "MemoryBlockData{" + material + "}");
+        };
+        return liquid ? proxy(Levelled.class, handler) : proxy(BlockData.class, handler);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle the methods of Object, and reject all others.
+     *
+     * Proxies are equal only to themselves.
+     */
+    protected static Object invokeObject(Object proxy, Method method, Object[] args, String description) {
+        switch (method.getName()) {
+        case "equals":
+            return proxy == args[0];
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        case "toString":
+            return description;
+        }
+        throw new UnsupportedOperationException(method.getDeclaringClass().getSimpleName() + "." + method.getName() +
+                                                "() is not implemented by " + MemoryWorld.class.getSimpleName());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create a proxy instance of an interface.
+     *
+     * @param type the interface.
+     * @param handler the invocation handler.
+     * @return the proxy.
+     */
+    @SuppressWarnings("unchecked")
+    protected static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(MemoryWorld.class.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The copied state of a block, behind a BlockState or CreatureSpawner
+     * proxy.
+     */
+    protected final class State implements InvocationHandler {
+        /**
+         * Constructor.
+         *
+         * @param block the Block.
+         * @param chunk the chunk.
+         * @param x the chunk-relative X coordinate.
+         * @param y the Y coordinate.
+         * @param z the chunk-relative Z coordinate.
+         * @param type the Material.
+         * @param level the liquid level.
+         * @param spawner a copy of the spawner settings, or null if not a
+         *        spawner.
+         */
+        State(Block block, MemoryChunk chunk, int x, int y, int z, Material type, int level,
+              MemoryChunk.Spawner spawner) {
+            _block = block;
+            _chunk = chunk;
+            _x = x;
+            _y = y;
+            _z = z;
+            _type = type;
+            _level = level;
+            _spawner = spawner;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+            case "getBlock":
+                return _block;
+            case "getType":
+                return _type;
+            case "setType":
+                _type = (Material) args[0];
+                _level = 0;
+                return null;
+            case "getBlockData":
+                return newBlockData(_type, _level);
+            case "setBlockData":
+                BlockData data = (BlockData) args[0];
+                _type = data.getMaterial();
+                _level = (data instanceof Levelled) ? ((Levelled) data).getLevel() : 0;
+                return null;
+            case "update":
+                return update(args != null && args.length > 0 && (boolean) args[0]);
+            case "getX":
+                return _block.getX();
+            case "getY":
+                return _block.getY();
+            case "getZ":
+                return _block.getZ();
+            case "getWorld":
+                return _world;
+            case "getChunk":
+                return _block.getChunk();
+            case "getLocation":
+                if (args == null) {
+                    return _block.getLocation();
+                }
+                break;
+            case "isPlaced":
+                return true;
+            }
+            if (_spawner != null) {
+                switch (method.getName()) {
+                case "getSpawnedType":
+                    return _spawner.getSpawnedType();
+                case "setSpawnedType":
+                    _spawner.setSpawnedType((EntityType) args[0]);
+                    return null;
+                case "getRequiredPlayerRange":
+                    return _spawner.getRequiredPlayerRange();
+                case "setRequiredPlayerRange":
+                    _spawner.setRequiredPlayerRange((int) args[0]);
+                    return null;
+                case "getMinSpawnDelay":
+                    return _spawner.getMinSpawnDelay();
+                case "setMinSpawnDelay":
+                    _spawner.setMinSpawnDelay((int) args[0]);
+                    return null;
+                case "getMaxSpawnDelay":
+                    return _spawner.getMaxSpawnDelay();
+                case "setMaxSpawnDelay":
+                    _spawner.setMaxSpawnDelay((int) args[0]);
+                    return null;
+                case "getSpawnCount":
+                    return _spawner.getSpawnCount();
+                case "setSpawnCount":
+                    _spawner.setSpawnCount((int) args[0]);
+                    return null;
+                case "getSpawnRange":
+                    return _spawner.getSpawnRange();
+                case "setSpawnRange":
+                    _spawner.setSpawnRange((int) args[0]);
+                    return null;
+                case "getMaxNearbyEntities":
+                    return _spawner.getMaxNearbyEntities();
+                case "setMaxNearbyEntities":
+                    _spawner.setMaxNearbyEntities((int) args[0]);
+                    return null;
+                case "getDelay":
+                    return 20;
+                case "setDelay":
+                    return null;
+                }
+            }
+            return invokeObject(proxy, method, args, "MemoryBlockState{" + _block + "}");
+        }
+
+        /**
+         * Write this state back to the block, as BlockState.update(boolean).
+         *
+         * @param force if true, write the state even if the block's type has
+         *        changed since the state was copied.
+         * @return true if the state was written.
+         */
+        boolean update(boolean force) {
+            Material current = _chunk.getBlockType(_x, _y, _z);
+            if (current != _type) {
+                if (!force) {
+                    return false;
+                }
+                setType(_chunk, _x, _y, _z, _type, _level);
+            } else {
+                _chunk.setLevel(_x, _y, _z, _level);
+            }
+
+            MemoryChunk.Spawner spawner = _chunk.getSpawner(_x, _y, _z);
+            if (spawner != null && _spawner != null) {
+                spawner.copyFrom(_spawner);
+            }
+            return true;
+        }
+
+        /**
+         * The Block.
+         */
+        final Block _block;
+
+        /**
+         * The chunk.
+         */
+        final MemoryChunk _chunk;
+
+        /**
+         * The chunk-relative X coordinate.
+         */
+        final int _x;
+
+        /**
+         * The Y coordinate.
+         */
+        final int _y;
+
+        /**
+         * The chunk-relative Z coordinate.
+         */
+        final int _z;
+
+        /**
+         * The Material.
+         */
+        Material _type;
+
+        /**
+         * The liquid level.
+         */
+        int _level;
+
+        /**
+         * The copied spawner settings, or null if not a spawner.
+         */
+        final MemoryChunk.Spawner _spawner;
+    } // class State
+
+    // ------------------------------------------------------------------------
+    /**
+     * The name of the world.
+     */
+    protected final String _name;
+
+    /**
+     * The world seed.
+     */
+    protected final long _seed;
+
+    /**
+     * The densities of terrain features.
+     */
+    protected final Terrain _terrain;
+
+    /**
+     * The biomes of generated chunks.
+     */
+    protected final Biome[] _biomes;
+
+    /**
+     * The Bukkit World view.
+     */
+    protected final World _world;
+
+    /**
+     * The generated chunks, by {@link Util#chunkKey(int, int)}.
+     */
+    protected final Map<Long, MemoryChunk> _chunks = new HashMap<>();
+
+    /**
+     * The Chunk views of chunks that have been loaded, by chunk key.
+     */
+    protected final Map<Long, Chunk> _chunkViews = new HashMap<>();
+
+    /**
+     * The keys of the loaded chunks.
+     */
+    protected final Set<Long> _loaded = new HashSet<>();
+
+    /**
+     * The BlockPopulators returned by World.getPopulators().
+     */
+    protected final List<BlockPopulator> _populators = new ArrayList<>();
+
+    /**
+     * The number of block changes.
+     */
+    protected long _changedBlocks;
+
+    /**
+     * The number of blocks placed, indexed by Material ordinal.
+     */
+    protected final long[] _placed = new long[Material.values().length];
+} // class MemoryWorld
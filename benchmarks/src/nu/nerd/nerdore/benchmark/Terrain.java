@@ -0,0 +1,40 @@
+package nu.nerd.nerdore.benchmark;
+
+// ----------------------------------------------------------------------------
+/**
+ * The density knobs of the synthetic terrain generated by
+ * {@link MemoryChunk#generate(String, int, int, long, Terrain,
+ * org.bukkit.block.Biome...)}.
+ *
+ * Fractional densities are expected counts: a density of 0.25 puts one
+ * feature in a quarter of chunks, on average.
+ */
+public class Terrain {
+    /**
+     * The minimum number of spherical caves per chunk.
+     */
+    public int MIN_CAVES = 2;
+
+    /**
+     * The maximum number of spherical caves per chunk.
+     */
+    public int MAX_CAVES = 4;
+
+    /**
+     * The expected number of dungeon rooms per chunk, each with a spawner of
+     * a random dungeon mob.
+     */
+    public double SPAWNERS_PER_CHUNK = 0;
+
+    /**
+     * The expected number of pockets of water or lava per chunk, embedded in
+     * stone between Y 5 and 60; lava below Y 32, water above.
+     */
+    public double LIQUID_POCKETS_PER_CHUNK = 0;
+
+    /**
+     * The fraction of the blocks of liquid pockets that are flowing, rather
+     * than source blocks.
+     */
+    public double FLOWING_FRACTION = 0.25;
+} // class Terrain
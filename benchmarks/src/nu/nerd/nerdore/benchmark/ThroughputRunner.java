@@ -0,0 +1,650 @@
+package nu.nerd.nerdore.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import org.bukkit.Material;
+import org.bukkit.block.Biome;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import nu.nerd.nerdore.DeferredWrites;
+import nu.nerd.nerdore.Job;
+import nu.nerd.nerdore.NerdOre;
+import nu.nerd.nerdore.OreRule;
+import nu.nerd.nerdore.OreTask;
+import nu.nerd.nerdore.PendingChunk;
+import nu.nerd.nerdore.Region;
+import nu.nerd.nerdore.Util;
+
+// ----------------------------------------------------------------------------
+/**
+ * Measures the end-to-end throughput of a config.yml's rules, without a
+ * server.
+ *
+ * The plugin's configuration is loaded as on the server, and a job with the
+ * rules, traversal and seed of the selected job (or world) sweeps a square of
+ * chunks of a {@link MemoryWorld} of synthetic terrain, driven by the real
+ * {@link OreTask} tick after tick, with the configured worker threads,
+ * quotas and working set. Ticks run back to back, so the per-tick budget
+ * does not limit throughput; the main thread time per chunk shows the budget
+ * that a server would need.
+ *
+ * Each sweep starts from freshly generated terrain, which is generated before
+ * timing starts. The first sweeps warm up the JIT and are reported but not
+ * summarised. Throughput, allocation (by all threads) and GC time are
+ * reported for each sweep, with percentiles of the main thread time and of
+ * the latency from submission to completion of each chunk. The live rule
+ * statistics of the measured sweeps are reported at the end.
+ *
+ * Processed chunks and undo journals are written to a temporary folder that
+ * is deleted afterwards; the progress journal is not written.
+ * skip-ungenerated and skip-processed are disabled, and neither progress nor
+ * individual chunks are reported.
+ *
+ * Usage:
+ *
+ * <pre>
+ * java -cp benchmarks.jar nu.nerd.nerdore.benchmark.ThroughputRunner \
+ *     &lt;config.yml&gt; [--job &lt;id&gt; | --world &lt;name&gt;] [--side &lt;chunks&gt;]
+ *     [--sweeps &lt;num&gt;] [--warmup &lt;num&gt;] [--threads &lt;num&gt;] [--seed &lt;num&gt;]
+ *     [--spawners &lt;per chunk&gt;] [--liquids &lt;per chunk&gt;] [--biomes &lt;list&gt;]
+ * </pre>
+ */
+public class ThroughputRunner {
+    // ------------------------------------------------------------------------
+    /**
+     * Command line entry point.
+     *
+     * @param args the command line arguments.
+     */
+    public static void main(String[] args) {
+        ThroughputRunner runner = new ThroughputRunner();
+        if (!runner.parseArguments(args)) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        System.exit(runner.run() ? 0 : 1);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Parse the command line arguments.
+     *
+     * @param args the command line arguments.
+     * @return true if the arguments are valid.
+     */
+    protected boolean parseArguments(String[] args) {
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                switch (args[i]) {
+                case "--job":
+                    _jobId = args[++i];
+                    break;
+                case "--world":
+                    _worldName = args[++i];
+                    break;
+                case "--side":
+                    _side = Integer.parseInt(args[++i]);
+                    break;
+                case "--sweeps":
+                    _sweeps = Integer.parseInt(args[++i]);
+                    break;
+                case "--warmup":
+                    _warmupSweeps = Integer.parseInt(args[++i]);
+                    break;
+                case "--threads":
+                    _threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--seed":
+                    _seed = Long.parseLong(args[++i]);
+                    break;
+                case "--spawners":
+                    _terrain.SPAWNERS_PER_CHUNK = Double.parseDouble(args[++i]);
+                    break;
+                case "--liquids":
+                    _terrain.LIQUID_POCKETS_PER_CHUNK = Double.parseDouble(args[++i]);
+                    break;
+                case "--biomes":
+                    _biomes = Stream.of(args[++i].split(",")).map(b -> Biome.valueOf(b.trim().toUpperCase()))
+                        .toArray(Biome[]::new);
+                    break;
+                default:
+                    if (args[i].startsWith("--") || _configFile != null) {
+                        return false;
+                    }
+                    _configFile = new File(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+            return false;
+        }
+        return _configFile != null && _side >= 1 && _sweeps >= 1 && _warmupSweeps >= 0 &&
+               (_threads == null || _threads >= 0) && _biomes.length > 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run all sweeps and print the results.
+     *
+     * @return true if the configuration could be loaded.
+     */
+    protected boolean run() {
+        Logger logger = Util.getLogger();
+        try {
+            if (!configure()) {
+                return false;
+            }
+        } catch (IOException ex) {
+            logger.severe(ex.getMessage());
+            return false;
+        }
+
+        logger.info(String.format("Sweeping %d x %d chunks of %s with the %s rules, %s traversal, " +
+                                  "%d worker thread(s): %d warm-up and %d measured sweep(s).",
+                                  _side, _side, _worldName, _ruleSet, _traversal, _threads,
+                                  _warmupSweeps, _sweeps));
+        SweepResult totals = new SweepResult(0);
+        try {
+            for (int sweep = 1; sweep <= _warmupSweeps + _sweeps; ++sweep) {
+                if (sweep == _warmupSweeps + 1) {
+                    NerdOre.STATS.reset();
+                }
+                SweepResult result = sweep();
+                boolean warmup = (sweep <= _warmupSweeps);
+                report((warmup ? "Warm-up " : "Sweep ") + sweep, result);
+                if (!warmup) {
+                    totals.add(result);
+                }
+            }
+            report("Total", totals);
+            NerdOre.STATS.getSummary().forEach(logger::info);
+        } finally {
+            cleanUp();
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load the configuration, select the rules and prepare the plugin's
+     * shared state for running without a server.
+     *
+     * @return true if sweeps can proceed.
+     * @throws IOException if a file cannot be read or created.
+     */
+    protected boolean configure() throws IOException {
+        Logger logger = Util.getLogger();
+        if (!_configFile.isFile()) {
+            throw new IOException("No such configuration file: " + _configFile);
+        }
+        YamlConfiguration config = YamlConfiguration.loadConfiguration(_configFile);
+        try (InputStream defaults = NerdOre.class.getResourceAsStream("/config.yml")) {
+            if (defaults != null) {
+                config.setDefaults(YamlConfiguration.loadConfiguration(new InputStreamReader(defaults,
+                                                                                             StandardCharsets.UTF_8)));
+            }
+        }
+        NerdOre.CONFIG.load(config, logger);
+
+        Long configuredSeed = _seed;
+        if (_jobId != null) {
+            Job job = NerdOre.CONFIG.getJob(_jobId);
+            if (job == null) {
+                logger.severe("No such job: " + _jobId);
+                return false;
+            }
+            _worldName = job.getWorldName();
+            _ruleSet = job.getRuleSet();
+            _traversal = job.getTraversal().name();
+            if (configuredSeed == null && job.getConfiguredSeed() != 0) {
+                configuredSeed = job.getConfiguredSeed();
+            }
+        } else {
+            _ruleSet = _worldName;
+            _traversal = NerdOre.CONFIG.TRAVERSAL.name();
+        }
+        _worldSeed = (configuredSeed != null) ? configuredSeed : Fixtures.SEED;
+        _jobSettings.set("world", _worldName);
+        _jobSettings.set("rules", _ruleSet);
+        _jobSettings.set("side", _side);
+        _jobSettings.set("traversal", _traversal);
+        _jobSettings.set("seed", _worldSeed);
+
+        for (OreRule rule : NerdOre.CONFIG.getOreRuleIndex(_ruleSet).getRules()) {
+            _oreMaterials.add(rule.getMaterial().getType());
+        }
+        if (_threads == null) {
+            _threads = NerdOre.CONFIG.WORKER_THREADS;
+        }
+
+        NerdOre.CONFIG.SKIP_UNGENERATED = false;
+        NerdOre.CONFIG.SKIP_PROCESSED = false;
+        NerdOre.CONFIG.NOTIFY = false;
+        NerdOre.CONFIG.DEBUG_PROCESSING = false;
+        NerdOre.CONFIG.HEALTH_ENABLED = false;
+        _dataFolder = Files.createTempDirectory("nerdore-throughput");
+        NerdOre.PROCESSED.setFolder(_dataFolder.resolve("processed").toFile());
+        NerdOre.UNDO.setFolder(_dataFolder.resolve("undo").toFile());
+        NerdOre.UNDO.start();
+        HeadlessServer.getInstance();
+        return true;
+    } // configure
+
+    // ------------------------------------------------------------------------
+    /**
+     * Sweep the square of chunks once, in a freshly generated world.
+     *
+     * @return the measurements.
+     */
+    protected SweepResult sweep() {
+        MemoryWorld world = new MemoryWorld(_worldName, _worldSeed, _terrain, _biomes);
+        Region region = Region.square(0, 0, _side);
+        // Also generate the neighbours that deposits can spill into.
+        world.generate(region.getMinX() - 1, region.getMinZ() - 1, region.getMaxX() + 1, region.getMaxZ() + 1);
+        HeadlessServer.getInstance().addWorld(world);
+        NerdOre.DEFERRED = new DeferredWrites();
+
+        Job job = new Job(JOB_ID, _worldName);
+        job.load(_jobSettings);
+        NerdOre.CONFIG.JOBS.clear();
+        NerdOre.CONFIG.JOBS.put(JOB_ID, job);
+
+        SweepTask task = new SweepTask((int) job.getTraversal().getEnd(region));
+        task.setWorkerThreads(_threads);
+        SweepResult result = new SweepResult(job.getTraversal().getEnd(region));
+        System.gc();
+
+        Map<Long, Long> allocatedBefore = getAllocatedBytes();
+        long gcBefore = getGcMillis();
+        long start = System.nanoTime();
+        task.start(job);
+        while (job.isRunning()) {
+            int completed = task._completed;
+            task.run();
+            if (task._completed == completed) {
+                task.awaitNextPlan();
+            }
+        }
+        result._nanos = System.nanoTime() - start;
+        result._gcMillis = getGcMillis() - gcBefore;
+        result._allocatedBytes = getAllocatedBytes().entrySet().stream()
+            .mapToLong(e -> e.getValue() - allocatedBefore.getOrDefault(e.getKey(), 0L)).sum();
+        task.shutdown();
+        NerdOre.UNDO.flush();
+
+        result._chunks = task._completed;
+        result._mainThreadNanos = Arrays.copyOf(task._mainThreadNanos, task._completed);
+        result._latencyNanos = Arrays.copyOf(task._latencyNanos, task._completed);
+        result._changedBlocks = world.getChangedBlocks();
+        for (Material material : _oreMaterials) {
+            result._oreBlocks += world.getPlaced(material);
+        }
+        HeadlessServer.getInstance().removeWorld(world);
+        return result;
+    } // sweep
+
+    // ------------------------------------------------------------------------
+    /**
+     * Print the measurements of a sweep.
+     *
+     * @param label the label of the sweep.
+     * @param result the measurements.
+     */
+    protected void report(String label, SweepResult result) {
+        double seconds = result._nanos * 1e-9;
+        double megabytes = result._allocatedBytes / (1024.0 * 1024.0);
+        Util.getLogger().info(String.format("%s: %d chunk(s) in %.2f s, %.1f chunks/s, %.0f ore blocks/s, " +
+                                            "%d block change(s); allocated %.1f MB, %.1f MB/s, %.1f KB/chunk; " +
+                                            "GC %d ms.",
+                                            label, result._chunks, seconds, result._chunks / seconds,
+                                            result._oreBlocks / seconds, result._changedBlocks, megabytes,
+                                            megabytes / seconds, 1024 * megabytes / Math.max(1, result._chunks),
+                                            result._gcMillis));
+        Util.getLogger().info(String.format("%s: main thread ms/chunk %s; latency ms %s.",
+                                            label, getPercentiles(result._mainThreadNanos),
+                                            getPercentiles(result._latencyNanos)));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a description of the 50th, 90th, 99th and 100th percentiles of
+     * durations.
+     *
+     * @param nanos the durations in nanoseconds, which are sorted.
+     * @return the description, in milliseconds.
+     */
+    protected static String getPercentiles(long[] nanos) {
+        if (nanos.length == 0) {
+            return "(none)";
+        }
+        Arrays.sort(nanos);
+        StringBuilder description = new StringBuilder();
+        for (int percentile : new int[] { 50, 90, 99, 100 }) {
+            int index = Math.min(nanos.length - 1, (int) Math.ceil(percentile / 100.0 * nanos.length) - 1);
+            description.append((description.length() == 0) ? "" : ", ")
+                .append((percentile == 100) ? "max" : "p" + percentile)
+                .append(String.format(" %.3f", nanos[Math.max(0, index)] * 1e-6));
+        }
+        return description.toString();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of bytes allocated by each live thread so far.
+     *
+     * @return map from thread ID to allocated bytes; empty if the JVM cannot
+     *         measure allocation.
+     */
+    protected static Map<Long, Long> getAllocatedBytes() {
+        Map<Long, Long> allocated = new HashMap<>();
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+            if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+                long[] ids = sunThreads.getAllThreadIds();
+                long[] bytes = sunThreads.getThreadAllocatedBytes(ids);
+                for (int i = 0; i < ids.length; ++i) {
+                    if (bytes[i] >= 0) {
+                        allocated.put(ids[i], bytes[i]);
+                    }
+                }
+            }
+        }
+        return allocated;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the total time spent in garbage collection so far.
+     *
+     * @return the GC time in milliseconds.
+     */
+    protected static long getGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Close the undo journal and delete the temporary data folder.
+     */
+    protected void cleanUp() {
+        NerdOre.UNDO.close();
+        NerdOre.PROCESSED.setFolder(null);
+        if (_dataFolder != null) {
+            try (Stream<Path> paths = Files.walk(_dataFolder)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            } catch (IOException ex) {
+                Util.getLogger().warning("Unable to delete " + _dataFolder + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * An OreTask that times each chunk.
+     */
+    protected static final class SweepTask extends OreTask {
+        /**
+         * Constructor.
+         *
+         * @param chunks the number of chunks in the sweep.
+         */
+        SweepTask(int chunks) {
+            _mainThreadNanos = new long[chunks];
+            _latencyNanos = new long[chunks];
+        }
+
+        /**
+         * Wait until the plan of the oldest pending chunk is computed.
+         */
+        void awaitNextPlan() {
+            PendingChunk pending = _pending.peek();
+            if (pending != null) {
+                try {
+                    pending.getPlan().get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ex) {
+                    // Reported when the chunk is applied.
+                }
+            }
+        }
+
+        @Override
+        protected void processChunk(Job job, int chunkX, int chunkZ) {
+            long start = System.nanoTime();
+            int pending = _pending.size();
+            super.processChunk(job, chunkX, chunkZ);
+            if (_pending.size() > pending) {
+                _submitNanos.put(_pending.peekLast(), start);
+            }
+        }
+
+        @Override
+        protected void completeChunk(PendingChunk pending) {
+            super.completeChunk(pending);
+            Long submitted = _submitNanos.remove(pending);
+            if (submitted != null && _completed < _latencyNanos.length) {
+                _mainThreadNanos[_completed] = pending.getMainThreadNanos();
+                _latencyNanos[_completed] = System.nanoTime() - submitted;
+                ++_completed;
+            }
+        }
+
+        /**
+         * The System.nanoTime() at which each pending chunk was submitted.
+         */
+        final Map<PendingChunk, Long> _submitNanos = new IdentityHashMap<>();
+
+        /**
+         * The main thread time of each completed chunk.
+         */
+        final long[] _mainThreadNanos;
+
+        /**
+         * The time from submission to completion of each completed chunk.
+         */
+        final long[] _latencyNanos;
+
+        /**
+         * The number of completed chunks.
+         */
+        int _completed;
+    } // class SweepTask
+
+    // ------------------------------------------------------------------------
+    /**
+     * The measurements of one or more sweeps.
+     */
+    protected static final class SweepResult {
+        /**
+         * Constructor.
+         *
+         * @param chunks the number of chunks in the sweep.
+         */
+        SweepResult(long chunks) {
+            _chunks = chunks;
+        }
+
+        /**
+         * Add the measurements of another sweep to these.
+         *
+         * @param other the other measurements.
+         */
+        void add(SweepResult other) {
+            _chunks += other._chunks;
+            _nanos += other._nanos;
+            _changedBlocks += other._changedBlocks;
+            _oreBlocks += other._oreBlocks;
+            _allocatedBytes += other._allocatedBytes;
+            _gcMillis += other._gcMillis;
+            _mainThreadNanos = concat(_mainThreadNanos, other._mainThreadNanos);
+            _latencyNanos = concat(_latencyNanos, other._latencyNanos);
+        }
+
+        /**
+         * Return the concatenation of two arrays.
+         */
+        static long[] concat(long[] first, long[] second) {
+            long[] result = Arrays.copyOf(first, first.length + second.length);
+            System.arraycopy(second, 0, result, first.length, second.length);
+            return result;
+        }
+
+        /**
+         * The number of completed chunks.
+         */
+        long _chunks;
+
+        /**
+         * The elapsed time.
+         */
+        long _nanos;
+
+        /**
+         * The number of blocks changed.
+         */
+        long _changedBlocks;
+
+        /**
+         * The number of blocks of ore rule materials placed.
+         */
+        long _oreBlocks;
+
+        /**
+         * The bytes allocated by all threads.
+         */
+        long _allocatedBytes;
+
+        /**
+         * The time spent in garbage collection.
+         */
+        long _gcMillis;
+
+        /**
+         * The main thread time of each chunk.
+         */
+        long[] _mainThreadNanos = new long[0];
+
+        /**
+         * The time from submission to completion of each chunk.
+         */
+        long[] _latencyNanos = new long[0];
+    } // class SweepResult
+
+    // ------------------------------------------------------------------------
+    /**
+     * Usage message.
+     */
+    protected static final String USAGE = "Usage: java -cp benchmarks.jar nu.nerd.nerdore.benchmark.ThroughputRunner " +
+                                          "<config.yml> [--job <id> | --world <name>] [--side <chunks>] " +
+                                          "[--sweeps <num>] [--warmup <num>] [--threads <num>] [--seed <num>] " +
+                                          "[--spawners <per chunk>] [--liquids <per chunk>] [--biomes <list>]";
+
+    /**
+     * The ID of the job that performs the sweeps.
+     */
+    protected static final String JOB_ID = "throughput";
+
+    /**
+     * The configuration file.
+     */
+    protected File _configFile;
+
+    /**
+     * The ID of the job whose rules, traversal and seed are used, or null.
+     */
+    protected String _jobId;
+
+    /**
+     * The name of the world, which selects its rules if no job is specified.
+     */
+    protected String _worldName = "world";
+
+    /**
+     * The name of the rule set.
+     */
+    protected String _ruleSet;
+
+    /**
+     * The name of the traversal.
+     */
+    protected String _traversal;
+
+    /**
+     * The side of the swept square, in chunks.
+     */
+    protected int _side = 15;
+
+    /**
+     * The number of measured sweeps.
+     */
+    protected int _sweeps = 3;
+
+    /**
+     * The number of warm-up sweeps.
+     */
+    protected int _warmupSweeps = 1;
+
+    /**
+     * The number of worker threads, or null for the configured number.
+     */
+    protected Integer _threads;
+
+    /**
+     * The seed specified on the command line, or null.
+     */
+    protected Long _seed;
+
+    /**
+     * The seed of the terrain and of ore generation.
+     */
+    protected long _worldSeed;
+
+    /**
+     * The densities of terrain features.
+     */
+    protected Terrain _terrain = new Terrain();
+
+    /**
+     * The biomes of the terrain.
+     */
+    protected Biome[] _biomes = Fixtures.BIOMES;
+
+    /**
+     * The configuration of the sweeping job.
+     */
+    protected MemoryConfiguration _jobSettings = new MemoryConfiguration();
+
+    /**
+     * The Materials placed by ore rules.
+     */
+    protected Set<Material> _oreMaterials = EnumSet.noneOf(Material.class);
+
+    /**
+     * The temporary folder of processed chunks and undo journals.
+     */
+    protected Path _dataFolder;
+} // class ThroughputRunner
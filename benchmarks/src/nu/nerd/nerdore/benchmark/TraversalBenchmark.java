@@ -0,0 +1,112 @@
+package nu.nerd.nerdore.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import nu.nerd.nerdore.Region;
+import nu.nerd.nerdore.Traversal;
+
+// ----------------------------------------------------------------------------
+/**
+ * Benchmarks of the index maths of the traversal orders: cursor to chunk
+ * coordinates, the reverse, and seeking past chunks outside the region.
+ *
+ * Each invocation visits every chunk of a square region.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TraversalBenchmark {
+    // ------------------------------------------------------------------------
+    /**
+     * The traversal order.
+     */
+    @Param({ "SPIRAL", "REGION", "HILBERT" })
+    public Traversal traversal;
+
+    /**
+     * The side of the square region, in chunks.
+     */
+    @Param({ "63", "625" })
+    public int side;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create the region.
+     */
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        _region = Region.square(0, 0, side);
+        _end = traversal.getEnd(_region);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Compute the side of the complete spiral square of every cursor of the
+     * region, as Traversal.SPIRAL does for each chunk.
+     *
+     * @return the sum of the sides.
+     */
+    @Benchmark
+    public long getSideOf() {
+        long sum = 0;
+        for (long cursor = 0; cursor < _end; ++cursor) {
+            sum += Traversal.getSideOf(cursor);
+        }
+        return sum;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Visit every chunk of the region in traversal order, as a job does.
+     *
+     * @return the exclusive-or of the chunk keys.
+     */
+    @Benchmark
+    public long visit() {
+        long keys = 0;
+        for (long cursor = traversal.seek(0, _region); cursor < _end;
+             cursor = traversal.seek(cursor + 1, _region)) {
+            keys ^= traversal.getChunkKey(cursor, _region);
+        }
+        return keys;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Convert the chunk coordinates of every chunk of the region back to
+     * cursors, as when resuming a job.
+     *
+     * @return the sum of the cursors.
+     */
+    @Benchmark
+    public long getCursor() {
+        long sum = 0;
+        for (int x = _region.getMinX(); x <= _region.getMaxX(); ++x) {
+            for (int z = _region.getMinZ(); z <= _region.getMaxZ(); ++z) {
+                sum += traversal.getCursor(x, z, _region);
+            }
+        }
+        return sum;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The region.
+     */
+    private Region _region;
+
+    /**
+     * The end cursor of the region.
+     */
+    private long _end;
+} // class TraversalBenchmark
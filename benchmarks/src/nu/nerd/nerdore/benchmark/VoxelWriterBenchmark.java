@@ -0,0 +1,163 @@
+package nu.nerd.nerdore.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import nu.nerd.nerdore.ChunkWorkingSet;
+import nu.nerd.nerdore.Job;
+import nu.nerd.nerdore.NerdOre;
+import nu.nerd.nerdore.VoxelWriter;
+
+// ----------------------------------------------------------------------------
+/**
+ * Benchmarks of placing voxels through a {@link VoxelWriter}, as
+ * OreTask.generate() does, reported per voxel.
+ *
+ * Run them with the GC profiler to measure allocation:
+ *
+ * <pre>
+ * java -jar benchmarks.jar VoxelWriter -prof gc
+ * </pre>
+ *
+ * gc.alloc.rate.norm is then the number of bytes allocated per voxel.
+ * {@link #write()} places the voxels through the writer, and
+ * {@link #getBlock()} makes the same Block calls without it; the difference
+ * between the two is what the writer itself allocates. Both include the
+ * Block that every Chunk.getBlock() call creates, which the writer cannot
+ * avoid; in a {@link MemoryWorld} that Block is a dynamic proxy, which costs
+ * more than a server's CraftBlock, along with the argument arrays and boxed
+ * coordinates of its calls.
+ *
+ * The voxels are a 4 x 4 x 4 cube around the corner shared by four loaded
+ * chunks, so every write takes the loaded chunk path of the writer. Stone is
+ * written over stone, so that each invocation changes the same blocks
+ * without restoring the terrain. The undo journal is disabled.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VoxelWriterBenchmark {
+    // ------------------------------------------------------------------------
+    /**
+     * Generate and load the chunks around the cube of voxels.
+     */
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        Fixtures.configureReplaceable();
+        NerdOre.CONFIG.UNDO_ENABLED = false;
+        NerdOre.CONFIG.LEGACY_DETERMINISM = false;
+        MemoryWorld world = new MemoryWorld(Fixtures.WORLD, Fixtures.SEED, new Terrain(), Fixtures.BIOMES);
+        _world = world.getWorld();
+        _centre = _world.getChunkAt(0, 0);
+        _job = new Job("benchmark", Fixtures.WORLD);
+        _writer = new VoxelWriter(new ChunkWorkingSet());
+
+        int i = 0;
+        for (int x = CORNER - 2; x < CORNER + 2; ++x) {
+            for (int y = 30; y < 34; ++y) {
+                for (int z = CORNER - 2; z < CORNER + 2; ++z) {
+                    _voxels[i] = x;
+                    _voxels[i + 1] = y;
+                    _voxels[i + 2] = z;
+                    _chunks[i / 3] = _world.getChunkAt(x >> 4, z >> 4);
+                    i += 3;
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Place the cube of voxels through the writer.
+     *
+     * @return the number of blocks changed.
+     */
+    @Benchmark
+    @OperationsPerInvocation(VOXELS)
+    public int write() {
+        int changed = 0;
+        _writer.begin(_centre, _job);
+        for (int i = 0; i < VOXELS * 3; i += 3) {
+            if (_writer.write(_voxels[i], _voxels[i + 1], _voxels[i + 2], Material.STONE)) {
+                ++changed;
+            }
+        }
+        _writer.end();
+        return changed;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Make the Block calls of {@link #write()} directly on the Chunks, as a
+     * baseline.
+     *
+     * @return the number of blocks changed.
+     */
+    @Benchmark
+    @OperationsPerInvocation(VOXELS)
+    public int getBlock() {
+        int changed = 0;
+        for (int i = 0; i < VOXELS * 3; i += 3) {
+            Block block = _chunks[i / 3].getBlock(_voxels[i] & 15, _voxels[i + 1], _voxels[i + 2] & 15);
+            if (NerdOre.CONFIG.isReplaceable(block.getType())) {
+                block.setType(Material.STONE);
+                ++changed;
+            }
+        }
+        return changed;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The world X and Z coordinate of the corner shared by the four chunks.
+     */
+    private static final int CORNER = 16;
+
+    /**
+     * The number of voxels placed by each invocation.
+     */
+    private static final int VOXELS = 64;
+
+    /**
+     * The World.
+     */
+    private World _world;
+
+    /**
+     * The chunk that deposits are centred in.
+     */
+    private Chunk _centre;
+
+    /**
+     * The Chunk containing each voxel.
+     */
+    private final Chunk[] _chunks = new Chunk[VOXELS];
+
+    /**
+     * The world X, Y and Z coordinates of each voxel.
+     */
+    private final int[] _voxels = new int[VOXELS * 3];
+
+    /**
+     * The job placing voxels.
+     */
+    private Job _job;
+
+    /**
+     * The writer.
+     */
+    private VoxelWriter _writer;
+} // class VoxelWriterBenchmark
@@ -0,0 +1,974 @@
+package nu.nerd.nerdore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.block.Biome;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.EntityType;
+
+import nu.nerd.nerdore.blockstate.SpawnerAccess;
+
+// ----------------------------------------------------------------------------
+/**
+ * The blocks, biomes and tile entities of one chunk read from a region file,
+ * in a form that can be changed without a server.
+ *
+ * The block states of all sections are merged into one palette for the chunk,
+ * and each block is stored as an index into that palette. Blocks are replaced
+ * with the default state of their new Material, as Block.setType() does, and
+ * only the sections that were changed are encoded again when the chunk is
+ * saved; everything else in the chunk's NBT data is kept as it was.
+ *
+ * Chunks saved by Minecraft 1.13 to 1.16 are supported: block states that
+ * span two longs (before 1.16) or not, and 2D or 3D biomes. Block and sky
+ * light are not recomputed, and neither are heightmaps.
+ */
+public class AnvilChunk {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param worldName the name of the world, used as in a ChunkSnapshot.
+     * @param root the root compound tag of the chunk.
+     * @throws IOException if the chunk data is not supported.
+     */
+    public AnvilChunk(String worldName, Nbt.Compound root) throws IOException {
+        _worldName = worldName;
+        _root = root;
+        _level = root.getCompound("Level");
+        if (_level == null) {
+            throw new IOException("chunk has no Level tag");
+        }
+        _dataVersion = root.getInt("DataVersion", 0);
+        if (_dataVersion < MIN_DATA_VERSION) {
+            throw new IOException("chunk saved by an unsupported version of Minecraft: " + _dataVersion);
+        }
+        _x = _level.getInt("xPos", 0);
+        _z = _level.getInt("zPos", 0);
+
+        addState(AIR_STATE);
+        loadSections();
+        loadBiomes();
+        loadTileEntities();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the chunk X coordinate.
+     *
+     * @return the chunk X coordinate.
+     */
+    public int getX() {
+        return _x;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the chunk Z coordinate.
+     *
+     * @return the chunk Z coordinate.
+     */
+    public int getZ() {
+        return _z;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the name of the world.
+     *
+     * @return the name of the world.
+     */
+    public String getWorldName() {
+        return _worldName;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the chunk has been fully generated, so that the server
+     * would load it without generating anything.
+     *
+     * @return true if the chunk has been fully generated.
+     */
+    public boolean isFullyGenerated() {
+        String status = _level.getString("Status");
+        return status == null || status.equals("postprocessed") || status.equals("fullchunk") ||
+               status.equals("full");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if any block or tile entity has been changed.
+     *
+     * @return true if the chunk has been changed.
+     */
+    public boolean isModified() {
+        return _tileEntitiesModified || anyModifiedSection();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Material of a block.
+     *
+     * Blocks whose names do not match any Material are reported as
+     * {@link #UNKNOWN_MATERIAL}.
+     *
+     * @param x the chunk-relative X coordinate, [0,15].
+     * @param y the Y coordinate, [0,255].
+     * @param z the chunk-relative Z coordinate, [0,15].
+     * @return the Material.
+     */
+    public Material getType(int x, int y, int z) {
+        return _stateMaterials.get(_blocks[blockIndex(x, y, z)]);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the level property of a block, which is the level of a liquid.
+     *
+     * @param x the chunk-relative X coordinate, [0,15].
+     * @param y the Y coordinate, [0,255].
+     * @param z the chunk-relative Z coordinate, [0,15].
+     * @return the level, or 0 if the block has no level property.
+     */
+    public int getLevel(int x, int y, int z) {
+        Nbt.Compound properties = _states.get(_blocks[blockIndex(x, y, z)]).getCompound("Properties");
+        String level = (properties != null) ? properties.getString("level") : null;
+        try {
+            return (level != null) ? Integer.parseInt(level) : 0;
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Replace a block with the default state of a Material, removing its
+     * tile entity, if any.
+     *
+     * @param x the chunk-relative X coordinate, [0,15].
+     * @param y the Y coordinate, [0,255].
+     * @param z the chunk-relative Z coordinate, [0,15].
+     * @param material the new Material.
+     */
+    public void setType(int x, int y, int z, Material material) {
+        int index = blockIndex(x, y, z);
+        _blocks[index] = (char) getDefaultState(material);
+        _modifiedSections[y >> 4] = true;
+        if (_tileEntities.remove(index) != null) {
+            _tileEntitiesModified = true;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the settings of the spawner at the specified block, adding a
+     * default spawner tile entity if the block is a spawner without one.
+     *
+     * @param x the chunk-relative X coordinate, [0,15].
+     * @param y the Y coordinate, [0,255].
+     * @param z the chunk-relative Z coordinate, [0,15].
+     * @return the settings, or null if the block is not a spawner.
+     */
+    public SpawnerAccess getSpawner(int x, int y, int z) {
+        if (getType(x, y, z) != Material.SPAWNER) {
+            return null;
+        }
+        int index = blockIndex(x, y, z);
+        Nbt.Compound tileEntity = _tileEntities.get(index);
+        if (tileEntity == null) {
+            tileEntity = newSpawner(_x * 16 + x, y, _z * 16 + z);
+            _tileEntities.put(index, tileEntity);
+            _tileEntitiesModified = true;
+        }
+        return new Spawner(tileEntity);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return an immutable copy of the blocks and biomes of this chunk.
+     *
+     * The snapshot only implements the parts of ChunkSnapshot used by
+     * {@link ClearScanner} and {@link DepositPlanner}: block types and
+     * biomes. Block data requires a server.
+     *
+     * @return the snapshot.
+     */
+    public ChunkSnapshot getSnapshot() {
+        return new Snapshot(this);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Encode the changed sections and tile entities into the chunk's NBT
+     * data, and return it.
+     *
+     * @return the root compound tag of the chunk.
+     */
+    public Nbt.Compound save() {
+        for (int sectionY = 0; sectionY < 16; ++sectionY) {
+            if (_modifiedSections[sectionY]) {
+                saveSection(sectionY);
+                _modifiedSections[sectionY] = false;
+            }
+        }
+        if (_tileEntitiesModified) {
+            Nbt.ListTag list = new Nbt.ListTag(Nbt.COMPOUND);
+            list.addAll(_tileEntities.values());
+            list.addAll(_otherTileEntities);
+            _level.put("TileEntities", list);
+            _tileEntitiesModified = false;
+        }
+        return _root;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Decode the block states of all sections.
+     *
+     * @throws IOException if a section is invalid.
+     */
+    protected void loadSections() throws IOException {
+        Nbt.ListTag sections = _level.getList("Sections");
+        if (sections == null) {
+            return;
+        }
+        for (Object element : sections) {
+            Nbt.Compound section = (Nbt.Compound) element;
+            int sectionY = section.getInt("Y", -1);
+            Nbt.ListTag palette = section.getList("Palette");
+            Object states = section.get("BlockStates");
+            if (sectionY < 0 || sectionY > 15 || palette == null || !(states instanceof long[])) {
+                // Light only, e.g. above and below the world.
+                continue;
+            }
+            _sections[sectionY] = section;
+
+            int[] globalStates = new int[palette.size()];
+            for (int i = 0; i < globalStates.length; ++i) {
+                globalStates[i] = addState((Nbt.Compound) palette.get(i));
+            }
+            int bits = getBitsPerBlock(palette.size());
+            long[] packed = (long[]) states;
+            if (packed.length < getPackedLength(bits)) {
+                throw new IOException("section " + sectionY + " has too few block states");
+            }
+            int base = sectionY << 12;
+            for (int i = 0; i < 4096; ++i) {
+                int state = unpack(packed, bits, i);
+                if (state >= globalStates.length) {
+                    throw new IOException("section " + sectionY + " has an invalid block state");
+                }
+                _blocks[base + i] = (char) globalStates[state];
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Encode the block states of one section into its NBT data, adding the
+     * section if it does not exist.
+     *
+     * @param sectionY the section Y coordinate, [0,15].
+     */
+    protected void saveSection(int sectionY) {
+        Nbt.Compound section = _sections[sectionY];
+        if (section == null) {
+            section = new Nbt.Compound();
+            section.put("Y", (byte) sectionY);
+            section.put("BlockLight", new byte[2048]);
+            section.put("SkyLight", new byte[2048]);
+            Nbt.ListTag sections = _level.getList("Sections");
+            if (sections == null) {
+                sections = new Nbt.ListTag(Nbt.COMPOUND);
+                _level.put("Sections", sections);
+            }
+            sections.add(section);
+            _sections[sectionY] = section;
+        }
+
+        int[] localStates = new int[_states.size()];
+        Arrays.fill(localStates, -1);
+        Nbt.ListTag palette = new Nbt.ListTag(Nbt.COMPOUND);
+        int base = sectionY << 12;
+        for (int i = 0; i < 4096; ++i) {
+            int state = _blocks[base + i];
+            if (localStates[state] < 0) {
+                localStates[state] = palette.size();
+                palette.add(_states.get(state));
+            }
+        }
+
+        int bits = getBitsPerBlock(palette.size());
+        long[] packed = new long[getPackedLength(bits)];
+        for (int i = 0; i < 4096; ++i) {
+            pack(packed, bits, i, localStates[_blocks[base + i]]);
+        }
+        section.put("Palette", palette);
+        section.put("BlockStates", packed);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Decode the biomes of the columns of the chunk.
+     *
+     * With 3D biomes, the biome at the bottom of the world is used, as
+     * ChunkSnapshot.getBiome(x, z) does.
+     *
+     * @throws IOException if the biomes are missing or unknown.
+     */
+    protected void loadBiomes() throws IOException {
+        Object tag = _level.get("Biomes");
+        if (!(tag instanceof int[]) || (((int[]) tag).length != 256 && ((int[]) tag).length != 1024)) {
+            throw new IOException("chunk has no biomes");
+        }
+        int[] ids = (int[]) tag;
+        for (int x = 0; x < 16; ++x) {
+            for (int z = 0; z < 16; ++z) {
+                int id = (ids.length == 256) ? ids[(z << 4) | x] : ids[((z >> 2) << 2) | (x >> 2)];
+                Biome biome = (id >= 0 && id < BIOMES.length) ? BIOMES[id] : null;
+                if (biome == null) {
+                    throw new IOException("unknown biome ID: " + id);
+                }
+                _biomes[(x << 4) | z] = biome;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Index the tile entities of the chunk by position.
+     */
+    protected void loadTileEntities() {
+        Nbt.ListTag tileEntities = _level.getList("TileEntities");
+        if (tileEntities == null) {
+            return;
+        }
+        for (Object element : tileEntities) {
+            if (element instanceof Nbt.Compound) {
+                Nbt.Compound tileEntity = (Nbt.Compound) element;
+                int x = tileEntity.getInt("x", Integer.MIN_VALUE) - _x * 16;
+                int y = tileEntity.getInt("y", Integer.MIN_VALUE);
+                int z = tileEntity.getInt("z", Integer.MIN_VALUE) - _z * 16;
+                if (x >= 0 && x < 16 && y >= 0 && y < 256 && z >= 0 && z < 16) {
+                    _tileEntities.put(blockIndex(x, y, z), tileEntity);
+                } else {
+                    _otherTileEntities.add(tileEntity);
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a block state to the chunk's palette, if it is not already there.
+     *
+     * @param state the block state, with Name and optional Properties.
+     * @return the index of the state in the palette.
+     */
+    protected int addState(Nbt.Compound state) {
+        Integer index = _stateIndices.get(state);
+        if (index == null) {
+            index = _states.size();
+            _states.add(state);
+            _stateIndices.put(state, index);
+            _stateMaterials.add(getMaterial(state.getString("Name")));
+        }
+        return index;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of the default state of a Material in the chunk's
+     * palette, adding it if necessary.
+     *
+     * The state has no properties; Minecraft fills in the default values of
+     * missing properties when the chunk is loaded.
+     *
+     * @param material the Material.
+     * @return the index of the state in the palette.
+     */
+    protected int getDefaultState(Material material) {
+        Nbt.Compound state = new Nbt.Compound();
+        state.put("Name", "minecraft:" + material.name().toLowerCase());
+        return addState(state);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if any section has been modified.
+     *
+     * @return true if any section has been modified.
+     */
+    protected boolean anyModifiedSection() {
+        for (boolean modified : _modifiedSections) {
+            if (modified) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of bits used to store each block state index of a
+     * section with the specified palette size.
+     *
+     * @param paletteSize the number of states in the palette.
+     * @return the number of bits, at least 4.
+     */
+    protected static int getBitsPerBlock(int paletteSize) {
+        return Math.max(4, 32 - Integer.numberOfLeadingZeros(paletteSize - 1));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of longs needed to store the 4096 block state indices
+     * of a section.
+     *
+     * @param bits the number of bits per index.
+     * @return the number of longs.
+     */
+    protected int getPackedLength(int bits) {
+        if (isSpanning()) {
+            return 4096 * bits / 64;
+        }
+        int perLong = 64 / bits;
+        return (4096 + perLong - 1) / perLong;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if packed indices can span two longs, as they did before
+     * Minecraft 1.16.
+     *
+     * @return true if packed indices can span two longs.
+     */
+    protected boolean isSpanning() {
+        return _dataVersion < FIRST_ALIGNED_DATA_VERSION;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a packed block state index.
+     *
+     * @param packed the packed indices.
+     * @param bits the number of bits per index.
+     * @param i the number of the index, [0,4095].
+     * @return the index.
+     */
+    protected int unpack(long[] packed, int bits, int i) {
+        long mask = (1L << bits) - 1;
+        if (isSpanning()) {
+            int bit = i * bits;
+            int word = bit >> 6;
+            int offset = bit & 63;
+            long value = packed[word] >>> offset;
+            if (offset + bits > 64) {
+                value |= packed[word + 1] << (64 - offset);
+            }
+            return (int) (value & mask);
+        }
+        int perLong = 64 / bits;
+        return (int) ((packed[i / perLong] >>> ((i % perLong) * bits)) & mask);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Store a packed block state index.
+     *
+     * @param packed the packed indices, initially zero.
+     * @param bits the number of bits per index.
+     * @param i the number of the index, [0,4095].
+     * @param value the index.
+     */
+    protected void pack(long[] packed, int bits, int i, long value) {
+        if (isSpanning()) {
+            int bit = i * bits;
+            int word = bit >> 6;
+            int offset = bit & 63;
+            packed[word] |= value << offset;
+            if (offset + bits > 64) {
+                packed[word + 1] |= value >>> (64 - offset);
+            }
+        } else {
+            int perLong = 64 / bits;
+            packed[i / perLong] |= value << ((i % perLong) * bits);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Material with a namespaced block name.
+     *
+     * @param name the name, e.g. "minecraft:stone".
+     * @return the Material, or {@link #UNKNOWN_MATERIAL} if there is none.
+     */
+    protected static Material getMaterial(String name) {
+        if (name == null) {
+            return UNKNOWN_MATERIAL;
+        }
+        if (name.startsWith("minecraft:")) {
+            name = name.substring(10);
+        }
+        Material material = Material.getMaterial(name.toUpperCase());
+        return (material != null) ? material : UNKNOWN_MATERIAL;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a new spawner tile entity with default settings, as placed by
+     * Block.setType(Material.SPAWNER).
+     *
+     * @param x the world X coordinate.
+     * @param y the Y coordinate.
+     * @param z the world Z coordinate.
+     * @return the tile entity.
+     */
+    protected static Nbt.Compound newSpawner(int x, int y, int z) {
+        Nbt.Compound tileEntity = new Nbt.Compound();
+        tileEntity.put("id", "minecraft:mob_spawner");
+        tileEntity.put("x", x);
+        tileEntity.put("y", y);
+        tileEntity.put("z", z);
+        Nbt.Compound spawnData = new Nbt.Compound();
+        spawnData.put("id", "minecraft:pig");
+        tileEntity.put("SpawnData", spawnData);
+        tileEntity.put("SpawnPotentials", new Nbt.ListTag(Nbt.COMPOUND));
+        tileEntity.put("Delay", (short) 20);
+        tileEntity.put("MinSpawnDelay", (short) 200);
+        tileEntity.put("MaxSpawnDelay", (short) 800);
+        tileEntity.put("SpawnCount", (short) 4);
+        tileEntity.put("MaxNearbyEntities", (short) 6);
+        tileEntity.put("RequiredPlayerRange", (short) 16);
+        tileEntity.put("SpawnRange", (short) 4);
+        return tileEntity;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of a block in the chunk, in the order of the sections'
+     * block states.
+     *
+     * @param x the chunk-relative X coordinate, [0,15].
+     * @param y the Y coordinate, [0,255].
+     * @param z the chunk-relative Z coordinate, [0,15].
+     * @return the index.
+     */
+    protected static int blockIndex(int x, int y, int z) {
+        return (y << 8) | (z << 4) | x;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The settings of a spawner tile entity.
+     */
+    protected final class Spawner implements SpawnerAccess {
+        /**
+         * Constructor.
+         *
+         * @param tileEntity the spawner's tile entity.
+         */
+        Spawner(Nbt.Compound tileEntity) {
+            _tileEntity = tileEntity;
+        }
+
+        /**
+         * @see SpawnerAccess#getSpawnedType()
+         */
+        @Override
+        @SuppressWarnings("deprecation")
+        public EntityType getSpawnedType() {
+            Nbt.Compound spawnData = _tileEntity.getCompound("SpawnData");
+            String id = (spawnData != null) ? spawnData.getString("id") : null;
+            if (id == null) {
+                return EntityType.PIG;
+            }
+            return EntityType.fromName(id.startsWith("minecraft:") ? id.substring(10) : id);
+        }
+
+        /**
+         * @see SpawnerAccess#setSpawnedType(EntityType)
+         */
+        @Override
+        @SuppressWarnings("deprecation")
+        public void setSpawnedType(EntityType type) {
+            Nbt.Compound spawnData = new Nbt.Compound();
+            spawnData.put("id", "minecraft:" + type.getName());
+            _tileEntity.put("SpawnData", spawnData);
+            // Otherwise, the spawner would pick its next entity from these.
+            _tileEntity.put("SpawnPotentials", new Nbt.ListTag(Nbt.COMPOUND));
+            _tileEntitiesModified = true;
+        }
+
+        /**
+         * @see SpawnerAccess#setRequiredPlayerRange(int)
+         */
+        @Override
+        public void setRequiredPlayerRange(int range) {
+            setShort("RequiredPlayerRange", range);
+        }
+
+        /**
+         * @see SpawnerAccess#setMinSpawnDelay(int)
+         */
+        @Override
+        public void setMinSpawnDelay(int ticks) {
+            setShort("MinSpawnDelay", ticks);
+        }
+
+        /**
+         * @see SpawnerAccess#setMaxSpawnDelay(int)
+         */
+        @Override
+        public void setMaxSpawnDelay(int ticks) {
+            setShort("MaxSpawnDelay", ticks);
+        }
+
+        /**
+         * @see SpawnerAccess#setSpawnCount(int)
+         */
+        @Override
+        public void setSpawnCount(int count) {
+            setShort("SpawnCount", count);
+        }
+
+        /**
+         * @see SpawnerAccess#setSpawnRange(int)
+         */
+        @Override
+        public void setSpawnRange(int range) {
+            setShort("SpawnRange", range);
+        }
+
+        /**
+         * @see SpawnerAccess#setMaxNearbyEntities(int)
+         */
+        @Override
+        public void setMaxNearbyEntities(int count) {
+            setShort("MaxNearbyEntities", count);
+        }
+
+        /**
+         * Set a short tag of the tile entity.
+         *
+         * @param name the name of the tag.
+         * @param value the value.
+         */
+        void setShort(String name, int value) {
+            _tileEntity.put(name, (short) Math.min(value, Short.MAX_VALUE));
+            _tileEntitiesModified = true;
+        }
+
+        /**
+         * The spawner's tile entity.
+         */
+        final Nbt.Compound _tileEntity;
+    } // class Spawner
+
+    // ------------------------------------------------------------------------
+    /**
+     * An immutable copy of the block types and biomes of a chunk.
+     */
+    protected static final class Snapshot implements ChunkSnapshot {
+        /**
+         * Constructor.
+         *
+         * @param chunk the chunk to copy.
+         */
+        Snapshot(AnvilChunk chunk) {
+            _worldName = chunk._worldName;
+            _x = chunk._x;
+            _z = chunk._z;
+            _blocks = chunk._blocks.clone();
+            _materials = chunk._stateMaterials.toArray(new Material[0]);
+            _biomes = chunk._biomes.clone();
+        }
+
+        @Override
+        public int getX() {
+            return _x;
+        }
+
+        @Override
+        public int getZ() {
+            return _z;
+        }
+
+        @Override
+        public String getWorldName() {
+            return _worldName;
+        }
+
+        @Override
+        public Material getBlockType(int x, int y, int z) {
+            return _materials[_blocks[blockIndex(x, y, z)]];
+        }
+
+        @Override
+        public BlockData getBlockData(int x, int y, int z) {
+            throw new UnsupportedOperationException("block data requires a server");
+        }
+
+        @Override
+        @Deprecated
+        public int getData(int x, int y, int z) {
+            return 0;
+        }
+
+        @Override
+        public int getBlockSkyLight(int x, int y, int z) {
+            return 0;
+        }
+
+        @Override
+        public int getBlockEmittedLight(int x, int y, int z) {
+            return 0;
+        }
+
+        @Override
+        public int getHighestBlockYAt(int x, int z) {
+            for (int y = 255; y >= 0; --y) {
+                Material type = getBlockType(x, y, z);
+                if (type != Material.AIR && type != Material.CAVE_AIR) {
+                    return y + 1;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public Biome getBiome(int x, int z) {
+            return _biomes[(x << 4) | z];
+        }
+
+        @Override
+        public double getRawBiomeTemperature(int x, int z) {
+            return 0;
+        }
+
+        @Override
+        public double getRawBiomeRainfall(int x, int z) {
+            return 0;
+        }
+
+        @Override
+        public long getCaptureFullTime() {
+            return 0;
+        }
+
+        @Override
+        public boolean isSectionEmpty(int sy) {
+            int base = sy << 12;
+            for (int i = 0; i < 4096; ++i) {
+                if (_blocks[base + i] != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * The name of the world.
+         */
+        final String _worldName;
+
+        /**
+         * The chunk X coordinate.
+         */
+        final int _x;
+
+        /**
+         * The chunk Z coordinate.
+         */
+        final int _z;
+
+        /**
+         * The palette index of each block.
+         */
+        final char[] _blocks;
+
+        /**
+         * The Material of each palette entry.
+         */
+        final Material[] _materials;
+
+        /**
+         * The biome of each column, indexed by (x << 4) | z.
+         */
+        final Biome[] _biomes;
+    } // class Snapshot
+
+    // ------------------------------------------------------------------------
+    /**
+     * The Material reported for blocks whose names do not match any
+     * Material. It is never replaceable in practice, so such blocks are left
+     * alone.
+     */
+    public static final Material UNKNOWN_MATERIAL = Material.BEDROCK;
+
+    /**
+     * The DataVersion of Minecraft 1.13, the oldest supported version.
+     */
+    protected static final int MIN_DATA_VERSION = 1519;
+
+    /**
+     * The first DataVersion (20w17a) in which packed block state indices do
+     * not span two longs.
+     */
+    protected static final int FIRST_ALIGNED_DATA_VERSION = 2527;
+
+    /**
+     * The state of air blocks, which fill missing sections.
+     */
+    protected static final Nbt.Compound AIR_STATE = new Nbt.Compound();
+    static {
+        AIR_STATE.put("Name", "minecraft:air");
+    }
+
+    /**
+     * The names of the biomes, indexed by numeric biome ID.
+     */
+    protected static final String[] BIOME_NAMES = new String[168];
+    static {
+        String[] names = {
+            "OCEAN", "PLAINS", "DESERT", "MOUNTAINS", "FOREST", "TAIGA", "SWAMP", "RIVER", "NETHER", "THE_END",
+            "FROZEN_OCEAN", "FROZEN_RIVER", "SNOWY_TUNDRA", "SNOWY_MOUNTAINS", "MUSHROOM_FIELDS",
+            "MUSHROOM_FIELD_SHORE", "BEACH", "DESERT_HILLS", "WOODED_HILLS", "TAIGA_HILLS", "MOUNTAIN_EDGE",
+            "JUNGLE", "JUNGLE_HILLS", "JUNGLE_EDGE", "DEEP_OCEAN", "STONE_SHORE", "SNOWY_BEACH", "BIRCH_FOREST",
+            "BIRCH_FOREST_HILLS", "DARK_FOREST", "SNOWY_TAIGA", "SNOWY_TAIGA_HILLS", "GIANT_TREE_TAIGA",
+            "GIANT_TREE_TAIGA_HILLS", "WOODED_MOUNTAINS", "SAVANNA", "SAVANNA_PLATEAU", "BADLANDS",
+            "WOODED_BADLANDS_PLATEAU", "BADLANDS_PLATEAU", "SMALL_END_ISLANDS", "END_MIDLANDS", "END_HIGHLANDS",
+            "END_BARRENS", "WARM_OCEAN", "LUKEWARM_OCEAN", "COLD_OCEAN", "DEEP_WARM_OCEAN", "DEEP_LUKEWARM_OCEAN",
+            "DEEP_COLD_OCEAN", "DEEP_FROZEN_OCEAN"
+        };
+        System.arraycopy(names, 0, BIOME_NAMES, 0, names.length);
+        BIOME_NAMES[127] = "THE_VOID";
+        BIOME_NAMES[129] = "SUNFLOWER_PLAINS";
+        BIOME_NAMES[130] = "DESERT_LAKES";
+        BIOME_NAMES[131] = "GRAVELLY_MOUNTAINS";
+        BIOME_NAMES[132] = "FLOWER_FOREST";
+        BIOME_NAMES[133] = "TAIGA_MOUNTAINS";
+        BIOME_NAMES[134] = "SWAMP_HILLS";
+        BIOME_NAMES[140] = "ICE_SPIKES";
+        BIOME_NAMES[149] = "MODIFIED_JUNGLE";
+        BIOME_NAMES[151] = "MODIFIED_JUNGLE_EDGE";
+        BIOME_NAMES[155] = "TALL_BIRCH_FOREST";
+        BIOME_NAMES[156] = "TALL_BIRCH_HILLS";
+        BIOME_NAMES[157] = "DARK_FOREST_HILLS";
+        BIOME_NAMES[158] = "SNOWY_TAIGA_MOUNTAINS";
+        BIOME_NAMES[160] = "GIANT_SPRUCE_TAIGA";
+        BIOME_NAMES[161] = "GIANT_SPRUCE_TAIGA_HILLS";
+        BIOME_NAMES[162] = "MODIFIED_GRAVELLY_MOUNTAINS";
+        BIOME_NAMES[163] = "SHATTERED_SAVANNA";
+        BIOME_NAMES[164] = "SHATTERED_SAVANNA_PLATEAU";
+        BIOME_NAMES[165] = "ERODED_BADLANDS";
+        BIOME_NAMES[166] = "MODIFIED_WOODED_BADLANDS_PLATEAU";
+        BIOME_NAMES[167] = "MODIFIED_BADLANDS_PLATEAU";
+    }
+
+    /**
+     * The biomes, indexed by numeric biome ID; null for IDs that are unused or
+     * unknown to this version of the Bukkit API.
+     */
+    protected static final Biome[] BIOMES = new Biome[BIOME_NAMES.length];
+    static {
+        for (int id = 0; id < BIOME_NAMES.length; ++id) {
+            if (BIOME_NAMES[id] != null) {
+                try {
+                    BIOMES[id] = Biome.valueOf(BIOME_NAMES[id]);
+                } catch (IllegalArgumentException ex) {
+                    BIOMES[id] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * The name of the world.
+     */
+    protected final String _worldName;
+
+    /**
+     * The root compound tag of the chunk.
+     */
+    protected final Nbt.Compound _root;
+
+    /**
+     * The Level compound tag of the chunk.
+     */
+    protected final Nbt.Compound _level;
+
+    /**
+     * The version of Minecraft that saved the chunk.
+     */
+    protected final int _dataVersion;
+
+    /**
+     * The chunk X coordinate.
+     */
+    protected final int _x;
+
+    /**
+     * The chunk Z coordinate.
+     */
+    protected final int _z;
+
+    /**
+     * The NBT data of the sections that contain blocks, indexed by section Y.
+     */
+    protected final Nbt.Compound[] _sections = new Nbt.Compound[16];
+
+    /**
+     * The chunk's palette of block states.
+     */
+    protected final List<Nbt.Compound> _states = new ArrayList<>();
+
+    /**
+     * The Material of each entry of _states.
+     */
+    protected final List<Material> _stateMaterials = new ArrayList<>();
+
+    /**
+     * Map from block state to its index in _states.
+     */
+    protected final Map<Nbt.Compound, Integer> _stateIndices = new HashMap<>();
+
+    /**
+     * The index in _states of each block, indexed by
+     * {@link #blockIndex(int, int, int)}.
+     */
+    protected final char[] _blocks = new char[65536];
+
+    /**
+     * The biome of each column, indexed by (x << 4) | z.
+     */
+    protected final Biome[] _biomes = new Biome[256];
+
+    /**
+     * The tile entities in the chunk, indexed by
+     * {@link #blockIndex(int, int, int)}.
+     */
+    protected final Map<Integer, Nbt.Compound> _tileEntities = new HashMap<>();
+
+    /**
+     * Tile entities whose position is outside the chunk, kept as they are.
+     */
+    protected final List<Nbt.Compound> _otherTileEntities = new ArrayList<>();
+
+    /**
+     * True for each section whose blocks have been changed.
+     */
+    protected final boolean[] _modifiedSections = new boolean[16];
+
+    /**
+     * True if the tile entities have been changed.
+     */
+    protected boolean _tileEntitiesModified;
+} // class AnvilChunk
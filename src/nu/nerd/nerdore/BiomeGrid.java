@@ -0,0 +1,91 @@
+package nu.nerd.nerdore;
+
+import java.util.EnumSet;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.bukkit.block.Biome;
+
+// ----------------------------------------------------------------------------
+/**
+ * The biomes of the 16x16 columns of one chunk, fetched once per chunk.
+ */
+public class BiomeGrid {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param snapshot a ChunkSnapshot that includes biomes.
+     */
+    public BiomeGrid(ChunkSnapshot snapshot) {
+        for (int x = 0; x < 16; ++x) {
+            for (int z = 0; z < 16; ++z) {
+                set(x, z, snapshot.getBiome(x, z));
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param world the World.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     */
+    public BiomeGrid(World world, int chunkX, int chunkZ) {
+        int worldX = chunkX * 16;
+        int worldZ = chunkZ * 16;
+        for (int x = 0; x < 16; ++x) {
+            for (int z = 0; z < 16; ++z) {
+                set(x, z, world.getBiome(worldX + x, worldZ + z));
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the biome of the specified column.
+     *
+     * @param x the chunk-relative X coordinate in [0,15].
+     * @param z the chunk-relative Z coordinate in [0,15].
+     * @return the biome of the specified column.
+     */
+    public Biome get(int x, int z) {
+        return _biomes[(x << 4) | z];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the set of distinct biomes in the chunk.
+     *
+     * @return the set of distinct biomes in the chunk.
+     */
+    public EnumSet<Biome> getDistinctBiomes() {
+        return _distinct;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the biome of the specified column.
+     *
+     * @param x the chunk-relative X coordinate in [0,15].
+     * @param z the chunk-relative Z coordinate in [0,15].
+     * @param biome the biome.
+     */
+    protected void set(int x, int z, Biome biome) {
+        _biomes[(x << 4) | z] = biome;
+        _distinct.add(biome);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Biomes indexed by (x << 4) | z.
+     */
+    protected Biome[] _biomes = new Biome[256];
+
+    /**
+     * The set of distinct biomes in the chunk.
+     */
+    protected EnumSet<Biome> _distinct = EnumSet.noneOf(Biome.class);
+} // class BiomeGrid
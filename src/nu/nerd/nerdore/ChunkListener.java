@@ -0,0 +1,58 @@
+package nu.nerd.nerdore;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.WorldInitEvent;
+
+// ----------------------------------------------------------------------------
+/**
+ * Handles chunk and world events.
+ */
+public class ChunkListener implements Listener {
+    // ------------------------------------------------------------------------
+    /**
+     * Add an {@link OrePopulator} to a configured world as it loads, before
+     * its spawn chunks are generated.
+     *
+     * @param event the event.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldInit(WorldInitEvent event) {
+        NerdOre.PLUGIN.registerPopulator(event.getWorld());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * When a chunk with {@link DeferredWrites} loads, place them on the next
+     * tick, rather than modifying the chunk while it is still loading.
+     *
+     * Newly generated chunks are added to the {@link RegionHeaderIndex} of
+     * jobs in the same world.
+     *
+     * @param event the event.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        Chunk chunk = event.getChunk();
+        if (event.isNewChunk()) {
+            // Jobs that skip ungenerated chunks must not skip this one.
+            for (Job job : NerdOre.CONFIG.JOBS.values()) {
+                if (job.getChunkIndex() != null && job.getWorldName().equals(chunk.getWorld().getName())) {
+                    job.chunkGenerated(chunk.getX(), chunk.getZ());
+                }
+            }
+        }
+
+        if (NerdOre.DEFERRED.contains(chunk.getWorld(), chunk.getX(), chunk.getZ())) {
+            Bukkit.getScheduler().runTask(NerdOre.PLUGIN, () -> {
+                if (chunk.isLoaded()) {
+                    NerdOre.DEFERRED.apply(chunk);
+                }
+            });
+        }
+    }
+} // class ChunkListener
@@ -0,0 +1,69 @@
+package nu.nerd.nerdore;
+
+// ----------------------------------------------------------------------------
+/**
+ * The result of planning the processing of one chunk on a worker thread.
+ */
+public class ChunkPlan {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param biomes the biomes of the chunk.
+     * @param clears the candidate blocks for {@link ClearRule}s.
+     * @param deposits the planned ore deposits, or null if ores are generated
+     *        on the main thread in legacy determinism mode.
+     */
+    public ChunkPlan(BiomeGrid biomes, ClearPlan clears, DepositPlan deposits) {
+        _biomes = biomes;
+        _clears = clears;
+        _deposits = deposits;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the biomes of the chunk.
+     *
+     * @return the biomes of the chunk.
+     */
+    public BiomeGrid getBiomes() {
+        return _biomes;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the candidate blocks for {@link ClearRule}s.
+     *
+     * @return the candidate blocks for {@link ClearRule}s.
+     */
+    public ClearPlan getClears() {
+        return _clears;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the planned ore deposits, or null if ores are generated on the
+     * main thread.
+     *
+     * @return the planned ore deposits, or null.
+     */
+    public DepositPlan getDeposits() {
+        return _deposits;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The biomes of the chunk.
+     */
+    protected BiomeGrid _biomes;
+
+    /**
+     * The candidate blocks for {@link ClearRule}s.
+     */
+    protected ClearPlan _clears;
+
+    /**
+     * The planned ore deposits, or null.
+     */
+    protected DepositPlan _deposits;
+} // class ChunkPlan
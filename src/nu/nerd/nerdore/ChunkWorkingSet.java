@@ -0,0 +1,178 @@
+package nu.nerd.nerdore;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+
+// ----------------------------------------------------------------------------
+/**
+ * The chunks that NerdOre loaded, in least-recently-used order.
+ *
+ * Chunks that were already loaded when NerdOre needed them belong to the
+ * server and are not tracked. When the set grows beyond its capacity, the
+ * least recently used chunks are unloaded and saved, a few per tick, so that
+ * a long sweep neither accumulates modified chunks in memory nor leaves them
+ * all for the server's next autosave.
+ *
+ * Chunks that are in use by a player, or that the caller pins (e.g. pending
+ * chunks), are never unloaded; they are moved to the most recently used end
+ * and reconsidered later, as are chunks that the server refuses to unload.
+ * The number of chunks examined per tick is bounded, so that a set full of
+ * pinned chunks does not cost a walk of the whole set on every tick.
+ */
+public class ChunkWorkingSet {
+    // ------------------------------------------------------------------------
+    /**
+     * Record that NerdOre loaded the specified chunk, making it the most
+     * recently used.
+     *
+     * @param world the World.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     */
+    public void add(World world, int chunkX, int chunkZ) {
+        _chunks.put(new Entry(world.getName(), chunkX, chunkZ), Boolean.TRUE);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * If the specified chunk is in the set, make it the most recently used.
+     *
+     * @param world the World.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     */
+    public void touch(World world, int chunkX, int chunkZ) {
+        if (!_chunks.isEmpty()) {
+            _chunks.get(new Entry(world.getName(), chunkX, chunkZ));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of chunks in the set.
+     *
+     * @return the number of chunks in the set.
+     */
+    public int size() {
+        return _chunks.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Unload and save least recently used chunks until the set is no larger
+     * than the capacity, the specified number of chunks have been unloaded,
+     * or {@link #EXAMINED_PER_UNLOAD} times that number have been examined.
+     *
+     * Chunks that the server has already unloaded are simply forgotten.
+     *
+     * @param capacity the maximum number of chunks to keep; if 0, the set is
+     *        unbounded.
+     * @param maxUnloads the maximum number of chunks to unload.
+     * @param pinned a predicate that is true for (world name, chunk key) pairs
+     *        that must not be unloaded.
+     */
+    public void unloadExcess(int capacity, int maxUnloads, BiPredicate<String, Long> pinned) {
+        if (capacity <= 0) {
+            return;
+        }
+
+        int excess = _chunks.size() - capacity;
+        int unloaded = 0;
+        int examined = 0;
+        int maxExamined = maxUnloads * EXAMINED_PER_UNLOAD;
+        List<Entry> retained = new ArrayList<>();
+        Iterator<Entry> it = _chunks.keySet().iterator();
+        while (excess > 0 && unloaded < maxUnloads && examined < maxExamined && it.hasNext()) {
+            Entry entry = it.next();
+            ++examined;
+            World world = Bukkit.getWorld(entry._worldName);
+            if (world == null || !world.isChunkLoaded(entry._chunkX, entry._chunkZ)) {
+                it.remove();
+                --excess;
+                continue;
+            }
+            if (pinned.test(entry._worldName, Util.chunkKey(entry._chunkX, entry._chunkZ)) ||
+                world.isChunkInUse(entry._chunkX, entry._chunkZ)) {
+                retained.add(entry);
+                continue;
+            }
+
+            if (world.unloadChunk(entry._chunkX, entry._chunkZ, true)) {
+                it.remove();
+                --excess;
+                ++unloaded;
+            } else {
+                // E.g. cancelled by another plugin; the chunk is still loaded.
+                retained.add(entry);
+            }
+        }
+
+        // Move skipped chunks to the most recently used end, so that they are
+        // not re-examined on every tick.
+        for (Entry entry : retained) {
+            _chunks.get(entry);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Identifies a chunk in a world.
+     */
+    protected static final class Entry {
+        /**
+         * Constructor.
+         *
+         * @param worldName the name of the world.
+         * @param chunkX the chunk X coordinate.
+         * @param chunkZ the chunk Z coordinate.
+         */
+        Entry(String worldName, int chunkX, int chunkZ) {
+            _worldName = worldName;
+            _chunkX = chunkX;
+            _chunkZ = chunkZ;
+        }
+
+        /**
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Entry)) {
+                return false;
+            }
+            Entry entry = (Entry) other;
+            return _chunkX == entry._chunkX && _chunkZ == entry._chunkZ && _worldName.equals(entry._worldName);
+        }
+
+        /**
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return (31 * _chunkX + _chunkZ) * 31 + _worldName.hashCode();
+        }
+
+        final String _worldName;
+        final int _chunkX;
+        final int _chunkZ;
+    } // class Entry
+
+    // ------------------------------------------------------------------------
+    /**
+     * The number of chunks that may be examined per chunk that may be
+     * unloaded in one call to
+     * {@link #unloadExcess(int, int, BiPredicate)}.
+     */
+    protected static final int EXAMINED_PER_UNLOAD = 8;
+
+    /**
+     * The chunks in access order: least recently used first.
+     */
+    protected LinkedHashMap<Entry, Boolean> _chunks = new LinkedHashMap<>(256, 0.75f, true);
+} // class ChunkWorkingSet
@@ -0,0 +1,120 @@
+package nu.nerd.nerdore;
+
+import java.util.Arrays;
+
+// ----------------------------------------------------------------------------
+/**
+ * The list of candidate blocks in one chunk that may be affected by
+ * {@link ClearRule}s, as computed by a {@link ClearScanner}.
+ *
+ * Each candidate is packed into an int as the index of the rule (in the array
+ * of rules that were scanned), and the chunk-relative X, Y and Z coordinates
+ * of the block. Candidates are stored in the order that they must be applied.
+ */
+public class ClearPlan {
+    // ------------------------------------------------------------------------
+    /**
+     * Return the packed representation of a candidate.
+     *
+     * @param ruleIndex the index of the rule in [0,32767].
+     * @param x the chunk-relative X coordinate in [0,15].
+     * @param y the Y coordinate in [0,255].
+     * @param z the chunk-relative Z coordinate in [0,15].
+     * @return the packed candidate.
+     */
+    public static int pack(int ruleIndex, int x, int y, int z) {
+        return (ruleIndex << 16) | (y << 8) | (x << 4) | z;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the rule index of a packed candidate.
+     *
+     * @param candidate the packed candidate.
+     * @return the rule index of a packed candidate.
+     */
+    public static int ruleIndex(int candidate) {
+        return candidate >>> 16;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the chunk-relative X coordinate of a packed candidate.
+     *
+     * @param candidate the packed candidate.
+     * @return the chunk-relative X coordinate of a packed candidate.
+     */
+    public static int x(int candidate) {
+        return (candidate >> 4) & 0xF;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Y coordinate of a packed candidate.
+     *
+     * @param candidate the packed candidate.
+     * @return the Y coordinate of a packed candidate.
+     */
+    public static int y(int candidate) {
+        return (candidate >> 8) & 0xFF;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the chunk-relative Z coordinate of a packed candidate.
+     *
+     * @param candidate the packed candidate.
+     * @return the chunk-relative Z coordinate of a packed candidate.
+     */
+    public static int z(int candidate) {
+        return candidate & 0xF;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a candidate.
+     *
+     * @param ruleIndex the index of the rule.
+     * @param x the chunk-relative X coordinate.
+     * @param y the Y coordinate.
+     * @param z the chunk-relative Z coordinate.
+     */
+    public void add(int ruleIndex, int x, int y, int z) {
+        if (_size == _candidates.length) {
+            _candidates = Arrays.copyOf(_candidates, _candidates.length * 2);
+        }
+        _candidates[_size++] = pack(ruleIndex, x, y, z);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the packed candidate at the specified index.
+     *
+     * @param index the index in [0,size()-1].
+     * @return the packed candidate at the specified index.
+     */
+    public int get(int index) {
+        return _candidates[index];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of candidates.
+     *
+     * @return the number of candidates.
+     */
+    public int size() {
+        return _size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Packed candidates.
+     */
+    protected int[] _candidates = new int[64];
+
+    /**
+     * Number of valid elements of _candidates.
+     */
+    protected int _size;
+} // class ClearPlan
@@ -7,6 +7,7 @@ import org.bukkit.Material;
 import org.bukkit.block.Block;
 import org.bukkit.configuration.ConfigurationSection;
 
+import nu.nerd.nerdore.blockstate.BlockAccess;
 import nu.nerd.nerdore.blockstate.Matcher;
 import nu.nerd.nerdore.blockstate.MatcherForLiquid;
 import nu.nerd.nerdore.blockstate.MatcherForSpawner;
@@ -60,7 +61,7 @@ public class ClearRule extends Rule {
     public ClearRule(ConfigurationSection section) {
         load(section);
 
-        Logger logger = NerdOre.PLUGIN.getLogger();
+        Logger logger = Util.getLogger();
         _removedMaterial = new CustomMaterial(section.getString("block", ""));
         _matcher = createBlockStateMatcher(_removedMaterial.getType());
 
@@ -127,7 +128,54 @@ public class ClearRule extends Rule {
             _replacer.apply(block.getState(), random, message);
         }
         if (isLogged()) {
-            message.append(" at ").append(NerdOre.CONFIG.WORLD).append(",");
+            message.append(" at ").append(block.getWorld().getName()).append(",");
+            message.append(block.getX()).append(',');
+            message.append(block.getY()).append(',');
+            message.append(block.getZ());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if this ClearRule is applicable to the specified block,
+     * without using the server.
+     * 
+     * @param block the block.
+     * @param message a StringBuilder used to compose the logged message.
+     * @return true if this ClearRule is applicable to the specified block.
+     */
+    public boolean matches(BlockAccess block, StringBuilder message) {
+        if (_removedMaterial.getType() == block.getType()) {
+            if (isLogged()) {
+                message.append("Clear ").append(getRemovedMaterial().getType());
+            }
+            return (_matcher == null || _matcher.matches(block, message));
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Apply this ClearRule to the specified block, without using the server.
+     * 
+     * The same random numbers are drawn as by
+     * {@link #apply(Block, Random, StringBuilder)}.
+     * 
+     * @param block the block.
+     * @param random the RNG to use.
+     * @param message a StringBuilder used to compose the logged message; null
+     *        if not logged.
+     */
+    public void apply(BlockAccess block, Random random, StringBuilder message) {
+        if (isLogged()) {
+            message.append(" with ").append(_replacementMaterial.getType());
+        }
+        block.setType(_replacementMaterial.getType());
+        if (_replacer != null) {
+            _replacer.apply(block, random, message);
+        }
+        if (isLogged()) {
+            message.append(" at ").append(block.getWorldName()).append(",");
             message.append(block.getX()).append(',');
             message.append(block.getY()).append(',');
             message.append(block.getZ());
@@ -143,6 +191,15 @@ public class ClearRule extends Rule {
         return _removedMaterial.isValid() && _replacementMaterial.isValid();
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * @see Rule#getCounters()
+     */
+    @Override
+    public RuleStats.Counter[] getCounters() {
+        return RuleStats.CLEAR_COUNTERS;
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Return the material that will be removed.
@@ -153,6 +210,17 @@ public class ClearRule extends Rule {
         return _removedMaterial;
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return the {@link Matcher} of the block state of removeable blocks.
+     * 
+     * @return the Matcher, or null if all blocks of the removed material
+     *         match.
+     */
+    public Matcher getMatcher() {
+        return _matcher;
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Return the replacement material that will be added.
@@ -0,0 +1,263 @@
+package nu.nerd.nerdore;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.block.Biome;
+
+// ----------------------------------------------------------------------------
+/**
+ * Finds the blocks in a ChunkSnapshot that may be affected by a list of
+ * {@link ClearRule}s.
+ *
+ * Scanning only reads the ChunkSnapshot and the immutable rule settings, so it
+ * can run on a worker thread. The result is a {@link ClearPlan} listing
+ * candidate blocks in the same order that the rules would visit them when
+ * applied directly to the Chunk. The main thread re-checks each candidate with
+ * {@link ClearRule#matches(org.bukkit.block.Block, StringBuilder)} before
+ * applying it, so the scan only needs to be conservative.
+ *
+ * A block is a candidate for a rule if its Material in the snapshot is the
+ * rule's removed Material, or any Material that an earlier rule could have
+ * converted into the rule's removed Material, since rules are applied in
+ * order.
+ *
+ * Candidates can be listed in one of two orders:
+ * <ul>
+ * <li>Legacy order: each rule sweeps the whole chunk in turn, visiting blocks
+ * in X, Z, Y order. This is the order in which blocks were always visited, and
+ * therefore preserves the sequence of random numbers drawn for each
+ * block.</li>
+ * <li>Fused order: a single pass over the chunk tests the type of each block
+ * once, then looks up the rules that could affect that type in a table indexed
+ * by Material ordinal. For each block, candidate rules are listed in
+ * configuration order, so the outcome of chained rules is the same, but the
+ * random numbers drawn for each block differ from legacy order.</li>
+ * </ul>
+ */
+public class ClearScanner {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param index the biome index of the enabled rules.
+     * @param fused if true, candidates are listed in fused order; otherwise
+     *        they are listed in legacy order.
+     */
+    public ClearScanner(RuleIndex<ClearRule> index, boolean fused) {
+        _index = index;
+        _rules = index.getRules();
+        _fused = fused;
+
+        int materialCount = Material.values().length;
+        _sources = new boolean[_rules.length][];
+        for (int r = 0; r < _rules.length; ++r) {
+            boolean[] sources = new boolean[materialCount];
+            Material removed = _rules[r].getRemovedMaterial().getType();
+            sources[removed.ordinal()] = true;
+            for (int earlier = 0; earlier < r; ++earlier) {
+                if (_rules[earlier].getReplacementMaterial().getType() == removed) {
+                    for (int m = 0; m < materialCount; ++m) {
+                        sources[m] |= _sources[earlier][m];
+                    }
+                }
+            }
+            _sources[r] = sources;
+        }
+
+        _dispatch = new int[materialCount][];
+        _dispatchMinY = new int[materialCount];
+        _dispatchMaxY = new int[materialCount];
+        for (int m = 0; m < materialCount; ++m) {
+            int count = 0;
+            for (int r = 0; r < _rules.length; ++r) {
+                if (_sources[r][m]) {
+                    ++count;
+                }
+            }
+            if (count != 0) {
+                int[] ruleIndices = new int[count];
+                int minY = Integer.MAX_VALUE;
+                int maxY = Integer.MIN_VALUE;
+                count = 0;
+                for (int r = 0; r < _rules.length; ++r) {
+                    if (_sources[r][m]) {
+                        ruleIndices[count++] = r;
+                        minY = Math.min(minY, _rules[r].getMinHeight());
+                        maxY = Math.max(maxY, _rules[r].getMaxHeight());
+                    }
+                }
+                _dispatch[m] = ruleIndices;
+                _dispatchMinY[m] = minY;
+                _dispatchMaxY[m] = maxY;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the rules scanned by this ClearScanner.
+     *
+     * @return the rules scanned by this ClearScanner.
+     */
+    public ClearRule[] getRules() {
+        return _rules;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a table indexed by Material ordinal that is true for Materials
+     * that are targets, or that could be converted into a target by the
+     * rules.
+     *
+     * @param targets a table indexed by Material ordinal of target Materials.
+     * @return the table of Materials that are or could become targets.
+     */
+    public boolean[] getConvertibleTo(boolean[] targets) {
+        boolean[] result = targets.clone();
+        for (int r = 0; r < _rules.length; ++r) {
+            if (targets[_rules[r].getReplacementMaterial().getType().ordinal()]) {
+                for (int m = 0; m < result.length; ++m) {
+                    result[m] |= _sources[r][m];
+                }
+            }
+        }
+        return result;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Scan a ChunkSnapshot for candidate blocks.
+     *
+     * Rules that do not affect any biome in the chunk are skipped entirely.
+     *
+     * @param snapshot the snapshot.
+     * @param biomes the biomes of the snapshot.
+     * @return the {@link ClearPlan}.
+     */
+    public ClearPlan scan(ChunkSnapshot snapshot, BiomeGrid biomes) {
+        ClearPlan plan = new ClearPlan();
+        boolean[] active = _index.getActiveRules(biomes);
+        if (_fused) {
+            scanFused(snapshot, biomes, active, plan);
+        } else {
+            scanLegacy(snapshot, biomes, active, plan);
+        }
+        return plan;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add candidates to the plan in fused order.
+     *
+     * @param snapshot the snapshot.
+     * @param biomes the biomes of the snapshot.
+     * @param active a table of the rules that affect a biome in the chunk.
+     * @param plan the plan to add to.
+     */
+    protected void scanFused(ChunkSnapshot snapshot, BiomeGrid biomes, boolean[] active, ClearPlan plan) {
+        // The union of the Y ranges of the active rules.
+        int minY = Integer.MAX_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int r = 0; r < _rules.length; ++r) {
+            if (active[r]) {
+                minY = Math.min(minY, _rules[r].getMinHeight());
+                maxY = Math.max(maxY, _rules[r].getMaxHeight());
+            }
+        }
+
+        for (int x = 0; x < 16; ++x) {
+            for (int z = 0; z < 16; ++z) {
+                Biome biome = biomes.get(x, z);
+                if (_index.getRules(biome).length == 0) {
+                    continue;
+                }
+                for (int y = minY; y <= maxY; ++y) {
+                    int m = snapshot.getBlockType(x, y, z).ordinal();
+                    int[] ruleIndices = _dispatch[m];
+                    if (ruleIndices == null || y < _dispatchMinY[m] || y > _dispatchMaxY[m]) {
+                        continue;
+                    }
+                    for (int r : ruleIndices) {
+                        ClearRule rule = _rules[r];
+                        if (y >= rule.getMinHeight() && y <= rule.getMaxHeight() && _index.affects(r, biome)) {
+                            plan.add(r, x, y, z);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add candidates to the plan in legacy order.
+     *
+     * @param snapshot the snapshot.
+     * @param biomes the biomes of the snapshot.
+     * @param active a table of the rules that affect a biome in the chunk.
+     * @param plan the plan to add to.
+     */
+    protected void scanLegacy(ChunkSnapshot snapshot, BiomeGrid biomes, boolean[] active, ClearPlan plan) {
+        for (int r = 0; r < _rules.length; ++r) {
+            if (!active[r]) {
+                continue;
+            }
+
+            ClearRule rule = _rules[r];
+            boolean[] sources = _sources[r];
+            for (int x = 0; x < 16; ++x) {
+                for (int z = 0; z < 16; ++z) {
+                    if (_index.affects(r, biomes.get(x, z))) {
+                        for (int y = rule.getMinHeight(); y <= rule.getMaxHeight(); y++) {
+                            if (sources[snapshot.getBlockType(x, y, z).ordinal()]) {
+                                plan.add(r, x, y, z);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The biome index of the enabled rules.
+     */
+    protected RuleIndex<ClearRule> _index;
+
+    /**
+     * The enabled rules, in the order they are applied.
+     */
+    protected ClearRule[] _rules;
+
+    /**
+     * If true, candidates are listed in fused order, rather than legacy order.
+     */
+    protected boolean _fused;
+
+    /**
+     * For each rule, a table indexed by Material ordinal that is true if a
+     * block of that Material in the snapshot could be of the rule's removed
+     * Material by the time the rule is applied.
+     */
+    protected boolean[][] _sources;
+
+    /**
+     * Table indexed by Material ordinal of the indices of the rules that could
+     * affect a block of that Material in the snapshot, in increasing order; or
+     * null if no rule could affect the Material.
+     */
+    protected int[][] _dispatch;
+
+    /**
+     * Table indexed by Material ordinal of the minimum Y coordinate of the
+     * rules in _dispatch.
+     */
+    protected int[] _dispatchMinY;
+
+    /**
+     * Table indexed by Material ordinal of the maximum Y coordinate of the
+     * rules in _dispatch.
+     */
+    protected int[] _dispatchMaxY;
+} // class ClearScanner
@@ -1,12 +1,16 @@
 package nu.nerd.nerdore;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.function.Function;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -16,6 +20,7 @@ import org.bukkit.World;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.MemoryConfiguration;
 import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
 
 // ----------------------------------------------------------------------------
 /**
@@ -48,6 +53,195 @@ public class Configuration {
      */
     public int PERIOD_TICKS;
 
+    /**
+     * The wall-clock time budget, in milliseconds, for processing chunks in
+     * each tick. If greater than zero, the adaptive budget scheduler is used
+     * and PERIOD_TICKS is ignored; otherwise, one chunk is processed every
+     * PERIOD_TICKS ticks.
+     */
+    public double BUDGET_MS;
+
+    /**
+     * If true, blocks are visited and random numbers are drawn in the same
+     * order as earlier versions of the plugin, so that the same seed produces
+     * the same result. If false, faster processing orders are used.
+     */
+    public boolean LEGACY_DETERMINISM;
+
+    /**
+     * The number of worker threads that scan chunks for blocks affected by
+     * {@link ClearRule}s. If 0, scanning is done on the main thread.
+     */
+    public int WORKER_THREADS;
+
+    /**
+     * The maximum number of candidate blocks found by scanning that are
+     * checked and applied on the main thread in each tick.
+     */
+    public int APPLY_QUOTA;
+
+    /**
+     * The maximum number of chunks loaded by NerdOre that are kept loaded; if
+     * 0, NerdOre never unloads chunks.
+     */
+    public int WORKING_SET_CHUNKS;
+
+    /**
+     * The maximum number of chunks beyond WORKING_SET_CHUNKS that are unloaded
+     * and saved in each tick.
+     */
+    public int UNLOADS_PER_TICK;
+
+    /**
+     * If true, chunks that have never been generated, according to the
+     * headers of the world's region files, are skipped without loading them.
+     */
+    public boolean SKIP_UNGENERATED;
+
+    /**
+     * If true, chunks recorded as processed in {@link NerdOre#PROCESSED} are
+     * skipped, so that re-running a job over the same chunks does nothing.
+     */
+    public boolean SKIP_PROCESSED;
+
+    /**
+     * The progress journal is committed when this many chunk records are
+     * waiting.
+     */
+    public int JOURNAL_COMMIT_CHUNKS;
+
+    /**
+     * The progress journal is committed at least this often, in milliseconds.
+     */
+    public int JOURNAL_COMMIT_MS;
+
+    /**
+     * The progress journal is compacted when it grows beyond this size, in
+     * bytes.
+     */
+    public long JOURNAL_COMPACT_BYTES;
+
+    /**
+     * If true, the original state of every changed block is recorded in the
+     * {@link NerdOre#UNDO} journal, so that changes can be rolled back.
+     */
+    public boolean UNDO_ENABLED;
+
+    /**
+     * The maximum number of blocks restored in each tick by a rollback.
+     */
+    public int UNDO_ROLLBACK_BLOCKS;
+
+    /**
+     * The maximum number of chunks loaded in each tick by a dry run.
+     */
+    public int DRY_RUN_CHUNKS_PER_TICK;
+
+    /**
+     * If true, {@link HealthGuard} throttles or pauses processing when the
+     * server is struggling.
+     */
+    public boolean HEALTH_ENABLED;
+
+    /**
+     * The number of ticks between measurements of server health.
+     */
+    public int HEALTH_SAMPLE_TICKS;
+
+    /**
+     * The number of ticks for which the server must stay healthier before
+     * processing steps back from paused to throttled, or from throttled to
+     * the normal rate.
+     */
+    public int HEALTH_RECOVER_TICKS;
+
+    /**
+     * The fraction of the normal budget, quota and chunk rate used while
+     * throttled.
+     */
+    public double HEALTH_THROTTLE_FACTOR;
+
+    /**
+     * Processing is throttled below this many ticks per second.
+     */
+    public double HEALTH_TPS_THROTTLE;
+
+    /**
+     * Processing is paused below this many ticks per second.
+     */
+    public double HEALTH_TPS_PAUSE;
+
+    /**
+     * Processing returns to the normal rate only at or above this many ticks
+     * per second.
+     */
+    public double HEALTH_TPS_RESUME;
+
+    /**
+     * Processing is throttled when this fraction of the heap is in use after
+     * garbage collection.
+     */
+    public double HEALTH_HEAP_THROTTLE;
+
+    /**
+     * Processing is paused when this fraction of the heap is in use after
+     * garbage collection.
+     */
+    public double HEALTH_HEAP_PAUSE;
+
+    /**
+     * Processing returns to the normal rate only below this fraction of the
+     * heap in use after garbage collection.
+     */
+    public double HEALTH_HEAP_RESUME;
+
+    /**
+     * Processing is paused after GC pauses averaging at least this many
+     * milliseconds; 0 disables the check.
+     */
+    public int HEALTH_GC_PAUSE_MS;
+
+    /**
+     * Processing is throttled when this many chunks are loaded in all worlds;
+     * 0 disables the check.
+     */
+    public int HEALTH_CHUNKS_THROTTLE;
+
+    /**
+     * Processing is paused when this many chunks are loaded in all worlds; 0
+     * disables the check.
+     */
+    public int HEALTH_CHUNKS_PAUSE;
+
+    /**
+     * Processing returns to the normal rate only below this many loaded
+     * chunks.
+     */
+    public int HEALTH_CHUNKS_RESUME;
+
+    /**
+     * If true, chunks near players are deferred, rather than processed.
+     */
+    public boolean PROXIMITY_ENABLED;
+
+    /**
+     * Chunks within this many chunks of a player's chunk, along both axes,
+     * are deferred.
+     */
+    public int PROXIMITY_RADIUS_CHUNKS;
+
+    /**
+     * The number of ticks between attempts to process a job's deferred
+     * chunks, while players are still near all of them.
+     */
+    public int PROXIMITY_RETRY_TICKS;
+
+    /**
+     * The names of the worlds whose rules are applied to chunks as they are
+     * generated, by an {@link OrePopulator}.
+     */
+    public Set<String> POPULATE_WORLDS = new TreeSet<>();
+
     /**
      * The seed used to generate ores.
      */
@@ -59,13 +253,15 @@ public class Configuration {
     public int SIDE;
 
     /**
-     * Name of the world to process on start.
+     * Name of the world most recently started; its job is the default for
+     * commands issued from the console. Saved in the state file.
      */
     public String WORLD;
 
     /**
      * Map from the world name to the non-negative index (position) of the next
-     * chunk to process.
+     * chunk to process, as saved by earlier versions; only used to initialise
+     * the cursor of a new {@link Job} for the world.
      *
      * Chunk (0,0) is index 0. Surrounding immediate neighbours are 1 through 8,
      * numbered left to right, then top top bottom. The SE diagonal (0,0),
@@ -81,6 +277,24 @@ public class Configuration {
      */
     public Map<String, Integer> INDICES = new HashMap<>();
 
+    /**
+     * The order in which chunks are processed by jobs that do not specify
+     * their own.
+     */
+    public Traversal TRAVERSAL;
+
+    /**
+     * For each {@link Traversal} other than the spiral, a map from world name
+     * to the cursor of that traversal, equivalent to INDICES for the spiral;
+     * only used to initialise the cursors of a new {@link Job}.
+     */
+    public Map<Traversal, Map<String, Integer>> TRAVERSAL_INDICES = new EnumMap<>(Traversal.class);
+
+    /**
+     * Map from job ID to {@link Job}, in ID order.
+     */
+    public Map<String, Job> JOBS = new TreeMap<>();
+
     /**
      * The default {@link OreRule}s if not overridden for the world.
      */
@@ -101,11 +315,28 @@ public class Configuration {
      */
     public Map<String, List<ClearRule>> WORLD_CLEAR_RULES = new TreeMap<>();
 
+    /**
+     * Map from world name, or "default", to the biome index of the
+     * corresponding enabled {@link OreRule}s.
+     */
+    public Map<String, RuleIndex<OreRule>> ORE_RULE_INDICES = new HashMap<>();
+
+    /**
+     * Map from world name, or "default", to the biome index of the
+     * corresponding enabled {@link ClearRule}s.
+     */
+    public Map<String, RuleIndex<ClearRule>> CLEAR_RULE_INDICES = new HashMap<>();
+
     /**
      * The set of Materials that an ore can be generated into by an OreRule.
      */
     public EnumSet<Material> REPLACEABLE_MATERIALS = EnumSet.noneOf(Material.class);
 
+    /**
+     * REPLACEABLE_MATERIALS as a bitset indexed by Material ordinal.
+     */
+    public long[] REPLACEABLE_BITS = new long[0];
+
     // ------------------------------------------------------------------------
     /**
      * Load the plugin configuration.
@@ -113,26 +344,116 @@ public class Configuration {
     public void reload() {
         // NOTE: reloadConfig() alters the object returned by getConfig().
         NerdOre.PLUGIN.reloadConfig();
-        FileConfiguration config = NerdOre.PLUGIN.getConfig();
-        Logger logger = NerdOre.PLUGIN.getLogger();
+        load(NerdOre.PLUGIN.getConfig(), NerdOre.PLUGIN.getLogger());
+    }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Load the configuration from the specified FileConfiguration.
+     *
+     * This is also used outside of a server, by the {@link OfflineProcessor}.
+     *
+     * @param config the configuration, with the defaults of the plugin.
+     * @param logger used for logging.
+     */
+    public void load(FileConfiguration config, Logger logger) {
         DEBUG_CONFIG = config.getBoolean("debug.config");
         DEBUG_PROCESSING = config.getBoolean("debug.processing");
         NOTIFY = config.getBoolean("notify");
         NOTIFY_TICKS = config.getInt("notify-ticks");
         PERIOD_TICKS = config.getInt("period-ticks");
+        BUDGET_MS = config.getDouble("budget-ms");
+        if (!(BUDGET_MS >= 0 && BUDGET_MS < 50)) {
+            logger.severe("budget-ms must be in the range [0,50): " + BUDGET_MS + "; using period-ticks.");
+            BUDGET_MS = 0;
+        }
+        LEGACY_DETERMINISM = config.getBoolean("legacy-determinism");
+        WORKER_THREADS = Math.max(0, config.getInt("worker-threads", 2));
+        APPLY_QUOTA = Math.max(1, config.getInt("apply-quota", 4096));
+        WORKING_SET_CHUNKS = Math.max(0, config.getInt("working-set-chunks", 1024));
+        UNLOADS_PER_TICK = Math.max(1, config.getInt("unloads-per-tick", 4));
+        SKIP_UNGENERATED = config.getBoolean("skip-ungenerated", true);
+        SKIP_PROCESSED = config.getBoolean("skip-processed", true);
+        JOURNAL_COMMIT_CHUNKS = Math.max(1, config.getInt("journal.commit-chunks", 64));
+        JOURNAL_COMMIT_MS = Math.max(1, config.getInt("journal.commit-ms", 1000));
+        JOURNAL_COMPACT_BYTES = Math.max(1, config.getLong("journal.compact-kib", 1024)) * 1024;
+        UNDO_ENABLED = config.getBoolean("undo.enabled", true);
+        UNDO_ROLLBACK_BLOCKS = Math.max(1, config.getInt("undo.rollback-blocks-per-tick", 1000));
+        DRY_RUN_CHUNKS_PER_TICK = Math.max(1, config.getInt("dry-run.chunks-per-tick", 8));
+        HEALTH_ENABLED = config.getBoolean("health.enabled", true);
+        HEALTH_SAMPLE_TICKS = Math.max(1, config.getInt("health.sample-ticks", 20));
+        HEALTH_RECOVER_TICKS = Math.max(0, config.getInt("health.recover-ticks", 200));
+        HEALTH_THROTTLE_FACTOR = Math.min(1.0, Math.max(0.05, config.getDouble("health.throttle-factor", 0.5)));
+        HEALTH_TPS_THROTTLE = config.getDouble("health.tps.throttle", 18.0);
+        HEALTH_TPS_PAUSE = Math.min(HEALTH_TPS_THROTTLE, config.getDouble("health.tps.pause", 15.0));
+        HEALTH_TPS_RESUME = Math.max(HEALTH_TPS_THROTTLE, config.getDouble("health.tps.resume", 19.5));
+        HEALTH_HEAP_THROTTLE = config.getDouble("health.heap-percent.throttle", 80) / 100;
+        HEALTH_HEAP_PAUSE = Math.max(HEALTH_HEAP_THROTTLE, config.getDouble("health.heap-percent.pause", 90) / 100);
+        HEALTH_HEAP_RESUME = Math.min(HEALTH_HEAP_THROTTLE, config.getDouble("health.heap-percent.resume", 70) / 100);
+        HEALTH_GC_PAUSE_MS = Math.max(0, config.getInt("health.gc-pause-ms", 500));
+        HEALTH_CHUNKS_THROTTLE = Math.max(0, config.getInt("health.loaded-chunks.throttle", 0));
+        HEALTH_CHUNKS_PAUSE = Math.max(0, config.getInt("health.loaded-chunks.pause", 0));
+        int chunksLimit = (HEALTH_CHUNKS_THROTTLE > 0) ? HEALTH_CHUNKS_THROTTLE : HEALTH_CHUNKS_PAUSE;
+        HEALTH_CHUNKS_RESUME = config.getInt("health.loaded-chunks.resume", chunksLimit * 9 / 10);
+        if (chunksLimit > 0 && (HEALTH_CHUNKS_RESUME <= 0 || HEALTH_CHUNKS_RESUME > chunksLimit)) {
+            HEALTH_CHUNKS_RESUME = chunksLimit;
+        }
+        PROXIMITY_ENABLED = config.getBoolean("player-proximity.enabled", true);
+        PROXIMITY_RADIUS_CHUNKS = Math.max(0, config.getInt("player-proximity.radius-chunks", 2));
+        PROXIMITY_RETRY_TICKS = Math.max(1, config.getInt("player-proximity.retry-ticks", 200));
+        POPULATE_WORLDS.clear();
+        POPULATE_WORLDS.addAll(config.getStringList("populate.worlds"));
         SEED = config.getLong("seed");
         SIDE = config.getInt("side");
-        WORLD = config.getString("world");
+        if (config.contains("world")) {
+            // Saved in the configuration by earlier versions.
+            WORLD = config.getString("world");
+            _legacyState = true;
+        }
 
         INDICES.clear();
         ConfigurationSection indicesSection = config.getConfigurationSection("indices");
-        for (String worldName : indicesSection.getKeys(false)) {
-            INDICES.put(worldName, indicesSection.getInt(worldName));
+        if (indicesSection != null) {
+            for (String worldName : indicesSection.getKeys(false)) {
+                INDICES.put(worldName, indicesSection.getInt(worldName));
+            }
+        }
+
+        TRAVERSAL = Traversal.fromName(config.getString("traversal", "spiral"));
+        if (TRAVERSAL == null) {
+            logger.severe("Invalid traversal: " + config.getString("traversal") + "; using spiral.");
+            TRAVERSAL = Traversal.SPIRAL;
+        }
+        TRAVERSAL_INDICES.clear();
+        for (Traversal traversal : Traversal.values()) {
+            if (traversal != Traversal.SPIRAL) {
+                Map<String, Integer> cursors = new HashMap<>();
+                ConfigurationSection cursorsSection = config.getConfigurationSection("traversal-indices." +
+                                                                                     traversal.name().toLowerCase());
+                if (cursorsSection != null) {
+                    for (String worldName : cursorsSection.getKeys(false)) {
+                        cursors.put(worldName, cursorsSection.getInt(worldName));
+                    }
+                }
+                TRAVERSAL_INDICES.put(traversal, cursors);
+            }
         }
 
+        ConfigurationSection jobsSection = config.getConfigurationSection("jobs");
+        if (jobsSection != null) {
+            for (String id : jobsSection.getKeys(false)) {
+                ConfigurationSection jobSection = jobsSection.getConfigurationSection(id);
+                JOBS.computeIfAbsent(id, k -> new Job(k, k)).load(jobSection);
+                _legacyState |= jobSection.contains("indices");
+            }
+        }
+        JOBS.values().removeIf(job -> !job.isRunning() &&
+                                      (jobsSection == null || !jobsSection.contains(job.getId())));
+
         WORLD_ORE_RULES.clear();
         WORLD_CLEAR_RULES.clear();
+        ORE_RULE_INDICES.clear();
+        CLEAR_RULE_INDICES.clear();
         ConfigurationSection rules = config.getConfigurationSection("rules");
         for (String worldName : rules.getKeys(false)) {
             ConfigurationSection section = rules.getConfigurationSection(worldName);
@@ -145,7 +466,11 @@ public class Configuration {
                 WORLD_ORE_RULES.put(worldName, oreRules);
                 WORLD_CLEAR_RULES.put(worldName, clearRules);
             }
+            ORE_RULE_INDICES.put(worldName, new RuleIndex<>(oreRules, OreRule[]::new));
+            CLEAR_RULE_INDICES.put(worldName, new RuleIndex<>(clearRules, ClearRule[]::new));
         }
+        ORE_RULE_INDICES.putIfAbsent("default", new RuleIndex<>(new ArrayList<>(), OreRule[]::new));
+        CLEAR_RULE_INDICES.putIfAbsent("default", new RuleIndex<>(new ArrayList<>(), ClearRule[]::new));
 
         REPLACEABLE_MATERIALS.clear();
         for (String materialName : config.getStringList("replaceable-materials")) {
@@ -155,14 +480,50 @@ public class Configuration {
                 logger.severe("Invalid replaceable material: " + materialName);
             }
         }
+        long[] replaceableBits = new long[(Material.values().length + 63) / 64];
+        for (Material material : REPLACEABLE_MATERIALS) {
+            replaceableBits[material.ordinal() >>> 6] |= 1L << material.ordinal();
+        }
+        REPLACEABLE_BITS = replaceableBits;
 
         if (DEBUG_CONFIG) {
             logger.info("DEBUG_PROCESSING: " + DEBUG_PROCESSING);
             logger.info("NOTIFY: " + NOTIFY);
             logger.info("PERIOD_TICKS: " + PERIOD_TICKS);
+            logger.info("BUDGET_MS: " + BUDGET_MS);
+            logger.info("LEGACY_DETERMINISM: " + LEGACY_DETERMINISM);
+            logger.info("WORKER_THREADS: " + WORKER_THREADS);
+            logger.info("APPLY_QUOTA: " + APPLY_QUOTA);
+            logger.info("WORKING_SET_CHUNKS: " + WORKING_SET_CHUNKS);
+            logger.info("UNLOADS_PER_TICK: " + UNLOADS_PER_TICK);
+            logger.info("SKIP_UNGENERATED: " + SKIP_UNGENERATED);
+            logger.info("SKIP_PROCESSED: " + SKIP_PROCESSED);
+            logger.info("JOURNAL_COMMIT_CHUNKS: " + JOURNAL_COMMIT_CHUNKS);
+            logger.info("JOURNAL_COMMIT_MS: " + JOURNAL_COMMIT_MS);
+            logger.info("JOURNAL_COMPACT_BYTES: " + JOURNAL_COMPACT_BYTES);
+            logger.info("UNDO_ENABLED: " + UNDO_ENABLED);
+            logger.info("UNDO_ROLLBACK_BLOCKS: " + UNDO_ROLLBACK_BLOCKS);
+            logger.info("DRY_RUN_CHUNKS_PER_TICK: " + DRY_RUN_CHUNKS_PER_TICK);
+            logger.info("HEALTH_ENABLED: " + HEALTH_ENABLED);
+            logger.info("HEALTH_SAMPLE_TICKS: " + HEALTH_SAMPLE_TICKS);
+            logger.info("HEALTH_RECOVER_TICKS: " + HEALTH_RECOVER_TICKS);
+            logger.info("HEALTH_THROTTLE_FACTOR: " + HEALTH_THROTTLE_FACTOR);
+            logger.info("HEALTH_TPS: throttle " + HEALTH_TPS_THROTTLE + ", pause " + HEALTH_TPS_PAUSE +
+                        ", resume " + HEALTH_TPS_RESUME);
+            logger.info("HEALTH_HEAP: throttle " + HEALTH_HEAP_THROTTLE + ", pause " + HEALTH_HEAP_PAUSE +
+                        ", resume " + HEALTH_HEAP_RESUME);
+            logger.info("HEALTH_GC_PAUSE_MS: " + HEALTH_GC_PAUSE_MS);
+            logger.info("HEALTH_CHUNKS: throttle " + HEALTH_CHUNKS_THROTTLE + ", pause " + HEALTH_CHUNKS_PAUSE +
+                        ", resume " + HEALTH_CHUNKS_RESUME);
+            logger.info("PROXIMITY_ENABLED: " + PROXIMITY_ENABLED);
+            logger.info("PROXIMITY_RADIUS_CHUNKS: " + PROXIMITY_RADIUS_CHUNKS);
+            logger.info("PROXIMITY_RETRY_TICKS: " + PROXIMITY_RETRY_TICKS);
+            logger.info("POPULATE_WORLDS: " + String.join(", ", POPULATE_WORLDS));
             logger.info("SEED: " + SEED);
             logger.info("SIDE: " + SIDE);
             logger.info("WORLD: " + WORLD);
+            logger.info("TRAVERSAL: " + TRAVERSAL);
+            logger.info("Jobs: " + JOBS.values().stream().map(Job::toString).collect(Collectors.joining(", ")));
             logger.info("Indices:");
             for (Entry<String, Integer> entry : INDICES.entrySet()) {
                 logger.info(entry.getKey() + ": " + entry.getValue());
@@ -181,11 +542,50 @@ public class Configuration {
                 logOreRules(logger, worldName);
             }
         }
-    } // reload
+    } // load
 
     // ------------------------------------------------------------------------
     /**
-     * Save the configuration to disk.
+     * Load the runtime state: the job cursors and the most recent world.
+     *
+     * This is called once, when the plugin is enabled, after
+     * {@link #reload()}; thereafter the state in memory is authoritative. If
+     * the configuration contained state saved by earlier versions, the
+     * configuration is saved without it.
+     */
+    public void loadState() {
+        File file = getStateFile();
+        if (file.isFile()) {
+            YamlConfiguration state = YamlConfiguration.loadConfiguration(file);
+            WORLD = state.getString("world", WORLD);
+            ConfigurationSection jobsSection = state.getConfigurationSection("jobs");
+            if (jobsSection != null) {
+                for (String id : jobsSection.getKeys(false)) {
+                    Job job = JOBS.get(id);
+                    if (job != null) {
+                        job.loadState(jobsSection.getConfigurationSection(id));
+                    }
+                }
+            }
+        }
+
+        if (_legacyState) {
+            NerdOre.PLUGIN.getLogger().info("Moving job cursors from config.yml to " + file.getName() + ".");
+            _legacyState = false;
+            save();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Save the configuration and the runtime state.
+     *
+     * The cursors saved in the configuration by earlier versions are dropped
+     * for worlds that have a {@link Job}, since the job's cursors are saved
+     * in the state file; they are kept only for worlds whose job has not yet
+     * been created.
+     *
+     * The files are written in the background by {@link NerdOre#STATE_WRITER}.
      */
     public void save() {
         FileConfiguration config = NerdOre.PLUGIN.getConfig();
@@ -193,56 +593,118 @@ public class Configuration {
         config.set("debug.processing", DEBUG_PROCESSING);
         config.set("notify", NOTIFY);
         config.set("period-ticks", PERIOD_TICKS);
+        config.set("budget-ms", BUDGET_MS);
         config.set("seed", SEED);
         config.set("side", SIDE);
-        config.set("world", WORLD);
+        config.set("world", null);
+
+        INDICES.keySet().removeAll(JOBS.keySet());
+        config.set("indices", null);
+        if (!INDICES.isEmpty()) {
+            ConfigurationSection indicesSection = config.createSection("indices");
+            for (Entry<String, Integer> entry : INDICES.entrySet()) {
+                indicesSection.set(entry.getKey(), entry.getValue());
+            }
+        }
+        config.set("traversal-indices", null);
+        for (Entry<Traversal, Map<String, Integer>> cursors : TRAVERSAL_INDICES.entrySet()) {
+            cursors.getValue().keySet().removeAll(JOBS.keySet());
+            if (!cursors.getValue().isEmpty()) {
+                ConfigurationSection cursorsSection = config.createSection("traversal-indices." +
+                                                                           cursors.getKey().name().toLowerCase());
+                for (Entry<String, Integer> entry : cursors.getValue().entrySet()) {
+                    cursorsSection.set(entry.getKey(), entry.getValue());
+                }
+            }
+        }
 
-        ConfigurationSection indicesSection = config.createSection("indices");
-        for (Entry<String, Integer> entry : INDICES.entrySet()) {
-            indicesSection.set(entry.getKey(), entry.getValue());
+        config.set("traversal", TRAVERSAL.name().toLowerCase());
+        ConfigurationSection jobsSection = config.createSection("jobs");
+        for (Job job : JOBS.values()) {
+            job.save(jobsSection.createSection(job.getId()));
         }
-        NerdOre.PLUGIN.saveConfig();
+        NerdOre.STATE_WRITER.write(new File(NerdOre.PLUGIN.getDataFolder(), "config.yml"),
+                                   config.saveToString(), null);
+        saveState(null);
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Set the current chunk index in the specified world.
-     * 
-     * @param world the World.
-     * @param index the index value.
+     * Save the runtime state: the job cursors and the most recent world.
+     *
+     * The state is captured now, and written to the state file in the
+     * background by {@link NerdOre#STATE_WRITER}.
+     *
+     * @param afterWrite if not null, run on the writer's thread once the
+     *        state is on disk.
      */
-    public void setIndex(World world, int index) {
-        INDICES.put(world.getName(), index);
+    public void saveState(Runnable afterWrite) {
+        YamlConfiguration state = new YamlConfiguration();
+        state.set("world", WORLD);
+        ConfigurationSection jobsSection = state.createSection("jobs");
+        for (Job job : JOBS.values()) {
+            job.saveState(jobsSection.createSection(job.getId()));
+        }
+        NerdOre.STATE_WRITER.write(getStateFile(), state.saveToString(), afterWrite);
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Return the current chunk index in the specified world.
-     * 
-     * @param world the World.
-     * @return the current chunk index in the specified world.
+     * Return the file containing the runtime state.
+     *
+     * @return the state file.
      */
-    public int getIndex(World world) {
-        return INDICES.getOrDefault(world.getName(), 0);
+    public File getStateFile() {
+        return new File(NerdOre.PLUGIN.getDataFolder(), "state.yml");
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Increment the chunk index in the currently processed world.
+     * Return true if an ore can be generated into a block of the specified
+     * Material.
+     * 
+     * @param material the Material.
+     * @return true if the Material is in REPLACEABLE_MATERIALS.
      */
-    public void nextIndex() {
-        INDICES.put(WORLD, getIndex() + 1);
+    public boolean isReplaceable(Material material) {
+        int ordinal = material.ordinal();
+        return (REPLACEABLE_BITS[ordinal >>> 6] & (1L << ordinal)) != 0;
+    }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return the {@link Job} with the specified ID, or null if there is none.
+     * 
+     * @param id the job ID.
+     * @return the Job, or null.
+     */
+    public Job getJob(String id) {
+        return JOBS.get(id);
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Return the current chunk index in the currently processed world.
+     * Return the {@link Job} whose ID is the name of the specified world,
+     * creating it if necessary.
+     * 
+     * A new job follows the global side, seed and traversal settings, and
+     * takes its cursors from the indices saved by earlier versions.
      * 
-     * @return the current chunk index in the currently processed world.
+     * @param world the World.
+     * @return the Job.
      */
-    public int getIndex() {
-        return INDICES.getOrDefault(WORLD, 0);
+    public Job getWorldJob(World world) {
+        return JOBS.computeIfAbsent(world.getName(), worldName -> {
+            Job job = new Job(worldName, worldName);
+            for (Traversal traversal : Traversal.values()) {
+                Integer index = (traversal == Traversal.SPIRAL) ? INDICES.get(worldName)
+                                                                : TRAVERSAL_INDICES.get(traversal).get(worldName);
+                if (index != null) {
+                    job.setIndex(traversal, index);
+                }
+            }
+            return job;
+        });
     }
 
     // ------------------------------------------------------------------------
@@ -267,6 +729,32 @@ public class Configuration {
         return WORLD_CLEAR_RULES.getOrDefault(worldName, DEFAULT_CLEAR_RULES);
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return the biome index of the enabled {@link OreRule}s that apply to the
+     * specified world.
+     * 
+     * @param worldName the name of the world.
+     * @return the biome index of the enabled {@link OreRule}s.
+     */
+    public RuleIndex<OreRule> getOreRuleIndex(String worldName) {
+        RuleIndex<OreRule> index = ORE_RULE_INDICES.get(worldName);
+        return (index != null) ? index : ORE_RULE_INDICES.get("default");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the biome index of the enabled {@link ClearRule}s that apply to
+     * the specified world.
+     * 
+     * @param worldName the name of the world.
+     * @return the biome index of the enabled {@link ClearRule}s.
+     */
+    public RuleIndex<ClearRule> getClearRuleIndex(String worldName) {
+        RuleIndex<ClearRule> index = CLEAR_RULE_INDICES.get(worldName);
+        return (index != null) ? index : CLEAR_RULE_INDICES.get("default");
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Log the specified set of clear rules to the console.
@@ -320,10 +808,12 @@ public class Configuration {
         @SuppressWarnings("unchecked")
         List<Map<String, Object>> maps = (List<Map<String, Object>>) (List<?>) worldSection.getMapList(ruleListName);
         if (maps != null) {
+            int id = 0;
             for (Map<String, Object> ruleMap : maps) {
                 MemoryConfiguration config = new MemoryConfiguration();
                 populateConfigurationSection(config, ruleMap);
                 R rule = ctor.apply(config);
+                rule.setId(id++);
                 if (rule.isValid()) {
                     result.add(rule);
                 }
@@ -354,4 +844,10 @@ public class Configuration {
         }
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * True if the configuration contains runtime state saved by earlier
+     * versions, which {@link #loadState()} moves to the state file.
+     */
+    protected boolean _legacyState;
 } // class Configuration
\ No newline at end of file
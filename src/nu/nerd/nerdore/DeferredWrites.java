@@ -0,0 +1,514 @@
+package nu.nerd.nerdore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+// ----------------------------------------------------------------------------
+/**
+ * Ore blocks that spilled over into chunks that were not loaded when the
+ * deposit was generated.
+ *
+ * Rather than loading (or worse, generating) a neighbouring chunk in the
+ * middle of a tick, {@link VoxelWriter} queues the block here. Queued blocks
+ * are placed when the chunk is next processed or loaded, subject to the same
+ * replaceable materials check as immediate placement. Each block keeps the ID
+ * of the job that queued it, so that it is recorded in the {@link UndoJournal}
+ * under that job when it is placed, and discarded if that job is rolled back
+ * first.
+ *
+ * The queue is saved to a compact binary file whenever the progress journal is
+ * compacted, including when the plugin is disabled, and loaded when it is
+ * enabled. Blocks queued since then are recovered from the journal. The file
+ * starts with tables of Material names, so that it does not depend on Material
+ * ordinals, and of job IDs, followed by the queued blocks of each chunk of
+ * each world. Files written before job IDs were kept are still read; their
+ * blocks belong to an unknown job.
+ */
+public class DeferredWrites {
+    // ------------------------------------------------------------------------
+    /**
+     * Queue a block to be placed when its chunk is loaded.
+     *
+     * @param world the World.
+     * @param jobId the ID of the job that queues the block, or null if
+     *        unknown.
+     * @param x the world X coordinate.
+     * @param y the world Y coordinate.
+     * @param z the world Z coordinate.
+     * @param material the Material to place.
+     */
+    public void add(World world, String jobId, int x, int y, int z, Material material) {
+        add(world.getName(), jobId, x, y, z, material);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Queue a block to be placed when its chunk is processed.
+     *
+     * @param worldName the name of the world.
+     * @param jobId the ID of the job that queues the block, or null if
+     *        unknown.
+     * @param x the world X coordinate.
+     * @param y the world Y coordinate.
+     * @param z the world Z coordinate.
+     * @param material the Material to place.
+     */
+    public synchronized void add(String worldName, String jobId, int x, int y, int z, Material material) {
+        Map<Long, Writes> chunks = _worlds.computeIfAbsent(worldName, k -> new HashMap<>());
+        Writes writes = chunks.computeIfAbsent(Util.chunkKey(x >> 4, z >> 4), k -> new Writes());
+        writes.add((material.ordinal() << 16) | (y << 8) | ((x & 15) << 4) | (z & 15), jobId);
+        ++_size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if there are blocks queued for the specified chunk.
+     *
+     * @param world the World.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return true if there are blocks queued for the chunk.
+     */
+    public synchronized boolean contains(World world, int chunkX, int chunkZ) {
+        Map<Long, Writes> chunks = _worlds.get(world.getName());
+        return chunks != null && chunks.containsKey(Util.chunkKey(chunkX, chunkZ));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Place all blocks queued for the specified loaded chunk and remove them
+     * from the queue.
+     *
+     * Placed blocks are recorded in the {@link NerdOre#UNDO} journal, under
+     * the job that queued them.
+     *
+     * @param chunk the Chunk.
+     * @return the number of blocks placed.
+     */
+    public int apply(Chunk chunk) {
+        Writes writes = remove(chunk.getWorld().getName(), chunk.getX(), chunk.getZ());
+        if (writes == null) {
+            return 0;
+        }
+
+        Material[] materials = Material.values();
+        String worldName = chunk.getWorld().getName();
+        int placed = 0;
+        for (int i = 0; i < writes._size; ++i) {
+            int write = writes._packed[i];
+            int x = (write >> 4) & 0xF;
+            int y = (write >> 8) & 0xFF;
+            int z = write & 0xF;
+            Block block = chunk.getBlock(x, y, z);
+            Material original = block.getType();
+            if (NerdOre.CONFIG.isReplaceable(original)) {
+                Material material = materials[write >>> 16];
+                NerdOre.UNDO.recordChange(writes._jobIds[i], worldName, chunk.getX() * 16 + x, y,
+                                          chunk.getZ() * 16 + z, original, material);
+                block.setType(material);
+                ++placed;
+            }
+        }
+        return placed;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Place all blocks queued for the specified chunk of a region file and
+     * remove them from the queue.
+     *
+     * This is the {@link OfflineProcessor}'s counterpart of
+     * {@link #apply(Chunk)}; no undo journal is kept offline.
+     *
+     * @param chunk the chunk.
+     * @return the number of blocks placed.
+     */
+    public int apply(AnvilChunk chunk) {
+        Writes writes = remove(chunk.getWorldName(), chunk.getX(), chunk.getZ());
+        if (writes == null) {
+            return 0;
+        }
+
+        Material[] materials = Material.values();
+        int placed = 0;
+        for (int i = 0; i < writes._size; ++i) {
+            int write = writes._packed[i];
+            int x = (write >> 4) & 0xF;
+            int y = (write >> 8) & 0xFF;
+            int z = write & 0xF;
+            if (NerdOre.CONFIG.isReplaceable(chunk.getType(x, y, z))) {
+                chunk.setType(x, y, z, materials[write >>> 16]);
+                ++placed;
+            }
+        }
+        return placed;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Move all blocks queued in another queue to the end of this one.
+     *
+     * @param other the other queue, which is emptied.
+     */
+    public void addAll(DeferredWrites other) {
+        Map<String, Map<Long, Writes>> worlds;
+        synchronized (other) {
+            worlds = other._worlds;
+            other._worlds = new HashMap<>();
+            other._size = 0;
+        }
+
+        synchronized (this) {
+            for (Entry<String, Map<Long, Writes>> world : worlds.entrySet()) {
+                Map<Long, Writes> chunks = _worlds.computeIfAbsent(world.getKey(), k -> new HashMap<>());
+                for (Entry<Long, Writes> chunk : world.getValue().entrySet()) {
+                    Writes from = chunk.getValue();
+                    Writes to = chunks.computeIfAbsent(chunk.getKey(), k -> new Writes());
+                    for (int i = 0; i < from._size; ++i) {
+                        to.add(from._packed[i], from._jobIds[i]);
+                    }
+                    _size += from._size;
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the blocks queued by a job in a world, when the job is rolled
+     * back.
+     *
+     * Blocks queued by an unknown job are removed too, just as the
+     * {@link UndoJournal} rolls back the changes of unknown jobs with every
+     * job.
+     *
+     * @param worldName the name of the world.
+     * @param jobId the ID of the job.
+     * @return the number of blocks removed.
+     */
+    public synchronized int removeJob(String worldName, String jobId) {
+        Map<Long, Writes> chunks = _worlds.get(worldName);
+        if (chunks == null) {
+            return 0;
+        }
+
+        int removed = 0;
+        for (Iterator<Writes> it = chunks.values().iterator(); it.hasNext();) {
+            Writes writes = it.next();
+            int kept = 0;
+            for (int i = 0; i < writes._size; ++i) {
+                String writeJobId = writes._jobIds[i];
+                if (writeJobId != null && !writeJobId.equals(jobId)) {
+                    writes._packed[kept] = writes._packed[i];
+                    writes._jobIds[kept] = writeJobId;
+                    ++kept;
+                }
+            }
+            Arrays.fill(writes._jobIds, kept, writes._size, null);
+            removed += writes._size - kept;
+            writes._size = kept;
+            if (kept == 0) {
+                it.remove();
+            }
+        }
+        _size -= removed;
+        return removed;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the blocks queued for the chunks of one region file, when all
+     * changes in the region file are rolled back.
+     *
+     * @param worldName the name of the world.
+     * @param regionX the region X coordinate.
+     * @param regionZ the region Z coordinate.
+     * @return the number of blocks removed.
+     */
+    public synchronized int removeRegion(String worldName, int regionX, int regionZ) {
+        Map<Long, Writes> chunks = _worlds.get(worldName);
+        if (chunks == null) {
+            return 0;
+        }
+
+        int removed = 0;
+        for (Iterator<Entry<Long, Writes>> it = chunks.entrySet().iterator(); it.hasNext();) {
+            Entry<Long, Writes> chunk = it.next();
+            if ((Util.chunkX(chunk.getKey()) >> 5) == regionX && (Util.chunkZ(chunk.getKey()) >> 5) == regionZ) {
+                removed += chunk.getValue()._size;
+                it.remove();
+            }
+        }
+        _size -= removed;
+        return removed;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the keys of the chunks of a world that have queued blocks.
+     *
+     * @param worldName the name of the world.
+     * @return a copy of the {@link Util#chunkKey(int, int) chunk keys}.
+     */
+    public synchronized Set<Long> getChunkKeys(String worldName) {
+        Map<Long, Writes> chunks = _worlds.get(worldName);
+        return (chunks != null) ? new TreeSet<>(chunks.keySet()) : new TreeSet<>();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the total number of queued blocks.
+     *
+     * @return the total number of queued blocks.
+     */
+    public synchronized int size() {
+        return _size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Replace the queue with the contents of the specified file, if it exists.
+     *
+     * @param file the file.
+     * @throws IOException if the file could not be read.
+     */
+    public synchronized void load(File file) throws IOException {
+        _worlds.clear();
+        _size = 0;
+        if (!file.exists()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            int magic = in.readInt();
+            if (magic != MAGIC && magic != MAGIC_WITHOUT_JOBS) {
+                throw new IOException("not a deferred writes file");
+            }
+
+            // Map file material indices to current ordinals.
+            int materialCount = in.readInt();
+            int[] ordinals = new int[materialCount];
+            for (int i = 0; i < materialCount; ++i) {
+                String name = in.readUTF();
+                try {
+                    ordinals[i] = Material.valueOf(name).ordinal();
+                } catch (IllegalArgumentException ex) {
+                    ordinals[i] = -1;
+                }
+            }
+
+            String[] jobIds = new String[(magic == MAGIC) ? in.readInt() : 0];
+            for (int i = 0; i < jobIds.length; ++i) {
+                jobIds[i] = in.readUTF();
+            }
+
+            int worldCount = in.readInt();
+            for (int w = 0; w < worldCount; ++w) {
+                Map<Long, Writes> chunks = _worlds.computeIfAbsent(in.readUTF(), k -> new HashMap<>());
+                int chunkCount = in.readInt();
+                for (int c = 0; c < chunkCount; ++c) {
+                    long key = in.readLong();
+                    int writeCount = in.readInt();
+                    for (int i = 0; i < writeCount; ++i) {
+                        int write = in.readInt();
+                        int job = (magic == MAGIC) ? in.readShort() : -1;
+                        int ordinal = ordinals[write >>> 16];
+                        if (ordinal >= 0) {
+                            chunks.computeIfAbsent(key, k -> new Writes())
+                                .add((ordinal << 16) | (write & 0xFFFF), (job >= 0) ? jobIds[job] : null);
+                            ++_size;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Save the queue to the specified file, or delete the file if the queue
+     * is empty.
+     *
+     * The file is replaced atomically, so a crash while saving leaves either
+     * the old or the new queue on disk.
+     *
+     * @param file the file.
+     * @throws IOException if the file could not be written.
+     */
+    public void save(File file) throws IOException {
+        save(file, encode());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Save a queue previously encoded by {@link #encode()} to the specified
+     * file, or delete the file if the queue was empty.
+     *
+     * This does not access the queue, so it can be called on any thread.
+     *
+     * @param file the file.
+     * @param contents the encoded queue, or null if it was empty.
+     * @throws IOException if the file could not be written.
+     */
+    public static void save(File file, byte[] contents) throws IOException {
+        if (contents == null) {
+            file.delete();
+        } else {
+            StateWriter.writeAtomically(file, contents);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Encode the queue in the format of the saved file.
+     *
+     * @return the encoded queue, or null if the queue is empty.
+     * @throws IOException if the queue could not be encoded.
+     */
+    public synchronized byte[] encode() throws IOException {
+        if (_size == 0) {
+            return null;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(bytes)))) {
+            out.writeInt(MAGIC);
+            Material[] materials = Material.values();
+            out.writeInt(materials.length);
+            for (Material material : materials) {
+                out.writeUTF(material.name());
+            }
+
+            // Number the jobs in the order they are first seen.
+            Map<String, Integer> jobIndices = new LinkedHashMap<>();
+            for (Map<Long, Writes> chunks : _worlds.values()) {
+                for (Writes writes : chunks.values()) {
+                    for (int i = 0; i < writes._size; ++i) {
+                        if (writes._jobIds[i] != null) {
+                            jobIndices.putIfAbsent(writes._jobIds[i], jobIndices.size());
+                        }
+                    }
+                }
+            }
+            out.writeInt(jobIndices.size());
+            for (String jobId : jobIndices.keySet()) {
+                out.writeUTF(jobId);
+            }
+
+            out.writeInt(_worlds.size());
+            for (Entry<String, Map<Long, Writes>> world : _worlds.entrySet()) {
+                out.writeUTF(world.getKey());
+                out.writeInt(world.getValue().size());
+                for (Entry<Long, Writes> chunk : world.getValue().entrySet()) {
+                    Writes writes = chunk.getValue();
+                    out.writeLong(chunk.getKey());
+                    out.writeInt(writes._size);
+                    for (int i = 0; i < writes._size; ++i) {
+                        out.writeInt(writes._packed[i]);
+                        out.writeShort((writes._jobIds[i] != null) ? jobIndices.get(writes._jobIds[i]) : -1);
+                    }
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove and return the blocks queued for a chunk.
+     *
+     * @param worldName the name of the world.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return the queued blocks, or null if there are none.
+     */
+    protected synchronized Writes remove(String worldName, int chunkX, int chunkZ) {
+        Map<Long, Writes> chunks = _worlds.get(worldName);
+        Writes writes = (chunks != null) ? chunks.remove(Util.chunkKey(chunkX, chunkZ)) : null;
+        if (writes != null) {
+            _size -= writes._size;
+        }
+        return writes;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The queued blocks of one chunk, each packed into an int as the Material
+     * ordinal in the upper 16 bits, then Y, then chunk-relative X and Z, with
+     * the ID of the job that queued it.
+     */
+    protected static class Writes {
+        /**
+         * Append a packed block.
+         *
+         * @param packed the packed block.
+         * @param jobId the ID of the job that queued the block, or null.
+         */
+        void add(int packed, String jobId) {
+            if (_size == _packed.length) {
+                _packed = Arrays.copyOf(_packed, _packed.length * 2);
+                _jobIds = Arrays.copyOf(_jobIds, _jobIds.length * 2);
+            }
+            _jobIds[_size] = jobId;
+            _packed[_size++] = packed;
+        }
+
+        /**
+         * Packed blocks.
+         */
+        int[] _packed = new int[16];
+
+        /**
+         * The IDs of the jobs that queued each block; null elements are
+         * unknown.
+         */
+        String[] _jobIds = new String[16];
+
+        /**
+         * Number of valid elements of _packed.
+         */
+        int _size;
+    } // class Writes
+
+    // ------------------------------------------------------------------------
+    /**
+     * Identifies the file format.
+     */
+    protected static final int MAGIC = 0x4E4F444A;
+
+    /**
+     * Identifies the earlier file format, without job IDs.
+     */
+    protected static final int MAGIC_WITHOUT_JOBS = 0x4E4F4457;
+
+    /**
+     * Map from world name to map from chunk key to queued blocks.
+     */
+    protected Map<String, Map<Long, Writes>> _worlds = new HashMap<>();
+
+    /**
+     * Total number of queued blocks.
+     */
+    protected int _size;
+} // class DeferredWrites
@@ -0,0 +1,227 @@
+package nu.nerd.nerdore;
+
+import java.util.Arrays;
+
+// ----------------------------------------------------------------------------
+/**
+ * The ore deposits planned for one chunk by a {@link DepositPlanner}, ready
+ * to be placed on the main thread.
+ *
+ * Each deposit has a rule index, a size (the number of blocks to place) and a
+ * list of candidate voxels, in order. The main thread places candidate voxels
+ * that are replaceable until the size is reached. Voxels are packed into an
+ * int as X and Z offsets from the chunk's origin, and Y.
+ */
+public class DepositPlan {
+    // ------------------------------------------------------------------------
+    /**
+     * Return the packed representation of a voxel.
+     *
+     * @param dx the X offset from the chunk origin, in [-512,511].
+     * @param y the Y coordinate in [0,255].
+     * @param dz the Z offset from the chunk origin, in [-512,511].
+     * @return the packed voxel.
+     */
+    public static int pack(int dx, int y, int dz) {
+        return ((dx & 0x3FF) << 18) | ((dz & 0x3FF) << 8) | y;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the X offset from the chunk origin of a packed voxel.
+     *
+     * @param voxel the packed voxel.
+     * @return the X offset.
+     */
+    public static int dx(int voxel) {
+        return (voxel << 4) >> 22;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Y coordinate of a packed voxel.
+     *
+     * @param voxel the packed voxel.
+     * @return the Y coordinate.
+     */
+    public static int y(int voxel) {
+        return voxel & 0xFF;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Z offset from the chunk origin of a packed voxel.
+     *
+     * @param voxel the packed voxel.
+     * @return the Z offset.
+     */
+    public static int dz(int voxel) {
+        return (voxel << 14) >> 22;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start a new deposit; subsequent voxels are added to it.
+     *
+     * @param ruleIndex the index of the OreRule in its {@link RuleIndex}.
+     * @param size the number of blocks to place.
+     * @param x the world X coordinate of the centre.
+     * @param y the world Y coordinate of the centre.
+     * @param z the world Z coordinate of the centre.
+     */
+    public void beginDeposit(int ruleIndex, int size, int x, int y, int z) {
+        if (_depositCount == _ruleIndices.length) {
+            int capacity = _depositCount * 2;
+            _ruleIndices = Arrays.copyOf(_ruleIndices, capacity);
+            _sizes = Arrays.copyOf(_sizes, capacity);
+            _centres = Arrays.copyOf(_centres, capacity * 3);
+            _starts = Arrays.copyOf(_starts, capacity + 1);
+        }
+        _ruleIndices[_depositCount] = ruleIndex;
+        _sizes[_depositCount] = size;
+        _centres[_depositCount * 3] = x;
+        _centres[_depositCount * 3 + 1] = y;
+        _centres[_depositCount * 3 + 2] = z;
+        _starts[_depositCount] = _voxelCount;
+        ++_depositCount;
+        _starts[_depositCount] = _voxelCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a voxel to the current deposit.
+     *
+     * @param voxel the packed voxel.
+     */
+    public void addVoxel(int voxel) {
+        if (_voxelCount == _voxels.length) {
+            _voxels = Arrays.copyOf(_voxels, _voxels.length * 2);
+        }
+        _voxels[_voxelCount++] = voxel;
+        _starts[_depositCount] = _voxelCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of deposits.
+     *
+     * @return the number of deposits.
+     */
+    public int getDepositCount() {
+        return _depositCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of the OreRule of a deposit.
+     *
+     * @param deposit the index of the deposit.
+     * @return the rule index.
+     */
+    public int getRuleIndex(int deposit) {
+        return _ruleIndices[deposit];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of blocks to place for a deposit.
+     *
+     * @param deposit the index of the deposit.
+     * @return the number of blocks to place.
+     */
+    public int getSize(int deposit) {
+        return _sizes[deposit];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return one world coordinate of the centre of a deposit.
+     *
+     * @param deposit the index of the deposit.
+     * @param axis 0 for X, 1 for Y, 2 for Z.
+     * @return the coordinate.
+     */
+    public int getCentre(int deposit, int axis) {
+        return _centres[deposit * 3 + axis];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of the first voxel of a deposit.
+     *
+     * @param deposit the index of the deposit.
+     * @return the index of the first voxel.
+     */
+    public int getVoxelStart(int deposit) {
+        return _starts[deposit];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index after the last voxel of a deposit.
+     *
+     * @param deposit the index of the deposit.
+     * @return the index after the last voxel.
+     */
+    public int getVoxelEnd(int deposit) {
+        return _starts[deposit + 1];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the packed voxel at the specified index.
+     *
+     * @param index the index of the voxel.
+     * @return the packed voxel.
+     */
+    public int getVoxel(int index) {
+        return _voxels[index];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the total number of voxels in all deposits.
+     *
+     * @return the total number of voxels.
+     */
+    public int getVoxelCount() {
+        return _voxelCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Rule index of each deposit.
+     */
+    protected int[] _ruleIndices = new int[16];
+
+    /**
+     * Number of blocks to place for each deposit.
+     */
+    protected int[] _sizes = new int[16];
+
+    /**
+     * X, Y and Z coordinates of the centre of each deposit.
+     */
+    protected int[] _centres = new int[16 * 3];
+
+    /**
+     * Index of the first voxel of each deposit; element _depositCount is the
+     * total number of voxels.
+     */
+    protected int[] _starts = new int[16 + 1];
+
+    /**
+     * Number of deposits.
+     */
+    protected int _depositCount;
+
+    /**
+     * Packed voxels of all deposits.
+     */
+    protected int[] _voxels = new int[256];
+
+    /**
+     * Number of valid elements of _voxels.
+     */
+    protected int _voxelCount;
+} // class DepositPlan
@@ -0,0 +1,113 @@
+package nu.nerd.nerdore;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+
+// ----------------------------------------------------------------------------
+/**
+ * Plans the ore deposits of one chunk from a ChunkSnapshot, on a worker
+ * thread.
+ *
+ * Each {@link OreRule} draws the number of rounds, the deposit centres and the
+ * deposit shapes from its own {@link SplitMixRandom} streams, derived from the
+ * ore generation seed, the world, the chunk coordinates and the rule's ID, so
+ * the plan for a chunk does not depend on restarts, on which thread plans it,
+ * on the order in which chunks are planned, or on the other rules. The full
+ * shape of every deposit is always computed, so that the random numbers drawn
+ * do not depend on which blocks turn out to be replaceable when the plan is
+ * applied.
+ *
+ * Voxels in the planned chunk whose Material in the snapshot can neither be
+ * replaced, nor become replaceable through a {@link ClearRule}, are omitted
+ * from the plan, since they would be rejected anyway. Voxels in neighbouring
+ * chunks are always included. The main thread makes the final replaceable
+ * check when placing each voxel.
+ */
+public class DepositPlanner {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param oreRules the biome index of the enabled {@link OreRule}s.
+     * @param clearScanner the scanner for the {@link ClearRule}s applied to
+     *        the chunk before ores are generated.
+     */
+    public DepositPlanner(RuleIndex<OreRule> oreRules, ClearScanner clearScanner) {
+        _oreRules = oreRules;
+
+        Material[] materials = Material.values();
+        boolean[] replaceable = new boolean[materials.length];
+        for (Material material : materials) {
+            replaceable[material.ordinal()] = NerdOre.CONFIG.isReplaceable(material);
+        }
+        _possibleHosts = clearScanner.getConvertibleTo(replaceable);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the biome index of the {@link OreRule}s that are planned.
+     *
+     * @return the biome index of the {@link OreRule}s that are planned.
+     */
+    public RuleIndex<OreRule> getOreRules() {
+        return _oreRules;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Plan the deposits of the chunk in the snapshot.
+     *
+     * @param snapshot the snapshot of the chunk.
+     * @param biomes the biomes of the chunk.
+     * @param seed the ore generation seed.
+     * @return the {@link DepositPlan}.
+     */
+    public DepositPlan plan(ChunkSnapshot snapshot, BiomeGrid biomes, long seed) {
+        DepositPlan plan = new DepositPlan();
+        int originX = snapshot.getX() * 16;
+        int originZ = snapshot.getZ() * 16;
+        OreRule[] rules = _oreRules.getRules();
+        for (int r = 0; r < rules.length; ++r) {
+            OreRule rule = rules[r];
+            SplitMixRandom random = new SplitMixRandom(
+                SplitMixRandom.streamSeed(seed, snapshot.getWorldName(), snapshot.getX(), snapshot.getZ(),
+                                          SplitMixRandom.ORE_STREAM, rule.getId()));
+            SplitMixRandom blockRandom = random.split();
+            int rounds = Util.nextInt(random, rule.getMinRounds(), rule.getMaxRounds());
+            for (int i = 0; i < rounds; i++) {
+                int x = originX + random.nextInt(16);
+                int y = Util.nextInt(random, rule.getMinHeight(), rule.getMaxHeight());
+                int z = originZ + random.nextInt(16);
+
+                if (_oreRules.affects(r, biomes.get(x & 15, z & 15)) && random.nextDouble() < rule.getProbability()) {
+                    int size = Util.nextInt(blockRandom, rule.getMinSize(), rule.getMaxSize());
+                    plan.beginDeposit(r, size, x, y, z);
+                    DepositShape.visit(blockRandom, x, y, z, DepositShape.getEffectiveSize(size), (ix, iy, iz) -> {
+                        int dx = ix - originX;
+                        int dz = iz - originZ;
+                        if (iy >= 0 && iy <= 255 && dx >= -512 && dx < 512 && dz >= -512 && dz < 512) {
+                            boolean inChunk = (dx >= 0 && dx < 16 && dz >= 0 && dz < 16);
+                            if (!inChunk || _possibleHosts[snapshot.getBlockType(dx, iy, dz).ordinal()]) {
+                                plan.addVoxel(DepositPlan.pack(dx, iy, dz));
+                            }
+                        }
+                        return true;
+                    });
+                }
+            }
+        }
+        return plan;
+    } // plan
+
+    // ------------------------------------------------------------------------
+    /**
+     * The biome index of the enabled {@link OreRule}s.
+     */
+    protected RuleIndex<OreRule> _oreRules;
+
+    /**
+     * Table indexed by Material ordinal that is true if a block of that
+     * Material in the snapshot could be replaceable when ores are generated.
+     */
+    protected boolean[] _possibleHosts;
+} // class DepositPlanner
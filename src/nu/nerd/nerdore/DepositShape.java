@@ -0,0 +1,127 @@
+package nu.nerd.nerdore;
+
+import java.util.Random;
+
+// ----------------------------------------------------------------------------
+/**
+ * Computes the voxels of an ore deposit, using the algorithm derived from
+ * OrePlus.
+ *
+ * A deposit is a sequence of overlapping ellipsoids strung along a line
+ * segment through the specified centre, with random orientation and fuzz.
+ */
+public class DepositShape {
+    // ------------------------------------------------------------------------
+    /**
+     * Receives the voxels of a deposit.
+     */
+    public interface Visitor {
+        /**
+         * Visit one voxel.
+         *
+         * @param x the world X coordinate.
+         * @param y the world Y coordinate.
+         * @param z the world Z coordinate.
+         * @return true to continue visiting voxels; false to stop.
+         */
+        public boolean visit(int x, int y, int z);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the effective size of a deposit of the specified size.
+     *
+     * Sizes less than 3 generate no blocks at all and size 3 generates less
+     * than the number of rounds. So proceed as if size is at least 4, but stop
+     * generating after placing size blocks.
+     *
+     * @param size the number of blocks to place.
+     * @return the size used to compute the shape.
+     */
+    public static int getEffectiveSize(int size) {
+        return Math.max(4, size);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return an upper bound on the horizontal distance, in blocks, between
+     * the centre of a deposit and any of its voxels.
+     *
+     * The ends of the deposit's line segment are at most effectiveSize / 8
+     * from the centre, and the ellipsoids strung along it have a horizontal
+     * radius of less than effectiveSize / 16 + 1/2; a block more allows for
+     * rounding to block coordinates.
+     *
+     * @param effectiveSize the effective size of the deposit, from
+     *        {@link #getEffectiveSize(int)}.
+     * @return the maximum horizontal distance of a voxel from the centre.
+     */
+    public static int getMaxRadius(int effectiveSize) {
+        return (3 * effectiveSize + 15) / 16 + 2;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Visit the voxels of a deposit, in order, until the visitor returns
+     * false.
+     *
+     * Random numbers are drawn as the voxels are visited, so stopping early
+     * draws fewer random numbers.
+     *
+     * @param random the RNG used for the orientation and fuzz of the deposit.
+     * @param x the X coordinate of the centre.
+     * @param y the Y coordinate of the centre.
+     * @param z the Z coordinate of the centre.
+     * @param effectiveSize the effective size of the deposit, from
+     *        {@link #getEffectiveSize(int)}.
+     * @param visitor the visitor.
+     */
+    public static void visit(Random random, int x, int y, int z, int effectiveSize, Visitor visitor) {
+        double rpi = random.nextDouble() * Math.PI;
+
+        double x1 = x + Math.sin(rpi) * effectiveSize / 8.0F;
+        double x2 = x - Math.sin(rpi) * effectiveSize / 8.0F;
+        double z1 = z + Math.cos(rpi) * effectiveSize / 8.0F;
+        double z2 = z - Math.cos(rpi) * effectiveSize / 8.0F;
+
+        double y1 = y + random.nextInt(3);
+        double y2 = y + random.nextInt(3);
+
+        for (int i = 0; i <= effectiveSize; i++) {
+            double xPos = x1 + (x2 - x1) * i / effectiveSize;
+            double yPos = y1 + (y2 - y1) * i / effectiveSize;
+            double zPos = z1 + (z2 - z1) * i / effectiveSize;
+
+            double fuzz = random.nextDouble() * effectiveSize / 16.0D;
+            double fuzzXZ = (Math.sin((float) (i * Math.PI / effectiveSize)) + 1.0F) * fuzz + 1.0D;
+            double fuzzY = (Math.sin((float) (i * Math.PI / effectiveSize)) + 1.0F) * fuzz + 1.0D;
+
+            int xStart = (int) Math.floor(xPos - fuzzXZ / 2.0D);
+            int yStart = (int) Math.floor(yPos - fuzzY / 2.0D);
+            int zStart = (int) Math.floor(zPos - fuzzXZ / 2.0D);
+
+            int xEnd = (int) Math.floor(xPos + fuzzXZ / 2.0D);
+            int yEnd = (int) Math.floor(yPos + fuzzY / 2.0D);
+            int zEnd = (int) Math.floor(zPos + fuzzXZ / 2.0D);
+
+            for (int ix = xStart; ix <= xEnd; ix++) {
+                double xThresh = (ix + 0.5D - xPos) / (fuzzXZ / 2.0D);
+                if (xThresh * xThresh < 1.0D) {
+                    for (int iy = yStart; iy <= yEnd; iy++) {
+                        double yThresh = (iy + 0.5D - yPos) / (fuzzY / 2.0D);
+                        if (xThresh * xThresh + yThresh * yThresh < 1.0D) {
+                            for (int iz = zStart; iz <= zEnd; iz++) {
+                                double zThresh = (iz + 0.5D - zPos) / (fuzzXZ / 2.0D);
+                                if (xThresh * xThresh + yThresh * yThresh + zThresh * zThresh < 1.0D) {
+                                    if (!visitor.visit(ix, iy, iz)) {
+                                        return;
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    } // visit
+} // class DepositShape
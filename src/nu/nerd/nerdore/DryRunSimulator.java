@@ -0,0 +1,437 @@
+package nu.nerd.nerdore;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.block.Biome;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.CreatureSpawner;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.Levelled;
+import org.bukkit.entity.EntityType;
+
+import nu.nerd.nerdore.blockstate.BlockAccess;
+import nu.nerd.nerdore.blockstate.SpawnerAccess;
+
+// ----------------------------------------------------------------------------
+/**
+ * Simulates the {@link ClearRule}s and {@link OreRule}s of a job against a
+ * ChunkSnapshot, counting the changes they would make without changing the
+ * world.
+ *
+ * The simulation follows the same steps as {@link OreTask}: the
+ * {@link ClearScanner} lists candidates, which are then checked against the
+ * simulated state of each block, and the {@link DepositPlanner}'s voxels are
+ * placed where the simulated block is replaceable. Changed blocks are kept in
+ * an overlay on the snapshot, so later rules see the changes of earlier ones.
+ * Clear rules draw from the same per-chunk random number streams as a real
+ * run, so for an unchanged world the counts are exact, with these
+ * exceptions:
+ * <ul>
+ * <li>Ore deposited in neighbouring chunks counts towards the size of its
+ * deposit, as in a real run, and is reported as placed without checking
+ * whether the neighbouring block is replaceable.</li>
+ * <li>Neighbours of unstable liquids that lie in another chunk are treated as
+ * solid.</li>
+ * <li>Ore deferred from neighbouring chunks is not counted.</li>
+ * </ul>
+ *
+ * Candidates are matched and replaced through {@link BlockAccess}, by the same
+ * Matcher and Replacer code as a real run, so spawner replacers draw the same
+ * random numbers. Spawner settings are not in ChunkSnapshots, so the spawned
+ * types are read on the main thread by {@link #getSpawnedTypes(Chunk)}, and
+ * everything else is done by {@link #simulate(ChunkSnapshot, Map)} on any
+ * thread.
+ */
+public class DryRunSimulator {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * This must be called on the main thread.
+     *
+     * @param scanner the {@link ClearScanner} of the job.
+     * @param planner the {@link DepositPlanner} of the job.
+     * @param seed the ore generation seed.
+     */
+    public DryRunSimulator(ClearScanner scanner, DepositPlanner planner, long seed) {
+        _scanner = scanner;
+        _planner = planner;
+        _seed = seed;
+
+        Material[] materials = Material.values();
+        _replaceable = new boolean[materials.length];
+        for (Material material : materials) {
+            _replaceable[material.ordinal()] = NerdOre.CONFIG.isReplaceable(material);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a new, empty {@link DryRunStats} for the rules of this
+     * simulator.
+     *
+     * @return the new stats.
+     */
+    public DryRunStats newStats() {
+        return new DryRunStats(_scanner.getRules(), _planner.getOreRules().getRules());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the types of entity spawned by the spawners in a loaded chunk.
+     *
+     * This must be called on the main thread.
+     *
+     * @param chunk the chunk.
+     * @return map from {@link #blockIndex(int, int, int) block index} to the
+     *         spawned EntityType; empty if no clear rule removes spawners.
+     */
+    public Map<Integer, EntityType> getSpawnedTypes(Chunk chunk) {
+        boolean anySpawners = false;
+        for (ClearRule rule : _scanner.getRules()) {
+            anySpawners |= (rule.getRemovedMaterial().getType() == Material.SPAWNER);
+        }
+        if (!anySpawners) {
+            return Collections.emptyMap();
+        }
+
+        Map<Integer, EntityType> spawnedTypes = new HashMap<>();
+        for (BlockState state : chunk.getTileEntities()) {
+            if (state instanceof CreatureSpawner) {
+                spawnedTypes.put(blockIndex(state.getX() & 15, state.getY(), state.getZ() & 15),
+                                 ((CreatureSpawner) state).getSpawnedType());
+            }
+        }
+        return spawnedTypes;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Simulate the rules against a chunk.
+     *
+     * This method only reads the snapshot and immutable settings, so it can
+     * be called on a worker thread.
+     *
+     * @param snapshot the snapshot of the chunk, including biomes.
+     * @param spawnedTypes the result of {@link #getSpawnedTypes(Chunk)} for
+     *        the chunk.
+     * @return the counts of the changes that would be made.
+     */
+    public DryRunStats simulate(ChunkSnapshot snapshot, Map<Integer, EntityType> spawnedTypes) {
+        DryRunStats stats = newStats();
+        stats.addChunk();
+        BiomeGrid biomes = new BiomeGrid(snapshot);
+        SimulatedBlock block = new SimulatedBlock(snapshot, new HashMap<>(spawnedTypes));
+        simulateClears(snapshot, biomes, block, stats);
+        simulateDeposits(snapshot, biomes, block, stats);
+        return stats;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Simulate the clear rules.
+     *
+     * Candidates are matched and replaced through the same Matcher and
+     * Replacer code as a real run, so the rules draw the same random
+     * numbers, including those of spawner replacers.
+     *
+     * @param snapshot the snapshot.
+     * @param biomes the biomes of the snapshot.
+     * @param block the simulated state of the chunk, which is updated.
+     * @param stats the counters to update.
+     */
+    protected void simulateClears(ChunkSnapshot snapshot, BiomeGrid biomes, SimulatedBlock block,
+                                  DryRunStats stats) {
+        ClearRule[] rules = _scanner.getRules();
+        Random[] randoms = new Random[rules.length];
+        for (int r = 0; r < rules.length; ++r) {
+            randoms[r] = new SplitMixRandom(SplitMixRandom.streamSeed(_seed, snapshot.getWorldName(),
+                                                                      snapshot.getX(), snapshot.getZ(),
+                                                                      SplitMixRandom.CLEAR_STREAM, rules[r].getId()));
+        }
+
+        ClearPlan plan = _scanner.scan(snapshot, biomes);
+        for (int i = 0; i < plan.size(); ++i) {
+            int candidate = plan.get(i);
+            int r = ClearPlan.ruleIndex(candidate);
+            int y = ClearPlan.y(candidate);
+            ClearRule rule = rules[r];
+            block.moveTo(ClearPlan.x(candidate), y, ClearPlan.z(candidate));
+            // Messages are discarded, but logged rules expect a StringBuilder.
+            StringBuilder message = rule.isLogged() ? new StringBuilder() : null;
+            if (rule.matches(block, message) &&
+                randoms[r].nextDouble() <= rule.getProbability()) {
+                rule.apply(block, randoms[r], message);
+                stats.addClear(r, y);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Simulate the placement of the planned ore deposits.
+     *
+     * @param snapshot the snapshot.
+     * @param biomes the biomes of the snapshot.
+     * @param block the simulated state of the chunk, which is updated.
+     * @param stats the counters to update.
+     */
+    protected void simulateDeposits(ChunkSnapshot snapshot, BiomeGrid biomes, SimulatedBlock block,
+                                    DryRunStats stats) {
+        DepositPlan deposits = _planner.plan(snapshot, biomes, _seed);
+        OreRule[] rules = _planner.getOreRules().getRules();
+        for (int d = 0; d < deposits.getDepositCount(); ++d) {
+            int r = deposits.getRuleIndex(d);
+            Material material = rules[r].getMaterial().getType();
+            Biome centreBiome = biomes.get(deposits.getCentre(d, 0) & 15, deposits.getCentre(d, 2) & 15);
+            int size = deposits.getSize(d);
+            int placed = 0;
+            int end = deposits.getVoxelEnd(d);
+            for (int v = deposits.getVoxelStart(d); v < end && placed < size; ++v) {
+                int voxel = deposits.getVoxel(v);
+                int dx = DepositPlan.dx(voxel);
+                int y = DepositPlan.y(voxel);
+                int dz = DepositPlan.dz(voxel);
+                if (dx >= 0 && dx < 16 && dz >= 0 && dz < 16) {
+                    block.moveTo(dx, y, dz);
+                    if (_replaceable[block.getType().ordinal()]) {
+                        block.setType(material);
+                        stats.addOre(r, y, biomes.get(dx, dz), false);
+                        ++placed;
+                    }
+                } else {
+                    stats.addOre(r, y, centreBiome, true);
+                    ++placed;
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The simulated state of a block of the chunk: the snapshot, overlaid
+     * with the changes made so far.
+     *
+     * One instance is moved from block to block, to avoid allocating an
+     * object per candidate.
+     */
+    protected static final class SimulatedBlock implements BlockAccess {
+        /**
+         * Constructor.
+         *
+         * @param snapshot the snapshot.
+         * @param spawnedTypes the spawned types of the chunk's spawners, by
+         *        block index, which are updated by simulated changes.
+         */
+        SimulatedBlock(ChunkSnapshot snapshot, Map<Integer, EntityType> spawnedTypes) {
+            _snapshot = snapshot;
+            _spawnedTypes = spawnedTypes;
+        }
+
+        /**
+         * Move to another block of the chunk.
+         *
+         * @param x the chunk-relative X coordinate.
+         * @param y the Y coordinate.
+         * @param z the chunk-relative Z coordinate.
+         */
+        void moveTo(int x, int y, int z) {
+            _x = x;
+            _y = y;
+            _z = z;
+        }
+
+        @Override
+        public String getWorldName() {
+            return _snapshot.getWorldName();
+        }
+
+        @Override
+        public int getX() {
+            return _snapshot.getX() * 16 + _x;
+        }
+
+        @Override
+        public int getY() {
+            return _y;
+        }
+
+        @Override
+        public int getZ() {
+            return _snapshot.getZ() * 16 + _z;
+        }
+
+        @Override
+        public Material getType() {
+            return getType(_x, _y, _z);
+        }
+
+        @Override
+        public void setType(Material material) {
+            int index = blockIndex(_x, _y, _z);
+            _changed.put(index, material);
+            _spawnedTypes.remove(index);
+        }
+
+        /**
+         * Blocks placed by earlier rules have their default state, so are
+         * source blocks if they are liquids.
+         *
+         * @see BlockAccess#getLevel()
+         */
+        @Override
+        public int getLevel() {
+            if (_changed.containsKey(blockIndex(_x, _y, _z))) {
+                return 0;
+            }
+            BlockData data = _snapshot.getBlockData(_x, _y, _z);
+            return (data instanceof Levelled) ? ((Levelled) data).getLevel() : 0;
+        }
+
+        /**
+         * Blocks in other chunks are not accessible.
+         *
+         * @see BlockAccess#getRelativeType(int, int, int)
+         */
+        @Override
+        public Material getRelativeType(int dx, int dy, int dz) {
+            int x = _x + dx;
+            int y = _y + dy;
+            int z = _z + dz;
+            return (x < 0 || x > 15 || z < 0 || z > 15 || y < 0 || y > 255) ? null : getType(x, y, z);
+        }
+
+        /**
+         * Spawners placed by earlier rules spawn pigs, as new spawners do on
+         * the server. Only the spawned type is simulated.
+         *
+         * @see BlockAccess#getSpawner()
+         */
+        @Override
+        public SpawnerAccess getSpawner() {
+            if (getType() != Material.SPAWNER) {
+                return null;
+            }
+            int index = blockIndex(_x, _y, _z);
+            return new SpawnerAccess() {
+                @Override
+                public EntityType getSpawnedType() {
+                    return _spawnedTypes.getOrDefault(index, EntityType.PIG);
+                }
+
+                @Override
+                public void setSpawnedType(EntityType type) {
+                    _spawnedTypes.put(index, type);
+                }
+
+                @Override
+                public void setRequiredPlayerRange(int range) {
+                }
+
+                @Override
+                public void setMinSpawnDelay(int ticks) {
+                }
+
+                @Override
+                public void setMaxSpawnDelay(int ticks) {
+                }
+
+                @Override
+                public void setSpawnCount(int count) {
+                }
+
+                @Override
+                public void setSpawnRange(int range) {
+                }
+
+                @Override
+                public void setMaxNearbyEntities(int count) {
+                }
+            };
+        }
+
+        /**
+         * Return the simulated Material of a block in the chunk.
+         *
+         * @param x the chunk-relative X coordinate.
+         * @param y the Y coordinate.
+         * @param z the chunk-relative Z coordinate.
+         * @return the Material.
+         */
+        Material getType(int x, int y, int z) {
+            Material type = _changed.get(blockIndex(x, y, z));
+            return (type != null) ? type : _snapshot.getBlockType(x, y, z);
+        }
+
+        /**
+         * The snapshot.
+         */
+        final ChunkSnapshot _snapshot;
+
+        /**
+         * The spawned types of the chunk's spawners, by block index.
+         */
+        final Map<Integer, EntityType> _spawnedTypes;
+
+        /**
+         * The overlay of changed blocks, by block index.
+         */
+        final Map<Integer, Material> _changed = new HashMap<>();
+
+        /**
+         * The chunk-relative X coordinate of the current block.
+         */
+        int _x;
+
+        /**
+         * The Y coordinate of the current block.
+         */
+        int _y;
+
+        /**
+         * The chunk-relative Z coordinate of the current block.
+         */
+        int _z;
+    } // class SimulatedBlock
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of a block in a chunk.
+     *
+     * @param x the chunk-relative X coordinate.
+     * @param y the Y coordinate.
+     * @param z the chunk-relative Z coordinate.
+     * @return the index.
+     */
+    protected static int blockIndex(int x, int y, int z) {
+        return (y << 8) | (x << 4) | z;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The {@link ClearScanner} of the job.
+     */
+    protected final ClearScanner _scanner;
+
+    /**
+     * The {@link DepositPlanner} of the job.
+     */
+    protected final DepositPlanner _planner;
+
+    /**
+     * The ore generation seed.
+     */
+    protected final long _seed;
+
+    /**
+     * Table indexed by Material ordinal that is true for replaceable
+     * Materials.
+     */
+    protected final boolean[] _replaceable;
+} // class DryRunSimulator
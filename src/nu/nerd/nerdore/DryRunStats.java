@@ -0,0 +1,287 @@
+package nu.nerd.nerdore;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.bukkit.Material;
+import org.bukkit.block.Biome;
+import org.bukkit.configuration.ConfigurationSection;
+
+// ----------------------------------------------------------------------------
+/**
+ * Counters and histograms of the changes that a dry run would make.
+ *
+ * Each simulated chunk produces its own instance on a worker thread, which
+ * the main thread then merges into the totals of the dry run, so no instance
+ * is ever shared between threads while it is being updated.
+ */
+public class DryRunStats {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param clearRules the {@link ClearRule}s, indexed like the counters.
+     * @param oreRules the {@link OreRule}s, indexed like the counters.
+     */
+    public DryRunStats(ClearRule[] clearRules, OreRule[] oreRules) {
+        _clearRules = clearRules;
+        _oreRules = oreRules;
+        _clearsByY = new long[clearRules.length][256];
+        _oresByY = new long[oreRules.length][256];
+        _oresByBiome = new long[oreRules.length][Biome.values().length];
+        _oresSpilled = new long[oreRules.length];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Count a block that a {@link ClearRule} would replace.
+     *
+     * @param ruleIndex the index of the rule.
+     * @param y the Y coordinate of the block.
+     */
+    public void addClear(int ruleIndex, int y) {
+        ++_clearsByY[ruleIndex][y];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Count an ore block that an {@link OreRule} would place.
+     *
+     * @param ruleIndex the index of the rule.
+     * @param y the Y coordinate of the block.
+     * @param biome the biome of the block.
+     * @param spilled true if the block is in a neighbouring chunk.
+     */
+    public void addOre(int ruleIndex, int y, Biome biome, boolean spilled) {
+        ++_oresByY[ruleIndex][y];
+        ++_oresByBiome[ruleIndex][biome.ordinal()];
+        if (spilled) {
+            ++_oresSpilled[ruleIndex];
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Count a simulated chunk.
+     */
+    public void addChunk() {
+        ++_chunks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Count a chunk that was skipped because it does not exist.
+     */
+    public void addMissingChunk() {
+        ++_missingChunks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add the counts of another instance, with the same rules, to this one.
+     *
+     * @param other the other instance.
+     */
+    public void merge(DryRunStats other) {
+        _chunks += other._chunks;
+        _missingChunks += other._missingChunks;
+        add(_clearsByY, other._clearsByY);
+        add(_oresByY, other._oresByY);
+        add(_oresByBiome, other._oresByBiome);
+        for (int r = 0; r < _oresSpilled.length; ++r) {
+            _oresSpilled[r] += other._oresSpilled[r];
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of simulated chunks.
+     *
+     * @return the number of simulated chunks.
+     */
+    public long getChunks() {
+        return _chunks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the total number of blocks that would be replaced, by the
+     * Material that they have now.
+     *
+     * @return map from removed Material to count, omitting zero counts.
+     */
+    public Map<Material, Long> getClearsByMaterial() {
+        EnumMap<Material, Long> totals = new EnumMap<>(Material.class);
+        for (int r = 0; r < _clearRules.length; ++r) {
+            long total = sum(_clearsByY[r]);
+            if (total != 0) {
+                totals.merge(_clearRules[r].getRemovedMaterial().getType(), total, Long::sum);
+            }
+        }
+        return totals;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the total number of ore blocks that would be placed, by
+     * Material.
+     *
+     * @return map from ore Material to count, omitting zero counts.
+     */
+    public Map<Material, Long> getOresByMaterial() {
+        EnumMap<Material, Long> totals = new EnumMap<>(Material.class);
+        for (int r = 0; r < _oreRules.length; ++r) {
+            long total = sum(_oresByY[r]);
+            if (total != 0) {
+                totals.merge(_oreRules[r].getMaterial().getType(), total, Long::sum);
+            }
+        }
+        return totals;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Save the counters and histograms in a configuration section.
+     *
+     * Clears are reported per rule, and ores per Material, with histograms
+     * that list only non-zero counts.
+     *
+     * @param section the section.
+     */
+    public void save(ConfigurationSection section) {
+        section.set("chunks", _chunks);
+        section.set("missing-chunks", _missingChunks);
+
+        ConfigurationSection clears = section.createSection("clears");
+        for (int r = 0; r < _clearRules.length; ++r) {
+            ConfigurationSection rule = clears.createSection(Integer.toString(_clearRules[r].getId()));
+            rule.set("rule", _clearRules[r].toString());
+            rule.set("total", sum(_clearsByY[r]));
+            saveHistogram(rule.createSection("by-y"), _clearsByY[r], null);
+        }
+        for (Map.Entry<Material, Long> entry : getClearsByMaterial().entrySet()) {
+            section.set("cleared-materials." + entry.getKey(), entry.getValue());
+        }
+
+        // Several rules can place the same Material.
+        Map<Material, long[]> byY = new EnumMap<>(Material.class);
+        Map<Material, long[]> byBiome = new EnumMap<>(Material.class);
+        Map<Material, Long> spilled = new EnumMap<>(Material.class);
+        for (int r = 0; r < _oreRules.length; ++r) {
+            Material material = _oreRules[r].getMaterial().getType();
+            add(byY.computeIfAbsent(material, m -> new long[256]), _oresByY[r]);
+            add(byBiome.computeIfAbsent(material, m -> new long[Biome.values().length]), _oresByBiome[r]);
+            spilled.merge(material, _oresSpilled[r], Long::sum);
+        }
+        ConfigurationSection ores = section.createSection("ores");
+        for (Material material : byY.keySet()) {
+            ConfigurationSection ore = ores.createSection(material.toString());
+            ore.set("total", sum(byY.get(material)));
+            ore.set("spilled", spilled.get(material));
+            saveHistogram(ore.createSection("by-biome"), byBiome.get(material), Biome.values());
+            saveHistogram(ore.createSection("by-y"), byY.get(material), null);
+        }
+    } // save
+
+    // ------------------------------------------------------------------------
+    /**
+     * Save the non-zero counts of a histogram.
+     *
+     * @param section the section.
+     * @param counts the counts.
+     * @param names the names of the buckets, or null to use their indices.
+     */
+    protected static void saveHistogram(ConfigurationSection section, long[] counts, Enum<?>[] names) {
+        for (int i = 0; i < counts.length; ++i) {
+            if (counts[i] != 0) {
+                section.set(names != null ? names[i].toString() : Integer.toString(i), counts[i]);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add each element of the source to the corresponding element of the
+     * destination.
+     *
+     * @param dest the destination.
+     * @param source the source.
+     */
+    protected static void add(long[] dest, long[] source) {
+        for (int i = 0; i < dest.length; ++i) {
+            dest[i] += source[i];
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add each row of the source to the corresponding row of the
+     * destination.
+     *
+     * @param dest the destination.
+     * @param source the source.
+     */
+    protected static void add(long[][] dest, long[][] source) {
+        for (int i = 0; i < dest.length; ++i) {
+            add(dest[i], source[i]);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the sum of the elements of an array.
+     *
+     * @param counts the array.
+     * @return the sum.
+     */
+    protected static long sum(long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The {@link ClearRule}s, indexed like the clear counters.
+     */
+    protected ClearRule[] _clearRules;
+
+    /**
+     * The {@link OreRule}s, indexed like the ore counters.
+     */
+    protected OreRule[] _oreRules;
+
+    /**
+     * The number of simulated chunks.
+     */
+    protected long _chunks;
+
+    /**
+     * The number of chunks skipped because they do not exist.
+     */
+    protected long _missingChunks;
+
+    /**
+     * For each clear rule, the number of blocks replaced at each Y
+     * coordinate.
+     */
+    protected long[][] _clearsByY;
+
+    /**
+     * For each ore rule, the number of blocks placed at each Y coordinate.
+     */
+    protected long[][] _oresByY;
+
+    /**
+     * For each ore rule, the number of blocks placed in each biome, indexed
+     * by Biome ordinal.
+     */
+    protected long[][] _oresByBiome;
+
+    /**
+     * For each ore rule, the number of blocks placed in neighbouring chunks.
+     */
+    protected long[] _oresSpilled;
+} // class DryRunStats
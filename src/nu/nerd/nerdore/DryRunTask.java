@@ -0,0 +1,310 @@
+package nu.nerd.nerdore;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.EntityType;
+
+// ----------------------------------------------------------------------------
+/**
+ * Simulates the remaining chunks of a {@link Job} without changing the world,
+ * and reports the changes that the job would make.
+ *
+ * Each tick, the main thread loads up to a configured number of chunks,
+ * takes their ChunkSnapshots and submits them to {@link OreTask}'s worker
+ * threads, which run a {@link DryRunSimulator}. Since nothing is written, there
+ * is no per-tick quota of block changes, and chunks can be unloaded as soon
+ * as they are snapshotted, so a dry run covers chunks much faster than a real
+ * run. Loading is paced to unloading, though: no chunk is loaded while the
+ * working set holds a tick's worth of unloads more than its capacity. The
+ * job's index, the processed chunk bitmaps and the journals are not
+ * changed.
+ *
+ * When the dry run finishes, a report with the counters and histograms of
+ * {@link DryRunStats} is written to dry-runs/&lt;job&gt;.yml.
+ *
+ * Runs every tick; does nothing unless a dry run has been started.
+ */
+public class DryRunTask implements Runnable {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param oreTask the {@link OreTask}, whose worker threads and working
+     *        set of chunks are used.
+     */
+    public DryRunTask(OreTask oreTask) {
+        _oreTask = oreTask;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a dry run is in progress.
+     *
+     * @return true if a dry run is in progress.
+     */
+    public boolean isRunning() {
+        return _job != null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start a dry run of the chunks of a job from its current index.
+     *
+     * @param sender receives messages about the dry run.
+     * @param job the job, which must not be running.
+     */
+    public void start(CommandSender sender, Job job) {
+        World world = job.getWorld();
+        long seed = (job.getConfiguredSeed() != 0) ? job.getConfiguredSeed() : world.getSeed();
+        ClearScanner scanner = job.getClearScanner();
+        _simulator = new DryRunSimulator(scanner, job.getDepositPlanner(scanner), seed);
+        _stats = _simulator.newStats();
+        _sender = sender;
+        _job = job;
+        _traversal = job.getTraversal();
+        _region = job.getTraversalRegion();
+        _index = job.getIndex();
+        _startNanos = System.nanoTime();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop the dry run early and report the chunks simulated so far.
+     */
+    public void stop() {
+        finish(false);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a description of the progress of the dry run.
+     *
+     * @return a description of the progress.
+     */
+    public String getProgress() {
+        return String.format("dry run of job %s at %s index %d of %d, %d chunk(s) simulated",
+                             _job.getId(), _traversal.name().toLowerCase(), _index,
+                             _traversal.getEnd(_region), _stats.getChunks());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+        if (_job == null) {
+            return;
+        }
+        World world = _job.getWorld();
+        if (world == null) {
+            _sender.sendMessage(ChatColor.RED + "The world " + _job.getWorldName() + " is no longer loaded.");
+            finish(false);
+            return;
+        }
+
+        collectResults();
+        int maxPending = NerdOre.CONFIG.DRY_RUN_CHUNKS_PER_TICK * MAX_PENDING_TICKS;
+        for (int submitted = 0;
+             submitted < NerdOre.CONFIG.DRY_RUN_CHUNKS_PER_TICK && _pending.size() < maxPending &&
+             !isWorkingSetFull();
+             ++submitted) {
+            _index = _traversal.seek(_index, _region);
+            if (_index >= _traversal.getEnd(_region)) {
+                break;
+            }
+            long key = _traversal.getChunkKey(_index, _region);
+            ++_index;
+            submitChunk(world, Util.chunkX(key), Util.chunkZ(key));
+        }
+
+        if (_pending.isEmpty() && _index >= _traversal.getEnd(_region)) {
+            finish(true);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if no more chunks should be loaded this tick, because the
+     * working set holds as many chunks beyond its capacity as
+     * {@link OreTask} will unload in the next tick.
+     *
+     * Otherwise, loading DRY_RUN_CHUNKS_PER_TICK chunks per tick would
+     * outpace UNLOADS_PER_TICK and the working set would grow without bound.
+     *
+     * @return true if the working set is full.
+     */
+    protected boolean isWorkingSetFull() {
+        int capacity = NerdOre.CONFIG.WORKING_SET_CHUNKS;
+        return capacity > 0 && _oreTask.getWorkingSet().size() >= capacity + NerdOre.CONFIG.UNLOADS_PER_TICK;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load a chunk without generating it and submit its snapshot for
+     * simulation.
+     *
+     * @param world the World.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     */
+    protected void submitChunk(World world, int chunkX, int chunkZ) {
+        ChunkWorkingSet workingSet = _oreTask.getWorkingSet();
+        if (world.isChunkLoaded(chunkX, chunkZ)) {
+            workingSet.touch(world, chunkX, chunkZ);
+        } else if (world.loadChunk(chunkX, chunkZ, false)) {
+            workingSet.add(world, chunkX, chunkZ);
+        } else {
+            _stats.addMissingChunk();
+            return;
+        }
+
+        Chunk chunk = world.getChunkAt(chunkX, chunkZ);
+        Map<Integer, EntityType> spawnedTypes = _simulator.getSpawnedTypes(chunk);
+        ChunkSnapshot snapshot = chunk.getChunkSnapshot(false, true, false);
+        DryRunSimulator simulator = _simulator;
+        ExecutorService executor = _oreTask.getExecutor();
+        _pending.add((executor != null)
+            ? executor.submit(() -> simulator.simulate(snapshot, spawnedTypes))
+            : CompletableFuture.completedFuture(simulator.simulate(snapshot, spawnedTypes)));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Merge the results of finished simulations into the totals, in the
+     * order they were submitted.
+     */
+    protected void collectResults() {
+        while (!_pending.isEmpty() && _pending.peek().isDone()) {
+            merge(_pending.remove());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Merge the result of one simulation into the totals, waiting for it if
+     * necessary.
+     *
+     * @param result the future result.
+     */
+    protected void merge(Future<DryRunStats> result) {
+        try {
+            _stats.merge(result.get());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            NerdOre.PLUGIN.getLogger().severe("Dry run of a chunk failed: " + ex.getCause());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * End the dry run, reporting the totals to the sender and writing the
+     * full report.
+     *
+     * @param complete true if all chunks were simulated.
+     */
+    protected void finish(boolean complete) {
+        while (!_pending.isEmpty()) {
+            merge(_pending.remove());
+        }
+
+        String name = NerdOre.PLUGIN.getName();
+        File file = new File(new File(NerdOre.PLUGIN.getDataFolder(), "dry-runs"), _job.getId() + ".yml");
+        String message = String.format("%s: %s %s in %.1f s; report in %s.",
+                                       name, (complete ? "FINISHED" : "STOPPED"), getProgress(),
+                                       (System.nanoTime() - _startNanos) * 1e-9, file.getPath());
+        _sender.sendMessage(ChatColor.GREEN + message);
+        NerdOre.PLUGIN.getLogger().info(message);
+        for (Map.Entry<Material, Long> entry : _stats.getClearsByMaterial().entrySet()) {
+            _sender.sendMessage(ChatColor.GREEN + "  Clear " + entry.getValue() + " x " + entry.getKey());
+        }
+        for (Map.Entry<Material, Long> entry : _stats.getOresByMaterial().entrySet()) {
+            _sender.sendMessage(ChatColor.GREEN + "  Place " + entry.getValue() + " x " + entry.getKey());
+        }
+
+        YamlConfiguration report = new YamlConfiguration();
+        report.set("job", _job.getId());
+        report.set("world", _job.getWorldName());
+        report.set("rules", _job.getRuleSet());
+        report.set("complete", complete);
+        _stats.save(report);
+        NerdOre.STATE_WRITER.write(file, report.saveToString(), null);
+
+        _job = null;
+        _sender = null;
+        _simulator = null;
+        _stats = null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The maximum number of ticks worth of chunks that can wait for the
+     * worker threads.
+     */
+    protected static final int MAX_PENDING_TICKS = 4;
+
+    /**
+     * The {@link OreTask}, whose worker threads and working set are used.
+     */
+    protected final OreTask _oreTask;
+
+    /**
+     * Receives messages about the dry run.
+     */
+    protected CommandSender _sender;
+
+    /**
+     * The job being simulated; null if no dry run is in progress.
+     */
+    protected Job _job;
+
+    /**
+     * The simulator of the job's rules.
+     */
+    protected DryRunSimulator _simulator;
+
+    /**
+     * The totals of the simulated chunks.
+     */
+    protected DryRunStats _stats;
+
+    /**
+     * The traversal of the job's region.
+     */
+    protected Traversal _traversal;
+
+    /**
+     * The region traversed.
+     */
+    protected Region _region;
+
+    /**
+     * The traversal index of the next chunk to simulate.
+     */
+    protected long _index;
+
+    /**
+     * The System.nanoTime() when the dry run started.
+     */
+    protected long _startNanos;
+
+    /**
+     * The results of submitted chunks, in the order they were submitted.
+     */
+    protected final ArrayDeque<Future<DryRunStats>> _pending = new ArrayDeque<>();
+} // class DryRunTask
@@ -0,0 +1,363 @@
+package nu.nerd.nerdore;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.World;
+
+// ----------------------------------------------------------------------------
+/**
+ * Watches the health of the server and decides whether {@link OreTask} runs
+ * at full rate, throttled, or paused.
+ *
+ * Every HEALTH_SAMPLE_TICKS ticks, the guard measures the server's ticks per
+ * second, the fraction of the heap still in use after the most recent
+ * garbage collection, the average length of the GC pauses since the last
+ * sample and, if a limit is configured, the number of loaded chunks. Each
+ * measurement that crosses its throttle or pause threshold asks for that
+ * state, and the worst request takes effect immediately.
+ *
+ * Recovery has hysteresis: the guard only steps down to a milder state once
+ * the measurements have allowed it for HEALTH_RECOVER_TICKS ticks in a row,
+ * and only returns to full rate once every measurement is past its resume
+ * threshold, which is stricter than its throttle threshold. Every change of
+ * state is broadcast to players with the nerdore.notify permission.
+ */
+public class HealthGuard {
+    // ------------------------------------------------------------------------
+    /**
+     * The processing states, from mildest to most severe.
+     */
+    public enum State {
+        /**
+         * Processing runs at the configured rate.
+         */
+        NORMAL,
+
+        /**
+         * Processing runs at a fraction of the configured rate.
+         */
+        THROTTLED,
+
+        /**
+         * No chunks are submitted or applied.
+         */
+        PAUSED
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Called every tick while there is processing to do; takes a sample
+     * every HEALTH_SAMPLE_TICKS ticks and updates the state.
+     */
+    public void tick() {
+        if (!NerdOre.CONFIG.HEALTH_ENABLED) {
+            reset();
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (_sampleStartNanos == 0) {
+            startSample(now);
+            return;
+        }
+        if (++_sampleTicks < NerdOre.CONFIG.HEALTH_SAMPLE_TICKS) {
+            return;
+        }
+
+        _tps = Math.min(20.0, _sampleTicks * 1e9 / Math.max(1, now - _sampleStartNanos));
+        long gcMillis = getGcMillis();
+        long gcCount = getGcCount();
+        _gcPauseMillis = (gcCount > _gcCount) ? (gcMillis - _gcMillis) / (gcCount - _gcCount) : 0;
+        _heapFraction = getHeapFractionAfterGc();
+        _loadedChunks = (NerdOre.CONFIG.HEALTH_CHUNKS_THROTTLE > 0 || NerdOre.CONFIG.HEALTH_CHUNKS_PAUSE > 0)
+            ? countLoadedChunks()
+            : -1;
+        update(_sampleTicks);
+        startSample(now);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return to the NORMAL state without announcing it, and discard the
+     * current sample.
+     *
+     * This is called when there is nothing to process, so that the guard
+     * does not announce state changes while idle.
+     */
+    public void reset() {
+        _state = State.NORMAL;
+        _recoveringTicks = 0;
+        _sampleStartNanos = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the current state.
+     *
+     * @return the current state.
+     */
+    public State getState() {
+        return _state;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the fraction of the configured processing rate allowed in the
+     * current state.
+     *
+     * @return 1.0 when NORMAL, HEALTH_THROTTLE_FACTOR when THROTTLED and 0.0
+     *         when PAUSED.
+     */
+    public double getRate() {
+        switch (_state) {
+        case THROTTLED:
+            return NerdOre.CONFIG.HEALTH_THROTTLE_FACTOR;
+        case PAUSED:
+            return 0.0;
+        default:
+            return 1.0;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a description of the state and the most recent measurements.
+     *
+     * @return the description.
+     */
+    public String getDescription() {
+        if (!NerdOre.CONFIG.HEALTH_ENABLED) {
+            return "health guard disabled";
+        }
+        return "health " + _state + ((_tps == 0) ? ", not yet measured" : ": " + getMeasurements());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a description of the most recent measurements.
+     *
+     * @return the description.
+     */
+    protected String getMeasurements() {
+        StringBuilder s = new StringBuilder();
+        s.append(String.format("%.1f TPS, heap %.0f%% after GC", _tps, _heapFraction * 100));
+        if (_gcPauseMillis > 0) {
+            s.append(", GC pauses ").append(_gcPauseMillis).append(" ms");
+        }
+        if (_loadedChunks >= 0) {
+            s.append(", ").append(_loadedChunks).append(" chunks loaded");
+        }
+        return s.toString();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Update the state from the latest measurements.
+     *
+     * @param ticks the number of ticks since the previous sample.
+     */
+    protected void update(int ticks) {
+        Configuration config = NerdOre.CONFIG;
+        State requested = State.NORMAL;
+        String reason = null;
+        if (_tps < config.HEALTH_TPS_PAUSE) {
+            requested = State.PAUSED;
+            reason = String.format("%.1f TPS", _tps);
+        } else if (_gcPauseMillis > 0 && config.HEALTH_GC_PAUSE_MS > 0 &&
+                   _gcPauseMillis >= config.HEALTH_GC_PAUSE_MS) {
+            requested = State.PAUSED;
+            reason = "GC pauses of " + _gcPauseMillis + " ms";
+        } else if (_heapFraction >= config.HEALTH_HEAP_PAUSE) {
+            requested = State.PAUSED;
+            reason = String.format("heap %.0f%% full after GC", _heapFraction * 100);
+        } else if (config.HEALTH_CHUNKS_PAUSE > 0 && _loadedChunks >= config.HEALTH_CHUNKS_PAUSE) {
+            requested = State.PAUSED;
+            reason = _loadedChunks + " chunks loaded";
+        } else if (_tps < config.HEALTH_TPS_THROTTLE) {
+            requested = State.THROTTLED;
+            reason = String.format("%.1f TPS", _tps);
+        } else if (_heapFraction >= config.HEALTH_HEAP_THROTTLE) {
+            requested = State.THROTTLED;
+            reason = String.format("heap %.0f%% full after GC", _heapFraction * 100);
+        } else if (config.HEALTH_CHUNKS_THROTTLE > 0 && _loadedChunks >= config.HEALTH_CHUNKS_THROTTLE) {
+            requested = State.THROTTLED;
+            reason = _loadedChunks + " chunks loaded";
+        }
+
+        if (requested.compareTo(_state) > 0) {
+            _recoveringTicks = 0;
+            setState(requested, reason);
+            return;
+        }
+
+        // Between the throttle and resume thresholds, stay throttled.
+        boolean recovered = _tps >= config.HEALTH_TPS_RESUME &&
+                            _heapFraction < config.HEALTH_HEAP_RESUME &&
+                            (_loadedChunks < 0 || config.HEALTH_CHUNKS_RESUME <= 0 ||
+                             _loadedChunks < config.HEALTH_CHUNKS_RESUME);
+        State allowed = (recovered || requested != State.NORMAL) ? requested : State.THROTTLED;
+        if (allowed.compareTo(_state) < 0) {
+            _recoveringTicks += ticks;
+            if (_recoveringTicks >= config.HEALTH_RECOVER_TICKS) {
+                _recoveringTicks = 0;
+                setState(allowed, getMeasurements());
+            }
+        } else {
+            _recoveringTicks = 0;
+        }
+    } // update
+
+    // ------------------------------------------------------------------------
+    /**
+     * Change the state and announce the change.
+     *
+     * @param state the new state.
+     * @param reason a description of the measurement that caused the change.
+     */
+    protected void setState(State state, String reason) {
+        _state = state;
+        String change = (state == State.NORMAL) ? "RESUMED" : state.name();
+        if (NerdOre.CONFIG.NOTIFY && NerdOre.PLUGIN != null) {
+            String message = "&6" + NerdOre.PLUGIN.getName() + ": processing " + change + " (" + reason + ").";
+            Bukkit.getServer().broadcast(ChatColor.translateAlternateColorCodes('&', message), "nerdore.notify");
+        } else {
+            Util.getLogger().info("Processing " + change + " (" + reason + ").");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start a new sample.
+     *
+     * @param now the current System.nanoTime().
+     */
+    protected void startSample(long now) {
+        _sampleStartNanos = now;
+        _sampleTicks = 0;
+        _gcMillis = getGcMillis();
+        _gcCount = getGcCount();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the total time spent in garbage collection.
+     *
+     * @return the total time in milliseconds.
+     */
+    protected static long getGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the total number of garbage collections.
+     *
+     * @return the number of collections.
+     */
+    protected static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the fraction of the maximum heap size that was in use after the
+     * most recent garbage collection of each heap memory pool.
+     *
+     * @return the fraction, in [0.0,1.0].
+     */
+    protected static double getHeapFractionAfterGc() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                MemoryUsage usage = pool.getCollectionUsage();
+                if (usage != null) {
+                    used += usage.getUsed();
+                }
+            }
+        }
+        return Math.min(1.0, used / (double) Runtime.getRuntime().maxMemory());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of chunks loaded in all worlds.
+     *
+     * @return the number of loaded chunks.
+     */
+    protected static int countLoadedChunks() {
+        int count = 0;
+        for (World world : Bukkit.getWorlds()) {
+            count += world.getLoadedChunks().length;
+        }
+        return count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The current state.
+     */
+    protected State _state = State.NORMAL;
+
+    /**
+     * The number of ticks for which the measurements have allowed a milder
+     * state.
+     */
+    protected int _recoveringTicks;
+
+    /**
+     * The System.nanoTime() at the start of the current sample, or 0 if no
+     * sample has been started.
+     */
+    protected long _sampleStartNanos;
+
+    /**
+     * The number of ticks in the current sample.
+     */
+    protected int _sampleTicks;
+
+    /**
+     * The total GC time at the start of the current sample, in milliseconds.
+     */
+    protected long _gcMillis;
+
+    /**
+     * The total number of garbage collections at the start of the current
+     * sample.
+     */
+    protected long _gcCount;
+
+    /**
+     * The ticks per second measured in the most recent sample, or 0 if none.
+     */
+    protected double _tps;
+
+    /**
+     * The average GC pause during the most recent sample, in milliseconds.
+     */
+    protected long _gcPauseMillis;
+
+    /**
+     * The fraction of the heap in use after GC, at the most recent sample.
+     */
+    protected double _heapFraction;
+
+    /**
+     * The number of loaded chunks at the most recent sample, or -1 if not
+     * measured.
+     */
+    protected int _loadedChunks = -1;
+} // class HealthGuard
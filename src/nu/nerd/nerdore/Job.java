@@ -0,0 +1,951 @@
+package nu.nerd.nerdore;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.configuration.ConfigurationSection;
+
+// ----------------------------------------------------------------------------
+/**
+ * A processing job: a {@link Region} of chunks in one world, processed with
+ * one set of rules and one seed, in the order of a {@link Traversal}.
+ *
+ * The region, seed and traversal of a job can be set in its configuration
+ * section; if not, the job follows the global SIDE, SEED and TRAVERSAL
+ * settings, as set by the corresponding commands, and processes the SIDE x
+ * SIDE square centred on chunk (0,0). The rule set is the name of
+ * a section under "rules" and defaults to the job's world. The weight sets the
+ * job's share of the processing time when several jobs run at once.
+ *
+ * Each job keeps its own cursor for each traversal, and is persisted in its own
+ * section under "jobs" in the configuration. Chunks that the cursor passed
+ * while players were near them, or that could not be planned, are kept in a
+ * set of deferred chunks, saved with the cursors (and journalled by the
+ * {@link ProgressJournal} in between), and retried later, once the players
+ * have left. The running state, resolved seed, sequential Randoms, cached
+ * scanners and {@link RegionHeaderIndex} are runtime state only.
+ */
+public class Job {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param id the unique ID of the job.
+     * @param worldName the name of the processed world.
+     */
+    public Job(String id, String worldName) {
+        _id = id;
+        _worldName = worldName;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load the settings of this job from its configuration section.
+     *
+     * Cursors saved in the configuration by earlier versions are also loaded,
+     * unless the job is running; cursors in the state file, loaded later by
+     * {@link #loadState(ConfigurationSection)}, take precedence.
+     *
+     * @param section the section.
+     */
+    public void load(ConfigurationSection section) {
+        _worldName = section.getString("world", _id);
+        _ruleSet = section.getString("rules", null);
+        _side = section.contains("side") ? section.getInt("side") : null;
+        _seed = section.contains("seed") ? section.getLong("seed") : null;
+        _weight = Math.max(MIN_WEIGHT, section.getDouble("weight", 1.0));
+
+        _region = null;
+        ConfigurationSection regionSection = section.getConfigurationSection("region");
+        if (regionSection != null) {
+            try {
+                _region = Region.load(regionSection);
+            } catch (IllegalArgumentException ex) {
+                Util.getLogger().severe("Invalid region in job " + _id + ": " + ex.getMessage());
+            }
+        }
+
+        _traversal = null;
+        if (section.contains("traversal")) {
+            _traversal = Traversal.fromName(section.getString("traversal"));
+            if (_traversal == null) {
+                Util.getLogger().severe("Invalid traversal in job " + _id + ": " +
+                                        section.getString("traversal"));
+            }
+        }
+
+        if (!_running && section.contains("indices")) {
+            _indices.clear();
+            loadIndices(section);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load the cursors of this job from its section of the state file.
+     *
+     * Cursors and deferred chunks are not loaded while the job is running,
+     * since the in-memory state is more recent than the saved one.
+     *
+     * @param section the section.
+     */
+    public void loadState(ConfigurationSection section) {
+        if (!_running) {
+            loadIndices(section);
+            loadDeferredChunks(section);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Save the settings of this job to its configuration section.
+     *
+     * @param section the section.
+     */
+    public void save(ConfigurationSection section) {
+        section.set("world", _worldName);
+        section.set("rules", _ruleSet);
+        section.set("side", _side);
+        section.set("seed", _seed);
+        section.set("traversal", (_traversal != null) ? _traversal.name().toLowerCase() : null);
+        section.set("weight", _weight);
+        section.set("region", null);
+        if (_region != null) {
+            _region.save(section.createSection("region"));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Save the cursors of this job to its section of the state file.
+     *
+     * The cursor of the current traversal is saved as the
+     * {@link #getResumeIndex() resume index}, so that chunks that are still
+     * pending are processed again after a crash.
+     *
+     * @param section the section.
+     */
+    public void saveState(ConfigurationSection section) {
+        ConfigurationSection indicesSection = section.createSection("indices");
+        for (Entry<Traversal, Long> entry : _indices.entrySet()) {
+            long index = (entry.getKey() == getTraversal()) ? getResumeIndex() : entry.getValue();
+            indicesSection.set(entry.getKey().name().toLowerCase(), index);
+        }
+
+        List<String> deferred = new ArrayList<>();
+        for (long key : _deferredChunks) {
+            deferred.add(Util.chunkX(key) + "," + Util.chunkZ(key));
+        }
+        section.set("deferred", deferred.isEmpty() ? null : deferred);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load cursors from the "indices" subsection of a section, if present.
+     *
+     * @param section the section.
+     */
+    protected void loadIndices(ConfigurationSection section) {
+        ConfigurationSection indicesSection = section.getConfigurationSection("indices");
+        if (indicesSection != null) {
+            for (String traversalName : indicesSection.getKeys(false)) {
+                Traversal traversal = Traversal.fromName(traversalName);
+                if (traversal != null) {
+                    _indices.put(traversal, indicesSection.getLong(traversalName));
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load the deferred chunks from the "deferred" list of a section, as
+     * "x,z" chunk coordinates.
+     *
+     * @param section the section.
+     */
+    protected void loadDeferredChunks(ConfigurationSection section) {
+        _deferredChunks.clear();
+        for (String coords : section.getStringList("deferred")) {
+            String[] parts = coords.split(",");
+            try {
+                deferChunk(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+                Util.getLogger().severe("Invalid deferred chunk in job " + _id + ": " + coords);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the unique ID of this job.
+     *
+     * @return the unique ID of this job.
+     */
+    public String getId() {
+        return _id;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the name of the processed world.
+     *
+     * @return the name of the processed world.
+     */
+    public String getWorldName() {
+        return _worldName;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the processed World, or null if it is not loaded.
+     *
+     * @return the processed World, or null.
+     */
+    public World getWorld() {
+        return Bukkit.getWorld(_worldName);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the name of the section under "rules" that defines the rules of
+     * this job.
+     *
+     * @return the name of the rule set.
+     */
+    public String getRuleSet() {
+        return (_ruleSet != null) ? _ruleSet : _worldName;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the side of the processed square, in chunks.
+     *
+     * @return the side of the processed square, in chunks.
+     */
+    public int getSide() {
+        return (_side != null) ? _side : NerdOre.CONFIG.SIDE;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the region of chunks to process.
+     *
+     * If the job's configuration does not specify a region, this is the
+     * square of {@link #getSide()} chunks centred on chunk (0,0).
+     *
+     * @return the region.
+     */
+    public Region getRegion() {
+        if (_region != null) {
+            return _region;
+        }
+        int side = getSide();
+        if (_defaultRegion == null || _defaultRegionSide != side) {
+            _defaultRegion = Region.square(0, 0, side);
+            _defaultRegionSide = side;
+        }
+        return _defaultRegion;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the region that the traversal visits: the region, less chunks
+     * that have never been generated if the job has a ready
+     * {@link RegionHeaderIndex}, and less chunks that have already been
+     * {@link ProcessedChunks processed} if those are skipped.
+     *
+     * @return the region to traverse.
+     */
+    public Region getTraversalRegion() {
+        Region region = getRegion();
+        RegionHeaderIndex chunkIndex = (_chunkIndex != null && _chunkIndex.isReady()) ? _chunkIndex : null;
+        boolean skipProcessed = NerdOre.CONFIG.SKIP_PROCESSED;
+        if (_traversalRegion == null || _traversalRegionBase != region ||
+            _traversalRegionIndex != chunkIndex || _traversalRegionSkipsProcessed != skipProcessed) {
+            _traversalRegionBase = region;
+            _traversalRegionIndex = chunkIndex;
+            _traversalRegionSkipsProcessed = skipProcessed;
+            if (chunkIndex != null) {
+                region = chunkIndex.filter(region);
+            }
+            if (skipProcessed) {
+                region = NerdOre.PROCESSED.filter(_worldName, region);
+            }
+            _traversalRegion = region;
+        }
+        return _traversalRegion;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of generated chunks in this job's world, or null if
+     * ungenerated chunks are not skipped.
+     *
+     * @return the {@link RegionHeaderIndex}, or null.
+     */
+    public RegionHeaderIndex getChunkIndex() {
+        return _chunkIndex;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the index of generated chunks in this job's world, which is
+     * expected to be scanning until passed to
+     * {@link #chunkIndexScanned(RegionHeaderIndex, long)}.
+     *
+     * @param chunkIndex the {@link RegionHeaderIndex}, or null to stop
+     *        skipping ungenerated chunks.
+     */
+    public void setChunkIndex(RegionHeaderIndex chunkIndex) {
+        _chunkIndex = chunkIndex;
+        _generatedDuringScan.clear();
+        _remainingChunks = -1;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Called on the main thread when the scan of this job's chunk index
+     * finishes.
+     *
+     * Chunks generated while the scan was running are added to the index.
+     * If the index has since been replaced, nothing is done.
+     *
+     * @param chunkIndex the scanned index.
+     * @param remainingChunks the number of generated chunks that remained to
+     *        be processed at the time of the scan.
+     */
+    public void chunkIndexScanned(RegionHeaderIndex chunkIndex, long remainingChunks) {
+        if (chunkIndex != _chunkIndex) {
+            return;
+        }
+        chunkIndex.setReady();
+        _remainingChunks = remainingChunks;
+        for (long key : _generatedDuringScan) {
+            chunkGenerated(Util.chunkX(key), Util.chunkZ(key));
+        }
+        _generatedDuringScan.clear();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if this job is ready to process chunks, i.e. it is not
+     * waiting for its chunk index to be scanned.
+     *
+     * @return true if the job is ready to process chunks.
+     */
+    public boolean isReady() {
+        return _chunkIndex == null || _chunkIndex.isReady();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record that a new chunk has been generated in this job's world, so that
+     * it is not skipped.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     */
+    public void chunkGenerated(int chunkX, int chunkZ) {
+        if (_chunkIndex == null) {
+            return;
+        }
+        if (!_chunkIndex.isReady()) {
+            _generatedDuringScan.add(Util.chunkKey(chunkX, chunkZ));
+            return;
+        }
+
+        Region region = getRegion();
+        if (_chunkIndex.add(chunkX, chunkZ) && region.contains(chunkX, chunkZ) &&
+            !NerdOre.PROCESSED.isProcessed(_worldName, chunkX, chunkZ) &&
+            getTraversal().getCursor(chunkX, chunkZ, region) >= getIndex() && _remainingChunks >= 0) {
+            ++_remainingChunks;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of generated chunks that remain to be processed, or
+     * -1 if that is not known.
+     *
+     * @return the number of generated chunks remaining, or -1.
+     */
+    public long getRemainingChunks() {
+        return _remainingChunks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record that a generated chunk has been submitted for processing.
+     */
+    public void chunkSubmitted() {
+        if (_remainingChunks > 0) {
+            --_remainingChunks;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record that planning one of the job's chunks failed on a worker thread.
+     */
+    public void planFailed() {
+        ++_planFailures;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of the job's chunks whose planning failed on a worker
+     * thread since the job was loaded.
+     *
+     * @return the number of failed plans.
+     */
+    public long getPlanFailures() {
+        return _planFailures;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the job's configuration specifies its region, rather
+     * than using the square of {@link #getSide()} chunks.
+     *
+     * @return true if the job has its own region.
+     */
+    public boolean hasRegion() {
+        return _region != null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the configured ore generation seed; 0 signifies the world seed.
+     *
+     * @return the configured ore generation seed.
+     */
+    public long getConfiguredSeed() {
+        return (_seed != null) ? _seed : NerdOre.CONFIG.SEED;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the order in which chunks are processed.
+     *
+     * @return the {@link Traversal}.
+     */
+    public Traversal getTraversal() {
+        return (_traversal != null) ? _traversal : NerdOre.CONFIG.TRAVERSAL;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the weight of this job, which sets its share of the processing
+     * time relative to other running jobs.
+     *
+     * @return the weight.
+     */
+    public double getWeight() {
+        return _weight;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of the next chunk to process in the current traversal.
+     *
+     * @return the index of the next chunk to process.
+     */
+    public long getIndex() {
+        return _indices.getOrDefault(getTraversal(), 0L);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of the next chunk to process in the specified
+     * traversal.
+     *
+     * @param traversal the traversal.
+     * @return the index of the next chunk to process.
+     */
+    public long getIndex(Traversal traversal) {
+        return _indices.getOrDefault(traversal, 0L);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index from which processing should resume after a restart:
+     * the index of the oldest pending chunk, or the next index if no chunks
+     * are pending.
+     *
+     * @return the resume index.
+     */
+    public long getResumeIndex() {
+        return _pendingIndices.isEmpty() ? getIndex() : _pendingIndices.peekFirst();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record that a chunk of this job has been queued for processing.
+     *
+     * @param index the chunk's index in the current traversal.
+     */
+    public void chunkQueued(long index) {
+        _pendingIndices.addLast(index);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record that the oldest queued chunk of this job has left the queue.
+     * Chunks of a job leave the queue in the order they were queued.
+     */
+    public void chunkDequeued() {
+        _pendingIndices.pollFirst();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record that a chunk was skipped because players were near it, so that
+     * it is processed later.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     */
+    public void deferChunk(int chunkX, int chunkZ) {
+        _deferredChunks.add(Util.chunkKey(chunkX, chunkZ));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the specified chunk is deferred.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return true if the chunk is deferred.
+     */
+    public boolean isDeferredChunk(int chunkX, int chunkZ) {
+        return _deferredChunks.contains(Util.chunkKey(chunkX, chunkZ));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove a chunk from the deferred chunks, once it has been processed or
+     * can no longer be.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     */
+    public void removeDeferredChunk(int chunkX, int chunkZ) {
+        _deferredChunks.remove(Util.chunkKey(chunkX, chunkZ));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the {@link Util#chunkKey(int, int) keys} of the deferred chunks,
+     * in the order they were deferred.
+     *
+     * The set may be modified by the caller.
+     *
+     * @return the deferred chunk keys.
+     */
+    public Set<Long> getDeferredChunks() {
+        return _deferredChunks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the tick from which the deferred chunks should next be retried.
+     *
+     * @return the tick number.
+     */
+    public int getRetryTick() {
+        return _retryTick;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the tick from which the deferred chunks should next be retried.
+     *
+     * @param retryTick the tick number.
+     */
+    public void setRetryTick(int retryTick) {
+        _retryTick = retryTick;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the index of the next chunk to process in the current traversal.
+     *
+     * @param index the index.
+     */
+    public void setIndex(long index) {
+        setIndex(getTraversal(), index);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the index of the next chunk to process in the specified traversal.
+     *
+     * @param traversal the traversal.
+     * @param index the index.
+     */
+    public void setIndex(Traversal traversal, long index) {
+        _indices.put(traversal, index);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if all chunks of the region have been submitted.
+     *
+     * @return true if all chunks of the region have been submitted.
+     */
+    public boolean isComplete() {
+        return getIndex() >= getTraversal().getEnd(getRegion());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if this job is processing chunks.
+     *
+     * @return true if this job is processing chunks.
+     */
+    public boolean isRunning() {
+        return _running;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set whether this job is processing chunks.
+     *
+     * Starting the job resolves its seed and reseeds its sequential Randoms.
+     *
+     * @param running true if chunks should be processed.
+     */
+    public void setRunning(boolean running) {
+        if (running && !_running) {
+            resolveSeed();
+        }
+        _running = running;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Resolve the configured seed, substituting the world seed for 0, and
+     * reseed the sequential Randoms.
+     *
+     * If the world seed is needed but the world is not loaded, the previously
+     * resolved seed and the Randoms are kept; a running job is stopped by
+     * {@link OreTask} when it next finds the world unloaded.
+     *
+     * @return true if the seed was resolved; false if the world is not
+     *         loaded.
+     */
+    public boolean resolveSeed() {
+        long seed = getConfiguredSeed();
+        if (seed == 0) {
+            World world = getWorld();
+            if (world == null) {
+                Util.getLogger().warning("Job " + _id + " cannot use the seed of world " + _worldName +
+                                         ", which is not loaded. Keeping seed: " + _resolvedSeed);
+                return false;
+            }
+            seed = world.getSeed();
+            Util.getLogger().info("Job " + _id + " using world seed: " + seed);
+        } else {
+            Util.getLogger().info("Job " + _id + " using configured seed: " + seed);
+        }
+        _resolvedSeed = seed;
+        _random.setSeed(seed);
+        _blockRandom.setSeed(seed);
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the ore generation seed resolved when the job was started.
+     *
+     * @return the ore generation seed.
+     */
+    public long getSeed() {
+        return _resolvedSeed;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the sequential Random used to position ores in legacy
+     * determinism mode.
+     *
+     * @return the Random.
+     */
+    public Random getRandom() {
+        return _random;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the sequential Random used to shape deposits and clear blocks in
+     * legacy determinism mode.
+     *
+     * By using a separate random number generator, we avoid perturbing the
+     * gross locations of ore deposits.
+     *
+     * @return the Random.
+     */
+    public Random getBlockRandom() {
+        return _blockRandom;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the processing time this job has consumed, divided by its
+     * weight, in nanoseconds. The fair-share scheduler runs the job with the
+     * least virtual time next.
+     *
+     * @return the virtual time.
+     */
+    public double getVirtualNanos() {
+        return _virtualNanos;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the virtual time of this job.
+     *
+     * @param virtualNanos the virtual time, in nanoseconds.
+     */
+    public void setVirtualNanos(double virtualNanos) {
+        _virtualNanos = virtualNanos;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Charge processing time to this job, scaled by its weight.
+     *
+     * @param nanos the processing time; may be negative to correct an earlier
+     *        estimate.
+     */
+    public void charge(long nanos) {
+        _virtualNanos += nanos / _weight;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a {@link ClearScanner} for the enabled {@link ClearRule}s of this
+     * job.
+     *
+     * The scanner is cached until the configuration is reloaded.
+     *
+     * @return a {@link ClearScanner}.
+     */
+    public ClearScanner getClearScanner() {
+        RuleIndex<ClearRule> index = NerdOre.CONFIG.getClearRuleIndex(getRuleSet());
+        boolean fused = !NerdOre.CONFIG.LEGACY_DETERMINISM;
+        if (_scanner == null || _scannerIndex != index || _scannerFused != fused) {
+            _scannerIndex = index;
+            _scannerFused = fused;
+            _scanner = new ClearScanner(index, fused);
+        }
+        return _scanner;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a {@link DepositPlanner} for the enabled {@link OreRule}s of this
+     * job.
+     *
+     * The planner is cached until the configuration is reloaded.
+     *
+     * @param scanner the {@link ClearScanner} of this job.
+     * @return a {@link DepositPlanner}.
+     */
+    public DepositPlanner getDepositPlanner(ClearScanner scanner) {
+        RuleIndex<OreRule> index = NerdOre.CONFIG.getOreRuleIndex(getRuleSet());
+        if (_planner == null || _planner.getOreRules() != index || _plannerScanner != scanner) {
+            _plannerScanner = scanner;
+            _planner = new DepositPlanner(index, scanner);
+        }
+        return _planner;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return _id + " (" + _worldName + ")";
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The smallest allowed weight.
+     */
+    protected static final double MIN_WEIGHT = 0.01;
+
+    /**
+     * The unique ID of this job.
+     */
+    protected String _id;
+
+    /**
+     * The name of the processed world.
+     */
+    protected String _worldName;
+
+    /**
+     * The name of the rule set, or null to use the world's rules.
+     */
+    protected String _ruleSet;
+
+    /**
+     * The side of the square in chunks, or null to use the global setting.
+     */
+    protected Integer _side;
+
+    /**
+     * The configured region, or null to use the square of _side chunks.
+     */
+    protected Region _region;
+
+    /**
+     * The cached square of _defaultRegionSide chunks centred on (0,0).
+     */
+    protected Region _defaultRegion;
+
+    /**
+     * The side of _defaultRegion.
+     */
+    protected int _defaultRegionSide;
+
+    /**
+     * The index of generated chunks, or null if ungenerated chunks are not
+     * skipped.
+     */
+    protected RegionHeaderIndex _chunkIndex;
+
+    /**
+     * The cached result of getTraversalRegion().
+     */
+    protected Region _traversalRegion;
+
+    /**
+     * The region that _traversalRegion was built from.
+     */
+    protected Region _traversalRegionBase;
+
+    /**
+     * The ready chunk index that _traversalRegion was built with, or null.
+     */
+    protected RegionHeaderIndex _traversalRegionIndex;
+
+    /**
+     * True if _traversalRegion excludes processed chunks.
+     */
+    protected boolean _traversalRegionSkipsProcessed;
+
+    /**
+     * Keys of chunks generated while _chunkIndex was being scanned.
+     */
+    protected List<Long> _generatedDuringScan = new ArrayList<>();
+
+    /**
+     * The number of generated chunks remaining to process, or -1 if unknown.
+     */
+    protected long _remainingChunks = -1;
+
+    /**
+     * The ore generation seed, or null to use the global setting.
+     */
+    protected Long _seed;
+
+    /**
+     * The traversal, or null to use the global setting.
+     */
+    protected Traversal _traversal;
+
+    /**
+     * The weight of this job in fair-share scheduling.
+     */
+    protected double _weight = 1.0;
+
+    /**
+     * Map from traversal to the index of the next chunk to process.
+     */
+    protected Map<Traversal, Long> _indices = new EnumMap<>(Traversal.class);
+
+    /**
+     * Indices of this job's pending chunks, oldest first.
+     */
+    protected ArrayDeque<Long> _pendingIndices = new ArrayDeque<>();
+
+    /**
+     * The keys of chunks skipped because players were near them, or because
+     * they could not be planned, in the order they were skipped.
+     */
+    protected Set<Long> _deferredChunks = new LinkedHashSet<>();
+
+    /**
+     * The number of chunks whose planning failed on a worker thread.
+     */
+    protected long _planFailures;
+
+    /**
+     * The tick from which the deferred chunks should next be retried.
+     */
+    protected int _retryTick;
+
+    /**
+     * True if this job is processing chunks.
+     */
+    protected boolean _running;
+
+    /**
+     * The ore generation seed resolved when the job was started.
+     */
+    protected long _resolvedSeed;
+
+    /**
+     * Processing time consumed, divided by weight, in nanoseconds.
+     */
+    protected double _virtualNanos;
+
+    /**
+     * The sequential Random used to position ores in legacy determinism mode.
+     */
+    protected Random _random = new Random();
+
+    /**
+     * The sequential Random used to shape deposits and clear blocks in legacy
+     * determinism mode.
+     */
+    protected Random _blockRandom = new Random();
+
+    /**
+     * The ClearRule index that _scanner was built from.
+     */
+    protected RuleIndex<ClearRule> _scannerIndex;
+
+    /**
+     * True if _scanner lists candidates in fused order.
+     */
+    protected boolean _scannerFused;
+
+    /**
+     * Cached scanner for the ClearRules of this job.
+     */
+    protected ClearScanner _scanner;
+
+    /**
+     * The ClearScanner that _planner was built from.
+     */
+    protected ClearScanner _plannerScanner;
+
+    /**
+     * Cached deposit planner for the OreRules of this job.
+     */
+    protected DepositPlanner _planner;
+} // class Job
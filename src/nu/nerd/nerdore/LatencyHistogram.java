@@ -0,0 +1,169 @@
+package nu.nerd.nerdore;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// ----------------------------------------------------------------------------
+/**
+ * A histogram of durations, with buckets of logarithmically increasing width.
+ *
+ * Each power of two is divided into 8 buckets, so recorded values are known
+ * to within 12.5%, from 1 ns to hundreds of years, in under 500 counters.
+ * Recording a value costs a few arithmetic operations and three uncontended
+ * atomic updates, and can be done from any thread.
+ */
+public class LatencyHistogram {
+    // ------------------------------------------------------------------------
+    /**
+     * Record a duration.
+     *
+     * @param nanos the duration in nanoseconds; negative values count as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        _counts.incrementAndGet(getBucket(value));
+        _total.add(value);
+        _max.accumulate(value);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of recorded durations.
+     *
+     * @return the number of recorded durations.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            count += _counts.get(i);
+        }
+        return count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the sum of the recorded durations.
+     *
+     * @return the sum of the recorded durations, in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return _total.sum();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the longest recorded duration.
+     *
+     * @return the longest recorded duration in nanoseconds, or 0 if none have
+     *         been recorded.
+     */
+    public long getMaxNanos() {
+        return _max.get();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the duration at the specified percentile: the middle of the
+     * bucket that contains it.
+     *
+     * @param percentile the percentile in the range [0,100].
+     * @return the duration in nanoseconds, or 0 if none have been recorded.
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            counts[i] = _counts.get(i);
+            count += counts[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long lower = getLowerBound(i);
+                return Math.min(getMaxNanos(), lower + (getLowerBound(i + 1) - lower) / 2);
+            }
+        }
+        return getMaxNanos();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Discard all recorded durations.
+     *
+     * Durations recorded concurrently may be partially discarded.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            _counts.set(i, 0);
+        }
+        _total.reset();
+        _max.reset();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of the bucket that counts a value.
+     *
+     * Values below 8 have their own buckets. Larger values are bucketed by
+     * their highest set bit and the 3 bits below it.
+     *
+     * @param value the non-negative value.
+     * @return the bucket index.
+     */
+    protected static int getBucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return (exponent - 2) * SUB_BUCKETS + (int) ((value >>> (exponent - 3)) & (SUB_BUCKETS - 1));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the smallest value counted by a bucket.
+     *
+     * @param bucket the bucket index, which may be one past the last bucket.
+     * @return the smallest value counted by the bucket.
+     */
+    protected static long getLowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + 2;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 3);
+        return (lower < 0) ? Long.MAX_VALUE : lower;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The number of buckets per power of two.
+     */
+    protected static final int SUB_BUCKETS = 8;
+
+    /**
+     * The number of buckets: enough for any non-negative long.
+     */
+    protected static final int BUCKETS = getBucket(Long.MAX_VALUE) + 1;
+
+    /**
+     * The number of durations recorded in each bucket.
+     */
+    protected final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * The sum of the recorded durations.
+     */
+    protected final LongAdder _total = new LongAdder();
+
+    /**
+     * The longest recorded duration.
+     */
+    protected final LongAccumulator _max = new LongAccumulator(Math::max, 0);
+} // class LatencyHistogram
@@ -0,0 +1,411 @@
+package nu.nerd.nerdore;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// ----------------------------------------------------------------------------
+/**
+ * Reads and writes Minecraft's Named Binary Tag (NBT) format, as used in
+ * region files and level.dat.
+ *
+ * Tags are represented by plain Java objects: Byte, Short, Integer, Long,
+ * Float, Double, byte[], String, {@link ListTag}, {@link Compound}, int[] and
+ * long[]. Reading and then writing a tag reproduces it exactly, including the
+ * order of compound entries and the element types of empty lists.
+ */
+public class Nbt {
+    // ------------------------------------------------------------------------
+    /**
+     * A compound tag: a map from names to tags, in the order they were read
+     * or added.
+     */
+    @SuppressWarnings("serial")
+    public static class Compound extends LinkedHashMap<String, Object> {
+        /**
+         * Return a nested compound.
+         *
+         * @param name the name.
+         * @return the compound, or null if there is no compound with that
+         *         name.
+         */
+        public Compound getCompound(String name) {
+            Object tag = get(name);
+            return (tag instanceof Compound) ? (Compound) tag : null;
+        }
+
+        /**
+         * Return a nested list.
+         *
+         * @param name the name.
+         * @return the list, or null if there is no list with that name.
+         */
+        public ListTag getList(String name) {
+            Object tag = get(name);
+            return (tag instanceof ListTag) ? (ListTag) tag : null;
+        }
+
+        /**
+         * Return a numeric tag as an int.
+         *
+         * @param name the name.
+         * @param def the value returned if there is no numeric tag with that
+         *        name.
+         * @return the value.
+         */
+        public int getInt(String name, int def) {
+            Object tag = get(name);
+            return (tag instanceof Number) ? ((Number) tag).intValue() : def;
+        }
+
+        /**
+         * Return a numeric tag as a long.
+         *
+         * @param name the name.
+         * @param def the value returned if there is no numeric tag with that
+         *        name.
+         * @return the value.
+         */
+        public long getLong(String name, long def) {
+            Object tag = get(name);
+            return (tag instanceof Number) ? ((Number) tag).longValue() : def;
+        }
+
+        /**
+         * Return a string tag.
+         *
+         * @param name the name.
+         * @return the string, or null if there is no string with that name.
+         */
+        public String getString(String name) {
+            Object tag = get(name);
+            return (tag instanceof String) ? (String) tag : null;
+        }
+    } // class Compound
+
+    // ------------------------------------------------------------------------
+    /**
+     * A list tag, whose elements all have the same type.
+     */
+    @SuppressWarnings("serial")
+    public static class ListTag extends ArrayList<Object> {
+        /**
+         * Constructor.
+         *
+         * @param elementType the tag type ID of the elements.
+         */
+        public ListTag(int elementType) {
+            _elementType = elementType;
+        }
+
+        /**
+         * Return the tag type ID of the elements.
+         *
+         * @return the tag type ID of the elements.
+         */
+        public int getElementType() {
+            return _elementType;
+        }
+
+        /**
+         * The tag type ID of the elements.
+         */
+        protected final int _elementType;
+    } // class ListTag
+
+    // ------------------------------------------------------------------------
+    /**
+     * Tag type ID that marks the end of a compound.
+     */
+    public static final int END = 0;
+
+    /**
+     * Tag type ID of a Byte.
+     */
+    public static final int BYTE = 1;
+
+    /**
+     * Tag type ID of a Short.
+     */
+    public static final int SHORT = 2;
+
+    /**
+     * Tag type ID of an Integer.
+     */
+    public static final int INT = 3;
+
+    /**
+     * Tag type ID of a Long.
+     */
+    public static final int LONG = 4;
+
+    /**
+     * Tag type ID of a Float.
+     */
+    public static final int FLOAT = 5;
+
+    /**
+     * Tag type ID of a Double.
+     */
+    public static final int DOUBLE = 6;
+
+    /**
+     * Tag type ID of a byte[].
+     */
+    public static final int BYTE_ARRAY = 7;
+
+    /**
+     * Tag type ID of a String.
+     */
+    public static final int STRING = 8;
+
+    /**
+     * Tag type ID of a {@link ListTag}.
+     */
+    public static final int LIST = 9;
+
+    /**
+     * Tag type ID of a {@link Compound}.
+     */
+    public static final int COMPOUND = 10;
+
+    /**
+     * Tag type ID of an int[].
+     */
+    public static final int INT_ARRAY = 11;
+
+    /**
+     * Tag type ID of a long[].
+     */
+    public static final int LONG_ARRAY = 12;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read a named root compound tag, discarding its name.
+     *
+     * @param in the input.
+     * @return the compound.
+     * @throws IOException if the input is not a valid root compound.
+     */
+    public static Compound read(DataInput in) throws IOException {
+        int type = in.readUnsignedByte();
+        if (type != COMPOUND) {
+            throw new IOException("root tag is not a compound: " + type);
+        }
+        in.readUTF();
+        return (Compound) readPayload(in, COMPOUND, 0);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write a root compound tag with an empty name.
+     *
+     * @param out the output.
+     * @param root the compound.
+     * @throws IOException if the tag cannot be written.
+     */
+    public static void write(DataOutput out, Compound root) throws IOException {
+        out.writeByte(COMPOUND);
+        out.writeUTF("");
+        writePayload(out, root);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the tag type ID of a tag.
+     *
+     * @param tag the tag.
+     * @return the tag type ID.
+     * @throws IOException if the object is not a tag.
+     */
+    public static int getType(Object tag) throws IOException {
+        if (tag instanceof Byte) {
+            return BYTE;
+        } else if (tag instanceof Short) {
+            return SHORT;
+        } else if (tag instanceof Integer) {
+            return INT;
+        } else if (tag instanceof Long) {
+            return LONG;
+        } else if (tag instanceof Float) {
+            return FLOAT;
+        } else if (tag instanceof Double) {
+            return DOUBLE;
+        } else if (tag instanceof byte[]) {
+            return BYTE_ARRAY;
+        } else if (tag instanceof String) {
+            return STRING;
+        } else if (tag instanceof ListTag) {
+            return LIST;
+        } else if (tag instanceof Compound) {
+            return COMPOUND;
+        } else if (tag instanceof int[]) {
+            return INT_ARRAY;
+        } else if (tag instanceof long[]) {
+            return LONG_ARRAY;
+        }
+        throw new IOException("not an NBT tag: " + tag);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the payload of a tag.
+     *
+     * @param in the input.
+     * @param type the tag type ID.
+     * @param depth the nesting depth, to reject corrupt, deeply nested input.
+     * @return the tag.
+     * @throws IOException if the input is invalid.
+     */
+    protected static Object readPayload(DataInput in, int type, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("tags nested too deeply");
+        }
+        switch (type) {
+        case BYTE:
+            return in.readByte();
+        case SHORT:
+            return in.readShort();
+        case INT:
+            return in.readInt();
+        case LONG:
+            return in.readLong();
+        case FLOAT:
+            return in.readFloat();
+        case DOUBLE:
+            return in.readDouble();
+        case BYTE_ARRAY: {
+            byte[] array = new byte[readLength(in)];
+            in.readFully(array);
+            return array;
+        }
+        case STRING:
+            return in.readUTF();
+        case LIST: {
+            int elementType = in.readUnsignedByte();
+            int length = readLength(in);
+            ListTag list = new ListTag(elementType);
+            for (int i = 0; i < length; ++i) {
+                list.add(readPayload(in, elementType, depth + 1));
+            }
+            return list;
+        }
+        case COMPOUND: {
+            Compound compound = new Compound();
+            for (int childType = in.readUnsignedByte(); childType != END; childType = in.readUnsignedByte()) {
+                String name = in.readUTF();
+                compound.put(name, readPayload(in, childType, depth + 1));
+            }
+            return compound;
+        }
+        case INT_ARRAY: {
+            int[] array = new int[readLength(in)];
+            for (int i = 0; i < array.length; ++i) {
+                array[i] = in.readInt();
+            }
+            return array;
+        }
+        case LONG_ARRAY: {
+            long[] array = new long[readLength(in)];
+            for (int i = 0; i < array.length; ++i) {
+                array[i] = in.readLong();
+            }
+            return array;
+        }
+        default:
+            throw new IOException("invalid tag type: " + type);
+        }
+    } // readPayload
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write the payload of a tag.
+     *
+     * @param out the output.
+     * @param tag the tag.
+     * @throws IOException if the tag cannot be written.
+     */
+    protected static void writePayload(DataOutput out, Object tag) throws IOException {
+        switch (getType(tag)) {
+        case BYTE:
+            out.writeByte((Byte) tag);
+            break;
+        case SHORT:
+            out.writeShort((Short) tag);
+            break;
+        case INT:
+            out.writeInt((Integer) tag);
+            break;
+        case LONG:
+            out.writeLong((Long) tag);
+            break;
+        case FLOAT:
+            out.writeFloat((Float) tag);
+            break;
+        case DOUBLE:
+            out.writeDouble((Double) tag);
+            break;
+        case BYTE_ARRAY:
+            out.writeInt(((byte[]) tag).length);
+            out.write((byte[]) tag);
+            break;
+        case STRING:
+            out.writeUTF((String) tag);
+            break;
+        case LIST: {
+            ListTag list = (ListTag) tag;
+            out.writeByte(list.isEmpty() ? list.getElementType() : getType(list.get(0)));
+            out.writeInt(list.size());
+            for (Object element : list) {
+                writePayload(out, element);
+            }
+            break;
+        }
+        case COMPOUND:
+            for (Map.Entry<String, Object> entry : ((Compound) tag).entrySet()) {
+                out.writeByte(getType(entry.getValue()));
+                out.writeUTF(entry.getKey());
+                writePayload(out, entry.getValue());
+            }
+            out.writeByte(END);
+            break;
+        case INT_ARRAY:
+            out.writeInt(((int[]) tag).length);
+            for (int value : (int[]) tag) {
+                out.writeInt(value);
+            }
+            break;
+        case LONG_ARRAY:
+            out.writeInt(((long[]) tag).length);
+            for (long value : (long[]) tag) {
+                out.writeLong(value);
+            }
+            break;
+        }
+    } // writePayload
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the length of an array or list.
+     *
+     * @param in the input.
+     * @return the length.
+     * @throws IOException if the length is negative.
+     */
+    protected static int readLength(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("negative length: " + length);
+        }
+        return length;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The maximum nesting depth of tags, as enforced by Minecraft.
+     */
+    protected static final int MAX_DEPTH = 512;
+} // class Nbt
@@ -1,5 +1,16 @@
 package nu.nerd.nerdore;
 
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
@@ -25,6 +36,36 @@ public class NerdOre extends JavaPlugin {
      */
     public static Configuration CONFIG = new Configuration();
 
+    /**
+     * Ore blocks waiting for their chunks to load.
+     */
+    public static DeferredWrites DEFERRED = new DeferredWrites();
+
+    /**
+     * The chunks of each world that have been processed.
+     */
+    public static ProcessedChunks PROCESSED = new ProcessedChunks();
+
+    /**
+     * The journal of chunks completed since the state file was saved.
+     */
+    public static ProgressJournal JOURNAL = new ProgressJournal();
+
+    /**
+     * Writes the configuration and state files in the background.
+     */
+    public static StateWriter STATE_WRITER = new StateWriter();
+
+    /**
+     * The original state of changed blocks, for rollback.
+     */
+    public static UndoJournal UNDO = new UndoJournal();
+
+    /**
+     * Live per-chunk and per-rule processing statistics.
+     */
+    public static Statistics STATS = new Statistics();
+
     // ------------------------------------------------------------------------
     /**
      * @see org.bukkit.plugin.java.JavaPlugin#onEnable()
@@ -34,9 +75,28 @@ public class NerdOre extends JavaPlugin {
         PLUGIN = this;
 
         saveDefaultConfig();
+        STATE_WRITER.start();
         CONFIG.reload();
+        CONFIG.loadState();
+        _task.setWorkerThreads(CONFIG.WORKER_THREADS);
+        PROCESSED.setFolder(new File(getDataFolder(), "processed"));
+
+        // Replayed journal records add their spilled ore to the loaded queue.
+        try {
+            DEFERRED.load(getDeferredWritesFile());
+        } catch (IOException ex) {
+            getLogger().severe("Unable to load deferred ore blocks: " + ex.getMessage());
+        }
+        replayJournal();
+        openJournal();
+        UNDO.setFolder(new File(getDataFolder(), "undo"));
+        UNDO.start();
 
+        Bukkit.getPluginManager().registerEvents(new ChunkListener(), this);
+        registerPopulators();
         Bukkit.getScheduler().scheduleSyncRepeatingTask(this, _task, 1, 1);
+        Bukkit.getScheduler().scheduleSyncRepeatingTask(this, _rollback, 1, 1);
+        Bukkit.getScheduler().scheduleSyncRepeatingTask(this, _dryRun, 1, 1);
     }
 
     // ------------------------------------------------------------------------
@@ -46,7 +106,80 @@ public class NerdOre extends JavaPlugin {
     @Override
     public void onDisable() {
         Bukkit.getScheduler().cancelTasks(this);
-        CONFIG.save();
+        for (World world : Bukkit.getWorlds()) {
+            world.getPopulators().removeIf(populator -> populator instanceof OrePopulator);
+        }
+        if (_dryRun.isRunning()) {
+            _dryRun.stop();
+        }
+        _task.shutdown();
+        UNDO.close();
+        compactJournal();
+        JOURNAL.close();
+        STATE_WRITER.drain();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start a new progress journal segment and save the state; once the state
+     * is on disk, save the processed chunk bitmaps and deferred ore blocks,
+     * and delete the older segments, whose records they now include.
+     */
+    public void compactJournal() {
+        List<File> segments = JOURNAL.rotate();
+        CONFIG.saveState(saveAfterState(segments));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a callback, to run once the state is on disk, that saves the
+     * processed chunk bitmaps and the {@link DeferredWrites} as they are now,
+     * and then deletes progress journal segments whose records they include.
+     *
+     * The queue is encoded on the calling thread, which must be the main
+     * thread. Segments are kept if the queue cannot be saved, since the ore
+     * blocks spilled by their chunks would otherwise be lost.
+     *
+     * @param segments the segments to delete.
+     * @return the callback, which saves files on the {@link StateWriter}'s
+     *         thread.
+     */
+    protected Runnable saveAfterState(List<File> segments) {
+        File deferredFile = getDeferredWritesFile();
+        byte[] deferred;
+        try {
+            deferred = DEFERRED.encode();
+        } catch (IOException ex) {
+            getLogger().severe("Unable to encode deferred ore blocks: " + ex.getMessage());
+            return PROCESSED::force;
+        }
+
+        return () -> {
+            PROCESSED.force();
+            try {
+                DeferredWrites.save(deferredFile, deferred);
+            } catch (IOException ex) {
+                getLogger().severe("Unable to save deferred ore blocks: " + ex.getMessage());
+                return;
+            }
+            segments.forEach(File::delete);
+        };
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if NerdOre has processed the specified chunk.
+     *
+     * This can be called from any thread, e.g. by other plugins that need to
+     * know whether a chunk's ores have been replaced yet.
+     *
+     * @param world the World.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return true if the chunk has been processed.
+     */
+    public boolean isProcessed(World world, int chunkX, int chunkZ) {
+        return PROCESSED.isProcessed(world.getName(), chunkX, chunkZ);
     }
 
     // ------------------------------------------------------------------------
@@ -62,7 +195,11 @@ public class NerdOre extends JavaPlugin {
             }
 
             if (args.length == 1 && args[0].equalsIgnoreCase("reload")) {
+                STATE_WRITER.flush();
                 CONFIG.reload();
+                _task.setWorkerThreads(CONFIG.WORKER_THREADS);
+                openJournal();
+                registerPopulators();
                 sender.sendMessage(ChatColor.GREEN + getName() + " configuration reloaded.");
                 return true;
             }
@@ -78,26 +215,26 @@ public class NerdOre extends JavaPlugin {
                 CONFIG.save();
                 return true;
             }
-            if (args.length == 1 && args[0].equalsIgnoreCase("start")) {
-                cmdStart(sender);
+            if (args.length >= 1 && args.length <= 2 && args[0].equalsIgnoreCase("start")) {
+                cmdStart(sender, args);
                 return true;
             }
-            if (args.length == 1 && args[0].equalsIgnoreCase("stop")) {
-                cmdStop(sender);
+            if (args.length >= 1 && args.length <= 2 && args[0].equalsIgnoreCase("stop")) {
+                cmdStop(sender, args);
                 return true;
             }
-            if (args.length == 1 && args[0].equalsIgnoreCase("status")) {
-                String message = String.format("%s: %s, completed side dimension %d of %d, index %d in %s.",
-                                               getName(), (_task.isRunning() ? "RUNNING" : "STOPPED"),
-                                               Math.max(0, OreTask.getSideOf(CONFIG.getIndex())),
-                                               CONFIG.SIDE, CONFIG.getIndex(), NerdOre.CONFIG.WORLD);
-                sender.sendMessage(ChatColor.GREEN + message);
+            if (args.length >= 1 && args.length <= 2 && args[0].equalsIgnoreCase("status")) {
+                cmdStatus(sender, args);
                 return true;
             }
             if (args.length >= 1 && args.length <= 2 && args[0].equalsIgnoreCase("period")) {
                 cmdPeriod(sender, args);
                 return true;
             }
+            if (args.length >= 1 && args.length <= 2 && args[0].equalsIgnoreCase("budget")) {
+                cmdBudget(sender, args);
+                return true;
+            }
             if (args.length >= 1 && args.length <= 2 && args[0].equalsIgnoreCase("seed")) {
                 cmdSeed(sender, args);
                 return true;
@@ -110,6 +247,22 @@ public class NerdOre extends JavaPlugin {
                 cmdIndex(sender, args);
                 return true;
             }
+            if (args.length >= 1 && args.length <= 2 && args[0].equalsIgnoreCase("traversal")) {
+                cmdTraversal(sender, args);
+                return true;
+            }
+            if (args.length >= 1 && args.length <= 5 && args[0].equalsIgnoreCase("rollback")) {
+                cmdRollback(sender, args);
+                return true;
+            }
+            if (args.length >= 1 && args.length <= 2 && args[0].equalsIgnoreCase("dryrun")) {
+                cmdDryRun(sender, args);
+                return true;
+            }
+            if (args.length >= 1 && args.length <= 2 && args[0].equalsIgnoreCase("stats")) {
+                cmdStats(sender, args);
+                return true;
+            }
             if (args.length == 1 && args[0].equalsIgnoreCase("rules")) {
                 cmdRules(sender);
                 return true;
@@ -126,47 +279,472 @@ public class NerdOre extends JavaPlugin {
 
     // ------------------------------------------------------------------------
     /**
-     * Handler /nerdore start.
+     * Return the file where {@link DeferredWrites} are saved.
+     *
+     * @return the file where {@link DeferredWrites} are saved.
+     */
+    protected File getDeferredWritesFile() {
+        return new File(getDataFolder(), "deferred.bin");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the folder of the {@link ProgressJournal}'s segments.
+     *
+     * @return the folder of the {@link ProgressJournal}'s segments.
+     */
+    protected File getJournalFolder() {
+        return new File(getDataFolder(), "journal");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add an {@link OrePopulator} to every loaded world listed in
+     * POPULATE_WORLDS, and remove it from other worlds.
+     */
+    public void registerPopulators() {
+        for (World world : Bukkit.getWorlds()) {
+            registerPopulator(world);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add an {@link OrePopulator} to a world if it is listed in
+     * POPULATE_WORLDS, replacing any previously added, or remove it if the
+     * world is not listed.
+     *
+     * @param world the world.
+     */
+    public void registerPopulator(World world) {
+        world.getPopulators().removeIf(populator -> populator instanceof OrePopulator);
+        if (CONFIG.POPULATE_WORLDS.contains(world.getName())) {
+            world.getPopulators().add(new OrePopulator(_task, world.getName()));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Apply chunks completed before the server last stopped, but after the
+     * state file was last saved, then compact the journal.
+     *
+     * Each record of a completed chunk marks the chunk as processed, queues
+     * the ore blocks that it spilled into unloaded chunks, and removes it from
+     * its job's deferred chunks. Each record of a deferred chunk adds it to
+     * its job's deferred chunks. Either kind advances the job's cursor past
+     * the chunk, if the saved cursor is behind it. The single journal file of
+     * earlier versions is replayed first.
+     *
+     * A spilled block may be queued again after it was saved with the queue
+     * or placed, if the server stopped before the segment was deleted. That
+     * is harmless, since the block it was placed in is then ore, which is not
+     * replaceable.
+     */
+    protected void replayJournal() {
+        List<File> segments = new ArrayList<>();
+        File legacyJournal = new File(getDataFolder(), "progress.journal");
+        if (legacyJournal.isFile()) {
+            segments.add(legacyJournal);
+        }
+        segments.addAll(ProgressJournal.getSegments(getJournalFolder()));
+
+        int count = 0;
+        for (File segment : segments) {
+            try {
+                count += ProgressJournal.replay(segment, (jobId, worldName, traversal, cursor, x, z, deferred,
+                                                          spills) -> {
+                    Job job = CONFIG.getJob(jobId);
+                    if (!deferred) {
+                        PROCESSED.setProcessed(worldName, x, z);
+                        spills.addTo(DEFERRED, worldName, jobId);
+                    }
+                    if (job != null) {
+                        if (deferred) {
+                            job.deferChunk(x, z);
+                        } else {
+                            job.removeDeferredChunk(x, z);
+                        }
+                        if (traversal != null && job.getIndex(traversal) <= cursor) {
+                            job.setIndex(traversal, cursor + 1);
+                        }
+                    }
+                });
+            } catch (IOException ex) {
+                getLogger().severe("Unable to replay the progress journal " + segment + ": " + ex.getMessage());
+                return;
+            }
+        }
+
+        if (count != 0) {
+            getLogger().info("Recovered " + count + " processed or deferred chunk(s) from the progress journal.");
+        }
+        CONFIG.saveState(saveAfterState(segments));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Open the {@link ProgressJournal} with the configured commit settings,
+     * logging any error.
+     */
+    protected void openJournal() {
+        try {
+            JOURNAL.open(getJournalFolder(), CONFIG.JOURNAL_COMMIT_CHUNKS, CONFIG.JOURNAL_COMMIT_MS);
+        } catch (IOException ex) {
+            getLogger().severe("Unable to open the progress journal: " + ex.getMessage());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the job named in the command arguments, or the default job.
+     *
+     * The default job is the job of the player's current world, or of the most
+     * recently started world from the console. A job that does not exist is
+     * created for the player's world if create is true.
      *
      * @param sender the CommandSender.
+     * @param args command arguments; args[1], if present, is the job ID.
+     * @param create if true, create a job for the player's world if it does
+     *        not exist.
+     * @return the job, or null if there is none (after informing the sender).
      */
-    protected void cmdStart(CommandSender sender) {
-        if (!(sender instanceof Player)) {
-            sender.sendMessage(ChatColor.RED + "You must be in-game to use this command.");
-            return;
+    protected Job getJob(CommandSender sender, String[] args, boolean create) {
+        World world = (sender instanceof Player) ? ((Player) sender).getLocation().getWorld() : null;
+        Job job;
+        if (args.length >= 2) {
+            job = CONFIG.getJob(args[1]);
+            if (job == null && create && world != null) {
+                job = new Job(args[1], world.getName());
+                CONFIG.JOBS.put(job.getId(), job);
+            }
+        } else if (world != null) {
+            job = create ? CONFIG.getWorldJob(world) : CONFIG.getJob(world.getName());
+        } else {
+            job = (CONFIG.WORLD != null) ? CONFIG.getJob(CONFIG.WORLD) : null;
         }
-        World world = ((Player) sender).getLocation().getWorld();
 
-        if (_task.isRunning()) {
-            sender.sendMessage(ChatColor.GREEN + getName() + " is already running in " +
-                               NerdOre.CONFIG.WORLD + ".");
-            if (!NerdOre.CONFIG.WORLD.equals(world.getName())) {
-                sender.sendMessage(ChatColor.GREEN + "To start processing in this world, run '/nerdore stop' first.");
+        if (job == null) {
+            sender.sendMessage(ChatColor.RED + (args.length >= 2 ? "There is no job with the ID " + args[1] + "."
+                                                                 : "You need to specify a job ID."));
+        }
+        return job;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle /nerdore status [<job>].
+     *
+     * Without a job ID, the status of every job is shown.
+     *
+     * @param sender the CommandSender.
+     * @param args command arguments.
+     */
+    protected void cmdStatus(CommandSender sender, String[] args) {
+        if (args.length == 2) {
+            Job job = getJob(sender, args, false);
+            if (job == null) {
+                return;
             }
+            sendJobStatus(sender, job);
+        } else if (CONFIG.JOBS.isEmpty()) {
+            sender.sendMessage(ChatColor.GREEN + getName() + ": STOPPED, no jobs.");
+        } else {
+            for (Job job : CONFIG.JOBS.values()) {
+                sendJobStatus(sender, job);
+            }
+        }
+
+        if (CONFIG.BUDGET_MS > 0) {
+            sender.sendMessage(ChatColor.GREEN +
+                               String.format("%s: budget %.2f ms/tick, average chunk cost %.2f ms.",
+                                             getName(), CONFIG.BUDGET_MS, _task.getAverageChunkNanos() / 1e6));
+        } else {
+            sender.sendMessage(ChatColor.GREEN + getName() + ": one chunk every " + CONFIG.PERIOD_TICKS + " tick(s).");
+        }
+        sender.sendMessage(ChatColor.GREEN + getName() + ": " + _task.getHealthGuard().getDescription() + ".");
+        if (_task.getWorkingSetSize() != 0) {
+            sender.sendMessage(ChatColor.GREEN + getName() + ": " + _task.getWorkingSetSize() +
+                               " chunk(s) loaded by " + getName() + " are still loaded.");
+        }
+        if (DEFERRED.size() != 0) {
+            sender.sendMessage(ChatColor.GREEN + getName() + ": " + DEFERRED.size() +
+                               " ore block(s) waiting for their chunks to load.");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Send the status of one job to a CommandSender.
+     *
+     * @param sender the CommandSender.
+     * @param job the job.
+     */
+    protected void sendJobStatus(CommandSender sender, Job job) {
+        sender.sendMessage(ChatColor.GREEN +
+                           String.format("%s: job %s %s, %s, weight %.2f, %s.",
+                                         getName(), job.getId(), (job.isRunning() ? "RUNNING" : "STOPPED"),
+                                         (job.hasRegion() ? job.getRegion().getDescription()
+                                                          : "side " + job.getSide()),
+                                         job.getWeight(), OreTask.getProgress(job)));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle /nerdore start [<job>].
+     *
+     * Without a job ID, the job of the player's current world is started,
+     * creating it if necessary. Jobs run alongside any others that are
+     * already running.
+     *
+     * @param sender the CommandSender.
+     * @param args command arguments.
+     */
+    protected void cmdStart(CommandSender sender, String[] args) {
+        Job job = getJob(sender, args, true);
+        if (job == null) {
+            return;
+        }
+        if (job.getWorld() == null) {
+            sender.sendMessage(ChatColor.RED + "The world " + job.getWorldName() + " of job " +
+                               job.getId() + " is not loaded.");
+            return;
+        }
+
+        if (job.isRunning()) {
+            sender.sendMessage(ChatColor.GREEN + getName() + " job " + job.getId() + " is already running in " +
+                               job.getWorldName() + ".");
+        } else if (job.getWorldName().equals(_rollback.getWorldName())) {
+            sender.sendMessage(ChatColor.RED + "A rollback is in progress in " + job.getWorldName() + ".");
         } else {
-            NerdOre.CONFIG.WORLD = world.getName();
-            _task.setSeed(CONFIG.SEED);
-            _task.setRunning(true);
-            sender.sendMessage(ChatColor.GREEN + getName() + " STARTED at index " +
-                               CONFIG.getIndex() + " in " + NerdOre.CONFIG.WORLD + ".");
+            CONFIG.WORLD = job.getWorldName();
+            _task.start(job);
+            sender.sendMessage(ChatColor.GREEN + getName() + " job " + job.getId() + " STARTED at index " +
+                               job.getIndex() + " in " + job.getWorldName() + ".");
             CONFIG.save();
         }
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Handle /nerdore stop.
+     * Handle /nerdore stop [<job>].
+     *
+     * Without a job ID, all running jobs are stopped.
      *
      * @param sender the CommandSender.
+     * @param args command arguments.
      */
-    protected void cmdStop(CommandSender sender) {
-        if (!_task.isRunning()) {
+    protected void cmdStop(CommandSender sender, String[] args) {
+        List<Job> jobs = new ArrayList<>();
+        if (args.length == 2) {
+            Job job = getJob(sender, args, false);
+            if (job == null) {
+                return;
+            }
+            jobs.add(job);
+        } else {
+            CONFIG.JOBS.values().stream().filter(Job::isRunning).forEach(jobs::add);
+        }
+
+        boolean stopped = false;
+        for (Job job : jobs) {
+            if (!job.isRunning()) {
+                sender.sendMessage(ChatColor.GREEN + getName() + " job " + job.getId() + " is already stopped.");
+            } else {
+                _task.stop(job);
+                sender.sendMessage(ChatColor.GREEN + getName() + " job " + job.getId() + " STOPPED at index " +
+                                   job.getIndex() + ".");
+                stopped = true;
+            }
+        }
+        if (jobs.isEmpty()) {
             sender.sendMessage(ChatColor.GREEN + getName() + " is already stopped.");
+        }
+        if (stopped) {
+            CONFIG.saveState(saveAfterState(Collections.emptyList()));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle /nerdore rollback [<job> | region <world> <x> <z>].
+     *
+     * Without arguments, the progress of the current rollback is shown. No
+     * job may be running, and no {@link OrePopulator} may be processing new
+     * chunks, in the world that is rolled back, since either could change
+     * blocks while their original state is being restored.
+     *
+     * @param sender the CommandSender.
+     * @param args command arguments.
+     */
+    protected void cmdRollback(CommandSender sender, String[] args) {
+        if (args.length == 1) {
+            sender.sendMessage(ChatColor.GREEN + getName() + ": " +
+                               (_rollback.isRunning() ? _rollback.getProgress() : "no rollback in progress") + ".");
+            return;
+        }
+        if (_rollback.isRunning()) {
+            sender.sendMessage(ChatColor.RED + "A rollback is already in progress: " + _rollback.getProgress() + ".");
+            return;
+        }
+
+        if (args.length == 2) {
+            Job job = getJob(sender, args, false);
+            if (job == null) {
+                return;
+            }
+            if (!checkRollbackAllowed(sender, job.getWorldName())) {
+                return;
+            }
+            String description = "job " + job.getId();
+            _rollback.start(sender, description, job.getWorldName(), job.getId(),
+                            UNDO.getRegions(job.getWorldName()));
+            sender.sendMessage(ChatColor.GREEN + getName() + ": started rolling back " + description + ".");
+
+        } else if (args.length == 5 && args[1].equalsIgnoreCase("region")) {
+            String worldName = args[2];
+            int regionX;
+            int regionZ;
+            try {
+                regionX = Integer.parseInt(args[3]);
+                regionZ = Integer.parseInt(args[4]);
+            } catch (NumberFormatException ex) {
+                sender.sendMessage(ChatColor.RED + "The region coordinates must be integers.");
+                return;
+            }
+            if (Bukkit.getWorld(worldName) == null) {
+                sender.sendMessage(ChatColor.RED + "The world " + worldName + " is not loaded.");
+                return;
+            }
+            if (!checkRollbackAllowed(sender, worldName)) {
+                return;
+            }
+            String description = "region " + regionX + " " + regionZ + " of " + worldName;
+            _rollback.start(sender, description, worldName, null,
+                            CompletableFuture.completedFuture(Collections.singletonList(Util.chunkKey(regionX, regionZ))));
+            sender.sendMessage(ChatColor.GREEN + getName() + ": started rolling back " + description + ".");
+
         } else {
-            _task.setRunning(false);
-            sender.sendMessage(ChatColor.GREEN + getName() + " STOPPED at index " +
-                               CONFIG.getIndex() + ".");
-            CONFIG.save();
+            sender.sendMessage(ChatColor.RED + "Usage: /" + getName().toLowerCase() +
+                               " rollback [<job> | region <world> <x> <z>]");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if changes in the specified world can be rolled back: no job
+     * is running in the world and it is not populated by an
+     * {@link OrePopulator}. Otherwise, tell the sender why not.
+     *
+     * @param sender the CommandSender.
+     * @param worldName the name of the world.
+     * @return true if a rollback can start.
+     */
+    protected boolean checkRollbackAllowed(CommandSender sender, String worldName) {
+        List<String> running = CONFIG.JOBS.values().stream()
+            .filter(job -> job.isRunning() && job.getWorldName().equals(worldName))
+            .map(Job::getId)
+            .collect(Collectors.toList());
+        if (!running.isEmpty()) {
+            sender.sendMessage(ChatColor.RED + "Stop the running jobs in " + worldName + " before rolling back: " +
+                               String.join(", ", running) + ".");
+            return false;
+        }
+
+        World world = Bukkit.getWorld(worldName);
+        if (CONFIG.POPULATE_WORLDS.contains(worldName) ||
+            (world != null && world.getPopulators().stream().anyMatch(p -> p instanceof OrePopulator))) {
+            sender.sendMessage(ChatColor.RED + worldName + " is populated as chunks are generated. Remove it from " +
+                               "populate.worlds and reload the configuration before rolling back.");
+            return false;
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle /nerdore dryrun [<job> | stop].
+     *
+     * Without arguments, the progress of the current dry run is shown. A job
+     * must be stopped before it is simulated.
+     *
+     * @param sender the CommandSender.
+     * @param args command arguments.
+     */
+    protected void cmdDryRun(CommandSender sender, String[] args) {
+        if (args.length == 1) {
+            sender.sendMessage(ChatColor.GREEN + getName() + ": " +
+                               (_dryRun.isRunning() ? _dryRun.getProgress() : "no dry run in progress") + ".");
+            return;
+        }
+        if (args[1].equalsIgnoreCase("stop")) {
+            if (_dryRun.isRunning()) {
+                _dryRun.stop();
+            } else {
+                sender.sendMessage(ChatColor.GREEN + getName() + ": no dry run in progress.");
+            }
+            return;
+        }
+        if (_dryRun.isRunning()) {
+            sender.sendMessage(ChatColor.RED + "A dry run is already in progress: " + _dryRun.getProgress() + ".");
+            return;
+        }
+
+        Job job = getJob(sender, args, false);
+        if (job == null) {
+            return;
+        }
+        if (job.getWorld() == null) {
+            sender.sendMessage(ChatColor.RED + "The world " + job.getWorldName() + " of job " +
+                               job.getId() + " is not loaded.");
+            return;
+        }
+        if (job.isRunning()) {
+            sender.sendMessage(ChatColor.RED + "Stop job " + job.getId() + " before simulating it.");
+            return;
+        }
+        _dryRun.start(sender, job);
+        sender.sendMessage(ChatColor.GREEN + getName() + ": started a dry run of job " + job.getId() +
+                           " at index " + job.getIndex() + ".");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle /nerdore stats [<rule> | reset | csv].
+     *
+     * Without arguments, a summary of chunk and rule statistics is shown.
+     * With a rule name, or a prefix of rule names such as a world name, the
+     * full statistics of the matching rules are shown. The statistics can
+     * also be reset, or written to a CSV file in the stats folder.
+     *
+     * @param sender the CommandSender.
+     * @param args command arguments.
+     */
+    protected void cmdStats(CommandSender sender, String[] args) {
+        if (args.length == 1) {
+            for (String line : STATS.getSummary()) {
+                sender.sendMessage(ChatColor.GREEN + line);
+            }
+        } else if (args[1].equalsIgnoreCase("reset")) {
+            STATS.reset();
+            sender.sendMessage(ChatColor.GREEN + getName() + ": statistics reset.");
+        } else if (args[1].equalsIgnoreCase("csv")) {
+            String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+            File file = new File(new File(getDataFolder(), "stats"), "stats-" + timestamp + ".csv");
+            STATE_WRITER.write(file, STATS.toCsv(), null);
+            sender.sendMessage(ChatColor.GREEN + getName() + ": writing statistics to " + file.getPath() + ".");
+        } else {
+            List<Statistics.NamedRule> rules = STATS.getRules(args[1]);
+            if (rules.isEmpty()) {
+                sender.sendMessage(ChatColor.RED + "There is no enabled rule named " + args[1] +
+                                   ". Rules are named like world.clear.0 or default.generate.2.");
+            }
+            for (Statistics.NamedRule rule : rules) {
+                List<String> lines = STATS.getDetails(rule);
+                sender.sendMessage(ChatColor.DARK_GREEN + lines.get(0));
+                for (String line : lines.subList(1, lines.size())) {
+                    sender.sendMessage(ChatColor.GREEN + line);
+                }
+            }
         }
     }
 
@@ -184,6 +762,7 @@ public class NerdOre extends JavaPlugin {
                 int newPeriod = Integer.parseInt(args[1]);
                 if (newPeriod > 0) {
                     CONFIG.PERIOD_TICKS = newPeriod;
+                    CONFIG.BUDGET_MS = 0;
                     changed = true;
                 }
             } catch (NumberFormatException ex) {
@@ -199,6 +778,44 @@ public class NerdOre extends JavaPlugin {
         }
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Handle /nerdore budget [<ms>].
+     *
+     * Setting a positive budget selects the adaptive budget scheduler. Setting
+     * the budget to 0 reverts to processing one chunk every PERIOD_TICKS.
+     *
+     * @param sender the CommandSender.
+     * @param args command arguments.
+     */
+    protected void cmdBudget(CommandSender sender, String[] args) {
+        boolean changed = false;
+        if (args.length == 2) {
+            try {
+                double newBudget = Double.parseDouble(args[1]);
+                if (newBudget >= 0 && newBudget < 50) {
+                    CONFIG.BUDGET_MS = newBudget;
+                    changed = true;
+                }
+            } catch (NumberFormatException ex) {
+            }
+            if (!changed) {
+                sender.sendMessage(ChatColor.RED + "The argument must be a number of milliseconds in the range [0,50).");
+            }
+        }
+        if (CONFIG.BUDGET_MS > 0) {
+            sender.sendMessage(ChatColor.GREEN +
+                               String.format(getName() + ": the budget is %s%.2f ms per tick.",
+                                             (changed ? "now " : ""), CONFIG.BUDGET_MS));
+        } else {
+            sender.sendMessage(ChatColor.GREEN + getName() + ": the budget is " + (changed ? "now " : "") +
+                               "disabled; the period is " + CONFIG.PERIOD_TICKS + " tick(s).");
+        }
+        if (changed) {
+            CONFIG.save();
+        }
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Handle /nerdore seed [<blocks>].
@@ -222,7 +839,12 @@ public class NerdOre extends JavaPlugin {
                            String.format(getName() + ": the ore generation seed is %s%d.",
                                          (changed ? "now " : ""), CONFIG.SEED));
         if (changed) {
-            _task.setSeed(CONFIG.SEED);
+            for (Job job : CONFIG.JOBS.values()) {
+                if (job.isRunning() && !job.resolveSeed()) {
+                    sender.sendMessage(ChatColor.RED + "The world " + job.getWorldName() + " of job " + job.getId() +
+                                       " is not loaded; the job keeps the seed " + job.getSeed() + ".");
+                }
+            }
             CONFIG.save();
         }
     }
@@ -277,14 +899,15 @@ public class NerdOre extends JavaPlugin {
         }
 
         World world = ((Player) sender).getLocation().getWorld();
-        int oldIndex = CONFIG.getIndex(world);
+        Job job = CONFIG.getWorldJob(world);
+        long oldIndex = job.getIndex();
 
         boolean changed = false;
         if (args.length == 2) {
             try {
-                int newIndex = Integer.parseInt(args[1]);
+                long newIndex = Long.parseLong(args[1]);
                 if (newIndex >= 0) {
-                    CONFIG.setIndex(world, newIndex);
+                    job.setIndex(newIndex);
                     changed = true;
                 }
             } catch (NumberFormatException ex) {
@@ -296,9 +919,45 @@ public class NerdOre extends JavaPlugin {
 
         sender.sendMessage(ChatColor.GREEN + getName() + ": the index in " +
                            world.getName() + " is " +
-                           (changed ? "now " : "") + CONFIG.getIndex(world) + ".");
+                           (changed ? "now " : "") + job.getIndex() + ".");
         if (changed) {
             sender.sendMessage(ChatColor.GREEN + getName() + ": it used to be " + oldIndex + ".");
+            if (job.isRunning()) {
+                // Recount the remaining chunks from the new index.
+                _task.scanChunkIndex(job);
+            }
+            CONFIG.saveState(null);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle /nerdore traversal [<name>].
+     *
+     * Sets the traversal of jobs that do not specify their own. Each job has
+     * its own index for each traversal, so switching traversal resumes from
+     * where that traversal left off.
+     *
+     * @param sender the CommandSender.
+     * @param args command arguments.
+     */
+    protected void cmdTraversal(CommandSender sender, String[] args) {
+        boolean changed = false;
+        if (args.length == 2) {
+            Traversal traversal = Traversal.fromName(args[1]);
+            if (traversal != null) {
+                CONFIG.TRAVERSAL = traversal;
+                changed = true;
+            } else {
+                String names = Arrays.stream(Traversal.values())
+                    .map(t -> t.name().toLowerCase()).collect(Collectors.joining(", "));
+                sender.sendMessage(ChatColor.RED + "The argument must be one of: " + names + ".");
+            }
+        }
+        sender.sendMessage(ChatColor.GREEN +
+                           String.format(getName() + ": the default traversal is %s%s.",
+                                         (changed ? "now " : ""), CONFIG.TRAVERSAL.name().toLowerCase()));
+        if (changed) {
             CONFIG.save();
         }
     }
@@ -350,4 +1009,16 @@ public class NerdOre extends JavaPlugin {
      */
     protected OreTask _task = new OreTask();
 
+    /**
+     * Task to roll back changes. Runs every tick, and does nothing unless a
+     * rollback has been started.
+     */
+    protected RollbackTask _rollback = new RollbackTask(_task.getWorkingSet());
+
+    /**
+     * Task to simulate jobs. Runs every tick, and does nothing unless a dry
+     * run has been started.
+     */
+    protected DryRunTask _dryRun = new DryRunTask(_task);
+
 } // class NerdOre
\ No newline at end of file
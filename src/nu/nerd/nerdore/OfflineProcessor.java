@@ -0,0 +1,912 @@
+package nu.nerd.nerdore;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import nu.nerd.nerdore.blockstate.BlockAccess;
+import nu.nerd.nerdore.blockstate.SpawnerAccess;
+
+// ----------------------------------------------------------------------------
+/**
+ * Processes a world's region files directly, without a server.
+ *
+ * This is intended for the initial conversion of a large map, while the
+ * server is stopped. It loads the plugin's config.yml and applies the rules of
+ * a job (or of the world) to every generated chunk in the job's region, using
+ * the same {@link ClearScanner}, {@link DepositPlanner}, {@link ClearRule}s
+ * and per-chunk random number streams as {@link OreTask}, against
+ * {@link AnvilChunk}s instead of loaded Chunks. Each worker thread processes
+ * a whole region file at a time, so workers never share chunks.
+ *
+ * Ore that spills into a chunk of another region file, or into a chunk that
+ * does not exist, is queued in {@link DeferredWrites}, as on the server. When
+ * all region files have been processed, the blocks queued for chunks of other
+ * region files are placed in a second pass. Blocks queued for chunks that do
+ * not exist are saved to the plugin's deferred.bin if the plugin's data
+ * folder is specified with --data; processed chunks are then also recorded
+ * in the plugin's {@link ProcessedChunks} bitmaps, and already processed
+ * chunks are skipped if skip-processed is set.
+ *
+ * Legacy determinism is not supported, since its sequential random numbers
+ * depend on the order in which the server visits chunks. Lighting, heightmaps
+ * and liquid physics are not updated, and no undo journal is kept; back up
+ * the world first.
+ *
+ * Usage:
+ *
+ * <pre>
+ * java -cp &lt;server jar&gt;:NerdOre.jar nu.nerd.nerdore.OfflineProcessor \
+ *     &lt;config.yml&gt; &lt;world folder&gt; [--job &lt;id&gt;] [--seed &lt;num&gt;]
+ *     [--threads &lt;num&gt;] [--data &lt;plugin folder&gt;]
+ * </pre>
+ */
+public class OfflineProcessor {
+    // ------------------------------------------------------------------------
+    /**
+     * Command line entry point.
+     *
+     * @param args the command line arguments.
+     */
+    public static void main(String[] args) {
+        OfflineProcessor processor = new OfflineProcessor();
+        if (!processor.parseArguments(args)) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        System.exit(processor.run() ? 0 : 1);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Parse the command line arguments.
+     *
+     * @param args the command line arguments.
+     * @return true if the arguments are valid.
+     */
+    protected boolean parseArguments(String[] args) {
+        List<String> positional = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                switch (args[i]) {
+                case "--job":
+                    _jobId = args[++i];
+                    break;
+                case "--seed":
+                    _seed = Long.parseLong(args[++i]);
+                    break;
+                case "--threads":
+                    _threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--data":
+                    _dataFolder = new File(args[++i]);
+                    break;
+                default:
+                    if (args[i].startsWith("--")) {
+                        return false;
+                    }
+                    positional.add(args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException ex) {
+            return false;
+        }
+        if (positional.size() != 2 || _threads < 1) {
+            return false;
+        }
+        _configFile = new File(positional.get(0));
+        _worldFolder = new File(positional.get(1));
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Process the world.
+     *
+     * @return true if all region files were processed successfully.
+     */
+    protected boolean run() {
+        Logger logger = Util.getLogger();
+        long start = System.nanoTime();
+        try {
+            if (!configure()) {
+                return false;
+            }
+        } catch (IOException ex) {
+            logger.severe(ex.getMessage());
+            return false;
+        }
+
+        Map<Long, File> regionFiles = listRegionFiles(_regionFolder);
+        logger.info(String.format("Processing %d region file(s) in %s for job %s with seed %d on %d thread(s).",
+                                  regionFiles.size(), _regionFolder.getPath(), _job.getId(), _resolvedSeed,
+                                  _threads));
+
+        ExecutorService executor = Executors.newFixedThreadPool(_threads);
+        boolean success = true;
+        try {
+            // Results are merged in region order, so that the output does not
+            // depend on the number of threads.
+            Map<Long, Future<RegionResult>> results = new TreeMap<>();
+            for (Map.Entry<Long, File> entry : regionFiles.entrySet()) {
+                int regionX = Util.chunkX(entry.getKey());
+                int regionZ = Util.chunkZ(entry.getKey());
+                if (_region.intersects(regionX << 5, regionZ << 5, (regionX << 5) + 31, (regionZ << 5) + 31)) {
+                    File file = entry.getValue();
+                    results.put(entry.getKey(), executor.submit(() -> processRegion(file, regionX, regionZ)));
+                }
+            }
+
+            DeferredWrites spills = new DeferredWrites();
+            RegionResult totals = new RegionResult();
+            for (Map.Entry<Long, Future<RegionResult>> entry : results.entrySet()) {
+                RegionResult result = getResult(entry.getValue(), regionFiles.get(entry.getKey()));
+                if (result == null) {
+                    success = false;
+                    continue;
+                }
+                spills.addAll(result._spills);
+                totals.add(result);
+                if (_dataFolder != null) {
+                    for (long key : result._processed) {
+                        NerdOre.PROCESSED.setProcessed(_worldName, Util.chunkX(key), Util.chunkZ(key));
+                    }
+                }
+            }
+
+            success &= placeSpills(executor, spills, regionFiles, totals);
+            NerdOre.DEFERRED.addAll(spills);
+            if (_dataFolder != null) {
+                NerdOre.PROCESSED.force();
+                NerdOre.DEFERRED.save(getDeferredWritesFile());
+            } else if (NerdOre.DEFERRED.size() != 0) {
+                logger.warning(NerdOre.DEFERRED.size() + " ore block(s) spilled into chunks that do not exist " +
+                               "and were discarded; use --data to keep them.");
+            }
+
+            logger.info(String.format("Processed %d chunk(s) in %.1f s: %d block(s) cleared, %d ore block(s) placed, " +
+                                      "%d deferred block(s) placed, %d skipped chunk(s).",
+                                      totals._chunks, (System.nanoTime() - start) * 1e-9, totals._cleared,
+                                      totals._ores, totals._deferred, totals._skipped));
+        } catch (IOException ex) {
+            logger.severe("Unable to save " + getDeferredWritesFile() + ": " + ex.getMessage());
+            success = false;
+        } finally {
+            executor.shutdown();
+        }
+        return success;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load the configuration, select the job and resolve the seed.
+     *
+     * @return true if processing can proceed.
+     * @throws IOException if a file cannot be read.
+     */
+    protected boolean configure() throws IOException {
+        Logger logger = Util.getLogger();
+        if (!_configFile.isFile()) {
+            throw new IOException("No such configuration file: " + _configFile);
+        }
+        YamlConfiguration config = YamlConfiguration.loadConfiguration(_configFile);
+        try (InputStream defaults = OfflineProcessor.class.getResourceAsStream("/config.yml")) {
+            if (defaults != null) {
+                config.setDefaults(YamlConfiguration.loadConfiguration(new InputStreamReader(defaults,
+                                                                                             StandardCharsets.UTF_8)));
+            }
+        }
+        NerdOre.CONFIG.load(config, logger);
+        if (NerdOre.CONFIG.LEGACY_DETERMINISM) {
+            logger.severe("Legacy determinism cannot be reproduced offline; disable legacy-determinism.");
+            return false;
+        }
+
+        if (_jobId != null) {
+            _job = NerdOre.CONFIG.getJob(_jobId);
+            if (_job == null) {
+                logger.severe("No such job: " + _jobId);
+                return false;
+            }
+        } else {
+            String name = _worldFolder.getAbsoluteFile().getName();
+            _job = new Job(name, name);
+        }
+        _worldName = _job.getWorldName();
+        _region = _job.getRegion();
+
+        _regionFolder = getRegionFolder(_worldFolder);
+        if (_regionFolder == null) {
+            throw new IOException("No region folder in " + _worldFolder);
+        }
+
+        if (_seed != null) {
+            _resolvedSeed = _seed;
+        } else if (_job.getConfiguredSeed() != 0) {
+            _resolvedSeed = _job.getConfiguredSeed();
+        } else {
+            _resolvedSeed = readWorldSeed(new File(_worldFolder, "level.dat"));
+        }
+
+        _scanner = new ClearScanner(NerdOre.CONFIG.getClearRuleIndex(_job.getRuleSet()), true);
+        _planner = new DepositPlanner(NerdOre.CONFIG.getOreRuleIndex(_job.getRuleSet()), _scanner);
+
+        if (_dataFolder != null) {
+            NerdOre.PROCESSED.setFolder(new File(_dataFolder, "processed"));
+            NerdOre.DEFERRED.load(getDeferredWritesFile());
+        }
+        return true;
+    } // configure
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the folder of region files of a world: region/ for the
+     * overworld, or DIM-1/region or DIM1/region for the nether and the end
+     * as saved by Bukkit.
+     *
+     * @param worldFolder the world folder.
+     * @return the region folder, or null if there is none.
+     */
+    protected static File getRegionFolder(File worldFolder) {
+        for (String path : new String[] { "region", "DIM-1/region", "DIM1/region" }) {
+            File folder = new File(worldFolder, path);
+            if (folder.isDirectory()) {
+                return folder;
+            }
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the region files in a folder.
+     *
+     * @param folder the region folder.
+     * @return map from {@link Util#chunkKey(int, int) key} of the region
+     *         coordinates to file, in key order.
+     */
+    protected static Map<Long, File> listRegionFiles(File folder) {
+        Map<Long, File> files = new TreeMap<>();
+        File[] list = folder.listFiles();
+        if (list != null) {
+            for (File file : list) {
+                Matcher matcher = REGION_FILE_NAME.matcher(file.getName());
+                if (matcher.matches() && file.length() > 0) {
+                    files.put(Util.chunkKey(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2))),
+                              file);
+                }
+            }
+        }
+        return files;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the world seed from level.dat.
+     *
+     * @param file the level.dat file.
+     * @return the seed.
+     * @throws IOException if the file cannot be read or has no seed.
+     */
+    protected static long readWorldSeed(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(file)))) {
+            Nbt.Compound data = Nbt.read(in).getCompound("Data");
+            if (data != null) {
+                Object seed = data.get("RandomSeed");
+                Nbt.Compound settings = data.getCompound("WorldGenSettings");
+                if (seed == null && settings != null) {
+                    // Minecraft 1.16 and later.
+                    seed = settings.get("seed");
+                }
+                if (seed instanceof Long) {
+                    return (Long) seed;
+                }
+            }
+        }
+        throw new IOException("No world seed in " + file);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the file where deferred writes are saved in the plugin's data
+     * folder.
+     *
+     * @return the file.
+     */
+    protected File getDeferredWritesFile() {
+        return new File(_dataFolder, "deferred.bin");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Wait for the result of processing a region file, logging failures.
+     *
+     * @param future the future result.
+     * @param file the region file.
+     * @return the result, or null if processing failed.
+     */
+    protected static <T> T getResult(Future<T> future, File file) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            Util.getLogger().severe("Processing " + file + " failed: " + ex.getCause());
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Apply the job's rules to the chunks of one region file, and write the
+     * region file if any chunk was changed.
+     *
+     * This is called on a worker thread. Chunks are processed in the order of
+     * the region file's location table.
+     *
+     * @param file the region file.
+     * @param regionX the region X coordinate.
+     * @param regionZ the region Z coordinate.
+     * @return the result.
+     * @throws IOException if the region file cannot be read or written.
+     */
+    protected RegionResult processRegion(File file, int regionX, int regionZ) throws IOException {
+        RegionFile regionFile = RegionFile.read(file);
+        RegionResult result = new RegionResult();
+        AnvilChunk[] chunks = loadChunks(regionFile, regionX, regionZ, file, result);
+        RegionBlock block = new RegionBlock(_worldName, chunks, regionX, regionZ);
+
+        for (AnvilChunk chunk : chunks) {
+            if (chunk == null || !_region.contains(chunk.getX(), chunk.getZ()) ||
+                (NerdOre.CONFIG.SKIP_PROCESSED &&
+                 NerdOre.PROCESSED.isProcessed(_worldName, chunk.getX(), chunk.getZ()))) {
+                continue;
+            }
+
+            // Place ore that spilled over from neighbours before scanning.
+            result._deferred += NerdOre.DEFERRED.apply(chunk);
+
+            ChunkSnapshot snapshot = chunk.getSnapshot();
+            BiomeGrid biomes = new BiomeGrid(snapshot);
+            ClearPlan clears = _scanner.scan(snapshot, biomes);
+            DepositPlan deposits = _planner.plan(snapshot, biomes, _resolvedSeed);
+            applyClears(chunk, block, clears, result);
+            applyDeposits(chunk, block, deposits, result);
+            result._processed.add(Util.chunkKey(chunk.getX(), chunk.getZ()));
+            ++result._chunks;
+        }
+
+        saveChunks(regionFile, chunks, file);
+        return result;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Place the blocks that spilled into chunks of other region files.
+     *
+     * Region files are processed in parallel, but each chunk's blocks are
+     * placed in the order they were queued.
+     *
+     * @param executor the worker threads.
+     * @param spills the spilled blocks; those placed are removed.
+     * @param regionFiles the region files, by region key.
+     * @param totals the totals to update.
+     * @return true if all region files were updated successfully.
+     */
+    protected boolean placeSpills(ExecutorService executor, DeferredWrites spills, Map<Long, File> regionFiles,
+                                  RegionResult totals) {
+        Map<Long, Future<RegionResult>> results = new TreeMap<>();
+        for (long chunkKey : spills.getChunkKeys(_worldName)) {
+            long regionKey = Util.chunkKey(Util.chunkX(chunkKey) >> 5, Util.chunkZ(chunkKey) >> 5);
+            File file = regionFiles.get(regionKey);
+            if (file != null && !results.containsKey(regionKey)) {
+                int regionX = Util.chunkX(regionKey);
+                int regionZ = Util.chunkZ(regionKey);
+                results.put(regionKey, executor.submit(() -> placeSpills(file, regionX, regionZ, spills)));
+            }
+        }
+
+        boolean success = true;
+        for (Map.Entry<Long, Future<RegionResult>> entry : results.entrySet()) {
+            RegionResult result = getResult(entry.getValue(), regionFiles.get(entry.getKey()));
+            if (result != null) {
+                totals._deferred += result._deferred;
+            } else {
+                success = false;
+            }
+        }
+        return success;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Place the blocks that spilled into the chunks of one region file.
+     *
+     * This is called on a worker thread.
+     *
+     * @param file the region file.
+     * @param regionX the region X coordinate.
+     * @param regionZ the region Z coordinate.
+     * @param spills the spilled blocks; those placed are removed.
+     * @return the result.
+     * @throws IOException if the region file cannot be read or written.
+     */
+    protected RegionResult placeSpills(File file, int regionX, int regionZ, DeferredWrites spills)
+    throws IOException {
+        RegionFile regionFile = RegionFile.read(file);
+        RegionResult result = new RegionResult();
+        AnvilChunk[] chunks = loadChunks(regionFile, regionX, regionZ, file, result);
+        for (AnvilChunk chunk : chunks) {
+            if (chunk != null) {
+                result._deferred += spills.apply(chunk);
+            }
+        }
+        saveChunks(regionFile, chunks, file);
+        return result;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Decode the fully generated chunks of a region file.
+     *
+     * Chunks that cannot be decoded are logged, counted as skipped and left
+     * unchanged.
+     *
+     * @param regionFile the region file contents.
+     * @param regionX the region X coordinate.
+     * @param regionZ the region Z coordinate.
+     * @param file the region file, for messages.
+     * @param result the result, whose count of skipped chunks is updated.
+     * @return the chunks, indexed by (localZ &lt;&lt; 5) | localX; null where
+     *         there is no fully generated chunk.
+     */
+    protected AnvilChunk[] loadChunks(RegionFile regionFile, int regionX, int regionZ, File file,
+                                      RegionResult result) {
+        AnvilChunk[] chunks = new AnvilChunk[1024];
+        for (int localZ = 0; localZ < 32; ++localZ) {
+            for (int localX = 0; localX < 32; ++localX) {
+                if (!regionFile.hasChunk(localX, localZ)) {
+                    continue;
+                }
+                try {
+                    AnvilChunk chunk = new AnvilChunk(_worldName, regionFile.getChunk(localX, localZ));
+                    if (chunk.getX() != (regionX << 5) + localX || chunk.getZ() != (regionZ << 5) + localZ) {
+                        throw new IOException("chunk is at (" + chunk.getX() + ", " + chunk.getZ() + ")");
+                    }
+                    if (chunk.isFullyGenerated()) {
+                        chunks[(localZ << 5) | localX] = chunk;
+                    }
+                } catch (IOException ex) {
+                    Util.getLogger().warning(String.format("Skipping chunk (%d, %d) in %s: %s",
+                                                           (regionX << 5) + localX, (regionZ << 5) + localZ,
+                                                           file.getName(), ex.getMessage()));
+                    ++result._skipped;
+                }
+            }
+        }
+        return chunks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Store the changed chunks in a region file and write it, if any chunk
+     * was changed.
+     *
+     * @param regionFile the region file contents.
+     * @param chunks the chunks, indexed as by
+     *        {@link #loadChunks(RegionFile, int, int, File, RegionResult)}.
+     * @param file the region file.
+     * @throws IOException if the file cannot be written.
+     */
+    protected void saveChunks(RegionFile regionFile, AnvilChunk[] chunks, File file) throws IOException {
+        boolean modified = false;
+        for (int i = 0; i < chunks.length; ++i) {
+            AnvilChunk chunk = chunks[i];
+            if (chunk != null && chunk.isModified()) {
+                regionFile.setChunk(i & 31, i >> 5, chunk.save());
+                modified = true;
+            }
+        }
+        if (modified) {
+            regionFile.write(file);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Apply the {@link ClearRule}s to the candidates of a chunk's plan.
+     *
+     * As in {@link OreTask}, each rule draws from its own random number
+     * stream, derived from the seed, the chunk and the rule ID.
+     *
+     * @param chunk the chunk.
+     * @param block the block access of the chunk's region file.
+     * @param plan the chunk's clear plan.
+     * @param result the result, whose counts are updated.
+     */
+    protected void applyClears(AnvilChunk chunk, RegionBlock block, ClearPlan plan, RegionResult result) {
+        ClearRule[] rules = _scanner.getRules();
+        Random[] randoms = new Random[rules.length];
+        for (int r = 0; r < rules.length; ++r) {
+            randoms[r] = new SplitMixRandom(SplitMixRandom.streamSeed(_resolvedSeed, _worldName,
+                                                                      chunk.getX(), chunk.getZ(),
+                                                                      SplitMixRandom.CLEAR_STREAM, rules[r].getId()));
+        }
+
+        int originX = chunk.getX() * 16;
+        int originZ = chunk.getZ() * 16;
+        for (int i = 0; i < plan.size(); ++i) {
+            int candidate = plan.get(i);
+            int ruleIndex = ClearPlan.ruleIndex(candidate);
+            ClearRule rule = rules[ruleIndex];
+            Random random = randoms[ruleIndex];
+            block.moveTo(originX + ClearPlan.x(candidate), ClearPlan.y(candidate), originZ + ClearPlan.z(candidate));
+            StringBuilder message = rule.isLogged() ? new StringBuilder() : null;
+            if (rule.matches(block, message) &&
+                random.nextDouble() <= rule.getProbability()) {
+                rule.apply(block, random, message);
+                ++result._cleared;
+                if (rule.isLogged()) {
+                    Util.getLogger().info(message.toString());
+                }
+            }
+        }
+    } // applyClears
+
+    // ------------------------------------------------------------------------
+    /**
+     * Place the planned deposits of a chunk.
+     *
+     * As in {@link VoxelWriter}, blocks in chunks of the same region file are
+     * placed if replaceable, and other blocks are queued. Every voxel outside
+     * the chunk counts towards the size of its deposit, whether it is placed
+     * or not.
+     *
+     * @param chunk the chunk.
+     * @param block the block access of the chunk's region file.
+     * @param deposits the planned deposits.
+     * @param result the result, whose counts and spills are updated.
+     */
+    protected void applyDeposits(AnvilChunk chunk, RegionBlock block, DepositPlan deposits, RegionResult result) {
+        OreRule[] rules = _planner.getOreRules().getRules();
+        int originX = chunk.getX() * 16;
+        int originZ = chunk.getZ() * 16;
+        for (int deposit = 0; deposit < deposits.getDepositCount(); ++deposit) {
+            OreRule rule = rules[deposits.getRuleIndex(deposit)];
+            Material material = rule.getMaterial().getType();
+            int size = deposits.getSize(deposit);
+            if (rule.isLogged()) {
+                Util.getLogger().info("Generate " + size + " x " + material + " at " +
+                                      deposits.getCentre(deposit, 0) + " " + deposits.getCentre(deposit, 1) + " " +
+                                      deposits.getCentre(deposit, 2) + " in " + _worldName);
+            }
+
+            int placed = 0;
+            int end = deposits.getVoxelEnd(deposit);
+            for (int v = deposits.getVoxelStart(deposit); v < end && placed < size; ++v) {
+                int voxel = deposits.getVoxel(v);
+                int x = originX + DepositPlan.dx(voxel);
+                int y = DepositPlan.y(voxel);
+                int z = originZ + DepositPlan.dz(voxel);
+                if (y < 0 || y > 255) {
+                    continue;
+                }
+                if (block.moveTo(x, y, z)) {
+                    if (NerdOre.CONFIG.isReplaceable(block.getType())) {
+                        block.setType(material);
+                        ++result._ores;
+                        ++placed;
+                    } else if (block._chunk != chunk) {
+                        ++placed;
+                    }
+                } else {
+                    result._spills.add(_worldName, _job.getId(), x, y, z, material);
+                    ++placed;
+                }
+            }
+        }
+    } // applyDeposits
+
+    // ------------------------------------------------------------------------
+    /**
+     * Access to the blocks of the chunks of one region file.
+     *
+     * One instance is moved from block to block, to avoid allocating an
+     * object per block.
+     */
+    protected static final class RegionBlock implements BlockAccess {
+        /**
+         * Constructor.
+         *
+         * @param worldName the name of the world.
+         * @param chunks the chunks of the region file, indexed by
+         *        (localZ &lt;&lt; 5) | localX; null where there is no chunk.
+         * @param regionX the region X coordinate.
+         * @param regionZ the region Z coordinate.
+         */
+        RegionBlock(String worldName, AnvilChunk[] chunks, int regionX, int regionZ) {
+            _worldName = worldName;
+            _chunks = chunks;
+            _regionX = regionX;
+            _regionZ = regionZ;
+        }
+
+        /**
+         * Move to the specified block.
+         *
+         * @param x the world X coordinate.
+         * @param y the Y coordinate, [0,255].
+         * @param z the world Z coordinate.
+         * @return true if the block is in a chunk of the region file.
+         */
+        boolean moveTo(int x, int y, int z) {
+            _x = x;
+            _y = y;
+            _z = z;
+            _chunk = getChunk(x, z);
+            return _chunk != null;
+        }
+
+        @Override
+        public String getWorldName() {
+            return _worldName;
+        }
+
+        @Override
+        public int getX() {
+            return _x;
+        }
+
+        @Override
+        public int getY() {
+            return _y;
+        }
+
+        @Override
+        public int getZ() {
+            return _z;
+        }
+
+        @Override
+        public Material getType() {
+            return _chunk.getType(_x & 15, _y, _z & 15);
+        }
+
+        @Override
+        public void setType(Material material) {
+            _chunk.setType(_x & 15, _y, _z & 15, material);
+        }
+
+        @Override
+        public int getLevel() {
+            return _chunk.getLevel(_x & 15, _y, _z & 15);
+        }
+
+        /**
+         * Blocks in other region files are not accessible.
+         *
+         * @see BlockAccess#getRelativeType(int, int, int)
+         */
+        @Override
+        public Material getRelativeType(int dx, int dy, int dz) {
+            int x = _x + dx;
+            int y = _y + dy;
+            int z = _z + dz;
+            AnvilChunk chunk = getChunk(x, z);
+            return (chunk == null || y < 0 || y > 255) ? null : chunk.getType(x & 15, y, z & 15);
+        }
+
+        @Override
+        public SpawnerAccess getSpawner() {
+            return _chunk.getSpawner(_x & 15, _y, _z & 15);
+        }
+
+        /**
+         * Return the chunk containing the specified block.
+         *
+         * @param x the world X coordinate.
+         * @param z the world Z coordinate.
+         * @return the chunk, or null if it is not in the region file.
+         */
+        AnvilChunk getChunk(int x, int z) {
+            int localX = (x >> 4) - (_regionX << 5);
+            int localZ = (z >> 4) - (_regionZ << 5);
+            return (localX >= 0 && localX < 32 && localZ >= 0 && localZ < 32) ? _chunks[(localZ << 5) | localX]
+                                                                              : null;
+        }
+
+        /**
+         * The name of the world.
+         */
+        final String _worldName;
+
+        /**
+         * The chunks of the region file.
+         */
+        final AnvilChunk[] _chunks;
+
+        /**
+         * The region X coordinate.
+         */
+        final int _regionX;
+
+        /**
+         * The region Z coordinate.
+         */
+        final int _regionZ;
+
+        /**
+         * The chunk containing the current block.
+         */
+        AnvilChunk _chunk;
+
+        /**
+         * The world X coordinate of the current block.
+         */
+        int _x;
+
+        /**
+         * The Y coordinate of the current block.
+         */
+        int _y;
+
+        /**
+         * The world Z coordinate of the current block.
+         */
+        int _z;
+    } // class RegionBlock
+
+    // ------------------------------------------------------------------------
+    /**
+     * The outcome of processing one region file.
+     */
+    protected static final class RegionResult {
+        /**
+         * Add the counts of another result to this one.
+         *
+         * @param other the other result.
+         */
+        void add(RegionResult other) {
+            _chunks += other._chunks;
+            _skipped += other._skipped;
+            _cleared += other._cleared;
+            _ores += other._ores;
+            _deferred += other._deferred;
+        }
+
+        /**
+         * Ore blocks that spilled into chunks outside the region file.
+         */
+        final DeferredWrites _spills = new DeferredWrites();
+
+        /**
+         * The {@link Util#chunkKey(int, int) keys} of the processed chunks.
+         */
+        final List<Long> _processed = new ArrayList<>();
+
+        /**
+         * The number of chunks processed.
+         */
+        long _chunks;
+
+        /**
+         * The number of chunks that could not be decoded.
+         */
+        long _skipped;
+
+        /**
+         * The number of blocks cleared.
+         */
+        long _cleared;
+
+        /**
+         * The number of ore blocks placed in the region file.
+         */
+        long _ores;
+
+        /**
+         * The number of deferred ore blocks placed.
+         */
+        long _deferred;
+    } // class RegionResult
+
+    // ------------------------------------------------------------------------
+    /**
+     * Command line usage.
+     */
+    protected static final String USAGE =
+        "Usage: java -cp <server jar>:NerdOre.jar nu.nerd.nerdore.OfflineProcessor <config.yml> <world folder>\n" +
+        "           [--job <id>] [--seed <num>] [--threads <num>] [--data <plugin folder>]";
+
+    /**
+     * Matches region file names and captures the region coordinates.
+     */
+    protected static final Pattern REGION_FILE_NAME = Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.mca");
+
+    /**
+     * The plugin configuration file.
+     */
+    protected File _configFile;
+
+    /**
+     * The world folder.
+     */
+    protected File _worldFolder;
+
+    /**
+     * The folder containing the world's region files.
+     */
+    protected File _regionFolder;
+
+    /**
+     * The plugin's data folder, or null if the plugin's state is not used.
+     */
+    protected File _dataFolder;
+
+    /**
+     * The ID of the job whose settings are used, or null to use the rules of
+     * the world.
+     */
+    protected String _jobId;
+
+    /**
+     * The seed specified on the command line, or null.
+     */
+    protected Long _seed;
+
+    /**
+     * The number of worker threads.
+     */
+    protected int _threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The job whose settings are used.
+     */
+    protected Job _job;
+
+    /**
+     * The name of the world, as on the server.
+     */
+    protected String _worldName;
+
+    /**
+     * The region of chunks to process.
+     */
+    protected Region _region;
+
+    /**
+     * The ore generation seed.
+     */
+    protected long _resolvedSeed;
+
+    /**
+     * Lists clear candidates.
+     */
+    protected ClearScanner _scanner;
+
+    /**
+     * Plans ore deposits.
+     */
+    protected DepositPlanner _planner;
+} // class OfflineProcessor
@@ -0,0 +1,79 @@
+package nu.nerd.nerdore;
+
+import java.util.Random;
+
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.generator.BlockPopulator;
+
+// ----------------------------------------------------------------------------
+/**
+ * A BlockPopulator that applies a world's {@link ClearRule}s and
+ * {@link OreRule}s to each chunk as it is generated, so that new terrain
+ * never needs to be loaded again by a job.
+ *
+ * Each populator processes chunks through {@link OreTask#populateChunk(Job,
+ * Chunk)} on behalf of a {@link Job} that is private to the populator, is not
+ * saved, and uses the rules of the world and the global seed. Populated
+ * chunks are recorded as processed, so jobs that skip processed chunks skip
+ * them.
+ *
+ * Populators are added to the worlds listed under "populate.worlds" in the
+ * configuration when the plugin is enabled, when the configuration is
+ * reloaded and when a world is loaded.
+ */
+public class OrePopulator extends BlockPopulator {
+    // ------------------------------------------------------------------------
+    /**
+     * The ID of the job of every populator; it is recorded in the journal and
+     * the undo journal.
+     */
+    public static final String JOB_ID = "populator";
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param task the task that processes chunks.
+     * @param worldName the name of the populated world.
+     */
+    public OrePopulator(OreTask task, String worldName) {
+        _task = task;
+        _job = new Job(JOB_ID, worldName);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the name of the populated world.
+     *
+     * @return the world name.
+     */
+    public String getWorldName() {
+        return _job.getWorldName();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see org.bukkit.generator.BlockPopulator#populate(org.bukkit.World,
+     *      java.util.Random, org.bukkit.Chunk)
+     */
+    @Override
+    public void populate(World world, Random random, Chunk chunk) {
+        // Resolve the seed once the world is fully loaded.
+        if (!_job.isRunning()) {
+            _job.setRunning(true);
+        }
+        _task.populateChunk(_job, chunk);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The task that processes chunks.
+     */
+    protected OreTask _task;
+
+    /**
+     * The job on whose behalf chunks are processed.
+     */
+    protected Job _job;
+} // class OrePopulator
@@ -23,20 +23,20 @@ public class OreRule extends Rule {
 
         // NOTE: invalid material name logged by CustomMaterial.
         if (_minSize < 1) {
-            NerdOre.PLUGIN.getLogger().severe("min-size below 1: " + _minSize);
+            Util.getLogger().severe("min-size below 1: " + _minSize);
             _minSize = 1;
         }
         if (_maxSize < _minSize) {
-            NerdOre.PLUGIN.getLogger().severe("max-size clamped to at least min-size.");
+            Util.getLogger().severe("max-size clamped to at least min-size.");
             _maxSize = _minSize;
         }
 
         if (_minRounds < 1) {
-            NerdOre.PLUGIN.getLogger().severe("min-rounds below 1: " + _minRounds);
+            Util.getLogger().severe("min-rounds below 1: " + _minRounds);
             _minRounds = 1;
         }
         if (_maxRounds < _minRounds) {
-            NerdOre.PLUGIN.getLogger().severe("max-rounds clamped to at least min-rounds.");
+            Util.getLogger().severe("max-rounds clamped to at least min-rounds.");
             _maxRounds = 1;
         }
     }
@@ -50,6 +50,15 @@ public class OreRule extends Rule {
         return _material.isValid();
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * @see Rule#getCounters()
+     */
+    @Override
+    public RuleStats.Counter[] getCounters() {
+        return RuleStats.ORE_COUNTERS;
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Return the material of generated ores.
@@ -1,69 +1,182 @@
 package nu.nerd.nerdore;
 
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Iterator;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Chunk;
-import org.bukkit.Location;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.Material;
 import org.bukkit.World;
-import org.bukkit.block.Biome;
 import org.bukkit.block.Block;
 
 // ----------------------------------------------------------------------------
 /**
- * This task processes one chunk at a time until the specified square centred on
- * the origin of the map is done.
+ * This task processes the chunks of the running {@link Job}s, one chunk at a
+ * time, until each job's square centred on the origin of its world is done.
+ *
+ * When several jobs run at once, the next chunk is always taken from the
+ * running job that has consumed the least main thread time divided by its
+ * weight (weighted fair share). Each job is charged the average cost of a
+ * chunk when the chunk is submitted, corrected by the measured cost when the
+ * chunk completes.
+ *
+ * Processing of each chunk is pipelined: the main thread takes a ChunkSnapshot
+ * and submits it to a worker thread that finds the blocks that
+ * {@link ClearRule}s may affect and, unless legacy determinism is configured,
+ * plans ore deposits with random number streams derived from the seed, the
+ * chunk coordinates and each rule. Subsequent ticks apply those blocks and
+ * deposits on the main thread, subject to a per-tick quota. Chunks complete in
+ * the order that they were submitted, and the number of pending chunks is
+ * bounded, so the workers never run far ahead of the main thread.
+ *
+ * A chunk is not submitted while a pending chunk whose deposits could reach it
+ * is still unapplied, so that its snapshot includes the ore spilled into it,
+ * exactly as if chunks were processed one at a time. With legacy determinism,
+ * only one chunk is pending at a time, since the job's sequential Randoms are
+ * drawn as chunks are applied.
  */
 public class OreTask implements Runnable {
     // ------------------------------------------------------------------------
     /**
-     * Set the ore generation seed.
-     * 
-     * @param seed the seed.
+     * Set the number of worker threads used to plan chunks.
+     *
+     * The existing pool, if any, finishes its queued work in the background.
+     *
+     * @param threads the number of threads; if 0, chunks are planned on the
+     *        main thread.
      */
-    public void setSeed(long seed) {
-        if (seed == 0) {
-            World world = Bukkit.getWorld(NerdOre.CONFIG.WORLD);
-            seed = world.getSeed();
-            NerdOre.PLUGIN.getLogger().info("Using world seed: " + seed);
-        } else {
-            NerdOre.PLUGIN.getLogger().info("Using configured seed: " + seed);
+    public void setWorkerThreads(int threads) {
+        if (threads == _workerThreads && (threads == 0 || _executor != null)) {
+            return;
+        }
+        if (_executor != null) {
+            _executor.shutdown();
+            _executor = null;
+        }
+        _workerThreads = Math.max(0, threads);
+        if (_workerThreads > 0) {
+            ForkJoinWorkerThreadFactory factory = pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("NerdOre Worker " + thread.getPoolIndex());
+                return thread;
+            };
+            _executor = new ForkJoinPool(_workerThreads, factory, null, false);
         }
+    }
 
-        _random.setSeed(seed);
-        _blockRandom.setSeed(seed);
+    // ------------------------------------------------------------------------
+    /**
+     * Return the pool of worker threads that plan chunks.
+     *
+     * @return the pool, or null if chunks are planned on the main thread.
+     */
+    public ExecutorService getExecutor() {
+        return _executor;
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Specify whether this task should do anything to chunks.
+     * Finish processing all pending chunks and stop the worker threads.
      *
-     * @param running if true, chunks are processed.
+     * This should be called when the plugin is disabled.
      */
-    public void setRunning(boolean running) {
-        _running = running;
+    public void shutdown() {
+        drainPendingChunks();
+        if (_executor != null) {
+            _executor.shutdown();
+            _executor = null;
+        }
+        _workerThreads = 0;
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Return true if chunks are being processed by this task.
+     * Start processing chunks of the specified job.
+     *
+     * The job starts with the least virtual time of the other running jobs,
+     * so that it neither monopolises processing to catch up, nor waits for
+     * them.
+     *
+     * @param job the job.
      */
-    public boolean isRunning() {
-        return _running;
+    public void start(Job job) {
+        if (job.isRunning()) {
+            return;
+        }
+        double minVirtualNanos = NerdOre.CONFIG.JOBS.values().stream()
+            .filter(Job::isRunning).mapToDouble(Job::getVirtualNanos).min().orElse(0);
+        job.setVirtualNanos(minVirtualNanos);
+        job.setRunning(true);
+        scanChunkIndex(job);
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Return true if all chunks have been processed.
+     * If ungenerated chunks are skipped, build a new index of the generated
+     * chunks of the job's world and count the chunks that remain.
+     *
+     * The region file headers are read asynchronously; the job does not
+     * process chunks until the scan has finished.
      *
-     * @return true if all chunks have been processed.
+     * @param job the job.
      */
-    public boolean isComplete() {
-        return NerdOre.CONFIG.getIndex() >= NerdOre.CONFIG.SIDE * NerdOre.CONFIG.SIDE;
+    public void scanChunkIndex(Job job) {
+        World world = job.getWorld();
+        if (!NerdOre.CONFIG.SKIP_UNGENERATED || world == null) {
+            job.setChunkIndex(null);
+            return;
+        }
+
+        RegionHeaderIndex index = new RegionHeaderIndex(RegionHeaderIndex.getRegionFolder(world));
+        job.setChunkIndex(index);
+        Region region = NerdOre.CONFIG.SKIP_PROCESSED ? NerdOre.PROCESSED.filter(job.getWorldName(), job.getRegion())
+                                                      : job.getRegion();
+        Traversal traversal = job.getTraversal();
+        long cursor = job.getIndex();
+        Bukkit.getScheduler().runTaskAsynchronously(NerdOre.PLUGIN, () -> {
+            long start = System.nanoTime();
+            index.scan();
+            long remaining = index.countRemaining(region, traversal, cursor);
+            if (NerdOre.CONFIG.DEBUG_PROCESSING) {
+                NerdOre.PLUGIN.getLogger().info(String.format("Job %s: scanned region headers in %.1f ms, %d chunk(s) to process.",
+                                                              job.getId(), (System.nanoTime() - start) * 1e-6, remaining));
+            }
+            Bukkit.getScheduler().runTask(NerdOre.PLUGIN, () -> job.chunkIndexScanned(index, remaining));
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop processing chunks of the specified job, applying its pending
+     * chunks immediately.
+     *
+     * @param job the job.
+     */
+    public void stop(Job job) {
+        job.setRunning(false);
+        job.setChunkIndex(null);
+        drainPendingChunks(job);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if any job is processing chunks.
+     *
+     * @return true if any job is processing chunks.
+     */
+    public boolean isRunning() {
+        return NerdOre.CONFIG.JOBS.values().stream().anyMatch(Job::isRunning);
     }
 
     // ------------------------------------------------------------------------
@@ -74,290 +187,1100 @@ public class OreTask implements Runnable {
     public void run() {
         ++_ticks;
 
-        if (_running) {
-            if (isComplete()) {
-                statusUpdate();
-                _running = false;
-            } else {
-                if (_ticks % NerdOre.CONFIG.PERIOD_TICKS == 0) {
-                    processChunk();
+        if (!_pending.isEmpty() || isRunning()) {
+            _health.tick();
+            double rate = _health.getRate();
+            if (rate > 0) {
+                if (NerdOre.CONFIG.PROXIMITY_ENABLED) {
+                    _players.refresh();
                 }
+                if (NerdOre.CONFIG.BUDGET_MS > 0) {
+                    processBudgetedChunks(rate);
+                } else {
+                    applyPendingChunks(Long.MAX_VALUE);
+                    long period = Math.round(NerdOre.CONFIG.PERIOD_TICKS / rate);
+                    if (_ticks % period == 0 && canSubmitChunk()) {
+                        processChunk();
+                    }
+                }
+            }
 
-                if (_ticks % NerdOre.CONFIG.NOTIFY_TICKS == 0) {
-                    statusUpdate();
+            for (Job job : NerdOre.CONFIG.JOBS.values()) {
+                if (job.isRunning()) {
+                    if (job.isComplete() && !hasPendingChunks(job) && job.getDeferredChunks().isEmpty()) {
+                        job.setRunning(false);
+                        statusUpdate(job);
+                        job.setChunkIndex(null);
+                    } else if (_ticks % NerdOre.CONFIG.NOTIFY_TICKS == 0) {
+                        statusUpdate(job);
+                    }
                 }
             }
+        } else {
+            _health.reset();
+        }
+
+        // Chunks must not be saved with new ores before the journal records
+        // them as processed.
+        _workingSet.unloadExcess(NerdOre.CONFIG.WORKING_SET_CHUNKS, NerdOre.CONFIG.UNLOADS_PER_TICK,
+                                 (worldName, key) -> isPending(worldName, key) ||
+                                                     NerdOre.JOURNAL.isUncommitted(worldName, key));
+        if (NerdOre.JOURNAL.size() > NerdOre.CONFIG.JOURNAL_COMPACT_BYTES) {
+            NerdOre.PLUGIN.compactJournal();
         }
+        NerdOre.UNDO.flush();
     } // run
 
     // ------------------------------------------------------------------------
     /**
-     * Return the odd side dimension in chunks of the fully complete area
-     * corresponding to the specified index.
+     * Return the moving average of the measured wall-clock cost of processing
+     * one chunk, in nanoseconds, or 0 if no chunks have been measured yet.
+     *
+     * @return the average cost of processing one chunk, in nanoseconds.
+     */
+    public long getAverageChunkNanos() {
+        return _averageChunkNanos;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Process as many chunks as fit within the per-tick time budget.
+     *
+     * Each tick adds BUDGET_MS worth of credit. Pending chunks are applied
+     * until the credit runs out, and new chunks are submitted while the
+     * remaining credit covers the moving average main thread cost of a chunk.
+     * The measured cost of all work is deducted from the credit. Credit
+     * carries over between ticks (up to the larger of one tick's budget or one
+     * average chunk), so that chunks that cost more than the budget are
+     * processed every few ticks, rather than blowing every tick.
+     *
+     * @param rate the fraction of the budget allowed by the
+     *        {@link HealthGuard}, in (0.0,1.0].
+     */
+    protected void processBudgetedChunks(double rate) {
+        long budgetNanos = (long) (NerdOre.CONFIG.BUDGET_MS * 1_000_000 * rate);
+        _budgetCreditNanos = Math.min(_budgetCreditNanos + budgetNanos,
+                                      Math.max(budgetNanos, _averageChunkNanos));
+
+        long start = System.nanoTime();
+        applyPendingChunks(start + _budgetCreditNanos);
+        _budgetCreditNanos -= System.nanoTime() - start;
+
+        while (canSubmitChunk() && _budgetCreditNanos >= _averageChunkNanos) {
+            start = System.nanoTime();
+            boolean submitted = processChunk();
+            _budgetCreditNanos -= System.nanoTime() - start;
+            if (!submitted) {
+                break;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if another chunk can be submitted without exceeding the
+     * limit on the number of pending chunks.
+     *
+     * The limit provides backpressure when the main thread cannot apply
+     * changes as fast as the workers can scan chunks. With legacy
+     * determinism, the limit is one chunk, so that each chunk is applied
+     * before the next is scanned.
+     *
+     * @return true if another chunk can be submitted.
+     */
+    protected boolean canSubmitChunk() {
+        int limit = NerdOre.CONFIG.LEGACY_DETERMINISM ? 1
+                                                      : MAX_PENDING_CHUNKS_PER_THREAD * Math.max(1, _workerThreads);
+        return _pending.size() < limit;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the running job with the least virtual time that is either
+     * incomplete or due to retry its deferred chunks, or null if there is
+     * none.
+     *
+     * @return the job that should submit the next chunk, or null.
+     */
+    protected Job getNextJob() {
+        Job next = null;
+        for (Job job : NerdOre.CONFIG.JOBS.values()) {
+            if (job.isRunning() && job.isReady() && (!job.isComplete() || isRetryDue(job)) &&
+                (next == null || job.getVirtualNanos() < next.getVirtualNanos())) {
+                next = job;
+            }
+        }
+        return next;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if any chunks of the specified job are pending.
+     *
+     * @param job the job.
+     * @return true if any chunks of the job are pending.
+     */
+    protected boolean hasPendingChunks(Job job) {
+        for (PendingChunk pending : _pending) {
+            if (pending.getJob() == job) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of chunks that NerdOre loaded and has not yet
+     * unloaded.
+     *
+     * @return the size of the working set of chunks.
+     */
+    public int getWorkingSetSize() {
+        return _workingSet.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the working set of chunks loaded by NerdOre.
+     *
+     * @return the working set of chunks.
+     */
+    public ChunkWorkingSet getWorkingSet() {
+        return _workingSet;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the {@link HealthGuard} that throttles or pauses processing.
+     *
+     * @return the health guard.
+     */
+    public HealthGuard getHealthGuard() {
+        return _health;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the specified chunk is pending, and so must stay loaded.
+     *
+     * @param worldName the name of the chunk's world.
+     * @param chunkKey the {@link Util#chunkKey(int, int) chunk key}.
+     * @return true if the chunk is pending.
+     */
+    protected boolean isPending(String worldName, long chunkKey) {
+        for (PendingChunk pending : _pending) {
+            Chunk chunk = pending.getChunk();
+            if (Util.chunkKey(chunk.getX(), chunk.getZ()) == chunkKey && chunk.getWorld().getName().equals(worldName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a pending chunk's deposits could reach the specified
+     * chunk, which must then wait until that chunk has been applied.
      *
-     * @return the odd side dimension in chunks of the fully complete area
-     *         corresponding to the specified index.
+     * @param worldName the name of the chunk's world.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return true if the chunk is pending or within the deposit reach of a
+     *         pending chunk.
      */
-    public static int getSideOf(int index) {
-        int side = (int) Math.sqrt(index);
-        return (side & 1) == 0 ? side - 1 : side;
+    protected boolean isNearPendingChunk(String worldName, int chunkX, int chunkZ) {
+        for (PendingChunk pending : _pending) {
+            Chunk chunk = pending.getChunk();
+            int reach = pending.getDepositReach();
+            if (Math.abs(chunk.getX() - chunkX) <= reach && Math.abs(chunk.getZ() - chunkZ) <= reach &&
+                chunk.getWorld().getName().equals(worldName)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Process the chunk corresponding to the current index.
+     * Submit the next chunk of the job that is due the next chunk under
+     * weighted fair share.
+     *
+     * @return true if a job was due a chunk; false if no job is running, or
+     *         the job's next chunk must wait for pending chunks near it.
      */
-    protected void processChunk() {
-        if (NerdOre.CONFIG.getIndex() < 0 || NerdOre.CONFIG.SIDE < 1) {
-            NerdOre.PLUGIN.getLogger().severe("Index or side value is wonky. Giving up.");
-            Bukkit.getServer().broadcast(ChatColor.GREEN + "NerdOre: Index or side value is wonky. Giving up.",
+    protected boolean processChunk() {
+        Job job = getNextJob();
+        if (job == null) {
+            return false;
+        }
+
+        // Charge an estimate now, so that the next choice of job accounts for
+        // this chunk; completeChunk() corrects it.
+        job.charge(_averageChunkNanos);
+        if (!processChunk(job)) {
+            job.charge(-_averageChunkNanos);
+            return false;
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Process the chunk corresponding to the current index of the job's
+     * {@link Traversal}, skipping indices that do not correspond to a chunk.
+     *
+     * Chunks near players are skipped and deferred. When the job is due to
+     * retry its deferred chunks, the oldest one that no player is near is
+     * processed instead of the chunk at the cursor.
+     *
+     * A chunk within the deposit reach of a pending chunk is not submitted;
+     * the cursor stays on it until the pending chunk has been applied.
+     *
+     * @param job the job.
+     * @return false if the job's next chunk must wait for pending chunks near
+     *         it; otherwise true.
+     */
+    protected boolean processChunk(Job job) {
+        if (job.getIndex() < 0 || job.getRegion().isEmpty()) {
+            Util.getLogger().severe("Index or region of job " + job.getId() + " is wonky. Giving up.");
+            Bukkit.getServer().broadcast(ChatColor.GREEN + "NerdOre: Index or region of job " + job.getId() +
+                                         " is wonky. Giving up.",
                                          "nerdore.notify");
-            setRunning(false);
-            return;
+            stop(job);
+            return true;
         }
 
-        if (NerdOre.CONFIG.getIndex() == 0) {
-            processChunk(0, 0);
-        } else {
-            int completedSide = getSideOf(NerdOre.CONFIG.getIndex());
-            int newSide = completedSide + 2;
-
-            // X/Z coordinate offset of NW corner of SIDE x SIDE square.
-            int coordOffset = -newSide / 2;
-
-            int relativeIndex = NerdOre.CONFIG.getIndex() - completedSide * completedSide;
-            if (relativeIndex < newSide) {
-                // North row of chunks running west to east.
-                processChunk(coordOffset + relativeIndex, coordOffset);
-            } else if (relativeIndex < newSide + 2 * (newSide - 2)) {
-                // West or east sides, running north to south.
-                boolean west = ((relativeIndex - newSide) & 1) == 0;
-                int row = 1 + (relativeIndex - newSide) / 2;
-                if (west) {
-                    // West column..
-                    processChunk(coordOffset, coordOffset + row);
-                } else {
-                    // East column.
-                    processChunk(coordOffset + newSide - 1, coordOffset + row);
-                }
-            } else {
-                // South row of chunks running west to east.
-                int column = relativeIndex - (newSide + 2 * (newSide - 2));
-                processChunk(coordOffset + column, coordOffset + newSide - 1);
+        if (isRetryDue(job) && retryDeferredChunk(job)) {
+            return true;
+        }
 
+        Traversal traversal = job.getTraversal();
+        Region region = job.getTraversalRegion();
+        long end = traversal.getEnd(region);
+        long index = traversal.seek(job.getIndex(), region);
+        long key = 0;
+        while (index < end) {
+            key = traversal.getChunkKey(index, region);
+            if (!isNearPlayer(job, Util.chunkX(key), Util.chunkZ(key))) {
+                break;
+            }
+            deferChunk(job, index, Util.chunkX(key), Util.chunkZ(key));
+            if (NerdOre.CONFIG.DEBUG_PROCESSING) {
+                Util.getLogger().info(String.format("Deferred index %d chunk (%d, %d) in %s: players are near.",
+                                                    index, Util.chunkX(key), Util.chunkZ(key),
+                                                    job.getWorldName()));
             }
+            index = traversal.seek(index + 1, region);
+        }
+        job.setIndex(index);
+        if (index >= end) {
+            return true;
         }
-        NerdOre.CONFIG.nextIndex();
+        if (isNearPendingChunk(job.getWorldName(), Util.chunkX(key), Util.chunkZ(key))) {
+            return false;
+        }
+
+        // The chunk may have been deferred before the cursor was moved back.
+        job.removeDeferredChunk(Util.chunkX(key), Util.chunkZ(key));
+        job.chunkSubmitted();
+        processChunk(job, Util.chunkX(key), Util.chunkZ(key));
+        job.setIndex(index + 1);
+        return true;
     } // processChunk
 
     // ------------------------------------------------------------------------
     /**
-     * Process the chunk with chunk coordinates (x,z) in the configured World.
+     * Return true if a job has deferred chunks and is due to retry them.
+     *
+     * @param job the job.
+     * @return true if the job should retry its deferred chunks.
+     */
+    protected boolean isRetryDue(Job job) {
+        return !job.getDeferredChunks().isEmpty() && _ticks >= job.getRetryTick();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Submit the oldest deferred chunk of a job that no player is near.
+     *
+     * Deferred chunks that have left the job's region, or that have since
+     * been processed when processed chunks are skipped, are forgotten.
+     * Deferred chunks within the deposit reach of a pending chunk wait for it
+     * to be applied. If players are still near all of the deferred chunks,
+     * the next retry is scheduled PROXIMITY_RETRY_TICKS ticks from now.
+     *
+     * @param job the job.
+     * @return true if a deferred chunk was submitted.
+     */
+    protected boolean retryDeferredChunk(Job job) {
+        Region region = job.getRegion();
+        boolean waiting = false;
+        for (Iterator<Long> it = job.getDeferredChunks().iterator(); it.hasNext();) {
+            long key = it.next();
+            int chunkX = Util.chunkX(key);
+            int chunkZ = Util.chunkZ(key);
+            if (!region.contains(chunkX, chunkZ) ||
+                (NerdOre.CONFIG.SKIP_PROCESSED && NerdOre.PROCESSED.isProcessed(job.getWorldName(), chunkX, chunkZ))) {
+                it.remove();
+            } else if (!isNearPlayer(job, chunkX, chunkZ)) {
+                if (!isNearPendingChunk(job.getWorldName(), chunkX, chunkZ)) {
+                    job.chunkSubmitted();
+                    processChunk(job, chunkX, chunkZ);
+                    return true;
+                }
+                waiting = true;
+            }
+        }
+        if (!waiting) {
+            job.setRetryTick(_ticks + NerdOre.CONFIG.PROXIMITY_RETRY_TICKS);
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a chunk of a job's world is near a player, and so should
+     * be deferred.
+     *
+     * @param job the job.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return true if the chunk is near a player.
+     */
+    protected boolean isNearPlayer(Job job, int chunkX, int chunkZ) {
+        return NerdOre.CONFIG.PROXIMITY_ENABLED &&
+               _players.isNearPlayer(job.getWorldName(), chunkX, chunkZ, NerdOre.CONFIG.PROXIMITY_RADIUS_CHUNKS);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Submit the chunk with chunk coordinates (x,z) in the job's World for
+     * processing.
+     *
+     * If the chunk is one of the job's deferred chunks, it is submitted with
+     * its index in the current traversal, and stays deferred until it has
+     * been processed.
      *
+     * @param job the job.
      * @param chunkX the chunk X coordinate.
      * @param chunkZ the chunk Z coordinate.
      */
-    protected void processChunk(int chunkX, int chunkZ) {
-        long now = System.currentTimeMillis();
+    protected void processChunk(Job job, int chunkX, int chunkZ) {
+        long start = System.nanoTime();
+
+        World world = job.getWorld();
+        if (world == null) {
+            Util.getLogger().severe("World " + job.getWorldName() + " of job " + job.getId() +
+                                    " is not loaded. Stopping the job.");
+            stop(job);
+            return;
+        }
 
-        World world = Bukkit.getWorld(NerdOre.CONFIG.WORLD);
+        boolean wasLoaded = world.isChunkLoaded(chunkX, chunkZ);
         Chunk chunk = world.getChunkAt(chunkX, chunkZ);
         if (chunk.load(false)) {
-            applyClearRules(chunk);
-            applyGenerateRules(chunk);
+            if (wasLoaded) {
+                _workingSet.touch(world, chunkX, chunkZ);
+            } else {
+                _workingSet.add(world, chunkX, chunkZ);
+            }
+
+            boolean deferred = job.isDeferredChunk(chunkX, chunkZ);
+            long index = deferred ? job.getTraversal().getCursor(chunkX, chunkZ, job.getRegion()) : job.getIndex();
+            PendingChunk pending = newPendingChunk(job, index, chunk, _executor);
+            pending.setDeferred(deferred);
+            pending.addMainThreadNanos(System.nanoTime() - start);
+            _pending.add(pending);
+            if (!deferred) {
+                job.chunkQueued(pending.getIndex());
+            }
         } else {
-            NerdOre.PLUGIN.getLogger().severe(String.format("Chunk %d at (%d, %d) in %s could not be loaded.",
-                                                            NerdOre.CONFIG.getIndex(), chunkX, chunkZ, NerdOre.CONFIG.WORLD));
+            Util.getLogger().severe(String.format("Chunk %d at (%d, %d) in %s could not be loaded.",
+                                                  job.getIndex(), chunkX, chunkZ, job.getWorldName()));
+            job.removeDeferredChunk(chunkX, chunkZ);
         }
-        if (NerdOre.CONFIG.DEBUG_PROCESSING) {
-            NerdOre.PLUGIN.getLogger().info(String.format("Generated index %d chunk (%d, %d) in %s in %d ms.",
-                                                          NerdOre.CONFIG.getIndex(), chunkX, chunkZ,
-                                                          NerdOre.CONFIG.WORLD, System.currentTimeMillis() - now));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Place ore that spilled into a loaded chunk, then start planning the
+     * chunk, returning it as a {@link PendingChunk} that has not yet been
+     * queued.
+     *
+     * @param job the job.
+     * @param index the index of the chunk in the job's traversal.
+     * @param chunk the loaded chunk.
+     * @param executor the worker threads that plan the chunk, or null to plan
+     *        it on the calling thread.
+     * @return the pending chunk.
+     */
+    protected PendingChunk newPendingChunk(Job job, long index, Chunk chunk, ExecutorService executor) {
+        // Place ore that spilled over from neighbours before scanning.
+        NerdOre.DEFERRED.apply(chunk);
+
+        ClearScanner scanner = job.getClearScanner();
+        DepositPlanner planner = NerdOre.CONFIG.LEGACY_DETERMINISM ? null : job.getDepositPlanner(scanner);
+        RuleIndex<OreRule> oreRules = (planner != null) ? planner.getOreRules()
+                                                        : NerdOre.CONFIG.getOreRuleIndex(job.getRuleSet());
+        ChunkSnapshot snapshot = chunk.getChunkSnapshot(false, true, false);
+        long seed = job.getSeed();
+        Future<ChunkPlan> plan = (executor != null)
+            ? executor.submit(() -> planChunk(snapshot, scanner, planner, seed))
+            : CompletableFuture.completedFuture(planChunk(snapshot, scanner, planner, seed));
+        PendingChunk pending = new PendingChunk(job, index, chunk, scanner, planner, oreRules, seed,
+                                                getClearRandoms(job, chunk, scanner.getRules()), plan);
+        pending.setEstimatedNanos(_averageChunkNanos);
+        return pending;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Process a chunk completely, on the main thread, while the server
+     * populates it after generating it.
+     *
+     * The chunk gets the same rules, random number streams, journal and undo
+     * records as chunks submitted by jobs, and is recorded as processed, so
+     * that jobs that skip processed chunks will not load it again.
+     *
+     * @param job the {@link OrePopulator}'s job for the chunk's world.
+     * @param chunk the chunk being populated.
+     */
+    public void populateChunk(Job job, Chunk chunk) {
+        long start = System.nanoTime();
+        PendingChunk pending = newPendingChunk(job, 0, chunk, null);
+        pending.addMainThreadNanos(System.nanoTime() - start);
+
+        // Loading a neighbour to place another chunk's deposits can cause the
+        // server to populate a chunk, so use a separate writer.
+        VoxelWriter writer = _writer;
+        _writer = new VoxelWriter(_workingSet);
+        try {
+            drainPendingChunk(pending);
+        } finally {
+            _writer = writer;
         }
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Apply all {@link ClearRule}s pertinent to the specified Chunk.
-     * 
-     * @param chunk the Chunk.
+     * Return the Randoms used to apply each of the specified {@link ClearRule}s
+     * to a chunk.
+     *
+     * With legacy determinism, all rules share the job's sequential block
+     * Random. Otherwise, each rule draws from its own stream derived from the
+     * seed, the chunk and the rule ID.
+     *
+     * @param job the job.
+     * @param chunk the chunk.
+     * @param rules the rules.
+     * @return the Randoms, indexed like rules.
+     */
+    protected Random[] getClearRandoms(Job job, Chunk chunk, ClearRule[] rules) {
+        Random[] randoms = new Random[rules.length];
+        for (int r = 0; r < rules.length; ++r) {
+            randoms[r] = NerdOre.CONFIG.LEGACY_DETERMINISM
+                ? job.getBlockRandom()
+                : new SplitMixRandom(SplitMixRandom.streamSeed(job.getSeed(), chunk.getWorld().getName(),
+                                                               chunk.getX(), chunk.getZ(),
+                                                               SplitMixRandom.CLEAR_STREAM, rules[r].getId()));
+        }
+        return randoms;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Plan the processing of a chunk.
+     *
+     * This method is called on a worker thread, or on the main thread if there
+     * are no worker threads; the result is the same either way.
+     *
+     * @param snapshot the snapshot of the chunk, including biomes.
+     * @param scanner the {@link ClearScanner}.
+     * @param planner the {@link DepositPlanner}, or null if ores are
+     *        generated on the main thread.
+     * @param seed the ore generation seed.
+     * @return the {@link ChunkPlan}.
      */
-    protected void applyClearRules(Chunk chunk) {
-        World world = chunk.getWorld();
-        for (ClearRule rule : NerdOre.CONFIG.getClearRules(world.getName())) {
-            if (!rule.isEnabled()) {
+    protected static ChunkPlan planChunk(ChunkSnapshot snapshot, ClearScanner scanner,
+                                         DepositPlanner planner, long seed) {
+        BiomeGrid biomes = new BiomeGrid(snapshot);
+        ClearPlan clears = scanner.scan(snapshot, biomes);
+        DepositPlan deposits = (planner != null) ? planner.plan(snapshot, biomes, seed) : null;
+        return new ChunkPlan(biomes, clears, deposits);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Apply pending chunks on the main thread, in the order they were
+     * submitted, until the per-tick quota of blocks is used up, the deadline
+     * is reached, or the next chunk's plan has not been computed.
+     *
+     * @param deadlineNanos the System.nanoTime() value after which no more
+     *        work should be started.
+     */
+    protected void applyPendingChunks(long deadlineNanos) {
+        int quota = Math.max(1, (int) (NerdOre.CONFIG.APPLY_QUOTA * _health.getRate()));
+        while (!_pending.isEmpty() && quota > 0 && System.nanoTime() < deadlineNanos) {
+            PendingChunk pending = _pending.peek();
+            if (!pending.getPlan().isDone()) {
+                break;
+            }
+
+            long start = System.nanoTime();
+            ChunkPlan plan = getPlan(pending);
+            if (plan == null) {
+                dequeue();
                 continue;
             }
 
-            int worldChunkX = chunk.getX() * 16;
-            int worldChunkZ = chunk.getZ() * 16;
-            for (int x = 0; x < 16; ++x) {
-                for (int z = 0; z < 16; ++z) {
-                    Biome biome = world.getBiome(worldChunkX + x, worldChunkZ + z);
-                    if (rule.affectsBiome(biome)) {
-                        for (int y = rule.getMinHeight(); y <= rule.getMaxHeight(); y++) {
-                            Block block = chunk.getBlock(x, y, z);
-                            StringBuilder message = rule.isLogged() ? new StringBuilder() : null;
-                            if (rule.matches(block, message) &&
-                                _blockRandom.nextDouble() <= rule.getProbability()) {
-                                rule.apply(block, _blockRandom, message);
-                                if (rule.isLogged()) {
-                                    NerdOre.PLUGIN.getLogger().info(message.toString());
-                                }
-                            }
-                        }
-                    }
+            quota -= applyChunkPlan(pending, plan, quota, deadlineNanos);
+            pending.addMainThreadNanos(System.nanoTime() - start);
+            if (pending.isFinished()) {
+                completeChunk(pending);
+                dequeue();
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Apply all pending chunks immediately, waiting for plans to be computed.
+     */
+    protected void drainPendingChunks() {
+        while (!_pending.isEmpty()) {
+            drainPendingChunk(dequeue());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the oldest pending chunk from the queue.
+     *
+     * @return the removed chunk.
+     */
+    protected PendingChunk dequeue() {
+        PendingChunk pending = _pending.remove();
+        if (!pending.isDeferred()) {
+            pending.getJob().chunkDequeued();
+        }
+        return pending;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Apply all pending chunks of the specified job immediately, waiting for
+     * plans to be computed.
+     *
+     * Chunks of other jobs stay pending; since jobs are independent, they can
+     * be completed out of order.
+     *
+     * @param job the job.
+     */
+    protected void drainPendingChunks(Job job) {
+        for (Iterator<PendingChunk> it = _pending.iterator(); it.hasNext();) {
+            PendingChunk pending = it.next();
+            if (pending.getJob() == job) {
+                it.remove();
+                if (!pending.isDeferred()) {
+                    job.chunkDequeued();
                 }
+                drainPendingChunk(pending);
             }
         }
-    } // applyClearRules
+    }
 
     // ------------------------------------------------------------------------
     /**
-     * Apply all {@link OreRule}s pertinent to the specified Chunk.
-     * 
-     * @param chunk the Chunk.
+     * Apply the rest of a pending chunk that has been removed from the queue,
+     * waiting for its plan to be computed.
+     *
+     * @param pending the pending chunk.
      */
-    protected void applyGenerateRules(Chunk chunk) {
-        World world = chunk.getWorld();
-        List<OreRule> rules = NerdOre.CONFIG.getOreRules(world.getName());
-        if (rules == null) {
-            return;
+    protected void drainPendingChunk(PendingChunk pending) {
+        long start = System.nanoTime();
+        ChunkPlan plan = getPlan(pending);
+        if (plan != null) {
+            applyChunkPlan(pending, plan, Integer.MAX_VALUE, Long.MAX_VALUE);
+            pending.addMainThreadNanos(System.nanoTime() - start);
+            completeChunk(pending);
         }
+    }
 
-        for (OreRule rule : rules) {
-            if (!rule.isEnabled()) {
-                continue;
+    // ------------------------------------------------------------------------
+    /**
+     * Return the {@link ChunkPlan} of a pending chunk, waiting for it if
+     * necessary.
+     *
+     * If planning failed on a worker thread, the failure is counted in the
+     * job's progress and the chunk is planned again on the main thread, from
+     * a fresh snapshot. If that fails too, the chunk is deferred, to be
+     * retried later like chunks near players, rather than skipped.
+     *
+     * @param pending the pending chunk.
+     * @return the plan, or null if planning failed and the chunk was
+     *         deferred.
+     */
+    protected ChunkPlan getPlan(PendingChunk pending) {
+        Job job = pending.getJob();
+        try {
+            return pending.getPlan().get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            job.planFailed();
+            Util.getLogger().severe("Job " + job.getId() + ": planning chunk " + pending.getIndex() +
+                                    " failed: " + ex.getCause() + ". Planning it on the main thread.");
+        }
+
+        Chunk chunk = loadedChunk(pending);
+        try {
+            ChunkPlan plan = planChunk(chunk.getChunkSnapshot(false, true, false), pending.getClearScanner(),
+                                       pending.getDepositPlanner(), pending.getSeed());
+            pending.setPlan(CompletableFuture.completedFuture(plan));
+            return plan;
+        } catch (RuntimeException ex) {
+            Util.getLogger().severe(String.format("Job %s: planning chunk %d at (%d, %d) failed again: %s. Deferring it.",
+                                                  job.getId(), pending.getIndex(), chunk.getX(), chunk.getZ(), ex));
+            deferChunk(job, pending.getIndex(), chunk.getX(), chunk.getZ());
+            return null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Defer a chunk of a job, to be retried later, and journal the deferral,
+     * since the job's cursor may move past the chunk before the deferred
+     * chunks are next saved.
+     *
+     * @param job the job.
+     * @param index the chunk's index in the job's traversal.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     */
+    protected void deferChunk(Job job, long index, int chunkX, int chunkZ) {
+        job.deferChunk(chunkX, chunkZ);
+        NerdOre.JOURNAL.appendDeferred(job, index, chunkX, chunkZ);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Continue applying the plan of a pending chunk: first the clear
+     * candidates, then the ore deposits.
+     *
+     * When ores are generated on the main thread (legacy determinism), all
+     * deposits are generated in one go, once the clear candidates are done.
+     *
+     * @param pending the pending chunk.
+     * @param plan the chunk's plan.
+     * @param quota the maximum number of blocks to check.
+     * @param deadlineNanos the System.nanoTime() value after which no more
+     *        work should be started.
+     * @return the number of blocks checked.
+     */
+    protected int applyChunkPlan(PendingChunk pending, ChunkPlan plan, int quota, long deadlineNanos) {
+        int used = 0;
+        ClearPlan clears = plan.getClears();
+        while (pending.getNextCandidate() < clears.size() && used < quota && System.nanoTime() < deadlineNanos) {
+            // Check the time every so often.
+            int end = Math.min(clears.size(),
+                               pending.getNextCandidate() + Math.min(quota - used, CANDIDATES_PER_TIME_CHECK));
+            used += end - pending.getNextCandidate();
+            applyClearCandidates(pending, clears, end);
+        }
+        if (pending.getNextCandidate() < clears.size()) {
+            return used;
+        }
+
+        DepositPlan deposits = plan.getDeposits();
+        if (deposits == null) {
+            applyGenerateRules(pending, plan.getBiomes());
+            pending.setFinished();
+        } else {
+            used += applyDeposits(pending, deposits, quota - used, deadlineNanos);
+            if (pending.getNextDeposit() >= deposits.getDepositCount()) {
+                pending.setFinished();
+            }
+        }
+        return used;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Chunk of a pending chunk, reloading it if the server has
+     * unloaded it since it was submitted.
+     *
+     * @param pending the pending chunk.
+     * @return the loaded Chunk.
+     */
+    protected Chunk loadedChunk(PendingChunk pending) {
+        Chunk chunk = pending.getChunk();
+        if (!chunk.isLoaded() && chunk.load(false)) {
+            _workingSet.add(chunk.getWorld(), chunk.getX(), chunk.getZ());
+        }
+        return chunk;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Finish processing a pending chunk: update statistics and log.
+     *
+     * @param pending the pending chunk.
+     */
+    protected void completeChunk(PendingChunk pending) {
+        long cost = pending.getMainThreadNanos();
+
+        // Exponential moving average with a weight of 1/8 for new samples.
+        _averageChunkNanos = (_averageChunkNanos == 0) ? cost
+                                                       : _averageChunkNanos + (cost - _averageChunkNanos) / 8;
+        pending.getJob().charge(cost - pending.getEstimatedNanos());
+        NerdOre.PROCESSED.setProcessed(pending.getJob().getWorldName(), pending.getChunk().getX(),
+                                       pending.getChunk().getZ());
+        NerdOre.JOURNAL.append(pending.getJob(), pending.getIndex(), pending.getChunk().getX(),
+                               pending.getChunk().getZ(), pending.getSpills());
+        NerdOre.UNDO.recordProcessed(pending.getJob().getId(), pending.getJob().getWorldName(),
+                                     pending.getChunk().getX(), pending.getChunk().getZ());
+        if (pending.isDeferred()) {
+            pending.getJob().removeDeferredChunk(pending.getChunk().getX(), pending.getChunk().getZ());
+        }
+        recordStatistics(pending);
+
+        if (NerdOre.CONFIG.DEBUG_PROCESSING) {
+            Chunk chunk = pending.getChunk();
+            Util.getLogger().info(String.format("Generated index %d chunk (%d, %d) in %s in %.3f ms.",
+                                                pending.getIndex(), chunk.getX(), chunk.getZ(),
+                                                chunk.getWorld().getName(), cost / 1e6));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add the work done on a completed chunk to the live {@link Statistics}
+     * and the {@link RuleStats} of its rules.
+     *
+     * The blocks scanned by each clear rule are counted here, from the
+     * chunk's biomes, rather than in the scan on the worker thread.
+     *
+     * @param pending the completed chunk.
+     */
+    protected void recordStatistics(PendingChunk pending) {
+        NerdOre.STATS.recordChunk(pending.getMainThreadNanos());
+
+        ClearRule[] rules = pending.getRules();
+        long[] clearNanos = pending.getClearRuleNanos();
+        ChunkPlan plan = (rules.length != 0) ? getPlan(pending) : null;
+        for (int r = 0; r < rules.length; ++r) {
+            RuleStats stats = rules[r].getStats();
+            if (plan != null) {
+                int height = rules[r].getMaxHeight() - rules[r].getMinHeight() + 1;
+                stats.add(RuleStats.Counter.SCANNED, (long) countColumns(plan.getBiomes(), rules[r]) * height);
+            }
+            if (clearNanos[r] != 0) {
+                stats.getChunkNanos().record(clearNanos[r]);
+            }
+        }
+
+        OreRule[] oreRules = pending.getOreRules();
+        long[] oreNanos = pending.getOreRuleNanos();
+        for (int r = 0; r < oreNanos.length; ++r) {
+            if (oreNanos[r] != 0) {
+                oreRules[r].getStats().getChunkNanos().record(oreNanos[r]);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of columns of a chunk in biomes affected by a rule.
+     *
+     * @param biomes the biomes of the chunk.
+     * @param rule the rule.
+     * @return the number of columns, in [0,256].
+     */
+    protected static int countColumns(BiomeGrid biomes, Rule rule) {
+        if (biomes.getDistinctBiomes().stream().allMatch(rule::affectsBiome)) {
+            return 256;
+        }
+        int columns = 0;
+        for (int x = 0; x < 16; ++x) {
+            for (int z = 0; z < 16; ++z) {
+                if (rule.affectsBiome(biomes.get(x, z))) {
+                    ++columns;
+                }
             }
+        }
+        return columns;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Apply the {@link ClearRule}s of a pending chunk to plan candidates, from
+     * the next candidate up to, but not including, the specified end index.
+     *
+     * Each candidate is re-checked against the current state of the block,
+     * since the snapshot may be out of date.
+     *
+     * @param pending the pending chunk.
+     * @param plan the chunk's plan.
+     * @param end the end index (exclusive).
+     */
+    protected void applyClearCandidates(PendingChunk pending, ClearPlan plan, int end) {
+        Chunk chunk = loadedChunk(pending);
+        ClearRule[] rules = pending.getRules();
+        long[] ruleNanos = pending.getClearRuleNanos();
 
-            int rounds = Util.nextInt(_random, rule.getMinRounds(), rule.getMaxRounds());
-            for (int i = 0; i < rounds; i++) {
-                int x = chunk.getX() * 16 + _random.nextInt(16);
-                int y = Util.nextInt(_random, rule.getMinHeight(), rule.getMaxHeight());
-                int z = chunk.getZ() * 16 + _random.nextInt(16);
+        // Candidates of the same rule tend to be consecutive, so time runs of
+        // them rather than individual blocks.
+        int timedRule = -1;
+        long timedStart = 0;
+        for (int i = pending.getNextCandidate(); i < end; ++i) {
+            int candidate = plan.get(i);
+            int ruleIndex = ClearPlan.ruleIndex(candidate);
+            if (ruleIndex != timedRule) {
+                long now = System.nanoTime();
+                if (timedRule >= 0) {
+                    ruleNanos[timedRule] += now - timedStart;
+                }
+                timedRule = ruleIndex;
+                timedStart = now;
+            }
 
-                if (rule.affectsBiome(world.getBiome(x, z)) && _random.nextDouble() < rule.getProbability()) {
-                    generate(world, x, y, z, rule);
+            ClearRule rule = rules[ruleIndex];
+            Random random = pending.getClearRandom(ruleIndex);
+            Block block = chunk.getBlock(ClearPlan.x(candidate), ClearPlan.y(candidate), ClearPlan.z(candidate));
+            StringBuilder message = rule.isLogged() ? new StringBuilder() : null;
+            if (rule.matches(block, message)) {
+                if (random.nextDouble() <= rule.getProbability()) {
+                    NerdOre.UNDO.recordClear(pending.getJob().getId(), block, rule.getReplacementMaterial().getType());
+                    rule.apply(block, random, message);
+                    rule.getStats().increment(RuleStats.Counter.REPLACED);
+                    if (rule.isLogged()) {
+                        Util.getLogger().info(message.toString());
+                    }
+                } else {
+                    rule.getStats().increment(RuleStats.Counter.REJECTED);
                 }
+                rule.getStats().increment(RuleStats.Counter.MATCHED);
             }
         }
+        if (timedRule >= 0) {
+            ruleNanos[timedRule] += System.nanoTime() - timedStart;
+        }
+        pending.setNextCandidate(Math.max(pending.getNextCandidate(), end));
+    } // applyClearCandidates
+
+    // ------------------------------------------------------------------------
+    /**
+     * Place the planned deposits of a pending chunk, starting from the next
+     * deposit, until the quota or deadline is reached.
+     *
+     * The candidate voxels of each deposit are placed, if replaceable, until
+     * the deposit's size is reached.
+     *
+     * @param pending the pending chunk.
+     * @param deposits the planned deposits.
+     * @param quota the maximum number of voxels to check.
+     * @param deadlineNanos the System.nanoTime() value after which no more
+     *        work should be started.
+     * @return the number of voxels checked.
+     */
+    protected int applyDeposits(PendingChunk pending, DepositPlan deposits, int quota, long deadlineNanos) {
+        Chunk chunk = loadedChunk(pending);
+        OreRule[] rules = pending.getOreRules();
+        int originX = chunk.getX() * 16;
+        int originZ = chunk.getZ() * 16;
+        int used = 0;
+        _writer.begin(chunk, pending.getJob(), pending.getSpills());
+        try {
+            while (pending.getNextDeposit() < deposits.getDepositCount() &&
+                   used < quota && System.nanoTime() < deadlineNanos) {
+                long depositStart = System.nanoTime();
+                int deposit = pending.getNextDeposit();
+                pending.setNextDeposit(deposit + 1);
+
+                int ruleIndex = deposits.getRuleIndex(deposit);
+                OreRule rule = rules[ruleIndex];
+                Material material = rule.getMaterial().getType();
+                int size = deposits.getSize(deposit);
+                if (rule.isLogged()) {
+                    logDeposit(chunk.getWorld().getName(), size, material, deposits.getCentre(deposit, 0),
+                               deposits.getCentre(deposit, 1), deposits.getCentre(deposit, 2));
+                }
+
+                int start = deposits.getVoxelStart(deposit);
+                int end = deposits.getVoxelEnd(deposit);
+                int placed = 0;
+                int rejected = 0;
+                for (int v = start; v < end; ++v) {
+                    int voxel = deposits.getVoxel(v);
+                    if (_writer.write(originX + DepositPlan.dx(voxel), DepositPlan.y(voxel),
+                                      originZ + DepositPlan.dz(voxel), material)) {
+                        if (++placed >= size) {
+                            break;
+                        }
+                    } else {
+                        ++rejected;
+                    }
+                }
+                used += 1 + end - start;
+
+                RuleStats stats = rule.getStats();
+                stats.increment(RuleStats.Counter.DEPOSITS);
+                stats.add(RuleStats.Counter.PLACED, placed);
+                stats.add(RuleStats.Counter.HOST_REJECTED, rejected);
+                pending.getOreRuleNanos()[ruleIndex] += System.nanoTime() - depositStart;
+            }
+        } finally {
+            _writer.end();
+        }
+        return used;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Apply all {@link OreRule}s of a pending chunk, as configured when it
+     * was submitted, drawing from the job's sequential Randoms.
+     * 
+     * Rules that do not affect any biome in the chunk still draw their rounds
+     * and positions from the RNG, so that the sequence of random numbers does
+     * not depend on biomes.
+     * 
+     * @param pending the pending chunk.
+     * @param biomes the biomes of the Chunk.
+     */
+    protected void applyGenerateRules(PendingChunk pending, BiomeGrid biomes) {
+        Chunk chunk = loadedChunk(pending);
+        Job job = pending.getJob();
+        Random random = job.getRandom();
+        RuleIndex<OreRule> index = pending.getOreRuleIndex();
+        OreRule[] rules = index.getRules();
+        _writer.begin(chunk, job, pending.getSpills());
+        try {
+            for (int r = 0; r < rules.length; ++r) {
+                long start = System.nanoTime();
+                boolean generated = false;
+                OreRule rule = rules[r];
+                int rounds = Util.nextInt(random, rule.getMinRounds(), rule.getMaxRounds());
+                for (int i = 0; i < rounds; i++) {
+                    int x = chunk.getX() * 16 + random.nextInt(16);
+                    int y = Util.nextInt(random, rule.getMinHeight(), rule.getMaxHeight());
+                    int z = chunk.getZ() * 16 + random.nextInt(16);
+
+                    if (index.affects(r, biomes.get(x & 15, z & 15)) && random.nextDouble() < rule.getProbability()) {
+                        generate(_writer, job.getBlockRandom(), x, y, z, rule);
+                        generated = true;
+                    }
+                }
+                if (generated) {
+                    rule.getStats().getChunkNanos().record(System.nanoTime() - start);
+                }
+            }
+        } finally {
+            _writer.end();
+        }
     } // applyGenerateRules
 
     // ------------------------------------------------------------------------
     /**
      * Generate one ore deposit at the specified coordinates.
      * 
-     * @param world the affected world.
+     * @param writer the {@link VoxelWriter} that places blocks.
+     * @param blockRandom the Random that sizes and shapes the deposit.
      * @param x the X coordinate.
      * @param y the Y coordinate.
      * @param z the Z coordinate.
      * @param rule the OreRule.
      */
-    protected void generate(World world, int x, int y, int z, OreRule rule) {
+    protected void generate(VoxelWriter writer, Random blockRandom, int x, int y, int z, OreRule rule) {
         Material material = rule.getMaterial().getType();
-        int size = Util.nextInt(_blockRandom, rule.getMinSize(), rule.getMaxSize());
-
-        // Sizes less than 3 generate no blocks at all and size 3 generates less
-        // than the number of rounds. So proceed as if size is at least 4, but
-        // stop generating after placing size blocks.
-        int effectiveSize = Math.max(4, size);
-
+        int size = Util.nextInt(blockRandom, rule.getMinSize(), rule.getMaxSize());
         if (rule.isLogged()) {
-            Logger logger = NerdOre.PLUGIN.getLogger();
-            logger.info("Generate " + size + " x " + material +
-                        " at " + x + " " + y + " " + z + " in " + NerdOre.CONFIG.WORLD);
-        }
-
-        double rpi = _blockRandom.nextDouble() * Math.PI;
-
-        double x1 = x + Math.sin(rpi) * effectiveSize / 8.0F;
-        double x2 = x - Math.sin(rpi) * effectiveSize / 8.0F;
-        double z1 = z + Math.cos(rpi) * effectiveSize / 8.0F;
-        double z2 = z - Math.cos(rpi) * effectiveSize / 8.0F;
-
-        double y1 = y + _blockRandom.nextInt(3);
-        double y2 = y + _blockRandom.nextInt(3);
-
-        int generated = 0;
-        for (int i = 0; i <= effectiveSize; i++) {
-            double xPos = x1 + (x2 - x1) * i / effectiveSize;
-            double yPos = y1 + (y2 - y1) * i / effectiveSize;
-            double zPos = z1 + (z2 - z1) * i / effectiveSize;
-
-            double fuzz = _blockRandom.nextDouble() * effectiveSize / 16.0D;
-            double fuzzXZ = (Math.sin((float) (i * Math.PI / effectiveSize)) + 1.0F) * fuzz + 1.0D;
-            double fuzzY = (Math.sin((float) (i * Math.PI / effectiveSize)) + 1.0F) * fuzz + 1.0D;
-
-            int xStart = (int) Math.floor(xPos - fuzzXZ / 2.0D);
-            int yStart = (int) Math.floor(yPos - fuzzY / 2.0D);
-            int zStart = (int) Math.floor(zPos - fuzzXZ / 2.0D);
-
-            int xEnd = (int) Math.floor(xPos + fuzzXZ / 2.0D);
-            int yEnd = (int) Math.floor(yPos + fuzzY / 2.0D);
-            int zEnd = (int) Math.floor(zPos + fuzzXZ / 2.0D);
-
-            for (int ix = xStart; ix <= xEnd; ix++) {
-                double xThresh = (ix + 0.5D - xPos) / (fuzzXZ / 2.0D);
-                if (xThresh * xThresh < 1.0D) {
-                    for (int iy = yStart; iy <= yEnd; iy++) {
-                        double yThresh = (iy + 0.5D - yPos) / (fuzzY / 2.0D);
-                        if (xThresh * xThresh + yThresh * yThresh < 1.0D) {
-                            for (int iz = zStart; iz <= zEnd; iz++) {
-                                double zThresh = (iz + 0.5D - zPos) / (fuzzXZ / 2.0D);
-                                if (xThresh * xThresh + yThresh * yThresh + zThresh * zThresh < 1.0D) {
-                                    Location loc = new Location(world, ix, iy, iz);
-                                    if (generateBlock(loc, material) && ++generated >= size) {
-                                        return;
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            }
+            logDeposit(writer.getWorld().getName(), size, material, x, y, z);
         }
+
+        int[] generated = { 0, 0 };
+        DepositShape.visit(blockRandom, x, y, z, DepositShape.getEffectiveSize(size), (ix, iy, iz) -> {
+            if (writer.write(ix, iy, iz, material)) {
+                return ++generated[0] < size;
+            }
+            ++generated[1];
+            return true;
+        });
+
+        RuleStats stats = rule.getStats();
+        stats.increment(RuleStats.Counter.DEPOSITS);
+        stats.add(RuleStats.Counter.PLACED, generated[0]);
+        stats.add(RuleStats.Counter.HOST_REJECTED, generated[1]);
     } // generate
 
     // ------------------------------------------------------------------------
     /**
-     * Generate a block of the specified material at the specified Location, if
-     * the chunk can be loaded and the existing block can be replaced.
+     * Log the generation of a deposit.
      * 
-     * @param loc the Location.
-     * @param material the Material.
-     * @return true if a block was changed.
-     */
-    protected boolean generateBlock(Location loc, Material material) {
-        Block block = loc.getBlock();
-        if (block != null && NerdOre.CONFIG.REPLACEABLE_MATERIALS.contains(block.getType())) {
-            Chunk chunk = block.getChunk();
-            if (chunk.isLoaded() || chunk.load()) {
-                block.setType(material);
-                return true;
-            } else {
-                NerdOre.PLUGIN.getLogger().severe("Could not generate " + material + " at " +
-                                                  loc.getBlockX() + "," + loc.getBlockY() + "," + loc.getBlockZ());
-            }
-        }
-        return false;
+     * @param worldName the name of the world.
+     * @param size the number of blocks in the deposit.
+     * @param material the Material of the deposit.
+     * @param x the X coordinate of the centre.
+     * @param y the Y coordinate of the centre.
+     * @param z the Z coordinate of the centre.
+     */
+    protected void logDeposit(String worldName, int size, Material material, int x, int y, int z) {
+        Logger logger = Util.getLogger();
+        logger.info("Generate " + size + " x " + material +
+                    " at " + x + " " + y + " " + z + " in " + worldName);
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Broadcast a progress update notification to players with the
-     * nerdore.notify permission.
+     * Broadcast a progress update notification about a job to players with
+     * the nerdore.notify permission.
+     *
+     * @param job the job.
      */
-    protected void statusUpdate() {
+    protected void statusUpdate(Job job) {
         if (NerdOre.CONFIG.NOTIFY) {
-            int side = getSideOf(NerdOre.CONFIG.getIndex());
-            int blocks = side * 16;
-            String message = String.format("&a%s:%s index %d, %d x %d chunks, %d x %d blocks in %s.",
-                                           NerdOre.PLUGIN.getName(), (isComplete() ? " FINISHED" : ""),
-                                           NerdOre.CONFIG.getIndex(), side, side, blocks, blocks, NerdOre.CONFIG.WORLD);
+            boolean finished = job.isComplete() && job.getDeferredChunks().isEmpty();
+            String message = "&a" + NerdOre.PLUGIN.getName() + ":" + (finished ? " FINISHED" : "") +
+                             " job " + job.getId() + ", " + getProgress(job) + ".";
             Bukkit.getServer().broadcast(ChatColor.translateAlternateColorCodes('&', message), "nerdore.notify");
         }
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return a description of the progress of a job.
+     *
+     * @param job the job.
+     * @return a description of the progress of the job.
+     */
+    public static String getProgress(Job job) {
+        Traversal traversal = job.getTraversal();
+        String progress;
+        if (traversal == Traversal.SPIRAL && !job.hasRegion()) {
+            int side = Math.max(0, Traversal.getSideOf(job.getIndex()));
+            int blocks = side * 16;
+            progress = String.format("index %d, %d x %d chunks, %d x %d blocks in %s",
+                                     job.getIndex(), side, side, blocks, blocks, job.getWorldName());
+        } else {
+            progress = String.format("%s index %d of %d in %s",
+                                     traversal.name().toLowerCase(), job.getIndex(),
+                                     traversal.getEnd(job.getRegion()), job.getWorldName());
+        }
+
+        if (!job.isReady()) {
+            progress += ", scanning region files";
+        } else if (job.getRemainingChunks() >= 0) {
+            progress += ", " + job.getRemainingChunks() + " generated chunk(s) remaining";
+        }
+        if (!job.getDeferredChunks().isEmpty()) {
+            progress += ", " + job.getDeferredChunks().size() + " chunk(s) deferred";
+        }
+        if (job.getPlanFailures() > 0) {
+            progress += ", " + job.getPlanFailures() + " chunk plan(s) failed on worker threads";
+        }
+        return progress;
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Number of ticks this task has run.
@@ -365,22 +1288,60 @@ public class OreTask implements Runnable {
     protected int _ticks;
 
     /**
-     * True if the task is processing chunks.
-     *
-     * Defaults to false (not running) on plugin initialisation.
+     * Maximum number of pending chunks per worker thread.
      */
-    protected boolean _running;
+    protected static final int MAX_PENDING_CHUNKS_PER_THREAD = 4;
 
     /**
-     * The Random used to generate ores.
+     * Number of candidates applied between checks of the time budget.
      */
-    protected Random _random = new Random();
+    protected static final int CANDIDATES_PER_TIME_CHECK = 256;
 
     /**
-     * The Random used to generate or clear blocks within an ore deposit.
-     * 
-     * By using a separate random number generator, we avoid perturbing the
-     * gross locations of ore deposits.
+     * Number of worker threads.
+     */
+    protected int _workerThreads;
+
+    /**
+     * Executor that plans chunks; null if planning is done on the main thread.
+     */
+    protected ExecutorService _executor;
+
+    /**
+     * Chunks submitted for processing, in submission order.
+     */
+    protected ArrayDeque<PendingChunk> _pending = new ArrayDeque<>();
+
+    /**
+     * The chunks that NerdOre loaded, which are unloaded when there are too
+     * many.
+     */
+    protected ChunkWorkingSet _workingSet = new ChunkWorkingSet();
+
+    /**
+     * Throttles or pauses processing when the server is struggling.
+     */
+    protected HealthGuard _health = new HealthGuard();
+
+    /**
+     * The chunks that online players are in, refreshed each tick.
+     */
+    protected PlayerProximityIndex _players = new PlayerProximityIndex();
+
+    /**
+     * Unspent processing time, in nanoseconds, carried between ticks by the
+     * budget scheduler. Negative after a chunk that overran the budget.
+     */
+    protected long _budgetCreditNanos;
+
+    /**
+     * Exponential moving average of the cost of processing one chunk, in
+     * nanoseconds.
+     */
+    protected long _averageChunkNanos;
+
+    /**
+     * Places the blocks of ore deposits.
      */
-    protected Random _blockRandom = new Random();
+    protected VoxelWriter _writer = new VoxelWriter(_workingSet);
 } // class OreTask
\ No newline at end of file
@@ -0,0 +1,462 @@
+package nu.nerd.nerdore;
+
+import java.util.Random;
+import java.util.concurrent.Future;
+
+import org.bukkit.Chunk;
+
+// ----------------------------------------------------------------------------
+/**
+ * A chunk that has been submitted for processing by {@link OreTask}, whose
+ * {@link ChunkPlan} is being computed on a worker thread, or applied on the
+ * main thread.
+ */
+public class PendingChunk {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param job the {@link Job} that submitted the chunk.
+     * @param index the index of the chunk in the processing order.
+     * @param chunk the Chunk.
+     * @param scanner the {@link ClearScanner} that scans the chunk; its rules
+     *        are indexed by the rule indices of plan candidates.
+     * @param planner the {@link DepositPlanner} that plans the chunk's
+     *        deposits, or null if ores are generated on the main thread.
+     * @param oreRules the biome index of the {@link OreRule}s that are
+     *        planned or generated in the chunk, as configured when the chunk
+     *        was submitted; its rules are indexed by the rule indices of
+     *        planned deposits.
+     * @param seed the ore generation seed.
+     * @param clearRandoms the Randoms used to apply each of the
+     *        {@link ClearRule}s, indexed like the scanner's rules.
+     * @param plan the future result of planning the chunk.
+     */
+    public PendingChunk(Job job, long index, Chunk chunk, ClearScanner scanner, DepositPlanner planner,
+                        RuleIndex<OreRule> oreRules, long seed, Random[] clearRandoms, Future<ChunkPlan> plan) {
+        _job = job;
+        _index = index;
+        _chunk = chunk;
+        _scanner = scanner;
+        _planner = planner;
+        _rules = scanner.getRules();
+        _oreRules = oreRules;
+        _seed = seed;
+        _clearRandoms = clearRandoms;
+        _plan = plan;
+        _clearRuleNanos = new long[_rules.length];
+        _oreRuleNanos = new long[oreRules.getRules().length];
+        for (OreRule rule : oreRules.getRules()) {
+            int radius = DepositShape.getMaxRadius(DepositShape.getEffectiveSize(rule.getMaxSize()));
+            _depositReach = Math.max(_depositReach, (radius + 15) / 16);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the {@link Job} that submitted the chunk.
+     *
+     * @return the {@link Job} that submitted the chunk.
+     */
+    public Job getJob() {
+        return _job;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of the chunk in the processing order.
+     *
+     * @return the index of the chunk in the processing order.
+     */
+    public long getIndex() {
+        return _index;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Chunk.
+     *
+     * @return the Chunk.
+     */
+    public Chunk getChunk() {
+        return _chunk;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the {@link ClearScanner} that scans the chunk.
+     *
+     * @return the {@link ClearScanner}.
+     */
+    public ClearScanner getClearScanner() {
+        return _scanner;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the {@link DepositPlanner} that plans the chunk's deposits.
+     *
+     * @return the {@link DepositPlanner}, or null if ores are generated on
+     *         the main thread.
+     */
+    public DepositPlanner getDepositPlanner() {
+        return _planner;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the ore generation seed.
+     *
+     * @return the ore generation seed.
+     */
+    public long getSeed() {
+        return _seed;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the {@link ClearRule}s that were scanned.
+     *
+     * @return the {@link ClearRule}s that were scanned.
+     */
+    public ClearRule[] getRules() {
+        return _rules;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the biome index of the {@link OreRule}s that are planned or
+     * generated in the chunk.
+     *
+     * The index is captured when the chunk is submitted, so that a reload of
+     * the configuration does not apply clears from one rule set and deposits
+     * from another to the same chunk.
+     *
+     * @return the biome index of the {@link OreRule}s.
+     */
+    public RuleIndex<OreRule> getOreRuleIndex() {
+        return _oreRules;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the {@link OreRule}s that are planned or generated in the chunk.
+     *
+     * @return the {@link OreRule}s, indexed by the rule indices of planned
+     *         deposits.
+     */
+    public OreRule[] getOreRules() {
+        return _oreRules.getRules();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the distance, in chunks, that the chunk's deposits can extend
+     * beyond it.
+     *
+     * Chunks within this distance (as the larger of the X and Z distances)
+     * may receive ore from this chunk, so they must not be scanned until it
+     * has been applied.
+     *
+     * @return the reach of the chunk's deposits, in chunks.
+     */
+    public int getDepositReach() {
+        return _depositReach;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Random used to apply the {@link ClearRule} at the specified
+     * index in {@link #getRules()}.
+     *
+     * @param ruleIndex the index of the rule.
+     * @return the Random.
+     */
+    public Random getClearRandom(int ruleIndex) {
+        return _clearRandoms[ruleIndex];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the future result of planning the chunk.
+     *
+     * @return the future result of planning the chunk.
+     */
+    public Future<ChunkPlan> getPlan() {
+        return _plan;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Replace the future result of planning the chunk, when the chunk has
+     * been planned again.
+     *
+     * @param plan the future result of planning the chunk.
+     */
+    public void setPlan(Future<ChunkPlan> plan) {
+        _plan = plan;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of the next plan candidate to apply.
+     *
+     * @return the index of the next plan candidate to apply.
+     */
+    public int getNextCandidate() {
+        return _nextCandidate;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the index of the next plan candidate to apply.
+     *
+     * @param nextCandidate the index.
+     */
+    public void setNextCandidate(int nextCandidate) {
+        _nextCandidate = nextCandidate;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of the next planned deposit to place.
+     *
+     * @return the index of the next planned deposit to place.
+     */
+    public int getNextDeposit() {
+        return _nextDeposit;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the index of the next planned deposit to place.
+     *
+     * @param nextDeposit the index.
+     */
+    public void setNextDeposit(int nextDeposit) {
+        _nextDeposit = nextDeposit;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if all of the chunk's plan has been applied.
+     *
+     * @return true if all of the chunk's plan has been applied.
+     */
+    public boolean isFinished() {
+        return _finished;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record that all of the chunk's plan has been applied.
+     */
+    public void setFinished() {
+        _finished = true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the processing time charged to the job when the chunk was
+     * submitted, in nanoseconds.
+     *
+     * @return the estimated processing time.
+     */
+    public long getEstimatedNanos() {
+        return _estimatedNanos;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the processing time charged to the job when the chunk was submitted.
+     *
+     * @param nanos the estimated processing time, in nanoseconds.
+     */
+    public void setEstimatedNanos(long nanos) {
+        _estimatedNanos = nanos;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the chunk was deferred because players were near it,
+     * and is being retried behind the job's cursor.
+     *
+     * @return true if the chunk is a deferred chunk.
+     */
+    public boolean isDeferred() {
+        return _deferred;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set whether the chunk is a deferred chunk being retried.
+     *
+     * @param deferred true if the chunk is a deferred chunk.
+     */
+    public void setDeferred(boolean deferred) {
+        _deferred = deferred;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the total time spent processing this chunk on the main thread,
+     * in nanoseconds.
+     *
+     * @return the total time spent processing this chunk on the main thread.
+     */
+    public long getMainThreadNanos() {
+        return _mainThreadNanos;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add to the total time spent processing this chunk on the main thread.
+     *
+     * @param nanos the time to add, in nanoseconds.
+     */
+    public void addMainThreadNanos(long nanos) {
+        _mainThreadNanos += nanos;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the main thread time spent applying each {@link ClearRule} to
+     * this chunk, which callers add to.
+     *
+     * @return the times in nanoseconds, indexed like {@link #getRules()}.
+     */
+    public long[] getClearRuleNanos() {
+        return _clearRuleNanos;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the main thread time spent placing the deposits of each
+     * {@link OreRule} in this chunk, which callers add to.
+     *
+     * @return the times in nanoseconds, indexed like {@link #getOreRules()};
+     *         all zero if ores are generated on the main thread, which
+     *         records the time of each rule directly.
+     */
+    public long[] getOreRuleNanos() {
+        return _oreRuleNanos;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the ore blocks that the chunk's deposits queued in
+     * {@link DeferredWrites}.
+     *
+     * @return the queued blocks, which are recorded in the chunk's
+     *         {@link ProgressJournal} record.
+     */
+    public SpilledBlocks getSpills() {
+        return _spills;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The {@link Job} that submitted the chunk.
+     */
+    protected Job _job;
+
+    /**
+     * The index of the chunk in the processing order.
+     */
+    protected long _index;
+
+    /**
+     * The Chunk.
+     */
+    protected Chunk _chunk;
+
+    /**
+     * The {@link ClearScanner} that scans the chunk.
+     */
+    protected ClearScanner _scanner;
+
+    /**
+     * The {@link DepositPlanner} that plans the chunk's deposits, or null.
+     */
+    protected DepositPlanner _planner;
+
+    /**
+     * The {@link ClearRule}s that were scanned.
+     */
+    protected ClearRule[] _rules;
+
+    /**
+     * The biome index of the {@link OreRule}s that are planned or generated.
+     */
+    protected RuleIndex<OreRule> _oreRules;
+
+    /**
+     * The ore generation seed.
+     */
+    protected long _seed;
+
+    /**
+     * The distance, in chunks, that the chunk's deposits can extend beyond
+     * it.
+     */
+    protected int _depositReach;
+
+    /**
+     * The Randoms used to apply each of the {@link ClearRule}s.
+     */
+    protected Random[] _clearRandoms;
+
+    /**
+     * The future result of planning the chunk.
+     */
+    protected Future<ChunkPlan> _plan;
+
+    /**
+     * The index of the next plan candidate to apply.
+     */
+    protected int _nextCandidate;
+
+    /**
+     * The index of the next planned deposit to place.
+     */
+    protected int _nextDeposit;
+
+    /**
+     * True if all of the chunk's plan has been applied.
+     */
+    protected boolean _finished;
+
+    /**
+     * Processing time charged to the job when the chunk was submitted, in
+     * nanoseconds.
+     */
+    protected long _estimatedNanos;
+
+    /**
+     * True if the chunk is a deferred chunk being retried.
+     */
+    protected boolean _deferred;
+
+    /**
+     * Total time spent processing this chunk on the main thread, in
+     * nanoseconds.
+     */
+    protected long _mainThreadNanos;
+
+    /**
+     * Main thread time spent applying each {@link ClearRule}, in nanoseconds.
+     */
+    protected long[] _clearRuleNanos;
+
+    /**
+     * Main thread time spent placing the deposits of each {@link OreRule}, in
+     * nanoseconds.
+     */
+    protected long[] _oreRuleNanos;
+
+    /**
+     * The ore blocks that the chunk's deposits queued in
+     * {@link DeferredWrites}.
+     */
+    protected SpilledBlocks _spills = new SpilledBlocks();
+} // class PendingChunk
@@ -0,0 +1,83 @@
+package nu.nerd.nerdore;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+// ----------------------------------------------------------------------------
+/**
+ * An index of the chunks that online players are standing in, so that
+ * {@link OreTask} can defer chunks that are close to players.
+ *
+ * The index is rebuilt once per tick, by {@link #refresh()}, from the
+ * locations of online players. Lookups then cost at most the smaller of
+ * the number of players in the world and the number of chunks in the square
+ * around the looked up chunk.
+ */
+public class PlayerProximityIndex {
+    // ------------------------------------------------------------------------
+    /**
+     * Rebuild the index from the current locations of online players.
+     */
+    public void refresh() {
+        for (Set<Long> chunks : _playerChunks.values()) {
+            chunks.clear();
+        }
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            Location loc = player.getLocation();
+            String worldName = loc.getWorld().getName();
+            _playerChunks.computeIfAbsent(worldName, k -> new HashSet<>())
+                .add(Util.chunkKey(loc.getBlockX() >> 4, loc.getBlockZ() >> 4));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if any player was within the specified radius of a chunk
+     * when the index was last refreshed.
+     *
+     * @param worldName the name of the chunk's world.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @param radius the radius in chunks, which is the largest distance
+     *        between the chunk and a player's chunk along either axis.
+     * @return true if a player is near the chunk.
+     */
+    public boolean isNearPlayer(String worldName, int chunkX, int chunkZ, int radius) {
+        Set<Long> chunks = _playerChunks.get(worldName);
+        if (chunks == null || chunks.isEmpty()) {
+            return false;
+        }
+
+        int side = 2 * radius + 1;
+        if (chunks.size() < side * side) {
+            for (long key : chunks) {
+                if (Math.abs(Util.chunkX(key) - chunkX) <= radius &&
+                    Math.abs(Util.chunkZ(key) - chunkZ) <= radius) {
+                    return true;
+                }
+            }
+        } else {
+            for (int x = chunkX - radius; x <= chunkX + radius; ++x) {
+                for (int z = chunkZ - radius; z <= chunkZ + radius; ++z) {
+                    if (chunks.contains(Util.chunkKey(x, z))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Map from world name to the keys of chunks containing at least one
+     * player. The sets are cleared and reused on each refresh.
+     */
+    protected Map<String, Set<Long>> _playerChunks = new HashMap<>();
+} // class PlayerProximityIndex
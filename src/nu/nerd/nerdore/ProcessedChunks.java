@@ -0,0 +1,427 @@
+package nu.nerd.nerdore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+// ----------------------------------------------------------------------------
+/**
+ * Records exactly which chunks of each world have been processed, one bit per
+ * chunk, in memory-mapped files.
+ *
+ * Each world has a folder of partition files, each covering 16 x 16 region
+ * files (512 x 512 chunks) in 32 KiB. Within a partition, the 1024 bits of
+ * each region file are contiguous, in the order of the region file's chunk
+ * location table. Partition files are created when the first chunk in them
+ * is processed, so unexplored areas cost nothing.
+ *
+ * Lookups are O(1). The number of processed chunks in each region file is
+ * kept in memory, so that traversals can skip fully processed region files,
+ * or larger areas, with one test; see {@link #filter(String, Region)}.
+ *
+ * Bits are only set on the main thread, but may be read from any thread.
+ */
+public class ProcessedChunks {
+    // ------------------------------------------------------------------------
+    /**
+     * Set the folder containing the per-world bitmap folders, and forget all
+     * mapped partitions.
+     *
+     * @param folder the folder.
+     */
+    public void setFolder(File folder) {
+        force();
+        _folder = folder;
+        _worlds.clear();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the specified chunk has been processed.
+     *
+     * This can be called from any thread.
+     *
+     * @param worldName the name of the world.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return true if the chunk has been processed.
+     */
+    public boolean isProcessed(String worldName, int chunkX, int chunkZ) {
+        Partition partition = getPartition(worldName, chunkX, chunkZ, false);
+        return partition != null && partition.get(chunkX, chunkZ);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record that the specified chunk has been processed.
+     *
+     * @param worldName the name of the world.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     */
+    public void setProcessed(String worldName, int chunkX, int chunkZ) {
+        Partition partition = getPartition(worldName, chunkX, chunkZ, true);
+        if (partition != null) {
+            partition.set(chunkX, chunkZ);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record that the specified chunk has not been processed, e.g. because
+     * its changes have been rolled back.
+     *
+     * @param worldName the name of the world.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     */
+    public void setUnprocessed(String worldName, int chunkX, int chunkZ) {
+        Partition partition = getPartition(worldName, chunkX, chunkZ, false);
+        if (partition != null) {
+            partition.clear(chunkX, chunkZ);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if every chunk in the specified box has been processed.
+     *
+     * Small boxes are checked chunk by chunk; larger boxes are only reported
+     * as processed if every region file they overlap is fully processed.
+     *
+     * @param worldName the name of the world.
+     * @param minX the minimum chunk X coordinate of the box.
+     * @param minZ the minimum chunk Z coordinate of the box.
+     * @param maxX the maximum chunk X coordinate of the box.
+     * @param maxZ the maximum chunk Z coordinate of the box.
+     * @return true if the box is certainly fully processed.
+     */
+    public boolean isProcessed(String worldName, int minX, int minZ, int maxX, int maxZ) {
+        long area = ((long) maxX - minX + 1) * ((long) maxZ - minZ + 1);
+        if (area <= CHUNKS_PER_REGION) {
+            for (int z = minZ; z <= maxZ; ++z) {
+                for (int x = minX; x <= maxX; ++x) {
+                    if (!isProcessed(worldName, x, z)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        // Stops at the first region file that is not full, so a box that is
+        // mostly unprocessed is rejected quickly.
+        for (long regionZ = minZ >> REGION_SHIFT; regionZ <= maxZ >> REGION_SHIFT; ++regionZ) {
+            for (long regionX = minX >> REGION_SHIFT; regionX <= maxX >> REGION_SHIFT; ++regionX) {
+                int x = (int) regionX << REGION_SHIFT;
+                int z = (int) regionZ << REGION_SHIFT;
+                Partition partition = getPartition(worldName, x, z, false);
+                if (partition == null || partition.getRegionCount(x, z) != CHUNKS_PER_REGION) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a view of a region that contains only its chunks that have not
+     * been processed.
+     *
+     * The view has the same bounding box and centre as the region, so
+     * traversal cursors are unchanged. It reflects chunks processed after it
+     * was created.
+     *
+     * @param worldName the name of the world.
+     * @param region the region.
+     * @return the unprocessed chunks of the region.
+     */
+    public Region filter(String worldName, Region region) {
+        return new UnprocessedRegion(worldName, region);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write all modified bits to disk.
+     */
+    public void force() {
+        for (Map<Long, Partition> partitions : _worlds.values()) {
+            for (Partition partition : partitions.values()) {
+                if (partition != ABSENT) {
+                    partition._bits.force();
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The unprocessed chunks of a region.
+     */
+    protected class UnprocessedRegion extends Region {
+        /**
+         * Constructor.
+         *
+         * @param worldName the name of the world.
+         * @param region the region.
+         */
+        UnprocessedRegion(String worldName, Region region) {
+            _worldName = worldName;
+            _region = region;
+            setBounds(region.getMinX(), region.getMinZ(), region.getMaxX(), region.getMaxZ());
+            setCentre(region.getCentreX(), region.getCentreZ());
+        }
+
+        @Override
+        public void save(ConfigurationSection section) {
+            _region.save(section);
+        }
+
+        @Override
+        public boolean contains(int chunkX, int chunkZ) {
+            return _region.contains(chunkX, chunkZ) && !isProcessed(_worldName, chunkX, chunkZ);
+        }
+
+        @Override
+        public boolean intersects(int minX, int minZ, int maxX, int maxZ) {
+            return _region.intersects(minX, minZ, maxX, maxZ) &&
+                   !isProcessed(_worldName, minX, minZ, maxX, maxZ);
+        }
+
+        @Override
+        public boolean covers(int minX, int minZ, int maxX, int maxZ) {
+            return false;
+        }
+
+        @Override
+        public String getDescription() {
+            return "unprocessed chunks of " + _region.getDescription();
+        }
+
+        /**
+         * The name of the world.
+         */
+        protected final String _worldName;
+
+        /**
+         * The region.
+         */
+        protected final Region _region;
+    } // class UnprocessedRegion
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the partition containing the specified chunk.
+     *
+     * @param worldName the name of the world.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @param create if true, create the partition file if it does not exist.
+     * @return the partition, or null if it does not exist and create is false,
+     *         or it could not be created.
+     */
+    protected Partition getPartition(String worldName, int chunkX, int chunkZ, boolean create) {
+        Map<Long, Partition> partitions = _worlds.computeIfAbsent(worldName, k -> new ConcurrentHashMap<>());
+        int partitionX = chunkX >> PARTITION_SHIFT;
+        int partitionZ = chunkZ >> PARTITION_SHIFT;
+        long key = Util.chunkKey(partitionX, partitionZ);
+        Partition partition = partitions.get(key);
+        if (partition == null || (partition == ABSENT && create)) {
+            synchronized (partitions) {
+                partition = partitions.get(key);
+                if (partition == null || (partition == ABSENT && create)) {
+                    partition = openPartition(worldName, partitionX, partitionZ, create);
+                    partitions.put(key, partition);
+                }
+            }
+        }
+        return (partition == ABSENT) ? null : partition;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Map a partition file.
+     *
+     * @param worldName the name of the world.
+     * @param partitionX the partition X coordinate.
+     * @param partitionZ the partition Z coordinate.
+     * @param create if true, create the partition file if it does not exist.
+     * @return the partition, or ABSENT.
+     */
+    protected Partition openPartition(String worldName, int partitionX, int partitionZ, boolean create) {
+        File file = new File(new File(_folder, worldName), "p." + partitionX + "." + partitionZ + ".bits");
+        if (!file.isFile() && !create) {
+            return ABSENT;
+        }
+
+        file.getParentFile().mkdirs();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() != PARTITION_BYTES) {
+                raf.setLength(PARTITION_BYTES);
+            }
+            return new Partition(raf.getChannel().map(MapMode.READ_WRITE, 0, PARTITION_BYTES));
+        } catch (IOException ex) {
+            Util.getLogger().severe("Unable to map processed chunk bitmap " + file + ": " + ex.getMessage());
+            return ABSENT;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The bits of 16 x 16 region files.
+     */
+    protected static final class Partition {
+        /**
+         * Constructor.
+         *
+         * @param bits the mapped bits, or null for ABSENT.
+         */
+        Partition(MappedByteBuffer bits) {
+            _bits = bits;
+            if (bits != null) {
+                for (int region = 0; region < REGIONS_PER_PARTITION; ++region) {
+                    int count = 0;
+                    for (int i = 0; i < REGION_BYTES; i += 8) {
+                        count += Long.bitCount(bits.getLong(region * REGION_BYTES + i));
+                    }
+                    _regionCounts[region] = count;
+                }
+            }
+        }
+
+        /**
+         * Return the bit of a chunk.
+         */
+        boolean get(int chunkX, int chunkZ) {
+            int bit = getBitIndex(chunkX, chunkZ);
+            return (_bits.get(getByteIndex(chunkX, chunkZ)) & (1 << (bit & 7))) != 0;
+        }
+
+        /**
+         * Set the bit of a chunk.
+         */
+        void set(int chunkX, int chunkZ) {
+            int byteIndex = getByteIndex(chunkX, chunkZ);
+            int mask = 1 << (getBitIndex(chunkX, chunkZ) & 7);
+            byte b = _bits.get(byteIndex);
+            if ((b & mask) == 0) {
+                _bits.put(byteIndex, (byte) (b | mask));
+                ++_regionCounts[getRegionSlot(chunkX, chunkZ)];
+            }
+        }
+
+        /**
+         * Clear the bit of a chunk.
+         */
+        void clear(int chunkX, int chunkZ) {
+            int byteIndex = getByteIndex(chunkX, chunkZ);
+            int mask = 1 << (getBitIndex(chunkX, chunkZ) & 7);
+            byte b = _bits.get(byteIndex);
+            if ((b & mask) != 0) {
+                _bits.put(byteIndex, (byte) (b & ~mask));
+                --_regionCounts[getRegionSlot(chunkX, chunkZ)];
+            }
+        }
+
+        /**
+         * Return the number of processed chunks in the region file containing
+         * a chunk.
+         */
+        int getRegionCount(int chunkX, int chunkZ) {
+            return _regionCounts[getRegionSlot(chunkX, chunkZ)];
+        }
+
+        /**
+         * Return the index of the region file containing a chunk within its
+         * partition.
+         */
+        static int getRegionSlot(int chunkX, int chunkZ) {
+            int regionMask = (1 << (PARTITION_SHIFT - REGION_SHIFT)) - 1;
+            return ((chunkX >> REGION_SHIFT) & regionMask) +
+                   (((chunkZ >> REGION_SHIFT) & regionMask) << (PARTITION_SHIFT - REGION_SHIFT));
+        }
+
+        /**
+         * Return the index of the byte containing a chunk's bit.
+         */
+        static int getByteIndex(int chunkX, int chunkZ) {
+            return getRegionSlot(chunkX, chunkZ) * REGION_BYTES + (getBitIndex(chunkX, chunkZ) >> 3);
+        }
+
+        /**
+         * The mapped bits.
+         */
+        final MappedByteBuffer _bits;
+
+        /**
+         * The number of processed chunks in each region file.
+         */
+        final int[] _regionCounts = new int[REGIONS_PER_PARTITION];
+    } // class Partition
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of a chunk's bit in its region file's bits, in the
+     * order of the region file's chunk location table.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return the bit index.
+     */
+    protected static int getBitIndex(int chunkX, int chunkZ) {
+        return RegionHeaderIndex.getBitIndex(chunkX, chunkZ);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Shift converting chunk coordinates to region coordinates.
+     */
+    protected static final int REGION_SHIFT = 5;
+
+    /**
+     * Shift converting chunk coordinates to partition coordinates.
+     */
+    protected static final int PARTITION_SHIFT = 9;
+
+    /**
+     * Number of chunks in a region file.
+     */
+    protected static final int CHUNKS_PER_REGION = 1 << (2 * REGION_SHIFT);
+
+    /**
+     * Number of bytes of bits per region file.
+     */
+    protected static final int REGION_BYTES = CHUNKS_PER_REGION / 8;
+
+    /**
+     * Number of region files in a partition.
+     */
+    protected static final int REGIONS_PER_PARTITION = 1 << (2 * (PARTITION_SHIFT - REGION_SHIFT));
+
+    /**
+     * Size of a partition file.
+     */
+    protected static final int PARTITION_BYTES = REGIONS_PER_PARTITION * REGION_BYTES;
+
+    /**
+     * Placeholder for a partition whose file does not exist.
+     */
+    protected static final Partition ABSENT = new Partition(null);
+
+    /**
+     * The folder containing the per-world bitmap folders.
+     */
+    protected File _folder;
+
+    /**
+     * Map from world name to map from partition key to partition.
+     */
+    protected final Map<String, Map<Long, Partition>> _worlds = new ConcurrentHashMap<>();
+} // class ProcessedChunks
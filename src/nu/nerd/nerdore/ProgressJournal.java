@@ -0,0 +1,534 @@
+package nu.nerd.nerdore;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+// ----------------------------------------------------------------------------
+/**
+ * An append-only journal of completed and deferred chunks, so that progress
+ * made since the state file was last saved survives a crash.
+ *
+ * Each completed chunk appends a record of its job, traversal, cursor and
+ * coordinates, and of the ore blocks that it queued in {@link DeferredWrites}
+ * (see {@link SpilledBlocks}). Each chunk that a job defers, to retry later,
+ * appends a record of the same kind without ore blocks, flagged in the
+ * traversal byte. Records are written and fsynced by a background thread in
+ * groups: when a configured number of records are waiting, or a configured
+ * time has passed (group commit). Each record carries a CRC, so a record torn
+ * by a crash is detected and ignored when the journal is replayed.
+ *
+ * Chunks are completed in the order they are submitted, within each job, so
+ * the last journalled cursor of a job is a safe place to resume: every
+ * earlier chunk is either complete or deferred, and no later chunk is
+ * complete. Replaying the deferral records restores the job's deferred chunks
+ * that the resumed cursor has passed. Chunks whose records are not yet
+ * committed are kept loaded by the {@link ChunkWorkingSet}, so the server
+ * does not save a chunk's new ores before the journal records them.
+ *
+ * The journal is a folder of numbered segment files; records are appended to
+ * the newest. On startup, {@link #replay(File, RecordHandler)} applies every
+ * segment to the persisted state, and the segments are deleted once the state
+ * has been saved (compaction). The journal is also compacted whenever the
+ * newest segment grows beyond a size limit: {@link #rotate()} starts a new
+ * segment, and the older ones are deleted once the state and the
+ * {@link DeferredWrites} queue that include their records have been written
+ * by the {@link StateWriter}.
+ */
+public class ProgressJournal {
+    // ------------------------------------------------------------------------
+    /**
+     * Receives the records of a replayed journal.
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        /**
+         * Handle one record.
+         *
+         * @param jobId the ID of the job.
+         * @param worldName the name of the world.
+         * @param traversal the job's traversal when the chunk was submitted.
+         * @param cursor the chunk's cursor in that traversal.
+         * @param chunkX the chunk X coordinate.
+         * @param chunkZ the chunk Z coordinate.
+         * @param deferred true if the chunk was deferred, rather than
+         *        completed.
+         * @param spills the ore blocks that the chunk queued in
+         *        {@link DeferredWrites}; empty if it was deferred.
+         */
+        void handle(String jobId, String worldName, Traversal traversal, long cursor, int chunkX, int chunkZ,
+                    boolean deferred, SpilledBlocks spills);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the segment files in a journal folder, oldest first.
+     *
+     * @param folder the journal folder, which need not exist.
+     * @return the segment files.
+     */
+    public static List<File> getSegments(File folder) {
+        List<File> segments = new ArrayList<>();
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (SEGMENT_FILE.matcher(file.getName()).matches()) {
+                    segments.add(file);
+                }
+            }
+        }
+        segments.sort(Comparator.comparingLong(ProgressJournal::getSegmentNumber));
+        return segments;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read all intact records of a journal file, stopping at the first torn
+     * or corrupt record.
+     *
+     * @param file the journal file, which need not exist.
+     * @param handler receives each record.
+     * @return the number of records replayed.
+     * @throws IOException if the file cannot be read.
+     */
+    public static int replay(File file, RecordHandler handler) throws IOException {
+        if (!file.isFile()) {
+            return 0;
+        }
+
+        int count = 0;
+        try (DataInputStream data = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = data.readUnsignedShort();
+                } catch (EOFException ex) {
+                    break;
+                }
+                byte[] body = new byte[length];
+                int crc;
+                try {
+                    data.readFully(body);
+                    crc = data.readInt();
+                } catch (EOFException ex) {
+                    NerdOre.PLUGIN.getLogger().warning("Ignoring torn record at the end of " + file + ".");
+                    break;
+                }
+                CRC32 check = new CRC32();
+                check.update(body);
+                if ((int) check.getValue() != crc) {
+                    NerdOre.PLUGIN.getLogger().warning("Ignoring corrupt records at the end of " + file + ".");
+                    break;
+                }
+
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+                String jobId = record.readUTF();
+                String worldName = record.readUTF();
+                int traversalByte = record.readUnsignedByte();
+                int traversalOrdinal = traversalByte & ~DEFERRED_FLAG;
+                long cursor = record.readLong();
+                int chunkX = record.readInt();
+                int chunkZ = record.readInt();
+                // Records written by earlier versions end here.
+                SpilledBlocks spills = (record.available() > 0) ? SpilledBlocks.read(record, chunkX, chunkZ)
+                                                                : new SpilledBlocks();
+                Traversal traversal = (traversalOrdinal < Traversal.values().length)
+                    ? Traversal.values()[traversalOrdinal] : null;
+                handler.handle(jobId, worldName, traversal, cursor, chunkX, chunkZ,
+                               (traversalByte & DEFERRED_FLAG) != 0, spills);
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Open a new segment in the journal folder for appending, and start the
+     * background writer.
+     *
+     * @param folder the journal folder.
+     * @param commitRecords commit when this many records are waiting.
+     * @param commitMillis commit waiting records at least this often.
+     * @throws IOException if the segment cannot be created.
+     */
+    public void open(File folder, int commitRecords, long commitMillis) throws IOException {
+        close();
+        _folder = folder;
+        openSegment();
+        _commitRecords = Math.max(1, commitRecords);
+        _writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "NerdOre Journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, commitMillis);
+        _writer.scheduleWithFixedDelay(this::commit, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Commit all waiting records, stop the background writer and close the
+     * journal.
+     */
+    public void close() {
+        if (_writer != null) {
+            _writer.shutdown();
+            try {
+                _writer.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            _writer = null;
+        }
+        if (_channel != null) {
+            commit();
+            try {
+                _channel.close();
+            } catch (IOException ex) {
+                NerdOre.PLUGIN.getLogger().severe("Unable to close the progress journal: " + ex.getMessage());
+            }
+            _channel = null;
+        }
+        _uncommitted.clear();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a record of a completed chunk.
+     *
+     * The record is committed in the background. This must be called on the
+     * main thread.
+     *
+     * @param job the chunk's job.
+     * @param cursor the chunk's cursor in the job's traversal.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @param spills the ore blocks that the chunk queued in
+     *        {@link DeferredWrites}.
+     */
+    public void append(Job job, long cursor, int chunkX, int chunkZ, SpilledBlocks spills) {
+        if (_channel == null) {
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(job.getId());
+            out.writeUTF(job.getWorldName());
+            out.writeByte(job.getTraversal().ordinal());
+            out.writeLong(cursor);
+            out.writeInt(chunkX);
+            out.writeInt(chunkZ);
+            if (spills.write(out, chunkX, chunkZ) < spills.size()) {
+                NerdOre.PLUGIN.getLogger().warning("Only the first " + SpilledBlocks.MAX_RECORDED +
+                                                   " deferred ore blocks of chunk (" + chunkX + ", " + chunkZ +
+                                                   ") were journalled.");
+            }
+        } catch (IOException ex) {
+            // Not thrown by ByteArrayOutputStream.
+        }
+        long sequence = enqueue(bytes.toByteArray());
+        _uncommitted.add(new UncommittedChunk(sequence, job.getWorldName(), Util.chunkKey(chunkX, chunkZ)));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a record of a chunk that a job has deferred, to retry later.
+     *
+     * The record is committed in the background. This must be called on the
+     * main thread.
+     *
+     * @param job the chunk's job.
+     * @param cursor the chunk's cursor in the job's traversal.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     */
+    public void appendDeferred(Job job, long cursor, int chunkX, int chunkZ) {
+        if (_channel == null) {
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(48);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(job.getId());
+            out.writeUTF(job.getWorldName());
+            out.writeByte(job.getTraversal().ordinal() | DEFERRED_FLAG);
+            out.writeLong(cursor);
+            out.writeInt(chunkX);
+            out.writeInt(chunkZ);
+        } catch (IOException ex) {
+            // Not thrown by ByteArrayOutputStream.
+        }
+        enqueue(bytes.toByteArray());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the record of the specified chunk has been appended but
+     * not yet committed to disk.
+     *
+     * This must be called on the main thread.
+     *
+     * @param worldName the name of the world.
+     * @param chunkKey the {@link Util#chunkKey(int, int) chunk key}.
+     * @return true if the chunk's record is not yet committed.
+     */
+    public boolean isUncommitted(String worldName, long chunkKey) {
+        long committed = _committed;
+        while (!_uncommitted.isEmpty() && _uncommitted.peekFirst()._sequence <= committed) {
+            _uncommitted.removeFirst();
+        }
+        for (UncommittedChunk chunk : _uncommitted) {
+            if (chunk._chunkKey == chunkKey && chunk._worldName.equals(worldName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the size of the newest segment, in bytes.
+     *
+     * @return the size of the newest segment.
+     */
+    public long size() {
+        try {
+            return (_channel != null) ? _channel.size() : 0;
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Commit all waiting records and start a new segment.
+     *
+     * This must be called on the main thread, immediately before the state
+     * that the journal's records are applied to is saved. Once that state is
+     * on disk, the returned segments can be deleted.
+     *
+     * @return the segments before the new one, oldest first.
+     */
+    public List<File> rotate() {
+        synchronized (_lock) {
+            if (_channel == null) {
+                return new ArrayList<>();
+            }
+            commit();
+            try {
+                _channel.close();
+                openSegment();
+            } catch (IOException ex) {
+                NerdOre.PLUGIN.getLogger().severe("Unable to start a new progress journal segment: " +
+                                                  ex.getMessage());
+                _channel = null;
+                return new ArrayList<>();
+            }
+            List<File> segments = getSegments(_folder);
+            segments.removeIf(file -> getSegmentNumber(file) >= _segment);
+            return segments;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Frame a record body with its length and CRC and queue it for the
+     * background writer, requesting a commit if enough records are waiting.
+     *
+     * @param body the record body.
+     * @return the sequence number of the record.
+     */
+    protected long enqueue(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer record = ByteBuffer.allocate(2 + body.length + 4);
+        record.putShort((short) body.length).put(body).putInt((int) crc.getValue());
+        record.flip();
+
+        _queue.add(record);
+        long sequence = ++_appended;
+        if (sequence - _committed >= _commitRecords && !_commitRequested) {
+            _commitRequested = true;
+            _writer.execute(this::commit);
+        }
+        return sequence;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create and open the segment after the newest in the journal folder.
+     *
+     * @throws IOException if the segment cannot be created.
+     */
+    protected void openSegment() throws IOException {
+        _folder.mkdirs();
+        List<File> segments = getSegments(_folder);
+        if (!segments.isEmpty()) {
+            _segment = Math.max(_segment, getSegmentNumber(segments.get(segments.size() - 1)));
+        }
+        ++_segment;
+        File file = new File(_folder, _segment + ".journal");
+        _channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                    StandardOpenOption.APPEND);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of a segment file.
+     *
+     * @param file the segment file.
+     * @return the segment number.
+     */
+    protected static long getSegmentNumber(File file) {
+        Matcher matcher = SEGMENT_FILE.matcher(file.getName());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write and fsync all waiting records.
+     *
+     * Called by the background writer, and on the main thread by
+     * {@link #rotate()} and {@link #close()}.
+     */
+    protected void commit() {
+        synchronized (_lock) {
+            _commitRequested = false;
+            if (_channel == null || _queue.isEmpty()) {
+                return;
+            }
+
+            List<ByteBuffer> records = new ArrayList<>();
+            long sequence = _committed;
+            for (ByteBuffer record; (record = _queue.poll()) != null;) {
+                records.add(record);
+                ++sequence;
+            }
+            try {
+                ByteBuffer[] buffers = records.toArray(new ByteBuffer[records.size()]);
+                long remaining = records.stream().mapToLong(ByteBuffer::remaining).sum();
+                while (remaining > 0) {
+                    remaining -= _channel.write(buffers);
+                }
+                _channel.force(false);
+            } catch (IOException ex) {
+                NerdOre.PLUGIN.getLogger().severe("Unable to write the progress journal: " + ex.getMessage());
+            }
+            // Even on failure, so that the chunks are not kept loaded forever.
+            _committed = sequence;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A chunk whose record has been appended but perhaps not committed.
+     */
+    protected static final class UncommittedChunk {
+        /**
+         * Constructor.
+         *
+         * @param sequence the sequence number of the record.
+         * @param worldName the name of the world.
+         * @param chunkKey the chunk key.
+         */
+        UncommittedChunk(long sequence, String worldName, long chunkKey) {
+            _sequence = sequence;
+            _worldName = worldName;
+            _chunkKey = chunkKey;
+        }
+
+        final long _sequence;
+        final String _worldName;
+        final long _chunkKey;
+    } // class UncommittedChunk
+
+    // ------------------------------------------------------------------------
+    /**
+     * Pattern matching segment file names, capturing the segment number.
+     */
+    protected static final Pattern SEGMENT_FILE = Pattern.compile("(\\d+)\\.journal");
+
+    /**
+     * Set in the traversal byte of a record of a deferred chunk.
+     */
+    protected static final int DEFERRED_FLAG = 0x80;
+
+    /**
+     * Serialises commits, and rotation.
+     */
+    protected final Object _lock = new Object();
+
+    /**
+     * The journal folder.
+     */
+    protected File _folder;
+
+    /**
+     * The number of the newest segment.
+     */
+    protected long _segment;
+
+    /**
+     * The newest segment, or null if closed.
+     */
+    protected FileChannel _channel;
+
+    /**
+     * The background writer.
+     */
+    protected ScheduledExecutorService _writer;
+
+    /**
+     * Commit when this many records are waiting.
+     */
+    protected int _commitRecords;
+
+    /**
+     * Encoded records waiting to be written, in order.
+     */
+    protected final ConcurrentLinkedQueue<ByteBuffer> _queue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The sequence number of the last appended record. Main thread only.
+     */
+    protected long _appended;
+
+    /**
+     * The sequence number of the last committed record.
+     */
+    protected volatile long _committed;
+
+    /**
+     * True if a commit has been requested because enough records are
+     * waiting.
+     */
+    protected volatile boolean _commitRequested;
+
+    /**
+     * Chunks whose records may not have been committed, in order of sequence
+     * number. Main thread only.
+     */
+    protected final ArrayDeque<UncommittedChunk> _uncommitted = new ArrayDeque<>();
+} // class ProgressJournal
@@ -0,0 +1,636 @@
+package nu.nerd.nerdore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+// ----------------------------------------------------------------------------
+/**
+ * A set of chunks to process: a rectangle, a circle, a union of boxes, or any
+ * of these with another region excluded from it.
+ *
+ * All coordinates are chunk coordinates. A region has a bounding box, which
+ * the {@link Traversal}s sweep, and a centre, around which the spiral
+ * traversal turns. Traversals skip cursors of chunks outside the region,
+ * using {@link #intersects(int, int, int, int)} to skip whole rows, rings and
+ * blocks of chunks at once, so that a thin ring around an already processed
+ * core costs little more than the ring itself.
+ *
+ * Regions are configured in a job's "region" section:
+ *
+ * <pre>
+ * region:
+ *   shape: circle
+ *   centre: [0, 0]
+ *   radius: 6250
+ *   exclude:
+ *     shape: square
+ *     side: 9375
+ * </pre>
+ */
+public abstract class Region {
+    // ------------------------------------------------------------------------
+    /**
+     * Return the SIDE x SIDE square of chunks with the specified centre,
+     * laid out the same way as the original spiral: coordinates run from
+     * centre - side / 2 to centre - side / 2 + side - 1 on both axes.
+     *
+     * @param centreX the chunk X coordinate of the centre.
+     * @param centreZ the chunk Z coordinate of the centre.
+     * @param side the side of the square in chunks.
+     * @return the square.
+     */
+    public static Region square(int centreX, int centreZ, int side) {
+        int minX = centreX - side / 2;
+        int minZ = centreZ - side / 2;
+        Box box = new Box(minX, minZ, minX + side - 1, minZ + side - 1);
+        box.setCentre(centreX, centreZ);
+        return box;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load a Region from a configuration section.
+     *
+     * @param section the section.
+     * @return the Region.
+     * @throws IllegalArgumentException if the section does not describe a
+     *         valid region.
+     */
+    public static Region load(ConfigurationSection section) {
+        String shape = section.getString("shape", "");
+        int[] centre = getInts(section, "centre", 2, new int[] { 0, 0 });
+
+        Region region;
+        switch (shape.toLowerCase()) {
+        case "square": {
+            int side = section.getInt("side", 0);
+            if (side < 1) {
+                throw new IllegalArgumentException("square side must be at least 1");
+            }
+            region = square(centre[0], centre[1], side);
+            break;
+        }
+
+        case "rect": {
+            int[] min = getInts(section, "min", 2, null);
+            int[] max = getInts(section, "max", 2, null);
+            region = new Box(min[0], min[1], max[0], max[1]);
+            break;
+        }
+
+        case "circle": {
+            int radius = section.getInt("radius", -1);
+            if (radius < 0) {
+                throw new IllegalArgumentException("circle radius must be non-negative");
+            }
+            region = new Circle(centre[0], centre[1], radius);
+            break;
+        }
+
+        case "union": {
+            List<Box> boxes = new ArrayList<>();
+            List<?> list = section.getList("boxes");
+            if (list != null) {
+                for (Object item : list) {
+                    int[] corners = toInts(item, 4);
+                    boxes.add(new Box(corners[0], corners[1], corners[2], corners[3]));
+                }
+            }
+            if (boxes.isEmpty()) {
+                throw new IllegalArgumentException("union needs a list of boxes: [minX, minZ, maxX, maxZ]");
+            }
+            region = new Union(boxes);
+            break;
+        }
+
+        default:
+            throw new IllegalArgumentException("unknown shape: " + shape);
+        }
+
+        if (region.isEmpty()) {
+            throw new IllegalArgumentException(shape + " contains no chunks");
+        }
+        if (section.contains("centre")) {
+            region.setCentre(centre[0], centre[1]);
+        }
+
+        ConfigurationSection excludeSection = section.getConfigurationSection("exclude");
+        if (excludeSection != null) {
+            Difference difference = new Difference(region, load(excludeSection));
+            difference.setCentre(region.getCentreX(), region.getCentreZ());
+            region = difference;
+        }
+        return region;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Save this Region to a configuration section, in the form read by
+     * {@link #load(ConfigurationSection)}.
+     *
+     * @param section the section.
+     */
+    public abstract void save(ConfigurationSection section);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the region contains the specified chunk.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return true if the region contains the chunk.
+     */
+    public abstract boolean contains(int chunkX, int chunkZ);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the region might contain any chunk of the specified box.
+     *
+     * The result may be true when the region does not actually intersect the
+     * box, but must not be false when it does.
+     *
+     * @param minX the minimum chunk X coordinate of the box.
+     * @param minZ the minimum chunk Z coordinate of the box.
+     * @param maxX the maximum chunk X coordinate of the box.
+     * @param maxZ the maximum chunk Z coordinate of the box.
+     * @return true if the region might intersect the box.
+     */
+    public abstract boolean intersects(int minX, int minZ, int maxX, int maxZ);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the region certainly contains every chunk of the
+     * specified box.
+     *
+     * The result may be false when the region does cover the box, but must
+     * not be true when it does not.
+     *
+     * @param minX the minimum chunk X coordinate of the box.
+     * @param minZ the minimum chunk Z coordinate of the box.
+     * @param maxX the maximum chunk X coordinate of the box.
+     * @param maxZ the maximum chunk Z coordinate of the box.
+     * @return true if the region covers the box.
+     */
+    public abstract boolean covers(int minX, int minZ, int maxX, int maxZ);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a short description of the region for status messages.
+     *
+     * @return a short description of the region.
+     */
+    public abstract String getDescription();
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the bounding box of the region is empty.
+     *
+     * @return true if the bounding box of the region is empty.
+     */
+    public boolean isEmpty() {
+        return _maxX < _minX || _maxZ < _minZ;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the minimum chunk X coordinate of the bounding box.
+     *
+     * @return the minimum chunk X coordinate of the bounding box.
+     */
+    public int getMinX() {
+        return _minX;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the minimum chunk Z coordinate of the bounding box.
+     *
+     * @return the minimum chunk Z coordinate of the bounding box.
+     */
+    public int getMinZ() {
+        return _minZ;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the maximum chunk X coordinate of the bounding box.
+     *
+     * @return the maximum chunk X coordinate of the bounding box.
+     */
+    public int getMaxX() {
+        return _maxX;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the maximum chunk Z coordinate of the bounding box.
+     *
+     * @return the maximum chunk Z coordinate of the bounding box.
+     */
+    public int getMaxZ() {
+        return _maxZ;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the chunk X coordinate of the centre of the spiral traversal.
+     *
+     * @return the chunk X coordinate of the centre.
+     */
+    public int getCentreX() {
+        return _centreX;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the chunk Z coordinate of the centre of the spiral traversal.
+     *
+     * @return the chunk Z coordinate of the centre.
+     */
+    public int getCentreZ() {
+        return _centreZ;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the centre of the spiral traversal, which need not be inside the
+     * region.
+     *
+     * @param centreX the chunk X coordinate of the centre.
+     * @param centreZ the chunk Z coordinate of the centre.
+     */
+    public void setCentre(int centreX, int centreZ) {
+        _centreX = centreX;
+        _centreZ = centreZ;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the bounding box, and a default centre in the middle of it.
+     *
+     * @param minX the minimum chunk X coordinate.
+     * @param minZ the minimum chunk Z coordinate.
+     * @param maxX the maximum chunk X coordinate.
+     * @param maxZ the maximum chunk Z coordinate.
+     */
+    protected void setBounds(int minX, int minZ, int maxX, int maxZ) {
+        _minX = minX;
+        _minZ = minZ;
+        _maxX = maxX;
+        _maxZ = maxZ;
+        _centreX = _defaultCentreX = (int) (((long) minX + maxX + 1) >> 1);
+        _centreZ = _defaultCentreZ = (int) (((long) minZ + maxZ + 1) >> 1);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Save the centre, if it is not the middle of the bounding box.
+     *
+     * @param section the section.
+     */
+    protected void saveCentre(ConfigurationSection section) {
+        if (_centreX != _defaultCentreX || _centreZ != _defaultCentreZ) {
+            section.set("centre", Arrays.asList(_centreX, _centreZ));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a list of integers from a configuration section.
+     *
+     * @param section the section.
+     * @param path the path of the list.
+     * @param count the required number of integers.
+     * @param def the default value if the path is not set, or null if it is
+     *        required.
+     * @return the integers.
+     * @throws IllegalArgumentException if the list is missing or invalid.
+     */
+    protected static int[] getInts(ConfigurationSection section, String path, int count, int[] def) {
+        if (!section.contains(path)) {
+            if (def == null) {
+                throw new IllegalArgumentException("missing " + path);
+            }
+            return def;
+        }
+        return toInts(section.get(path), count);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Convert a configuration value to a list of integers.
+     *
+     * @param value the value, which should be a list of numbers.
+     * @param count the required number of integers.
+     * @return the integers.
+     * @throws IllegalArgumentException if the value is invalid.
+     */
+    protected static int[] toInts(Object value, int count) {
+        if (value instanceof List<?>) {
+            List<?> list = (List<?>) value;
+            if (list.size() == count && list.stream().allMatch(o -> o instanceof Number)) {
+                return list.stream().mapToInt(o -> ((Number) o).intValue()).toArray();
+            }
+        }
+        throw new IllegalArgumentException("expecting a list of " + count + " integers: " + value);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A rectangle of chunks.
+     */
+    public static class Box extends Region {
+        /**
+         * Constructor.
+         *
+         * @param minX the minimum chunk X coordinate.
+         * @param minZ the minimum chunk Z coordinate.
+         * @param maxX the maximum chunk X coordinate.
+         * @param maxZ the maximum chunk Z coordinate.
+         */
+        public Box(int minX, int minZ, int maxX, int maxZ) {
+            setBounds(minX, minZ, maxX, maxZ);
+        }
+
+        @Override
+        public void save(ConfigurationSection section) {
+            long width = (long) _maxX - _minX + 1;
+            if (width == (long) _maxZ - _minZ + 1 &&
+                _minX == _centreX - width / 2 && _minZ == _centreZ - width / 2) {
+                section.set("shape", "square");
+                section.set("centre", Arrays.asList(_centreX, _centreZ));
+                section.set("side", width);
+            } else {
+                section.set("shape", "rect");
+                section.set("min", Arrays.asList(_minX, _minZ));
+                section.set("max", Arrays.asList(_maxX, _maxZ));
+                saveCentre(section);
+            }
+        }
+
+        @Override
+        public boolean contains(int chunkX, int chunkZ) {
+            return chunkX >= _minX && chunkX <= _maxX && chunkZ >= _minZ && chunkZ <= _maxZ;
+        }
+
+        @Override
+        public boolean intersects(int minX, int minZ, int maxX, int maxZ) {
+            return minX <= _maxX && maxX >= _minX && minZ <= _maxZ && maxZ >= _minZ;
+        }
+
+        @Override
+        public boolean covers(int minX, int minZ, int maxX, int maxZ) {
+            return minX >= _minX && maxX <= _maxX && minZ >= _minZ && maxZ <= _maxZ;
+        }
+
+        @Override
+        public String getDescription() {
+            return String.format("(%d, %d) to (%d, %d)", _minX, _minZ, _maxX, _maxZ);
+        }
+    } // class Box
+
+    // ------------------------------------------------------------------------
+    /**
+     * The chunks whose coordinates are within a radius of a centre chunk.
+     */
+    public static class Circle extends Region {
+        /**
+         * Constructor.
+         *
+         * @param centreX the chunk X coordinate of the centre.
+         * @param centreZ the chunk Z coordinate of the centre.
+         * @param radius the radius in chunks.
+         */
+        public Circle(int centreX, int centreZ, int radius) {
+            _circleX = centreX;
+            _circleZ = centreZ;
+            _radius = radius;
+            _radiusSquared = (long) radius * radius;
+            setBounds(centreX - radius, centreZ - radius, centreX + radius, centreZ + radius);
+        }
+
+        @Override
+        public void save(ConfigurationSection section) {
+            section.set("shape", "circle");
+            section.set("centre", Arrays.asList(_circleX, _circleZ));
+            section.set("radius", _radius);
+        }
+
+        @Override
+        public boolean contains(int chunkX, int chunkZ) {
+            long dx = (long) chunkX - _circleX;
+            long dz = (long) chunkZ - _circleZ;
+            return dx * dx + dz * dz <= _radiusSquared;
+        }
+
+        @Override
+        public boolean intersects(int minX, int minZ, int maxX, int maxZ) {
+            // The chunk of the box nearest the centre.
+            int x = Math.max(minX, Math.min(maxX, _circleX));
+            int z = Math.max(minZ, Math.min(maxZ, _circleZ));
+            return contains(x, z);
+        }
+
+        @Override
+        public boolean covers(int minX, int minZ, int maxX, int maxZ) {
+            return contains(minX, minZ) && contains(maxX, minZ) && contains(minX, maxZ) && contains(maxX, maxZ);
+        }
+
+        @Override
+        public String getDescription() {
+            return String.format("circle of radius %d at (%d, %d)", _radius, _circleX, _circleZ);
+        }
+
+        /**
+         * The chunk X coordinate of the centre of the circle.
+         */
+        protected final int _circleX;
+
+        /**
+         * The chunk Z coordinate of the centre of the circle.
+         */
+        protected final int _circleZ;
+
+        /**
+         * The radius in chunks.
+         */
+        protected final int _radius;
+
+        /**
+         * The square of the radius.
+         */
+        protected final long _radiusSquared;
+    } // class Circle
+
+    // ------------------------------------------------------------------------
+    /**
+     * The chunks in any of a list of boxes, which may overlap.
+     */
+    public static class Union extends Region {
+        /**
+         * Constructor.
+         *
+         * @param boxes the non-empty list of boxes.
+         */
+        public Union(List<Box> boxes) {
+            _boxes = boxes.toArray(new Box[boxes.size()]);
+            setBounds(boxes.stream().mapToInt(Box::getMinX).min().getAsInt(),
+                      boxes.stream().mapToInt(Box::getMinZ).min().getAsInt(),
+                      boxes.stream().mapToInt(Box::getMaxX).max().getAsInt(),
+                      boxes.stream().mapToInt(Box::getMaxZ).max().getAsInt());
+        }
+
+        @Override
+        public void save(ConfigurationSection section) {
+            section.set("shape", "union");
+            section.set("boxes", Arrays.stream(_boxes)
+                .map(b -> Arrays.asList(b._minX, b._minZ, b._maxX, b._maxZ))
+                .collect(Collectors.toList()));
+            saveCentre(section);
+        }
+
+        @Override
+        public boolean contains(int chunkX, int chunkZ) {
+            for (Box box : _boxes) {
+                if (box.contains(chunkX, chunkZ)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean intersects(int minX, int minZ, int maxX, int maxZ) {
+            for (Box box : _boxes) {
+                if (box.intersects(minX, minZ, maxX, maxZ)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean covers(int minX, int minZ, int maxX, int maxZ) {
+            for (Box box : _boxes) {
+                if (box.covers(minX, minZ, maxX, maxZ)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String getDescription() {
+            return String.format("union of %d boxes in (%d, %d) to (%d, %d)",
+                                 _boxes.length, _minX, _minZ, _maxX, _maxZ);
+        }
+
+        /**
+         * The boxes.
+         */
+        protected final Box[] _boxes;
+    } // class Union
+
+    // ------------------------------------------------------------------------
+    /**
+     * The chunks of one region that are not in another, e.g. a newly
+     * expanded ring around an already processed core.
+     */
+    public static class Difference extends Region {
+        /**
+         * Constructor.
+         *
+         * @param base the region to process.
+         * @param exclude the region excluded from it.
+         */
+        public Difference(Region base, Region exclude) {
+            _base = base;
+            _exclude = exclude;
+            setBounds(base._minX, base._minZ, base._maxX, base._maxZ);
+        }
+
+        @Override
+        public void save(ConfigurationSection section) {
+            _base.save(section);
+            if (_centreX != _base._centreX || _centreZ != _base._centreZ) {
+                section.set("centre", Arrays.asList(_centreX, _centreZ));
+            }
+            _exclude.save(section.createSection("exclude"));
+        }
+
+        @Override
+        public boolean contains(int chunkX, int chunkZ) {
+            return _base.contains(chunkX, chunkZ) && !_exclude.contains(chunkX, chunkZ);
+        }
+
+        @Override
+        public boolean intersects(int minX, int minZ, int maxX, int maxZ) {
+            return _base.intersects(minX, minZ, maxX, maxZ) && !_exclude.covers(minX, minZ, maxX, maxZ);
+        }
+
+        @Override
+        public boolean covers(int minX, int minZ, int maxX, int maxZ) {
+            return _base.covers(minX, minZ, maxX, maxZ) && !_exclude.intersects(minX, minZ, maxX, maxZ);
+        }
+
+        @Override
+        public String getDescription() {
+            return _base.getDescription() + " excluding " + _exclude.getDescription();
+        }
+
+        /**
+         * The region to process.
+         */
+        protected final Region _base;
+
+        /**
+         * The region excluded from it.
+         */
+        protected final Region _exclude;
+    } // class Difference
+
+    // ------------------------------------------------------------------------
+    /**
+     * The minimum chunk X coordinate of the bounding box.
+     */
+    protected int _minX;
+
+    /**
+     * The minimum chunk Z coordinate of the bounding box.
+     */
+    protected int _minZ;
+
+    /**
+     * The maximum chunk X coordinate of the bounding box.
+     */
+    protected int _maxX;
+
+    /**
+     * The maximum chunk Z coordinate of the bounding box.
+     */
+    protected int _maxZ;
+
+    /**
+     * The chunk X coordinate of the centre of the spiral traversal.
+     */
+    protected int _centreX;
+
+    /**
+     * The chunk Z coordinate of the centre of the spiral traversal.
+     */
+    protected int _centreZ;
+
+    /**
+     * The chunk X coordinate of the middle of the bounding box.
+     */
+    protected int _defaultCentreX;
+
+    /**
+     * The chunk Z coordinate of the middle of the bounding box.
+     */
+    protected int _defaultCentreZ;
+} // class Region
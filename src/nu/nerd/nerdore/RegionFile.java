@@ -0,0 +1,280 @@
+package nu.nerd.nerdore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+// ----------------------------------------------------------------------------
+/**
+ * The contents of an Anvil region file (r.X.Z.mca) in memory.
+ *
+ * A region file holds up to 32x32 chunks. It starts with a table of the
+ * location of each chunk, in 4 KiB sectors, then a table of the time each
+ * chunk was last saved. Each chunk is stored as its length, a compression
+ * type and the compressed NBT data.
+ *
+ * The compressed data of each chunk is kept as read, and only chunks that are
+ * replaced with {@link #setChunk(int, int, Nbt.Compound)} are recompressed, so
+ * writing the file back leaves other chunks exactly as they were. The file is
+ * written compactly, to a temporary file that is then renamed over the
+ * original.
+ */
+public class RegionFile {
+    // ------------------------------------------------------------------------
+    /**
+     * Read a region file.
+     *
+     * Chunks whose location is invalid are omitted, as Minecraft does.
+     *
+     * @param file the file.
+     * @return the region file contents.
+     * @throws IOException if the file cannot be read.
+     */
+    public static RegionFile read(File file) throws IOException {
+        RegionFile region = new RegionFile();
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long sectors = in.length() / SECTOR_BYTES;
+            if (sectors < 2) {
+                return region;
+            }
+
+            int[] locations = new int[CHUNKS];
+            for (int i = 0; i < CHUNKS; ++i) {
+                locations[i] = in.readInt();
+            }
+            for (int i = 0; i < CHUNKS; ++i) {
+                region._timestamps[i] = in.readInt();
+            }
+
+            for (int i = 0; i < CHUNKS; ++i) {
+                int offset = locations[i] >>> 8;
+                int count = locations[i] & 0xFF;
+                if (offset < 2 || count == 0 || offset + count > sectors) {
+                    continue;
+                }
+                in.seek((long) offset * SECTOR_BYTES);
+                int length = in.readInt();
+                if (length < 1 || length > count * SECTOR_BYTES - 4) {
+                    continue;
+                }
+                byte[] data = new byte[length];
+                in.readFully(data);
+                region._data[i] = data;
+            }
+        }
+        return region;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the region contains the specified chunk.
+     *
+     * @param localX the X coordinate of the chunk within the region, [0,31].
+     * @param localZ the Z coordinate of the chunk within the region, [0,31].
+     * @return true if the chunk exists.
+     */
+    public boolean hasChunk(int localX, int localZ) {
+        return _data[index(localX, localZ)] != null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Decompress and return the NBT data of a chunk.
+     *
+     * @param localX the X coordinate of the chunk within the region, [0,31].
+     * @param localZ the Z coordinate of the chunk within the region, [0,31].
+     * @return the chunk's root compound tag, or null if the chunk does not
+     *         exist.
+     * @throws IOException if the chunk is stored in an external file, or is
+     *         corrupt.
+     */
+    public Nbt.Compound getChunk(int localX, int localZ) throws IOException {
+        byte[] data = _data[index(localX, localZ)];
+        if (data == null) {
+            return null;
+        }
+
+        InputStream compressed = new ByteArrayInputStream(data, 1, data.length - 1);
+        InputStream in;
+        switch (data[0]) {
+        case GZIP:
+            in = new GZIPInputStream(compressed);
+            break;
+        case ZLIB:
+            in = new InflaterInputStream(compressed);
+            break;
+        case UNCOMPRESSED:
+            in = compressed;
+            break;
+        default:
+            throw new IOException("unsupported chunk compression type: " + data[0]);
+        }
+        try (DataInputStream nbt = new DataInputStream(in)) {
+            return Nbt.read(nbt);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Replace the NBT data of a chunk, compressing it with zlib and updating
+     * its timestamp.
+     *
+     * @param localX the X coordinate of the chunk within the region, [0,31].
+     * @param localZ the Z coordinate of the chunk within the region, [0,31].
+     * @param chunk the chunk's root compound tag.
+     * @throws IOException if the chunk cannot be compressed.
+     */
+    public void setChunk(int localX, int localZ, Nbt.Compound chunk) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(ZLIB);
+        Deflater deflater = new Deflater();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+            Nbt.write(out, chunk);
+        } finally {
+            deflater.end();
+        }
+        if (bytes.size() + 4 > MAX_SECTORS * SECTOR_BYTES) {
+            throw new IOException("chunk too large: " + bytes.size() + " bytes");
+        }
+
+        int i = index(localX, localZ);
+        _data[i] = bytes.toByteArray();
+        _timestamps[i] = (int) (System.currentTimeMillis() / 1000);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write the region file, via a temporary file that is fsynced and then
+     * renamed over the original.
+     *
+     * @param file the file.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(File file) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp);
+             DataOutputStream data = new DataOutputStream(out)) {
+            byte[] header = new byte[2 * SECTOR_BYTES];
+            int sector = 2;
+            for (int i = 0; i < CHUNKS; ++i) {
+                if (_data[i] != null) {
+                    int count = getSectorCount(_data[i]);
+                    putInt(header, i * 4, (sector << 8) | count);
+                    sector += count;
+                }
+                putInt(header, SECTOR_BYTES + i * 4, _timestamps[i]);
+            }
+            data.write(header);
+
+            for (int i = 0; i < CHUNKS; ++i) {
+                if (_data[i] != null) {
+                    data.writeInt(_data[i].length);
+                    data.write(_data[i]);
+                    int padding = getSectorCount(_data[i]) * SECTOR_BYTES - 4 - _data[i].length;
+                    data.write(new byte[padding]);
+                }
+            }
+            data.flush();
+            out.getFD().sync();
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of sectors occupied by a chunk.
+     *
+     * @param data the compression type and compressed data of the chunk.
+     * @return the number of sectors, including the length.
+     */
+    protected static int getSectorCount(byte[] data) {
+        return (4 + data.length + SECTOR_BYTES - 1) / SECTOR_BYTES;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Store a big-endian int in a byte array.
+     *
+     * @param bytes the array.
+     * @param offset the offset of the int.
+     * @param value the value.
+     */
+    protected static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of a chunk in the region's tables.
+     *
+     * @param localX the X coordinate of the chunk within the region, [0,31].
+     * @param localZ the Z coordinate of the chunk within the region, [0,31].
+     * @return the index.
+     */
+    protected static int index(int localX, int localZ) {
+        return (localZ << 5) | localX;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The size of a sector in bytes.
+     */
+    protected static final int SECTOR_BYTES = 4096;
+
+    /**
+     * The number of chunks in a region.
+     */
+    protected static final int CHUNKS = 1024;
+
+    /**
+     * The largest number of sectors that one chunk can occupy.
+     */
+    protected static final int MAX_SECTORS = 255;
+
+    /**
+     * Compression type of GZIP compressed chunks.
+     */
+    protected static final byte GZIP = 1;
+
+    /**
+     * Compression type of zlib compressed chunks.
+     */
+    protected static final byte ZLIB = 2;
+
+    /**
+     * Compression type of uncompressed chunks.
+     */
+    protected static final byte UNCOMPRESSED = 3;
+
+    /**
+     * The compression type followed by the compressed data of each chunk, or
+     * null if the chunk does not exist.
+     */
+    protected byte[][] _data = new byte[CHUNKS][];
+
+    /**
+     * The time each chunk was last saved, in seconds since the epoch.
+     */
+    protected int[] _timestamps = new int[CHUNKS];
+} // class RegionFile
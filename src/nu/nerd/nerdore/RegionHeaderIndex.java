@@ -0,0 +1,351 @@
+package nu.nerd.nerdore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.bukkit.World;
+import org.bukkit.configuration.ConfigurationSection;
+
+// ----------------------------------------------------------------------------
+/**
+ * A bitmap of the chunks of a world that have been generated and saved,
+ * built from the headers of the world's region (.mca) files.
+ *
+ * The first 4 KiB of a region file is a table of 1024 chunk locations; a zero
+ * entry means that the chunk has never been saved. {@link #scan()} maps just
+ * that table of each file, so building the index reads a few KiB per region
+ * file and never touches the chunk loader. The index keeps one 1024-bit
+ * bitmap per region file that has any chunks.
+ *
+ * The index is built off the main thread and then only used on the main
+ * thread. Chunks generated after the scan are added by
+ * {@link #add(int, int)}.
+ */
+public class RegionHeaderIndex {
+    // ------------------------------------------------------------------------
+    /**
+     * Return the folder containing the region files of a world.
+     *
+     * @param world the World.
+     * @return the region folder.
+     */
+    public static File getRegionFolder(World world) {
+        File worldFolder = world.getWorldFolder();
+        switch (world.getEnvironment()) {
+        case NETHER:
+            return new File(worldFolder, "DIM-1" + File.separator + "region");
+        case THE_END:
+            return new File(worldFolder, "DIM1" + File.separator + "region");
+        default:
+            return new File(worldFolder, "region");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param regionFolder the folder containing the region files.
+     */
+    public RegionHeaderIndex(File regionFolder) {
+        _regionFolder = regionFolder;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the location tables of all region files in the region folder.
+     *
+     * This can be called off the main thread, before the index is shared.
+     * Unreadable files are logged and treated as empty.
+     */
+    public void scan() {
+        File[] files = _regionFolder.listFiles();
+        if (files == null) {
+            NerdOre.PLUGIN.getLogger().warning("No region files in " + _regionFolder + ".");
+            return;
+        }
+
+        for (File file : files) {
+            Matcher matcher = REGION_FILE.matcher(file.getName());
+            if (!matcher.matches() || file.length() < LOCATION_TABLE_BYTES) {
+                continue;
+            }
+
+            int regionX = Integer.parseInt(matcher.group(1));
+            int regionZ = Integer.parseInt(matcher.group(2));
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                MappedByteBuffer table = channel.map(MapMode.READ_ONLY, 0, LOCATION_TABLE_BYTES);
+                long[] bits = new long[REGION_WORDS];
+                boolean any = false;
+                for (int i = 0; i < CHUNKS_PER_REGION; ++i) {
+                    if (table.getInt(i * 4) != 0) {
+                        bits[i >> 6] |= 1L << i;
+                        any = true;
+                    }
+                }
+                if (any) {
+                    _regions.put(Util.chunkKey(regionX, regionZ), bits);
+                }
+            } catch (IOException ex) {
+                NerdOre.PLUGIN.getLogger().warning("Could not read the header of " + file + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the scan has finished and the index can be used.
+     *
+     * @return true if the index can be used.
+     */
+    public boolean isReady() {
+        return _ready;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Mark the scan as finished.
+     */
+    public void setReady() {
+        _ready = true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the specified chunk has been generated.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return true if the chunk has been generated.
+     */
+    public boolean contains(int chunkX, int chunkZ) {
+        long[] bits = _regions.get(Util.chunkKey(chunkX >> REGION_SHIFT, chunkZ >> REGION_SHIFT));
+        if (bits == null) {
+            return false;
+        }
+        int i = getBitIndex(chunkX, chunkZ);
+        return (bits[i >> 6] & (1L << i)) != 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record that the specified chunk has been generated.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return true if the chunk was not already in the index.
+     */
+    public boolean add(int chunkX, int chunkZ) {
+        long[] bits = _regions.computeIfAbsent(Util.chunkKey(chunkX >> REGION_SHIFT, chunkZ >> REGION_SHIFT),
+                                               k -> new long[REGION_WORDS]);
+        int i = getBitIndex(chunkX, chunkZ);
+        boolean added = (bits[i >> 6] & (1L << i)) == 0;
+        bits[i >> 6] |= 1L << i;
+        return added;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if any region file overlapping the specified box of chunks
+     * has generated chunks.
+     *
+     * @param minX the minimum chunk X coordinate of the box.
+     * @param minZ the minimum chunk Z coordinate of the box.
+     * @param maxX the maximum chunk X coordinate of the box.
+     * @param maxZ the maximum chunk Z coordinate of the box.
+     * @return true if the box might contain generated chunks.
+     */
+    public boolean intersects(int minX, int minZ, int maxX, int maxZ) {
+        int regionX0 = minX >> REGION_SHIFT;
+        int regionZ0 = minZ >> REGION_SHIFT;
+        int regionX1 = maxX >> REGION_SHIFT;
+        int regionZ1 = maxZ >> REGION_SHIFT;
+        long regionCount = ((long) regionX1 - regionX0 + 1) * ((long) regionZ1 - regionZ0 + 1);
+        if (regionCount <= _regions.size()) {
+            for (int regionZ = regionZ0; regionZ <= regionZ1; ++regionZ) {
+                for (int regionX = regionX0; regionX <= regionX1; ++regionX) {
+                    if (_regions.containsKey(Util.chunkKey(regionX, regionZ))) {
+                        return true;
+                    }
+                }
+            }
+        } else {
+            for (long key : _regions.keySet()) {
+                int regionX = Util.chunkX(key);
+                int regionZ = Util.chunkZ(key);
+                if (regionX >= regionX0 && regionX <= regionX1 && regionZ >= regionZ0 && regionZ <= regionZ1) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of generated chunks in a region whose cursor in the
+     * specified traversal is at least the specified cursor: the chunks that
+     * remain to be processed.
+     *
+     * @param region the region.
+     * @param traversal the traversal.
+     * @param cursor the cursor of the next chunk to process.
+     * @return the number of generated chunks remaining.
+     */
+    public long countRemaining(Region region, Traversal traversal, long cursor) {
+        long count = 0;
+        for (Entry<Long, long[]> entry : _regions.entrySet()) {
+            int x0 = Util.chunkX(entry.getKey()) << REGION_SHIFT;
+            int z0 = Util.chunkZ(entry.getKey()) << REGION_SHIFT;
+            int x1 = x0 + REGION_CHUNKS - 1;
+            int z1 = z0 + REGION_CHUNKS - 1;
+            if (!region.intersects(x0, z0, x1, z1)) {
+                continue;
+            }
+
+            long[] bits = entry.getValue();
+            for (int i = 0; i < CHUNKS_PER_REGION; ++i) {
+                if ((bits[i >> 6] & (1L << i)) != 0) {
+                    int x = x0 + (i & (REGION_CHUNKS - 1));
+                    int z = z0 + (i >> REGION_SHIFT);
+                    if (region.contains(x, z) && traversal.getCursor(x, z, region) >= cursor) {
+                        ++count;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a view of a region that contains only its generated chunks.
+     *
+     * The view has the same bounding box and centre as the region, so
+     * traversal cursors are unchanged.
+     *
+     * @param region the region.
+     * @return the generated chunks of the region.
+     */
+    public Region filter(Region region) {
+        return new GeneratedRegion(region);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The generated chunks of a region.
+     */
+    protected class GeneratedRegion extends Region {
+        /**
+         * Constructor.
+         *
+         * @param region the region.
+         */
+        GeneratedRegion(Region region) {
+            _region = region;
+            setBounds(region.getMinX(), region.getMinZ(), region.getMaxX(), region.getMaxZ());
+            setCentre(region.getCentreX(), region.getCentreZ());
+        }
+
+        @Override
+        public void save(ConfigurationSection section) {
+            _region.save(section);
+        }
+
+        @Override
+        public boolean contains(int chunkX, int chunkZ) {
+            return _region.contains(chunkX, chunkZ) && RegionHeaderIndex.this.contains(chunkX, chunkZ);
+        }
+
+        @Override
+        public boolean intersects(int minX, int minZ, int maxX, int maxZ) {
+            return _region.intersects(minX, minZ, maxX, maxZ) &&
+                   RegionHeaderIndex.this.intersects(minX, minZ, maxX, maxZ);
+        }
+
+        @Override
+        public boolean covers(int minX, int minZ, int maxX, int maxZ) {
+            return false;
+        }
+
+        @Override
+        public String getDescription() {
+            return "generated chunks of " + _region.getDescription();
+        }
+
+        /**
+         * The region.
+         */
+        protected final Region _region;
+    } // class GeneratedRegion
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of a chunk's bit in its region's bitmap, which is also
+     * the index of its entry in the region file's location table.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return the bit index.
+     */
+    protected static int getBitIndex(int chunkX, int chunkZ) {
+        return (chunkX & (REGION_CHUNKS - 1)) + ((chunkZ & (REGION_CHUNKS - 1)) << REGION_SHIFT);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Pattern matching region file names, capturing the region coordinates.
+     */
+    protected static final Pattern REGION_FILE = Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.mca");
+
+    /**
+     * Number of chunks along the side of a region file.
+     */
+    protected static final int REGION_CHUNKS = 32;
+
+    /**
+     * Shift converting chunk coordinates to region coordinates.
+     */
+    protected static final int REGION_SHIFT = 5;
+
+    /**
+     * Number of chunks in a region file.
+     */
+    protected static final int CHUNKS_PER_REGION = REGION_CHUNKS * REGION_CHUNKS;
+
+    /**
+     * Number of longs in the bitmap of one region file.
+     */
+    protected static final int REGION_WORDS = CHUNKS_PER_REGION / 64;
+
+    /**
+     * Size of the chunk location table at the start of a region file.
+     */
+    protected static final int LOCATION_TABLE_BYTES = CHUNKS_PER_REGION * 4;
+
+    /**
+     * The folder containing the region files.
+     */
+    protected final File _regionFolder;
+
+    /**
+     * Map from region key ({@link Util#chunkKey(int, int)} of the region
+     * coordinates) to a bitmap of generated chunks, indexed by
+     * {@link #getBitIndex(int, int)}.
+     */
+    protected final Map<Long, long[]> _regions = new HashMap<>();
+
+    /**
+     * True once the scan has finished.
+     */
+    protected boolean _ready;
+} // class RegionHeaderIndex
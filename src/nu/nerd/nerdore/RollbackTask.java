@@ -0,0 +1,320 @@
+package nu.nerd.nerdore;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.CreatureSpawner;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.command.CommandSender;
+
+// ----------------------------------------------------------------------------
+/**
+ * Rolls back the changes recorded in the {@link UndoJournal}, one region file
+ * at a time, restoring a limited number of blocks per tick.
+ *
+ * The changes of each region file are read by the journal's background
+ * writer, then restored on the main thread in the reverse of the order in
+ * which they were made. A block is only restored if it still has the
+ * Material that NerdOre placed. Once a region file's changes are restored,
+ * the chunks that were processed by the rolled back jobs are marked as
+ * unprocessed and the changes are removed from the journal.
+ *
+ * Ore that was queued in {@link DeferredWrites} but not yet placed is
+ * discarded: all of a job's queued ore when the job's rollback starts, or the
+ * ore queued for a region file's chunks once that region file is rolled back.
+ *
+ * Runs every tick; does nothing unless a rollback has been started.
+ */
+public class RollbackTask implements Runnable {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param workingSet the working set that records chunks loaded to restore
+     *        blocks.
+     */
+    public RollbackTask(ChunkWorkingSet workingSet) {
+        _workingSet = workingSet;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a rollback is in progress.
+     *
+     * @return true if a rollback is in progress.
+     */
+    public boolean isRunning() {
+        return _worldName != null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the name of the world being rolled back.
+     *
+     * @return the name of the world, or null if no rollback is in progress.
+     */
+    public String getWorldName() {
+        return _worldName;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start rolling back the changes of a job, or of all jobs in one region
+     * file.
+     *
+     * @param sender receives a message when the rollback finishes.
+     * @param description describes what is rolled back, in messages.
+     * @param worldName the name of the world.
+     * @param jobId the ID of the job, or null for all jobs.
+     * @param regions a future list of the keys of the region files to roll
+     *        back.
+     */
+    public void start(CommandSender sender, String description, String worldName, String jobId,
+                      CompletableFuture<List<Long>> regions) {
+        _sender = sender;
+        _description = description;
+        _worldName = worldName;
+        _jobId = jobId;
+        _regionsFuture = regions;
+        _regions.clear();
+        _changes = null;
+        _loading = null;
+        _restored = 0;
+        _skipped = 0;
+        _discarded = (jobId != null) ? NerdOre.DEFERRED.removeJob(worldName, jobId) : 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a description of the progress of the rollback.
+     *
+     * @return a description of the progress.
+     */
+    public String getProgress() {
+        return String.format("rolling back %s: %d block(s) restored, %d skipped, %d queued ore block(s) " +
+                             "discarded, %d region file(s) remaining",
+                             _description, _restored, _skipped, _discarded,
+                             _regions.size() + (_changes != null || _loading != null ? 1 : 0));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+        if (_worldName == null) {
+            return;
+        }
+        World world = Bukkit.getWorld(_worldName);
+        if (world == null) {
+            finish(ChatColor.RED + "The world " + _worldName + " is no longer loaded; stopped " +
+                   getProgress() + ".");
+            return;
+        }
+
+        if (_regionsFuture != null) {
+            if (!_regionsFuture.isDone()) {
+                return;
+            }
+            List<Long> regions = _regionsFuture.join();
+            _regionsFuture = null;
+            if (regions != null) {
+                _regions.addAll(regions);
+            }
+        }
+
+        int budget = NerdOre.CONFIG.UNDO_ROLLBACK_BLOCKS;
+        while (budget > 0) {
+            if (_changes == null) {
+                if (_loading == null) {
+                    if (_regions.isEmpty()) {
+                        finish(ChatColor.GREEN + NerdOre.PLUGIN.getName() + ": finished " + getProgress() + ".");
+                        return;
+                    }
+                    long region = _regions.peekFirst();
+                    _loading = NerdOre.UNDO.read(_worldName, Util.chunkX(region), Util.chunkZ(region), _jobId);
+                }
+                if (!_loading.isDone()) {
+                    return;
+                }
+                _changes = _loading.join();
+                _loading = null;
+                if (_changes == null) {
+                    finish(ChatColor.RED + NerdOre.PLUGIN.getName() + ": unable to read the undo journal; stopped " +
+                           getProgress() + ".");
+                    return;
+                }
+                _next = _changes.size() - 1;
+            }
+
+            for (; _next >= 0 && budget > 0; --_next, --budget) {
+                restore(world, _next);
+            }
+            if (_next < 0) {
+                long region = _regions.removeFirst();
+                for (long chunkKey : _changes._processedChunks) {
+                    NerdOre.PROCESSED.setUnprocessed(_worldName, Util.chunkX(chunkKey), Util.chunkZ(chunkKey));
+                }
+                NerdOre.UNDO.remove(_worldName, Util.chunkX(region), Util.chunkZ(region), _jobId);
+                if (_jobId == null) {
+                    _discarded += NerdOre.DEFERRED.removeRegion(_worldName, Util.chunkX(region), Util.chunkZ(region));
+                }
+                _changes = null;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Restore one block, if it still has the Material that NerdOre placed.
+     *
+     * @param world the World.
+     * @param i the index of the change in _changes.
+     */
+    protected void restore(World world, int i) {
+        UndoJournal.Changes changes = _changes;
+        int x = changes._xs[i];
+        int z = changes._zs[i];
+        Chunk chunk = loadChunk(world, x >> 4, z >> 4);
+        if (chunk == null) {
+            ++_skipped;
+            return;
+        }
+
+        Block block = chunk.getBlock(x & 15, changes._ys[i], z & 15);
+        if (block.getType() != changes._placed[i]) {
+            ++_skipped;
+            return;
+        }
+
+        Material original = changes._originals[i];
+        Object state = changes._states[i];
+        if (state instanceof BlockData) {
+            block.setBlockData((BlockData) state, false);
+        } else {
+            block.setType(original, false);
+        }
+        if (state instanceof UndoJournal.SpawnerSettings) {
+            BlockState blockState = block.getState();
+            if (blockState instanceof CreatureSpawner) {
+                ((UndoJournal.SpawnerSettings) state).apply((CreatureSpawner) blockState);
+            }
+        }
+        ++_restored;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the specified chunk, loading it without generating it if
+     * necessary.
+     *
+     * @param world the World.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return the Chunk, or null if it does not exist.
+     */
+    protected Chunk loadChunk(World world, int chunkX, int chunkZ) {
+        if (world.isChunkLoaded(chunkX, chunkZ)) {
+            _workingSet.touch(world, chunkX, chunkZ);
+        } else if (world.loadChunk(chunkX, chunkZ, false)) {
+            _workingSet.add(world, chunkX, chunkZ);
+        } else {
+            return null;
+        }
+        return world.getChunkAt(chunkX, chunkZ);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * End the rollback, informing the sender and logging the message.
+     *
+     * @param message the message.
+     */
+    protected void finish(String message) {
+        _sender.sendMessage(message);
+        NerdOre.PLUGIN.getLogger().info(ChatColor.stripColor(message));
+        _worldName = null;
+        _sender = null;
+        _changes = null;
+        _loading = null;
+        _regionsFuture = null;
+        _regions.clear();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The working set that records chunks loaded to restore blocks.
+     */
+    protected final ChunkWorkingSet _workingSet;
+
+    /**
+     * Receives a message when the rollback finishes.
+     */
+    protected CommandSender _sender;
+
+    /**
+     * Describes what is rolled back.
+     */
+    protected String _description;
+
+    /**
+     * The name of the world; null if no rollback is in progress.
+     */
+    protected String _worldName;
+
+    /**
+     * The ID of the job whose changes are rolled back, or null for all jobs.
+     */
+    protected String _jobId;
+
+    /**
+     * The future keys of the region files to roll back, until they are
+     * known.
+     */
+    protected CompletableFuture<List<Long>> _regionsFuture;
+
+    /**
+     * Keys of the region files that remain to be rolled back, starting with
+     * the current one.
+     */
+    protected final ArrayDeque<Long> _regions = new ArrayDeque<>();
+
+    /**
+     * The future changes of the current region file, while they are read.
+     */
+    protected CompletableFuture<UndoJournal.Changes> _loading;
+
+    /**
+     * The changes of the current region file, once read.
+     */
+    protected UndoJournal.Changes _changes;
+
+    /**
+     * The index of the next change to restore, counting down.
+     */
+    protected int _next;
+
+    /**
+     * The number of blocks restored.
+     */
+    protected long _restored;
+
+    /**
+     * The number of blocks skipped because they had changed since.
+     */
+    protected long _skipped;
+
+    /**
+     * The number of queued ore blocks discarded from {@link DeferredWrites}.
+     */
+    protected long _discarded;
+} // class RollbackTask
@@ -21,7 +21,7 @@ public abstract class Rule {
      * @param section the ConfigurationSection.
      */
     protected void load(ConfigurationSection section) {
-        Logger logger = NerdOre.PLUGIN.getLogger();
+        Logger logger = Util.getLogger();
 
         _enabled = section.getBoolean("enabled", true);
         _minHeight = section.getInt("min-height", 0);
@@ -35,7 +35,7 @@ public abstract class Rule {
             _minHeight = 0;
         }
         if (_maxHeight < _minHeight) {
-            NerdOre.PLUGIN.getLogger().severe("max-height clamped to at least min-height.");
+            Util.getLogger().severe("max-height clamped to at least min-height.");
             _maxHeight = _minHeight;
         }
         if (_maxHeight > 255) {
@@ -48,6 +48,31 @@ public abstract class Rule {
         }
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return the ID of this rule: its position in the configured list of
+     * rules of its kind for its world, counting disabled and invalid rules.
+     *
+     * The ID identifies the rule's random number streams, so that enabling or
+     * disabling a rule does not change the numbers drawn for other rules.
+     *
+     * @return the ID of this rule.
+     */
+    public int getId() {
+        return _id;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the ID of this rule.
+     *
+     * @param id the ID.
+     * @see #getId()
+     */
+    public void setId(int id) {
+        _id = id;
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Return true if this rule is enabled.
@@ -66,6 +91,24 @@ public abstract class Rule {
      */
     public abstract boolean isValid();
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return the live statistics of this rule.
+     *
+     * @return the statistics.
+     */
+    public RuleStats getStats() {
+        return _stats;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the statistics counters that apply to this kind of rule.
+     *
+     * @return the counters, in the order they are reported.
+     */
+    public abstract RuleStats.Counter[] getCounters();
+
     // ------------------------------------------------------------------------
     /**
      * Return the minimum Y coordinate of blocks affected by this rule.
@@ -176,6 +219,11 @@ public abstract class Rule {
     }
 
     // ------------------------------------------------------------------------
+    /**
+     * The position of this rule in the configured list of rules.
+     */
+    protected int _id;
+
     /**
      * True if this rule is enabled.
      */
@@ -207,4 +255,8 @@ public abstract class Rule {
      */
     protected boolean _logged;
 
+    /**
+     * The live statistics of this rule.
+     */
+    protected final RuleStats _stats = new RuleStats();
 } // class Rule
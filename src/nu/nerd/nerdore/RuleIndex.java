@@ -0,0 +1,114 @@
+package nu.nerd.nerdore;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import org.bukkit.block.Biome;
+
+// ----------------------------------------------------------------------------
+/**
+ * The enabled {@link Rule}s of one world, indexed by the biomes that they
+ * affect.
+ *
+ * Instances are built when the configuration is loaded and are immutable
+ * thereafter, so they can be shared with worker threads.
+ *
+ * @param <R> the type of Rule.
+ */
+public class RuleIndex<R extends Rule> {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param rules all rules, including disabled ones, in configuration order.
+     * @param newArray a function to create an array of R of a given length.
+     */
+    public RuleIndex(List<R> rules, IntFunction<R[]> newArray) {
+        _rules = rules.stream().filter(Rule::isEnabled).toArray(newArray);
+
+        Biome[] biomes = Biome.values();
+        _affects = new boolean[_rules.length][biomes.length];
+        for (Biome biome : biomes) {
+            List<R> biomeRules = new ArrayList<>();
+            for (int r = 0; r < _rules.length; ++r) {
+                if (_rules[r].affectsBiome(biome)) {
+                    _affects[r][biome.ordinal()] = true;
+                    biomeRules.add(_rules[r]);
+                }
+            }
+            _byBiome.put(biome, biomeRules.toArray(newArray.apply(biomeRules.size())));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the enabled rules in the order they are applied.
+     *
+     * @return the enabled rules in the order they are applied.
+     */
+    public R[] getRules() {
+        return _rules;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the enabled rules that affect the specified biome, in the order
+     * they are applied.
+     *
+     * @param biome the biome.
+     * @return the rules that affect the biome.
+     */
+    public R[] getRules(Biome biome) {
+        return _byBiome.get(biome);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the rule at the specified index in {@link #getRules()}
+     * affects the specified biome.
+     *
+     * @param ruleIndex the index of the rule.
+     * @param biome the biome.
+     * @return true if the rule affects the biome.
+     */
+    public boolean affects(int ruleIndex, Biome biome) {
+        return _affects[ruleIndex][biome.ordinal()];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a table, indexed by the index of each rule, that is true for the
+     * rules that affect at least one column of a chunk.
+     *
+     * @param biomes the biomes of the chunk.
+     * @return a table of the rules active in the chunk.
+     */
+    public boolean[] getActiveRules(BiomeGrid biomes) {
+        boolean[] active = new boolean[_rules.length];
+        for (Biome biome : biomes.getDistinctBiomes()) {
+            for (int r = 0; r < _rules.length; ++r) {
+                active[r] |= _affects[r][biome.ordinal()];
+            }
+        }
+        return active;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The enabled rules in the order they are applied.
+     */
+    protected R[] _rules;
+
+    /**
+     * Map from biome to the enabled rules that affect it.
+     */
+    protected EnumMap<Biome, R[]> _byBiome = new EnumMap<>(Biome.class);
+
+    /**
+     * Table indexed by rule index and biome ordinal that is true if the rule
+     * affects the biome.
+     */
+    protected boolean[][] _affects;
+} // class RuleIndex
@@ -0,0 +1,187 @@
+package nu.nerd.nerdore;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// ----------------------------------------------------------------------------
+/**
+ * Live counters and a latency histogram of the work done by one {@link Rule}.
+ *
+ * The counters are striped, so they can be updated from any thread without
+ * contention. The histogram records the main thread time that the rule took
+ * in each chunk where it did any work.
+ *
+ * Rules are recreated when the configuration is reloaded, so their statistics
+ * start again from zero.
+ */
+public class RuleStats {
+    // ------------------------------------------------------------------------
+    /**
+     * The quantities counted for each rule.
+     */
+    public enum Counter {
+        /**
+         * Blocks in the Y range of a clear rule, in columns of affected
+         * biomes, in processed chunks.
+         */
+        SCANNED("scanned"),
+
+        /**
+         * Blocks that matched a clear rule's Material and block state.
+         */
+        MATCHED("matched"),
+
+        /**
+         * Matched blocks left alone because of a clear rule's probability.
+         */
+        REJECTED("rejected"),
+
+        /**
+         * Blocks replaced by a clear rule.
+         */
+        REPLACED("replaced"),
+
+        /**
+         * Ore deposits that an ore rule attempted to place.
+         */
+        DEPOSITS("deposits"),
+
+        /**
+         * Ore blocks placed, or deferred to unloaded chunks, by an ore rule.
+         */
+        PLACED("placed"),
+
+        /**
+         * Deposit blocks not placed because the host block was not
+         * replaceable.
+         */
+        HOST_REJECTED("host-rejected");
+
+        /**
+         * Constructor.
+         *
+         * @param displayName the name shown to users.
+         */
+        Counter(String displayName) {
+            _displayName = displayName;
+        }
+
+        /**
+         * Return the name shown to users.
+         *
+         * @return the name shown to users.
+         */
+        public String getDisplayName() {
+            return _displayName;
+        }
+
+        /**
+         * The name shown to users.
+         */
+        private final String _displayName;
+    } // enum Counter
+
+    // ------------------------------------------------------------------------
+    /**
+     * The counters that apply to {@link ClearRule}s.
+     */
+    public static final Counter[] CLEAR_COUNTERS = { Counter.SCANNED, Counter.MATCHED, Counter.REJECTED,
+                                                     Counter.REPLACED };
+
+    /**
+     * The counters that apply to {@link OreRule}s.
+     */
+    public static final Counter[] ORE_COUNTERS = { Counter.DEPOSITS, Counter.PLACED, Counter.HOST_REJECTED };
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     */
+    public RuleStats() {
+        for (int i = 0; i < _counters.length; ++i) {
+            _counters[i] = new LongAdder();
+        }
+        _sinceNanos = System.nanoTime();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add one to a counter.
+     *
+     * @param counter the counter.
+     */
+    public void increment(Counter counter) {
+        _counters[counter.ordinal()].increment();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add to a counter.
+     *
+     * @param counter the counter.
+     * @param amount the amount to add.
+     */
+    public void add(Counter counter, long amount) {
+        _counters[counter.ordinal()].add(amount);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the value of a counter.
+     *
+     * @param counter the counter.
+     * @return the value of the counter.
+     */
+    public long get(Counter counter) {
+        return _counters[counter.ordinal()].sum();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the histogram of the main thread time taken by the rule in each
+     * chunk.
+     *
+     * @return the histogram.
+     */
+    public LatencyHistogram getChunkNanos() {
+        return _chunkNanos;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the time over which the statistics have been gathered.
+     *
+     * @return the time since the statistics were created or reset, in
+     *         seconds.
+     */
+    public double getSeconds() {
+        return (System.nanoTime() - _sinceNanos) / 1e9;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Reset the counters and histogram to zero.
+     */
+    public void reset() {
+        for (LongAdder counter : _counters) {
+            counter.reset();
+        }
+        _chunkNanos.reset();
+        _sinceNanos = System.nanoTime();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The counters, indexed by {@link Counter} ordinal.
+     */
+    protected final LongAdder[] _counters = new LongAdder[Counter.values().length];
+
+    /**
+     * The main thread time taken by the rule in each chunk.
+     */
+    protected final LatencyHistogram _chunkNanos = new LatencyHistogram();
+
+    /**
+     * The System.nanoTime() when the statistics were created or reset.
+     */
+    protected volatile long _sinceNanos;
+} // class RuleStats
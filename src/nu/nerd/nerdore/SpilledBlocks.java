@@ -0,0 +1,164 @@
+package nu.nerd.nerdore;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bukkit.Material;
+
+// ----------------------------------------------------------------------------
+/**
+ * The ore blocks that the deposits of one chunk queued in
+ * {@link DeferredWrites}, because they fell in chunks that were not loaded.
+ *
+ * They are written in the chunk's {@link ProgressJournal} record, so that a
+ * chunk recovered from the journal after a crash also recovers the blocks it
+ * queued, which are otherwise only saved with the whole queue when the
+ * journal is compacted.
+ *
+ * In a record, blocks are stored relative to the origin of the chunk, after a
+ * table of the names of their Materials.
+ */
+public class SpilledBlocks {
+    // ------------------------------------------------------------------------
+    /**
+     * The most blocks written in one journal record, which keeps the record
+     * well below the journal's limit of 65535 bytes.
+     */
+    public static final int MAX_RECORDED = 4096;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the blocks written by {@link #write(DataOutputStream, int, int)}.
+     *
+     * Blocks whose Material no longer exists are dropped.
+     *
+     * @param in the stream.
+     * @param chunkX the chunk X coordinate of the chunk that spilled them.
+     * @param chunkZ the chunk Z coordinate of the chunk that spilled them.
+     * @return the blocks.
+     * @throws IOException if the stream cannot be read.
+     */
+    public static SpilledBlocks read(DataInputStream in, int chunkX, int chunkZ) throws IOException {
+        SpilledBlocks spills = new SpilledBlocks();
+        int materialCount = in.readUnsignedShort();
+        Material[] materials = new Material[materialCount];
+        for (int i = 0; i < materialCount; ++i) {
+            String name = in.readUTF();
+            try {
+                materials[i] = Material.valueOf(name);
+            } catch (IllegalArgumentException ex) {
+                materials[i] = null;
+            }
+        }
+
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; ++i) {
+            Material material = materials[in.readUnsignedShort()];
+            int x = chunkX * 16 + in.readShort();
+            int y = in.readUnsignedByte();
+            int z = chunkZ * 16 + in.readShort();
+            if (material != null) {
+                spills.add(x, y, z, material);
+            }
+        }
+        return spills;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record a queued block.
+     *
+     * @param x the world X coordinate.
+     * @param y the world Y coordinate.
+     * @param z the world Z coordinate.
+     * @param material the Material to place.
+     */
+    public void add(int x, int y, int z, Material material) {
+        if (_size * 4 == _blocks.length) {
+            _blocks = Arrays.copyOf(_blocks, Math.max(32, _blocks.length * 2));
+        }
+        int i = _size++ * 4;
+        _blocks[i] = x;
+        _blocks[i + 1] = y;
+        _blocks[i + 2] = z;
+        _blocks[i + 3] = material.ordinal();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of blocks.
+     *
+     * @return the number of blocks.
+     */
+    public int size() {
+        return _size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Queue all of the blocks in the specified {@link DeferredWrites}.
+     *
+     * @param deferred the queue.
+     * @param worldName the name of the world of the blocks.
+     * @param jobId the ID of the job that queued the blocks.
+     */
+    public void addTo(DeferredWrites deferred, String worldName, String jobId) {
+        Material[] materials = Material.values();
+        for (int i = 0; i < _size * 4; i += 4) {
+            deferred.add(worldName, jobId, _blocks[i], _blocks[i + 1], _blocks[i + 2], materials[_blocks[i + 3]]);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write up to {@link #MAX_RECORDED} blocks to a journal record.
+     *
+     * @param out the stream.
+     * @param chunkX the chunk X coordinate of the chunk that spilled them.
+     * @param chunkZ the chunk Z coordinate of the chunk that spilled them.
+     * @return the number of blocks written.
+     * @throws IOException if the stream cannot be written.
+     */
+    public int write(DataOutputStream out, int chunkX, int chunkZ) throws IOException {
+        int count = Math.min(_size, MAX_RECORDED);
+        Material[] allMaterials = Material.values();
+        List<Material> materials = new ArrayList<>();
+        int[] materialIndices = new int[allMaterials.length];
+        Arrays.fill(materialIndices, -1);
+        for (int i = 0; i < count * 4; i += 4) {
+            int ordinal = _blocks[i + 3];
+            if (materialIndices[ordinal] < 0) {
+                materialIndices[ordinal] = materials.size();
+                materials.add(allMaterials[ordinal]);
+            }
+        }
+
+        out.writeShort(materials.size());
+        for (Material material : materials) {
+            out.writeUTF(material.name());
+        }
+        out.writeShort(count);
+        for (int i = 0; i < count * 4; i += 4) {
+            out.writeShort(materialIndices[_blocks[i + 3]]);
+            out.writeShort(_blocks[i] - chunkX * 16);
+            out.writeByte(_blocks[i + 1]);
+            out.writeShort(_blocks[i + 2] - chunkZ * 16);
+        }
+        return count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The X, Y, Z coordinates and Material ordinal of each block.
+     */
+    protected int[] _blocks = new int[0];
+
+    /**
+     * The number of blocks.
+     */
+    protected int _size;
+} // class SpilledBlocks
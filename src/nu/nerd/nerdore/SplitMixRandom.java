@@ -0,0 +1,135 @@
+package nu.nerd.nerdore;
+
+import java.util.Random;
+
+// ----------------------------------------------------------------------------
+/**
+ * A fast, unsynchronised Random based on the SplitMix64 generator.
+ *
+ * Each instance is an independent stream of random numbers that is meant to
+ * be used by one thread. Streams are derived from the ore generation seed, the
+ * world, the chunk coordinates and a rule, by {@link #streamSeed}, so that the
+ * numbers drawn for a chunk do not depend on restarts, the order in which
+ * chunks are processed, or which thread processes them.
+ *
+ * The class extends Random so that it can be passed to existing code, but
+ * overrides the generator itself, so the sequence differs from
+ * java.util.Random for the same seed.
+ */
+public class SplitMixRandom extends Random {
+    // ------------------------------------------------------------------------
+    /**
+     * Stream kind of the positions and shapes of an {@link OreRule}'s deposits.
+     */
+    public static final int ORE_STREAM = 1;
+
+    /**
+     * Stream kind of the probability checks of a {@link ClearRule}.
+     */
+    public static final int CLEAR_STREAM = 2;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the seed of the stream for a rule in a chunk.
+     *
+     * @param seed the ore generation seed.
+     * @param worldName the name of the world.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @param kind the kind of stream, e.g. {@link #ORE_STREAM}.
+     * @param ruleId the rule's {@link Rule#getId() ID}.
+     * @return the seed of the stream.
+     */
+    public static long streamSeed(long seed, String worldName, int chunkX, int chunkZ, int kind, int ruleId) {
+        long h = mix64(seed + GOLDEN_GAMMA);
+        h = mix64(h ^ worldName.hashCode());
+        h = mix64(h ^ Util.chunkKey(chunkX, chunkZ));
+        return mix64(h ^ ((long) kind << 32 | (ruleId & 0xFFFF_FFFFL)));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The SplitMix64 finaliser: a bijective mix of the bits of a long.
+     *
+     * @param z the value to mix.
+     * @return the mixed value.
+     */
+    public static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param seed the seed.
+     */
+    public SplitMixRandom(long seed) {
+        super(seed);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a new, independent stream, seeded from this one.
+     *
+     * @return a new stream.
+     */
+    public SplitMixRandom split() {
+        return new SplitMixRandom(mix64(nextLong() ^ GOLDEN_GAMMA));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see java.util.Random#setSeed(long)
+     *
+     * Called by the Random constructor.
+     */
+    @Override
+    public synchronized void setSeed(long seed) {
+        super.setSeed(seed);
+        _state = seed;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see java.util.Random#nextLong()
+     */
+    @Override
+    public long nextLong() {
+        _state += GOLDEN_GAMMA;
+        return mix64(_state);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see java.util.Random#nextDouble()
+     *
+     * Uses a single 64-bit draw rather than two.
+     */
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see java.util.Random#next(int)
+     */
+    @Override
+    protected int next(int bits) {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The increment of the generator state: 2^64 divided by the golden ratio.
+     */
+    protected static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /**
+     * The generator state.
+     */
+    protected long _state;
+} // class SplitMixRandom
@@ -0,0 +1,227 @@
+package nu.nerd.nerdore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// ----------------------------------------------------------------------------
+/**
+ * Writes the configuration and state files on a background thread.
+ *
+ * The caller serialises the file's contents on the main thread, which is
+ * cheap, and the writer does the slow part: writing and fsyncing. Writes are
+ * coalesced: a write waits a short time before it starts, and contents
+ * submitted for a file before its write starts replace the earlier contents,
+ * so a burst of changes costs one write.
+ *
+ * Each file is written to a temporary file in the same folder, fsynced, and
+ * then renamed over the original, so a crash leaves either the old or the new
+ * contents, never a mixture.
+ */
+public class StateWriter {
+    // ------------------------------------------------------------------------
+    /**
+     * Start the background writer, if it is not already running.
+     */
+    public synchronized void start() {
+        if (_writer == null) {
+            _writer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "NerdOre State Writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write a file in the background, replacing any contents waiting to be
+     * written to the same file.
+     *
+     * If the background writer is not running, the file is written
+     * immediately.
+     *
+     * @param file the file.
+     * @param contents the new contents of the file.
+     * @param afterWrite if not null, run on the writer's thread once the
+     *        contents are on disk; not run if the write fails.
+     */
+    public void write(File file, String contents, Runnable afterWrite) {
+        synchronized (this) {
+            PendingWrite pending = _pending.computeIfAbsent(file, k -> new PendingWrite());
+            pending._contents = contents;
+            if (afterWrite != null) {
+                pending._afterWrite.add(afterWrite);
+            }
+
+            if (_writer != null) {
+                if (!_scheduled) {
+                    _scheduled = true;
+                    _writer.schedule(this::writePending, COALESCE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+        }
+        writePending();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write everything that is waiting, on the caller's thread.
+     *
+     * This is used before files are read back, e.g. when the configuration
+     * is reloaded.
+     */
+    public void flush() {
+        writePending();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop the background writer and write everything that is waiting.
+     *
+     * This is called when the plugin is disabled; later writes are done
+     * immediately, until {@link #start()} is called again.
+     */
+    public void drain() {
+        ScheduledExecutorService writer;
+        synchronized (this) {
+            writer = _writer;
+            _writer = null;
+        }
+        if (writer != null) {
+            writer.shutdown();
+            try {
+                writer.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        writePending();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write all files that are waiting, then run their callbacks.
+     */
+    protected void writePending() {
+        // Writes are serialised, since flush() and drain() write on the
+        // caller's thread. Taking the pending contents under the same lock
+        // ensures that older contents are never written after newer ones.
+        synchronized (_writeLock) {
+            Map<File, PendingWrite> pending;
+            synchronized (this) {
+                _scheduled = false;
+                if (_pending.isEmpty()) {
+                    return;
+                }
+                pending = _pending;
+                _pending = new LinkedHashMap<>();
+            }
+
+            for (Map.Entry<File, PendingWrite> entry : pending.entrySet()) {
+                try {
+                    writeAtomically(entry.getKey(), entry.getValue()._contents);
+                } catch (IOException ex) {
+                    NerdOre.PLUGIN.getLogger().severe("Unable to write " + entry.getKey() + ": " + ex.getMessage());
+                    continue;
+                }
+                for (Runnable afterWrite : entry.getValue()._afterWrite) {
+                    afterWrite.run();
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write a file via a temporary file that is fsynced and then renamed over
+     * the original.
+     *
+     * @param file the file.
+     * @param contents the new contents.
+     * @throws IOException if the file cannot be written.
+     */
+    protected static void writeAtomically(File file, String contents) throws IOException {
+        writeAtomically(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write a binary file via a temporary file that is fsynced and then
+     * renamed over the original.
+     *
+     * @param file the file.
+     * @param contents the new contents.
+     * @throws IOException if the file cannot be written.
+     */
+    protected static void writeAtomically(File file, byte[] contents) throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(contents);
+            out.getFD().sync();
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The contents waiting to be written to one file.
+     */
+    protected static final class PendingWrite {
+        /**
+         * The latest contents.
+         */
+        String _contents;
+
+        /**
+         * Callbacks to run after the contents are written.
+         */
+        final List<Runnable> _afterWrite = new ArrayList<>();
+    } // class PendingWrite
+
+    // ------------------------------------------------------------------------
+    /**
+     * Time in milliseconds that a write waits for further changes before it
+     * starts.
+     */
+    protected static final long COALESCE_MILLIS = 250;
+
+    /**
+     * The background writer, or null if not running.
+     */
+    protected ScheduledExecutorService _writer;
+
+    /**
+     * Map from file to the contents waiting to be written, in submission
+     * order.
+     */
+    protected Map<File, PendingWrite> _pending = new LinkedHashMap<>();
+
+    /**
+     * True if a write of the pending files has been scheduled.
+     */
+    protected boolean _scheduled;
+
+    /**
+     * Serialises writes.
+     */
+    protected final Object _writeLock = new Object();
+} // class StateWriter
@@ -0,0 +1,288 @@
+package nu.nerd.nerdore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+
+// ----------------------------------------------------------------------------
+/**
+ * Live processing statistics: a histogram of the main thread time taken by
+ * each chunk, and access to the {@link RuleStats} of the configured rules.
+ *
+ * Rules are named after their position in the configuration:
+ * {@code <rules>.clear.<n>} or {@code <rules>.generate.<n>}, where
+ * {@code <rules>} is a world name or "default" and {@code <n>} is the
+ * {@link Rule#getId()}, counting from 0.
+ */
+public class Statistics {
+    // ------------------------------------------------------------------------
+    /**
+     * Record the main thread time taken by a processed chunk.
+     *
+     * @param nanos the time in nanoseconds.
+     */
+    public void recordChunk(long nanos) {
+        _chunkNanos.record(nanos);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the histogram of the main thread time taken by each chunk.
+     *
+     * @return the histogram.
+     */
+    public LatencyHistogram getChunkNanos() {
+        return _chunkNanos;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Reset the chunk histogram and the statistics of all configured rules.
+     */
+    public void reset() {
+        _chunkNanos.reset();
+        _sinceNanos = System.nanoTime();
+        for (NamedRule rule : getRules(null)) {
+            rule.getRule().getStats().reset();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the enabled rules of all rule sets whose names match a filter.
+     *
+     * @param filter a rule name, or a prefix of rule names ending before a
+     *        '.' (such as "world" or "world.clear"); null matches all rules.
+     * @return the matching rules, ordered by rule set, kind and ID.
+     */
+    public List<NamedRule> getRules(String filter) {
+        List<NamedRule> rules = new ArrayList<>();
+        for (String ruleSet : new TreeSet<>(NerdOre.CONFIG.CLEAR_RULE_INDICES.keySet())) {
+            for (ClearRule rule : NerdOre.CONFIG.getClearRuleIndex(ruleSet).getRules()) {
+                addIfMatched(rules, new NamedRule(ruleSet + ".clear." + rule.getId(), rule), filter);
+            }
+        }
+        for (String ruleSet : new TreeSet<>(NerdOre.CONFIG.ORE_RULE_INDICES.keySet())) {
+            for (OreRule rule : NerdOre.CONFIG.getOreRuleIndex(ruleSet).getRules()) {
+                addIfMatched(rules, new NamedRule(ruleSet + ".generate." + rule.getId(), rule), filter);
+            }
+        }
+        return rules;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a summary of the statistics: one line for chunks, followed by
+     * one line per rule, in decreasing order of main thread time.
+     *
+     * @return the lines.
+     */
+    public List<String> getSummary() {
+        List<String> lines = new ArrayList<>();
+        double seconds = (System.nanoTime() - _sinceNanos) / 1e9;
+        lines.add(String.format("Chunks: %d (%.2f/s), %s.",
+                                _chunkNanos.getCount(), _chunkNanos.getCount() / seconds,
+                                describeTimes(_chunkNanos, seconds)));
+
+        List<NamedRule> rules = getRules(null);
+        rules.sort(Comparator.comparingLong((NamedRule r) -> r.getRule().getStats().getChunkNanos().getTotalNanos())
+            .reversed());
+        for (NamedRule named : rules) {
+            Rule rule = named.getRule();
+            RuleStats stats = rule.getStats();
+            RuleStats.Counter output = (rule instanceof ClearRule) ? RuleStats.Counter.REPLACED
+                                                                   : RuleStats.Counter.PLACED;
+            lines.add(String.format("%s %s: %s, %s %.1f/s.",
+                                    named.getName(), getMaterial(rule),
+                                    describeTimes(stats.getChunkNanos(), stats.getSeconds()),
+                                    output.getDisplayName(), stats.get(output) / stats.getSeconds()));
+        }
+        return lines;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the full statistics of one rule.
+     *
+     * @param named the rule and its name.
+     * @return the lines.
+     */
+    public List<String> getDetails(NamedRule named) {
+        List<String> lines = new ArrayList<>();
+        Rule rule = named.getRule();
+        RuleStats stats = rule.getStats();
+        double seconds = stats.getSeconds();
+        lines.add(named.getName() + ": " + rule);
+        for (RuleStats.Counter counter : rule.getCounters()) {
+            long count = stats.get(counter);
+            lines.add(String.format("  %s: %d (%.1f/s)", counter.getDisplayName(), count, count / seconds));
+        }
+
+        LatencyHistogram nanos = stats.getChunkNanos();
+        long chunkTotal = _chunkNanos.getTotalNanos();
+        lines.add(String.format("  time: %d chunk(s), %s, %.1f%% of chunk time, max %.3f ms.",
+                                nanos.getCount(), describeTimes(nanos, seconds),
+                                (chunkTotal == 0) ? 0.0 : 100.0 * nanos.getTotalNanos() / chunkTotal,
+                                nanos.getMaxNanos() / 1e6));
+        lines.add(String.format("  over %.0f s.", seconds));
+        return lines;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the statistics as CSV, with a header row, a row for chunks and
+     * a row per rule.
+     *
+     * Times are in milliseconds, with '.' as the decimal separator. Counters
+     * that do not apply to a kind of rule are left empty.
+     *
+     * @return the CSV text.
+     */
+    public String toCsv() {
+        StringBuilder csv = new StringBuilder("name,kind,material,seconds,chunks,total_ms,p50_ms,p90_ms,p99_ms,max_ms");
+        for (RuleStats.Counter counter : RuleStats.Counter.values()) {
+            csv.append(',').append(counter.getDisplayName().replace('-', '_'));
+        }
+        csv.append('\n');
+
+        appendCsvTimes(csv.append("chunks,chunk,,"), (System.nanoTime() - _sinceNanos) / 1e9, _chunkNanos);
+        for (int i = 0; i < RuleStats.Counter.values().length; ++i) {
+            csv.append(',');
+        }
+        csv.append('\n');
+
+        for (NamedRule named : getRules(null)) {
+            Rule rule = named.getRule();
+            RuleStats stats = rule.getStats();
+            csv.append(named.getName()).append(',');
+            csv.append((rule instanceof ClearRule) ? "clear" : "generate").append(',');
+            csv.append(getMaterial(rule)).append(',');
+            appendCsvTimes(csv, stats.getSeconds(), stats.getChunkNanos());
+            List<RuleStats.Counter> applicable = Arrays.asList(rule.getCounters());
+            for (RuleStats.Counter counter : RuleStats.Counter.values()) {
+                csv.append(',');
+                if (applicable.contains(counter)) {
+                    csv.append(stats.get(counter));
+                }
+            }
+            csv.append('\n');
+        }
+        return csv.toString();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Material that a rule removes or places.
+     *
+     * @param rule the rule.
+     * @return the Material.
+     */
+    protected static String getMaterial(Rule rule) {
+        return (rule instanceof ClearRule) ? ((ClearRule) rule).getRemovedMaterial().getType().toString()
+                                           : ((OreRule) rule).getMaterial().getType().toString();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Describe the time per second, and the median and 99th percentile time
+     * per chunk, of a histogram.
+     *
+     * @param nanos the histogram.
+     * @param seconds the time over which the histogram was gathered.
+     * @return the description.
+     */
+    protected static String describeTimes(LatencyHistogram nanos, double seconds) {
+        return String.format("%.2f ms/s, p50 %.3f ms, p99 %.3f ms",
+                             nanos.getTotalNanos() / 1e6 / seconds,
+                             nanos.getPercentile(50) / 1e6, nanos.getPercentile(99) / 1e6);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append the seconds, chunk count and times of a histogram to a CSV row.
+     *
+     * @param csv the CSV text.
+     * @param seconds the time over which the histogram was gathered.
+     * @param nanos the histogram.
+     */
+    protected static void appendCsvTimes(StringBuilder csv, double seconds, LatencyHistogram nanos) {
+        csv.append(String.format(Locale.ROOT, "%.1f,%d,%.3f,%.4f,%.4f,%.4f,%.4f",
+                                 seconds, nanos.getCount(), nanos.getTotalNanos() / 1e6,
+                                 nanos.getPercentile(50) / 1e6, nanos.getPercentile(90) / 1e6,
+                                 nanos.getPercentile(99) / 1e6, nanos.getMaxNanos() / 1e6));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a rule to a list if its name matches a filter.
+     *
+     * @param rules the list.
+     * @param rule the rule.
+     * @param filter the filter; see {@link #getRules(String)}.
+     */
+    protected static void addIfMatched(List<NamedRule> rules, NamedRule rule, String filter) {
+        if (filter == null || rule.getName().equalsIgnoreCase(filter) ||
+            rule.getName().toLowerCase().startsWith(filter.toLowerCase() + ".")) {
+            rules.add(rule);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A configured rule and its name.
+     */
+    public static final class NamedRule {
+        /**
+         * Constructor.
+         *
+         * @param name the name.
+         * @param rule the rule.
+         */
+        public NamedRule(String name, Rule rule) {
+            _name = name;
+            _rule = rule;
+        }
+
+        /**
+         * Return the name of the rule.
+         *
+         * @return the name.
+         */
+        public String getName() {
+            return _name;
+        }
+
+        /**
+         * Return the rule.
+         *
+         * @return the rule.
+         */
+        public Rule getRule() {
+            return _rule;
+        }
+
+        /**
+         * The name.
+         */
+        private final String _name;
+
+        /**
+         * The rule.
+         */
+        private final Rule _rule;
+    } // class NamedRule
+
+    // ------------------------------------------------------------------------
+    /**
+     * The main thread time taken by each chunk.
+     */
+    protected final LatencyHistogram _chunkNanos = new LatencyHistogram();
+
+    /**
+     * The System.nanoTime() when the chunk histogram was created or reset.
+     */
+    protected volatile long _sinceNanos = System.nanoTime();
+} // class Statistics
@@ -0,0 +1,614 @@
+package nu.nerd.nerdore;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.LongToIntFunction;
+
+// ----------------------------------------------------------------------------
+/**
+ * The order in which the chunks of a {@link Region} are processed.
+ *
+ * Each traversal sweeps the bounding box of the region, mapping a non-negative
+ * cursor (the per-job index persisted in the configuration) to a chunk.
+ * Cursors are longs, so that boxes of any side that fits in the world can be
+ * swept. A traversal may have cursor values that do not correspond to a chunk
+ * in the region; {@link #seek(long, Region)} skips them, testing whole rows,
+ * rings or blocks against the region where it can, rather than every chunk.
+ *
+ * For the default region, the SIDE x SIDE square centred on chunk (0,0), the
+ * cursors are the same as those of earlier versions.
+ */
+public enum Traversal {
+    /**
+     * Concentric square rings around the centre of the region, as described
+     * by {@link Configuration#INDICES}. Every finished ring is a complete
+     * square, but consecutive rings touch many different region files.
+     */
+    SPIRAL {
+        @Override
+        public long getEnd(Region region) {
+            long radius = Math.max(Math.max((long) region.getCentreX() - region.getMinX(),
+                                            (long) region.getMaxX() - region.getCentreX()),
+                                   Math.max((long) region.getCentreZ() - region.getMinZ(),
+                                            (long) region.getMaxZ() - region.getCentreZ()));
+            long side = 2 * Math.max(0, radius) + 1;
+            return side * side;
+        }
+
+        @Override
+        public long seek(long cursor, Region region) {
+            long end = getEnd(region);
+            int centreX = region.getCentreX();
+            int centreZ = region.getCentreZ();
+            while (cursor < end) {
+                if (cursor == 0) {
+                    if (region.contains(centreX, centreZ)) {
+                        return 0;
+                    }
+                    cursor = 1;
+                    continue;
+                }
+
+                int completedSide = getSideOf(cursor);
+                int newSide = completedSide + 2;
+                long ringStart = (long) completedSide * completedSide;
+                long ringEnd = Math.min(end, (long) newSide * newSide);
+                int west = centreX - newSide / 2;
+                int north = centreZ - newSide / 2;
+                int east = west + newSide - 1;
+                int south = north + newSide - 1;
+                long sidesStart = ringStart + newSide;
+                long southStart = sidesStart + 2 * (newSide - 2);
+
+                if (cursor < sidesStart) {
+                    long found = seekInRange(cursor, Math.min(sidesStart, ringEnd), region,
+                        c -> west + (int) (c - ringStart), c -> north,
+                        (a, b) -> region.intersects(west + (int) (a - ringStart), north,
+                                                    west + (int) (b - 1 - ringStart), north));
+                    if (found < sidesStart) {
+                        return found;
+                    }
+                    cursor = sidesStart;
+                }
+                if (cursor < southStart) {
+                    // West and east columns alternate, row by row.
+                    long found = seekInRange(cursor, Math.min(southStart, ringEnd), region,
+                        c -> (((c - sidesStart) & 1) == 0) ? west : east,
+                        c -> north + 1 + (int) ((c - sidesStart) / 2),
+                        (a, b) -> {
+                            int z0 = north + 1 + (int) ((a - sidesStart) / 2);
+                            int z1 = north + 1 + (int) ((b - 1 - sidesStart) / 2);
+                            return region.intersects(west, z0, west, z1) || region.intersects(east, z0, east, z1);
+                        });
+                    if (found < southStart) {
+                        return found;
+                    }
+                    cursor = southStart;
+                }
+                long found = seekInRange(cursor, ringEnd, region,
+                    c -> west + (int) (c - southStart), c -> south,
+                    (a, b) -> region.intersects(west + (int) (a - southStart), south,
+                                                west + (int) (b - 1 - southStart), south));
+                if (found < ringEnd) {
+                    return found;
+                }
+                cursor = ringEnd;
+            }
+            return end;
+        }
+
+        @Override
+        public long getChunkKey(long cursor, Region region) {
+            int centreX = region.getCentreX();
+            int centreZ = region.getCentreZ();
+            if (cursor == 0) {
+                return Util.chunkKey(centreX, centreZ);
+            }
+
+            int completedSide = getSideOf(cursor);
+            int newSide = completedSide + 2;
+
+            // X/Z coordinate offset of NW corner of the ring from the centre.
+            int coordOffset = -newSide / 2;
+
+            int relativeIndex = (int) (cursor - (long) completedSide * completedSide);
+            if (relativeIndex < newSide) {
+                // North row of chunks running west to east.
+                return Util.chunkKey(centreX + coordOffset + relativeIndex, centreZ + coordOffset);
+            } else if (relativeIndex < newSide + 2 * (newSide - 2)) {
+                // West or east sides, running north to south.
+                boolean west = ((relativeIndex - newSide) & 1) == 0;
+                int row = 1 + (relativeIndex - newSide) / 2;
+                if (west) {
+                    // West column..
+                    return Util.chunkKey(centreX + coordOffset, centreZ + coordOffset + row);
+                } else {
+                    // East column.
+                    return Util.chunkKey(centreX + coordOffset + newSide - 1, centreZ + coordOffset + row);
+                }
+            } else {
+                // South row of chunks running west to east.
+                int column = relativeIndex - (newSide + 2 * (newSide - 2));
+                return Util.chunkKey(centreX + coordOffset + column, centreZ + coordOffset + newSide - 1);
+            }
+        }
+
+        @Override
+        public long getCursor(int chunkX, int chunkZ, Region region) {
+            long dx = (long) chunkX - region.getCentreX();
+            long dz = (long) chunkZ - region.getCentreZ();
+            long ring = Math.max(Math.abs(dx), Math.abs(dz));
+            if (ring == 0) {
+                return 0;
+            }
+
+            long newSide = 2 * ring + 1;
+            long ringStart = (newSide - 2) * (newSide - 2);
+            if (dz == -ring) {
+                return ringStart + dx + ring;
+            } else if (dz == ring) {
+                return ringStart + newSide + 2 * (newSide - 2) + dx + ring;
+            } else {
+                long row = dz + ring;
+                return ringStart + newSide + 2 * (row - 1) + (dx == -ring ? 0 : 1);
+            }
+        }
+    },
+
+    /**
+     * Region file by region file (32 x 32 chunks), with regions visited in
+     * rows running north to south, each row running west to east, and the
+     * chunks of each region (clipped to the bounding box) visited in the same
+     * order. Only one region file is in use at a time.
+     */
+    REGION {
+        @Override
+        public long getEnd(Region region) {
+            return getWidth(region) * getHeight(region);
+        }
+
+        @Override
+        public long seek(long cursor, Region region) {
+            long end = getEnd(region);
+            while (cursor < end) {
+                RegionCell cell = new RegionCell(cursor, region);
+                if (region.intersects(cell.x0, cell.z0, cell.x1, cell.z1)) {
+                    long found = seekInRange(cursor, cell.start + (long) cell.width * cell.height, region,
+                        c -> cell.x0 + (int) ((c - cell.start) % cell.width),
+                        c -> cell.z0 + (int) ((c - cell.start) / cell.width),
+                        (a, b) -> region.intersects(cell.x0, cell.z0 + (int) ((a - cell.start) / cell.width),
+                                                    cell.x1, cell.z0 + (int) ((b - 1 - cell.start) / cell.width)));
+                    if (found < cell.start + (long) cell.width * cell.height) {
+                        return found;
+                    }
+                }
+                cursor = cell.start + (long) cell.width * cell.height;
+            }
+            return end;
+        }
+
+        @Override
+        public long getChunkKey(long cursor, Region region) {
+            RegionCell cell = new RegionCell(cursor, region);
+            long offset = cursor - cell.start;
+            return Util.chunkKey(cell.x0 + (int) (offset % cell.width), cell.z0 + (int) (offset / cell.width));
+        }
+
+        @Override
+        public long getCursor(int chunkX, int chunkZ, Region region) {
+            // Every earlier row of region files spans the full width, and
+            // every earlier region file in the row spans the full height.
+            int x0 = Math.max(region.getMinX(), (chunkX >> REGION_SHIFT) << REGION_SHIFT);
+            int z0 = Math.max(region.getMinZ(), (chunkZ >> REGION_SHIFT) << REGION_SHIFT);
+            int x1 = RegionCell.getRegionEnd(x0, region.getMaxX());
+            int z1 = RegionCell.getRegionEnd(z0, region.getMaxZ());
+            long start = ((long) z0 - region.getMinZ()) * getWidth(region) +
+                         ((long) x0 - region.getMinX()) * (z1 - z0 + 1);
+            return start + (long) (chunkZ - z0) * (x1 - x0 + 1) + (chunkX - x0);
+        }
+    },
+
+    /**
+     * A Hilbert curve over the smallest power-of-two square that contains the
+     * bounding box, anchored at its north west corner. Consecutive chunks are
+     * always adjacent, and every aligned power-of-two block of chunks,
+     * including each region file of a square centred on chunk (0,0), is
+     * finished before the curve leaves it. Cursors of chunks outside the
+     * region are skipped a whole block at a time.
+     */
+    HILBERT {
+        @Override
+        public long getEnd(Region region) {
+            long n = getCurveSide(region);
+            return n * n;
+        }
+
+        @Override
+        public long seek(long cursor, Region region) {
+            long n = getCurveSide(region);
+            long end = n * n;
+            long d = cursor;
+            while (d < end) {
+                long point = getHilbertPoint(n, d);
+                long x = Util.chunkX(point);
+                long y = Util.chunkZ(point);
+                if (region.contains((int) (region.getMinX() + x), (int) (region.getMinZ() + y))) {
+                    return d;
+                }
+
+                // Skip the largest aligned 2^k x 2^k block containing the
+                // point that does not intersect the region; its 4^k points
+                // are consecutive on the curve.
+                int k = 0;
+                while ((2L << k) <= n) {
+                    long size = 2L << k;
+                    long bx = (x / size) * size;
+                    long by = (y / size) * size;
+                    if (region.intersects((int) Math.min(Integer.MAX_VALUE, region.getMinX() + bx),
+                                          (int) Math.min(Integer.MAX_VALUE, region.getMinZ() + by),
+                                          (int) Math.min(Integer.MAX_VALUE, region.getMinX() + bx + size - 1),
+                                          (int) Math.min(Integer.MAX_VALUE, region.getMinZ() + by + size - 1))) {
+                        break;
+                    }
+                    ++k;
+                }
+                d = (d | ((1L << (2 * k)) - 1)) + 1;
+            }
+            return end;
+        }
+
+        @Override
+        public long getChunkKey(long cursor, Region region) {
+            long point = getHilbertPoint(getCurveSide(region), cursor);
+            return Util.chunkKey(region.getMinX() + Util.chunkX(point), region.getMinZ() + Util.chunkZ(point));
+        }
+
+        @Override
+        public long getCursor(int chunkX, int chunkZ, Region region) {
+            long n = getCurveSide(region);
+            long x = (long) chunkX - region.getMinX();
+            long y = (long) chunkZ - region.getMinZ();
+            long d = 0;
+            for (long s = n / 2; s > 0; s /= 2) {
+                long rx = ((x & s) != 0) ? 1 : 0;
+                long ry = ((y & s) != 0) ? 1 : 0;
+                d += s * s * ((3 * rx) ^ ry);
+                if (ry == 0) {
+                    if (rx == 1) {
+                        x = n - 1 - x;
+                        y = n - 1 - y;
+                    }
+                    long t = x;
+                    x = y;
+                    y = t;
+                }
+            }
+            return d;
+        }
+
+        /**
+         * Return the side of the Hilbert curve: the smallest power of two that
+         * is at least the larger dimension of the bounding box.
+         */
+        protected long getCurveSide(Region region) {
+            long side = Math.max(getWidth(region), getHeight(region));
+            return (side <= 1) ? 1 : Long.highestOneBit(side - 1) << 1;
+        }
+    };
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Traversal with the specified case-insensitive name, or null
+     * if there is none.
+     *
+     * @param name the name.
+     * @return the Traversal, or null.
+     */
+    public static Traversal fromName(String name) {
+        for (Traversal traversal : values()) {
+            if (traversal.name().equalsIgnoreCase(name)) {
+                return traversal;
+            }
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the cursor value at which the region is finished.
+     *
+     * @param region the region.
+     * @return the cursor value at which the region is finished.
+     */
+    public abstract long getEnd(Region region);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the first cursor value, no less than the specified one, that
+     * corresponds to a chunk in the region, or {@link #getEnd(Region)} if
+     * there is none.
+     *
+     * @param cursor the cursor.
+     * @param region the region.
+     * @return the first cursor value of a chunk in the region, or the end.
+     */
+    public abstract long seek(long cursor, Region region);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the {@link Util#chunkKey(int, int) key} of the chunk at the
+     * specified cursor value, which must have been returned by
+     * {@link #seek(long, Region)}.
+     *
+     * @param cursor the cursor.
+     * @param region the region.
+     * @return the chunk key.
+     */
+    public abstract long getChunkKey(long cursor, Region region);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the cursor value of the specified chunk, which must be within
+     * the bounding box of the region: the inverse of
+     * {@link #getChunkKey(long, Region)}.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @param region the region.
+     * @return the cursor.
+     */
+    public abstract long getCursor(int chunkX, int chunkZ, Region region);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return an iterator over the keys of the chunks of a region, in the
+     * order of this traversal, starting at the specified cursor.
+     *
+     * Chunks are found as the iterator advances, so iterating over part of a
+     * huge region costs nothing for the rest.
+     *
+     * @param region the region.
+     * @param cursor the first cursor value to consider.
+     * @return an iterator over {@link Util#chunkKey(int, int) chunk keys}.
+     */
+    public PrimitiveIterator.OfLong iterator(Region region, long cursor) {
+        long end = getEnd(region);
+        return new PrimitiveIterator.OfLong() {
+            @Override
+            public boolean hasNext() {
+                return _next < end;
+            }
+
+            @Override
+            public long nextLong() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                long key = getChunkKey(_next, region);
+                _next = seek(_next + 1, region);
+                return key;
+            }
+
+            long _next = seek(cursor, region);
+        };
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the odd side dimension in chunks of the fully complete square
+     * of a spiral corresponding to the specified cursor.
+     *
+     * @param cursor the spiral cursor.
+     * @return the odd side dimension in chunks of the complete square.
+     */
+    public static int getSideOf(long cursor) {
+        long side = (long) Math.sqrt(cursor);
+        // Correct the rounding of the double square root of large values.
+        while (side * side > cursor) {
+            --side;
+        }
+        while ((side + 1) * (side + 1) <= cursor) {
+            ++side;
+        }
+        return (int) ((side & 1) == 0 ? side - 1 : side);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the width of the bounding box of a region, in chunks.
+     *
+     * @param region the region.
+     * @return the width.
+     */
+    protected static long getWidth(Region region) {
+        return Math.max(0, (long) region.getMaxX() - region.getMinX() + 1);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the height (Z extent) of the bounding box of a region, in
+     * chunks.
+     *
+     * @param region the region.
+     * @return the height.
+     */
+    protected static long getHeight(Region region) {
+        return Math.max(0, (long) region.getMaxZ() - region.getMinZ() + 1);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the first cursor value in [start, end) whose chunk is in the
+     * region, or end if there is none.
+     *
+     * Ranges of cursors that the region does not intersect are skipped with
+     * exponentially growing steps, so a long run of chunks outside the
+     * region costs a logarithmic number of tests.
+     *
+     * @param start the first cursor value.
+     * @param end the cursor value after the last.
+     * @param region the region.
+     * @param getX maps a cursor to a chunk X coordinate.
+     * @param getZ maps a cursor to a chunk Z coordinate.
+     * @param intersects tests whether the region might contain the chunk of
+     *        any cursor in [a, b).
+     * @return the first cursor value of a chunk in the region, or end.
+     */
+    protected static long seekInRange(long start, long end, Region region,
+                                      LongToIntFunction getX, LongToIntFunction getZ,
+                                      CursorRangeTest intersects) {
+        long cursor = start;
+        long step = 1;
+        while (cursor < end) {
+            long next = Math.min(end, cursor + step);
+            if (!intersects.test(cursor, next)) {
+                cursor = next;
+                step <<= 1;
+            } else if (region.contains(getX.applyAsInt(cursor), getZ.applyAsInt(cursor))) {
+                return cursor;
+            } else {
+                ++cursor;
+                step = 1;
+            }
+        }
+        return end;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A test of whether a region might contain any chunk in a range of
+     * cursors.
+     */
+    @FunctionalInterface
+    protected interface CursorRangeTest {
+        /**
+         * Return true if the region might contain the chunk of any cursor in
+         * [a, b).
+         *
+         * @param a the first cursor value.
+         * @param b the cursor value after the last; greater than a.
+         * @return true if the region might contain one of the chunks.
+         */
+        boolean test(long a, long b);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The region file, clipped to the bounding box of a region, that contains
+     * the chunk at a {@link #REGION} cursor.
+     */
+    protected static final class RegionCell {
+        /**
+         * Constructor.
+         *
+         * Locates the cell in constant time: the first row and column of
+         * region files may be clipped; the others are full height and width,
+         * except possibly the last, which the cursor need not be past.
+         *
+         * @param cursor the REGION cursor.
+         * @param region the region.
+         */
+        RegionCell(long cursor, Region region) {
+            long boxWidth = getWidth(region);
+            int minX = region.getMinX();
+            int minZ = region.getMinZ();
+
+            // Find the row of region files.
+            long firstHeight = getRegionEnd(minZ, region.getMaxZ()) - minZ + 1;
+            long rowStart;
+            if (cursor < firstHeight * boxWidth) {
+                z0 = minZ;
+                rowStart = 0;
+            } else {
+                long row = (cursor - firstHeight * boxWidth) / (REGION_CHUNKS * boxWidth);
+                z0 = (int) (minZ + firstHeight + row * REGION_CHUNKS);
+                rowStart = (firstHeight + row * REGION_CHUNKS) * boxWidth;
+            }
+            z1 = getRegionEnd(z0, region.getMaxZ());
+            height = z1 - z0 + 1;
+
+            // Find the region file in the row.
+            long offset = cursor - rowStart;
+            long firstWidth = getRegionEnd(minX, region.getMaxX()) - minX + 1;
+            if (offset < firstWidth * height) {
+                x0 = minX;
+                start = rowStart;
+            } else {
+                long column = (offset - firstWidth * height) / ((long) REGION_CHUNKS * height);
+                x0 = (int) (minX + firstWidth + column * REGION_CHUNKS);
+                start = rowStart + (firstWidth + column * REGION_CHUNKS) * height;
+            }
+            x1 = getRegionEnd(x0, region.getMaxX());
+            width = x1 - x0 + 1;
+        }
+
+        /**
+         * Return the last chunk coordinate of the region file containing a
+         * chunk coordinate, clipped to a maximum.
+         *
+         * @param coord the chunk coordinate.
+         * @param max the maximum chunk coordinate.
+         * @return the last coordinate in the same region file, at most max.
+         */
+        static int getRegionEnd(int coord, int max) {
+            return (int) Math.min(max, ((long) (coord >> REGION_SHIFT) << REGION_SHIFT) + REGION_CHUNKS - 1);
+        }
+
+        /**
+         * The cursor of the first chunk in the cell.
+         */
+        final long start;
+
+        /**
+         * The chunk coordinates of the corners of the cell.
+         */
+        final int x0, z0, x1, z1;
+
+        /**
+         * The dimensions of the cell in chunks.
+         */
+        final int width, height;
+    } // class RegionCell
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the coordinates of the point at distance d along a Hilbert curve
+     * filling an n x n square, packed as a chunk key.
+     *
+     * @param n the side of the square; a power of two, at most 2^31.
+     * @param d the distance along the curve, in [0, n^2 - 1].
+     * @return the X and Y coordinates packed by {@link Util#chunkKey(int, int)}.
+     */
+    protected static long getHilbertPoint(long n, long d) {
+        long x = 0;
+        long y = 0;
+        for (long s = 1; s < n; s <<= 1) {
+            long rx = 1 & (d >>> 1);
+            long ry = 1 & (d ^ rx);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                long t = x;
+                x = y;
+                y = t;
+            }
+            x += s * rx;
+            y += s * ry;
+            d >>>= 2;
+        }
+        return Util.chunkKey((int) x, (int) y);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Number of chunks along the side of a region file.
+     */
+    protected static final int REGION_CHUNKS = 32;
+
+    /**
+     * Shift converting chunk coordinates to region coordinates.
+     */
+    protected static final int REGION_SHIFT = 5;
+} // enum Traversal
@@ -0,0 +1,1007 @@
+package nu.nerd.nerdore;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.CreatureSpawner;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.EntityType;
+
+// ----------------------------------------------------------------------------
+/**
+ * A journal of the original state of every block that NerdOre changes, so
+ * that the changes of a job, or of one region file, can be rolled back.
+ *
+ * Recording a change on the main thread only appends the block's coordinates
+ * and Materials to the arrays of a batch, plus the original BlockData (an
+ * immutable object) and spawner settings for blocks changed by
+ * {@link ClearRule}s. Batches are handed to a background writer, which groups
+ * the changes by world, job and region file, encodes them, and appends them to
+ * the world's undo files in Deflate-compressed blocks: one file,
+ * <code>undo/&lt;world&gt;/r.&lt;x&gt;.&lt;z&gt;.undo</code>, per region file.
+ * Partly filled blocks are written at least every few seconds.
+ *
+ * Each change records the Material that was placed, as well as the original,
+ * and a rollback only restores blocks that still have the placed Material, so
+ * that blocks that players have since changed are left alone. The chunks
+ * that each job processed are also recorded, so that a rollback can mark
+ * them as unprocessed.
+ */
+public class UndoJournal {
+    // ------------------------------------------------------------------------
+    /**
+     * Set the folder containing the per-world undo folders.
+     *
+     * @param folder the folder.
+     */
+    public void setFolder(File folder) {
+        _folder = folder;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start the background writer.
+     */
+    public void start() {
+        if (_writer == null) {
+            _writer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "NerdOre Undo Writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            _writer.scheduleWithFixedDelay(this::writeBlocks, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write all recorded changes and stop the background writer.
+     *
+     * This must be called on the main thread.
+     */
+    public void close() {
+        flush();
+        if (_writer != null) {
+            _writer.execute(this::writeBlocks);
+            _writer.shutdown();
+            try {
+                _writer.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            _writer = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record that a block of one Material will be replaced by another.
+     *
+     * This must be called on the main thread, before the block is changed.
+     *
+     * @param jobId the ID of the job making the change, or null if unknown.
+     * @param worldName the name of the world.
+     * @param x the world X coordinate.
+     * @param y the world Y coordinate.
+     * @param z the world Z coordinate.
+     * @param original the original Material.
+     * @param placed the Material that will be placed.
+     */
+    public void recordChange(String jobId, String worldName, int x, int y, int z, Material original, Material placed) {
+        if (NerdOre.CONFIG.UNDO_ENABLED) {
+            getBatch(jobId, worldName).add(x, y, z, original, placed, null);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record that a block will be replaced by a {@link ClearRule}.
+     *
+     * The original BlockData is recorded, and the settings of a spawner.
+     *
+     * This must be called on the main thread, before the block is changed.
+     *
+     * @param jobId the ID of the job making the change.
+     * @param block the block.
+     * @param placed the Material that will be placed.
+     */
+    public void recordClear(String jobId, Block block, Material placed) {
+        if (NerdOre.CONFIG.UNDO_ENABLED) {
+            Material original = block.getType();
+            Object state = (original == Material.SPAWNER) ? new SpawnerSettings((CreatureSpawner) block.getState())
+                                                           : block.getBlockData();
+            getBatch(jobId, block.getWorld().getName())
+                .add(block.getX(), block.getY(), block.getZ(), original, placed, state);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record that a job has processed a chunk.
+     *
+     * This must be called on the main thread.
+     *
+     * @param jobId the ID of the job.
+     * @param worldName the name of the world.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     */
+    public void recordProcessed(String jobId, String worldName, int chunkX, int chunkZ) {
+        if (NerdOre.CONFIG.UNDO_ENABLED) {
+            getBatch(jobId, worldName).add(chunkX << 4, 0, chunkZ << 4, null, null, null);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Hand the current batch of changes to the background writer.
+     *
+     * This must be called on the main thread; it is called every tick.
+     */
+    public void flush() {
+        if (_batch != null && _batch._size != 0) {
+            Batch batch = _batch;
+            if (_writer != null) {
+                _writer.execute(() -> addBatch(batch));
+            } else {
+                addBatch(batch);
+            }
+        }
+        _batch = null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the coordinates of the region files of a world that have undo
+     * files, once all changes recorded so far have been written.
+     *
+     * This must be called on the main thread.
+     *
+     * @param worldName the name of the world.
+     * @return a future list of region keys ({@link Util#chunkKey(int, int)} of
+     *         the region coordinates).
+     */
+    public CompletableFuture<List<Long>> getRegions(String worldName) {
+        return submit(() -> {
+            writeBlocks();
+            List<Long> regions = new ArrayList<>();
+            File[] files = getWorldFolder(worldName).listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    Matcher matcher = UNDO_FILE.matcher(file.getName());
+                    if (matcher.matches()) {
+                        regions.add(Util.chunkKey(Integer.parseInt(matcher.group(1)),
+                                                  Integer.parseInt(matcher.group(2))));
+                    }
+                }
+            }
+            return regions;
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the changes recorded in one region file, once all changes recorded
+     * so far have been written.
+     *
+     * This must be called on the main thread.
+     *
+     * @param worldName the name of the world.
+     * @param regionX the region X coordinate.
+     * @param regionZ the region Z coordinate.
+     * @param jobId if not null, only changes by this job, or by an unknown
+     *        job, are read.
+     * @return the future changes, in the order they were made.
+     */
+    public CompletableFuture<Changes> read(String worldName, int regionX, int regionZ, String jobId) {
+        return submit(() -> {
+            writeBlocks();
+            Changes changes = new Changes();
+            visitBlocks(getUndoFile(worldName, regionX, regionZ), (blockJobId, block, raw) -> {
+                if (matchesJob(blockJobId, jobId)) {
+                    changes.decode(raw, regionX, regionZ);
+                }
+                return true;
+            });
+            return changes;
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the changes of a job, or of all jobs, from one region file,
+     * after they have been rolled back.
+     *
+     * This must be called on the main thread.
+     *
+     * @param worldName the name of the world.
+     * @param regionX the region X coordinate.
+     * @param regionZ the region Z coordinate.
+     * @param jobId if not null, only changes by this job, or by an unknown
+     *        job, are removed.
+     */
+    public void remove(String worldName, int regionX, int regionZ, String jobId) {
+        submit(() -> {
+            File file = getUndoFile(worldName, regionX, regionZ);
+            if (jobId == null) {
+                file.delete();
+                return null;
+            }
+
+            File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+            boolean[] kept = { false };
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+                visitBlocks(file, (blockJobId, block, raw) -> {
+                    if (!matchesJob(blockJobId, jobId)) {
+                        out.write(block);
+                        kept[0] = true;
+                    }
+                    return true;
+                });
+            }
+            if (kept[0]) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                temp.delete();
+                file.delete();
+            }
+            return null;
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The changes read from one region file, in the order they were made.
+     */
+    public static final class Changes {
+        /**
+         * Return the number of block changes.
+         *
+         * @return the number of block changes.
+         */
+        public int size() {
+            return _size;
+        }
+
+        /**
+         * Decode the raw contents of one block of an undo file, appending
+         * its changes.
+         */
+        void decode(byte[] raw, int regionX, int regionZ) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+            int materialCount = in.readUnsignedShort();
+            Material[] materials = new Material[materialCount];
+            for (int i = 0; i < materialCount; ++i) {
+                materials[i] = Material.getMaterial(in.readUTF());
+            }
+
+            int originX = regionX << REGION_BLOCK_SHIFT;
+            int originZ = regionZ << REGION_BLOCK_SHIFT;
+            while (in.available() > 0) {
+                int local = in.readInt();
+                int x = originX + (local & REGION_BLOCK_MASK);
+                int z = originZ + ((local >> 9) & REGION_BLOCK_MASK);
+                int y = (local >> 18) & 0xFF;
+                int kind = local >>> 26;
+                if (kind == KIND_PROCESSED) {
+                    _processedChunks.add(Util.chunkKey(x >> 4, z >> 4));
+                    continue;
+                }
+
+                Material original = materials[in.readUnsignedShort()];
+                Material placed = materials[in.readUnsignedShort()];
+                Object state = null;
+                if (kind == KIND_DATA) {
+                    state = createBlockData(in.readUTF());
+                } else if (kind == KIND_SPAWNER) {
+                    state = new SpawnerSettings(in);
+                }
+                if (original != null && placed != null) {
+                    add(x, y, z, original, placed, state);
+                }
+            }
+        }
+
+        /**
+         * Append a change.
+         */
+        void add(int x, int y, int z, Material original, Material placed, Object state) {
+            if (_size == _xs.length) {
+                int capacity = _size * 2;
+                _xs = Arrays.copyOf(_xs, capacity);
+                _ys = Arrays.copyOf(_ys, capacity);
+                _zs = Arrays.copyOf(_zs, capacity);
+                _originals = Arrays.copyOf(_originals, capacity);
+                _placed = Arrays.copyOf(_placed, capacity);
+                _states = Arrays.copyOf(_states, capacity);
+            }
+            _xs[_size] = x;
+            _ys[_size] = y;
+            _zs[_size] = z;
+            _originals[_size] = original;
+            _placed[_size] = placed;
+            _states[_size] = state;
+            ++_size;
+        }
+
+        /**
+         * Parse BlockData, sharing the result for identical strings.
+         */
+        BlockData createBlockData(String data) {
+            return _blockData.computeIfAbsent(data, k -> {
+                try {
+                    return Bukkit.createBlockData(k);
+                } catch (IllegalArgumentException ex) {
+                    return null;
+                }
+            });
+        }
+
+        int[] _xs = new int[256];
+        int[] _ys = new int[256];
+        int[] _zs = new int[256];
+        Material[] _originals = new Material[256];
+        Material[] _placed = new Material[256];
+
+        /**
+         * The original BlockData, SpawnerSettings, or null if only the
+         * Material was recorded.
+         */
+        Object[] _states = new Object[256];
+        int _size;
+
+        /**
+         * Keys of the chunks processed by the changes' jobs.
+         */
+        final List<Long> _processedChunks = new ArrayList<>();
+
+        /**
+         * Cache of parsed BlockData.
+         */
+        final Map<String, BlockData> _blockData = new HashMap<>();
+    } // class Changes
+
+    // ------------------------------------------------------------------------
+    /**
+     * The settings of a spawner.
+     */
+    public static final class SpawnerSettings {
+        /**
+         * Capture the settings of a spawner.
+         *
+         * @param spawner the spawner.
+         */
+        SpawnerSettings(CreatureSpawner spawner) {
+            _spawnedType = spawner.getSpawnedType();
+            _delay = spawner.getDelay();
+            _minSpawnDelay = spawner.getMinSpawnDelay();
+            _maxSpawnDelay = spawner.getMaxSpawnDelay();
+            _spawnCount = spawner.getSpawnCount();
+            _maxNearbyEntities = spawner.getMaxNearbyEntities();
+            _requiredPlayerRange = spawner.getRequiredPlayerRange();
+            _spawnRange = spawner.getSpawnRange();
+        }
+
+        /**
+         * Read settings written by {@link #write(DataOutputStream)}.
+         */
+        SpawnerSettings(DataInputStream in) throws IOException {
+            String typeName = in.readUTF();
+            try {
+                _spawnedType = typeName.isEmpty() ? null : EntityType.valueOf(typeName);
+            } catch (IllegalArgumentException ex) {
+                _spawnedType = null;
+            }
+            _delay = in.readInt();
+            _minSpawnDelay = in.readInt();
+            _maxSpawnDelay = in.readInt();
+            _spawnCount = in.readInt();
+            _maxNearbyEntities = in.readInt();
+            _requiredPlayerRange = in.readInt();
+            _spawnRange = in.readInt();
+        }
+
+        /**
+         * Write these settings.
+         */
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(_spawnedType != null ? _spawnedType.name() : "");
+            out.writeInt(_delay);
+            out.writeInt(_minSpawnDelay);
+            out.writeInt(_maxSpawnDelay);
+            out.writeInt(_spawnCount);
+            out.writeInt(_maxNearbyEntities);
+            out.writeInt(_requiredPlayerRange);
+            out.writeInt(_spawnRange);
+        }
+
+        /**
+         * Apply these settings to a spawner, and update it.
+         *
+         * The maximum delay is set before the minimum, and the minimum after,
+         * so that neither is ever set beyond the other.
+         *
+         * @param spawner the spawner.
+         */
+        public void apply(CreatureSpawner spawner) {
+            if (_spawnedType != null) {
+                spawner.setSpawnedType(_spawnedType);
+            }
+            if (_minSpawnDelay > spawner.getMaxSpawnDelay()) {
+                spawner.setMaxSpawnDelay(_maxSpawnDelay);
+                spawner.setMinSpawnDelay(_minSpawnDelay);
+            } else {
+                spawner.setMinSpawnDelay(_minSpawnDelay);
+                spawner.setMaxSpawnDelay(_maxSpawnDelay);
+            }
+            spawner.setDelay(_delay);
+            spawner.setSpawnCount(_spawnCount);
+            spawner.setMaxNearbyEntities(_maxNearbyEntities);
+            spawner.setRequiredPlayerRange(_requiredPlayerRange);
+            spawner.setSpawnRange(_spawnRange);
+            spawner.update(true);
+        }
+
+        EntityType _spawnedType;
+        int _delay;
+        int _minSpawnDelay;
+        int _maxSpawnDelay;
+        int _spawnCount;
+        int _maxNearbyEntities;
+        int _requiredPlayerRange;
+        int _spawnRange;
+    } // class SpawnerSettings
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the batch for changes by the specified job in the specified
+     * world, handing the current batch to the writer if it is full or for a
+     * different job or world.
+     *
+     * @param jobId the ID of the job, or null if unknown.
+     * @param worldName the name of the world.
+     * @return the batch.
+     */
+    protected Batch getBatch(String jobId, String worldName) {
+        String batchJobId = (jobId != null) ? jobId : "";
+        if (_batch == null || _batch._size == BATCH_SIZE ||
+            !_batch._jobId.equals(batchJobId) || !_batch._worldName.equals(worldName)) {
+            flush();
+            _batch = new Batch(batchJobId, worldName);
+        }
+        return _batch;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Encode the changes of a batch into the buffered blocks of their region
+     * files, writing blocks that are full.
+     *
+     * This runs on the background writer.
+     *
+     * @param batch the batch.
+     */
+    protected void addBatch(Batch batch) {
+        for (int i = 0; i < batch._size; ++i) {
+            long position = batch._positions[i];
+            int x = Batch.x(position);
+            int z = Batch.z(position);
+            BlockKey key = new BlockKey(batch._worldName, batch._jobId,
+                                        x >> REGION_BLOCK_SHIFT, z >> REGION_BLOCK_SHIFT);
+            UndoBlock block = _blocks.computeIfAbsent(key, UndoBlock::new);
+            try {
+                block.add(x, Batch.y(position), z, batch._originals[i], batch._placed[i],
+                          (batch._states != null) ? batch._states[i] : null);
+                if (block._raw.size() >= BLOCK_BYTES) {
+                    _blocks.remove(key);
+                    writeBlock(block);
+                }
+            } catch (IOException ex) {
+                NerdOre.PLUGIN.getLogger().severe("Unable to write the undo journal: " + ex.getMessage());
+                _blocks.remove(key);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write all partly filled blocks.
+     *
+     * This runs on the background writer.
+     */
+    protected void writeBlocks() {
+        for (Iterator<UndoBlock> it = _blocks.values().iterator(); it.hasNext();) {
+            UndoBlock block = it.next();
+            it.remove();
+            try {
+                writeBlock(block);
+            } catch (IOException ex) {
+                NerdOre.PLUGIN.getLogger().severe("Unable to write the undo journal: " + ex.getMessage());
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Compress a block and append it to its undo file.
+     *
+     * A block is written as: magic, job ID, raw length, compressed length,
+     * CRC of the compressed bytes, compressed bytes. The raw contents are a
+     * table of Material names followed by the block's records.
+     *
+     * @param block the block.
+     * @throws IOException if the file cannot be written.
+     */
+    protected void writeBlock(UndoBlock block) throws IOException {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(block._raw.size() + 256);
+        DataOutputStream rawOut = new DataOutputStream(raw);
+        rawOut.writeShort(block._materials.size());
+        for (Material material : block._materials) {
+            rawOut.writeUTF(material.name());
+        }
+        block._raw.writeTo(rawOut);
+        rawOut.flush();
+        byte[] rawBytes = raw.toByteArray();
+
+        _deflater.reset();
+        _deflater.setInput(rawBytes);
+        _deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(rawBytes.length / 4 + 64);
+        byte[] buffer = new byte[8192];
+        while (!_deflater.finished()) {
+            int length = _deflater.deflate(buffer);
+            compressed.write(buffer, 0, length);
+        }
+        byte[] compressedBytes = compressed.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(compressedBytes);
+
+        BlockKey key = block._key;
+        File file = getUndoFile(key._worldName, key._regionX, key._regionZ);
+        file.getParentFile().mkdirs();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true))) {
+            ByteArrayOutputStream header = new ByteArrayOutputStream(64);
+            DataOutputStream headerOut = new DataOutputStream(header);
+            headerOut.writeInt(BLOCK_MAGIC);
+            headerOut.writeUTF(key._jobId);
+            headerOut.writeInt(rawBytes.length);
+            headerOut.writeInt(compressedBytes.length);
+            headerOut.writeInt((int) crc.getValue());
+            header.writeTo(out);
+            out.write(compressedBytes);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Receives the blocks of an undo file.
+     */
+    @FunctionalInterface
+    protected interface BlockVisitor {
+        /**
+         * Visit one block.
+         *
+         * @param jobId the ID of the job whose changes the block records, or
+         *        the empty string if unknown.
+         * @param block the complete encoded block, as stored in the file.
+         * @param raw the decompressed contents of the block.
+         * @return true to continue.
+         */
+        boolean visit(String jobId, byte[] block, byte[] raw) throws IOException;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Visit the intact blocks of an undo file, stopping at the first torn or
+     * corrupt block.
+     *
+     * @param file the file, which need not exist.
+     * @param visitor receives each block.
+     * @throws IOException if the file cannot be read.
+     */
+    protected void visitBlocks(File file, BlockVisitor visitor) throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int magic;
+                try {
+                    magic = in.readInt();
+                } catch (EOFException ex) {
+                    return;
+                }
+
+                try {
+                    String jobId = in.readUTF();
+                    int rawLength = in.readInt();
+                    int compressedLength = in.readInt();
+                    int crc = in.readInt();
+                    if (magic != BLOCK_MAGIC || rawLength < 0 || compressedLength < 0) {
+                        NerdOre.PLUGIN.getLogger().warning("Ignoring corrupt undo records at the end of " + file + ".");
+                        return;
+                    }
+                    byte[] compressed = new byte[compressedLength];
+                    in.readFully(compressed);
+                    CRC32 check = new CRC32();
+                    check.update(compressed);
+                    if ((int) check.getValue() != crc) {
+                        NerdOre.PLUGIN.getLogger().warning("Ignoring corrupt undo records at the end of " + file + ".");
+                        return;
+                    }
+
+                    byte[] raw = new byte[rawLength];
+                    _inflater.reset();
+                    _inflater.setInput(compressed);
+                    if (_inflater.inflate(raw) != rawLength) {
+                        throw new DataFormatException("short block");
+                    }
+
+                    ByteArrayOutputStream block = new ByteArrayOutputStream(compressedLength + 64);
+                    DataOutputStream blockOut = new DataOutputStream(block);
+                    blockOut.writeInt(magic);
+                    blockOut.writeUTF(jobId);
+                    blockOut.writeInt(rawLength);
+                    blockOut.writeInt(compressedLength);
+                    blockOut.writeInt(crc);
+                    blockOut.write(compressed);
+                    if (!visitor.visit(jobId, block.toByteArray(), raw)) {
+                        return;
+                    }
+                } catch (EOFException ex) {
+                    NerdOre.PLUGIN.getLogger().warning("Ignoring torn undo records at the end of " + file + ".");
+                    return;
+                } catch (DataFormatException ex) {
+                    NerdOre.PLUGIN.getLogger().warning("Ignoring corrupt undo records at the end of " + file + ".");
+                    return;
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * An operation on the undo files that runs on the background writer.
+     */
+    @FunctionalInterface
+    protected interface UndoOperation<T> {
+        /**
+         * Perform the operation.
+         *
+         * @return the result.
+         */
+        T run() throws IOException;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run an operation on the background writer, or immediately if the writer
+     * is not running, after handing it the current batch.
+     *
+     * @param operation the operation.
+     * @return the future result; null if the operation fails.
+     */
+    protected <T> CompletableFuture<T> submit(UndoOperation<T> operation) {
+        flush();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable task = () -> {
+            try {
+                result.complete(operation.run());
+            } catch (IOException ex) {
+                NerdOre.PLUGIN.getLogger().severe("Undo journal error: " + ex.getMessage());
+                result.complete(null);
+            }
+        };
+        if (_writer != null) {
+            _writer.execute(task);
+        } else {
+            task.run();
+        }
+        return result;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a block recorded for one job matches a job filter.
+     *
+     * Changes by an unknown job (ore placed when a chunk loaded) match every
+     * job of the world.
+     *
+     * @param blockJobId the job ID of the block.
+     * @param jobId the job filter, or null for all jobs.
+     * @return true if the block matches.
+     */
+    protected static boolean matchesJob(String blockJobId, String jobId) {
+        return jobId == null || blockJobId.isEmpty() || blockJobId.equals(jobId);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the folder of a world's undo files.
+     *
+     * @param worldName the name of the world.
+     * @return the folder.
+     */
+    protected File getWorldFolder(String worldName) {
+        return new File(_folder, worldName);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the undo file of a region file.
+     *
+     * @param worldName the name of the world.
+     * @param regionX the region X coordinate.
+     * @param regionZ the region Z coordinate.
+     * @return the undo file.
+     */
+    protected File getUndoFile(String worldName, int regionX, int regionZ) {
+        return new File(getWorldFolder(worldName), "r." + regionX + "." + regionZ + ".undo");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Changes recorded on the main thread, waiting to be handed to the
+     * writer. Each change is packed into a long as X (26 bits), Z (26 bits)
+     * and Y (12 bits).
+     */
+    protected static final class Batch {
+        /**
+         * Constructor.
+         */
+        Batch(String jobId, String worldName) {
+            _jobId = jobId;
+            _worldName = worldName;
+        }
+
+        /**
+         * Append a change; original and placed are null for a processed
+         * chunk.
+         */
+        void add(int x, int y, int z, Material original, Material placed, Object state) {
+            _positions[_size] = ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+            _originals[_size] = original;
+            _placed[_size] = placed;
+            if (state != null) {
+                if (_states == null) {
+                    _states = new Object[BATCH_SIZE];
+                }
+                _states[_size] = state;
+            }
+            ++_size;
+        }
+
+        static int x(long position) {
+            return (int) (position >> 38);
+        }
+
+        static int z(long position) {
+            return (int) (position << 26 >> 38);
+        }
+
+        static int y(long position) {
+            return (int) (position & 0xFFF);
+        }
+
+        final String _jobId;
+        final String _worldName;
+        final long[] _positions = new long[BATCH_SIZE];
+        final Material[] _originals = new Material[BATCH_SIZE];
+        final Material[] _placed = new Material[BATCH_SIZE];
+        Object[] _states;
+        int _size;
+    } // class Batch
+
+    // ------------------------------------------------------------------------
+    /**
+     * Identifies the buffered block of one job in one region file.
+     */
+    protected static final class BlockKey {
+        /**
+         * Constructor.
+         */
+        BlockKey(String worldName, String jobId, int regionX, int regionZ) {
+            _worldName = worldName;
+            _jobId = jobId;
+            _regionX = regionX;
+            _regionZ = regionZ;
+        }
+
+        /**
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey key = (BlockKey) other;
+            return _regionX == key._regionX && _regionZ == key._regionZ &&
+                   _worldName.equals(key._worldName) && _jobId.equals(key._jobId);
+        }
+
+        /**
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return ((31 * _regionX + _regionZ) * 31 + _worldName.hashCode()) * 31 + _jobId.hashCode();
+        }
+
+        final String _worldName;
+        final String _jobId;
+        final int _regionX;
+        final int _regionZ;
+    } // class BlockKey
+
+    // ------------------------------------------------------------------------
+    /**
+     * The encoded records of a block that is being filled.
+     *
+     * Each record is an int packing the region-relative X (9 bits), Z (9
+     * bits), Y (8 bits) and kind (2 bits), followed, unless the kind is
+     * KIND_PROCESSED, by the indices of the original and placed Materials in
+     * the block's table, then the original BlockData as a string
+     * (KIND_DATA) or the spawner settings (KIND_SPAWNER).
+     */
+    protected static final class UndoBlock {
+        /**
+         * Constructor.
+         */
+        UndoBlock(BlockKey key) {
+            _key = key;
+        }
+
+        /**
+         * Encode a change.
+         */
+        void add(int x, int y, int z, Material original, Material placed, Object state) throws IOException {
+            int kind = (original == null) ? KIND_PROCESSED
+                                          : (state instanceof SpawnerSettings) ? KIND_SPAWNER
+                                          : (state instanceof BlockData) ? KIND_DATA : KIND_TYPE;
+            _out.writeInt((x & REGION_BLOCK_MASK) | ((z & REGION_BLOCK_MASK) << 9) | ((y & 0xFF) << 18) | (kind << 26));
+            if (kind != KIND_PROCESSED) {
+                _out.writeShort(getMaterialIndex(original));
+                _out.writeShort(getMaterialIndex(placed));
+                if (kind == KIND_DATA) {
+                    _out.writeUTF(((BlockData) state).getAsString());
+                } else if (kind == KIND_SPAWNER) {
+                    ((SpawnerSettings) state).write(_out);
+                }
+            }
+        }
+
+        /**
+         * Return the index of a Material in the block's table, adding it if
+         * necessary.
+         */
+        int getMaterialIndex(Material material) {
+            return _materialIndices.computeIfAbsent(material, m -> {
+                _materials.add(m);
+                return _materials.size() - 1;
+            });
+        }
+
+        final BlockKey _key;
+        final ByteArrayOutputStream _raw = new ByteArrayOutputStream(BLOCK_BYTES + 1024);
+        final DataOutputStream _out = new DataOutputStream(_raw);
+        final List<Material> _materials = new ArrayList<>();
+        final Map<Material, Integer> _materialIndices = new HashMap<>();
+    } // class UndoBlock
+
+    // ------------------------------------------------------------------------
+    /**
+     * Pattern matching undo file names, capturing the region coordinates.
+     */
+    protected static final Pattern UNDO_FILE = Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.undo");
+
+    /**
+     * Identifies a block in an undo file.
+     */
+    protected static final int BLOCK_MAGIC = 0x4E4F5542;
+
+    /**
+     * Record kind: only the Materials were recorded.
+     */
+    protected static final int KIND_TYPE = 0;
+
+    /**
+     * Record kind: the original BlockData was also recorded.
+     */
+    protected static final int KIND_DATA = 1;
+
+    /**
+     * Record kind: the original spawner settings were also recorded.
+     */
+    protected static final int KIND_SPAWNER = 2;
+
+    /**
+     * Record kind: a chunk was processed.
+     */
+    protected static final int KIND_PROCESSED = 3;
+
+    /**
+     * Shift converting block coordinates to region coordinates.
+     */
+    protected static final int REGION_BLOCK_SHIFT = 9;
+
+    /**
+     * Mask extracting region-relative block coordinates.
+     */
+    protected static final int REGION_BLOCK_MASK = (1 << REGION_BLOCK_SHIFT) - 1;
+
+    /**
+     * Number of changes in a batch.
+     */
+    protected static final int BATCH_SIZE = 4096;
+
+    /**
+     * Size of the raw contents of a block, beyond which it is written.
+     */
+    protected static final int BLOCK_BYTES = 64 * 1024;
+
+    /**
+     * Partly filled blocks are written this often, in milliseconds.
+     */
+    protected static final long FLUSH_MILLIS = 5000;
+
+    /**
+     * The folder containing the per-world undo folders.
+     */
+    protected File _folder;
+
+    /**
+     * The background writer; null if not running.
+     */
+    protected ScheduledExecutorService _writer;
+
+    /**
+     * The batch being filled on the main thread; null if none.
+     */
+    protected Batch _batch;
+
+    /**
+     * Blocks being filled by the writer.
+     */
+    protected final Map<BlockKey, UndoBlock> _blocks = new HashMap<>();
+
+    /**
+     * Compresses blocks on the writer.
+     */
+    protected final Deflater _deflater = new Deflater(Deflater.BEST_SPEED);
+
+    /**
+     * Decompresses blocks on the writer.
+     */
+    protected final Inflater _inflater = new Inflater();
+} // class UndoJournal
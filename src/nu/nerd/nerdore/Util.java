@@ -1,12 +1,24 @@
 package nu.nerd.nerdore;
 
 import java.util.Random;
+import java.util.logging.Logger;
 
 // ----------------------------------------------------------------------------
 /**
  * Utility functions.
  */
 public class Util {
+    // ------------------------------------------------------------------------
+    /**
+     * Return the plugin's Logger, or a standalone Logger when the rules are
+     * used outside of a server, e.g. by the {@link OfflineProcessor}.
+     *
+     * @return the Logger.
+     */
+    public static Logger getLogger() {
+        return (NerdOre.PLUGIN != null) ? NerdOre.PLUGIN.getLogger() : Logger.getLogger("NerdOre");
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Return a random integer in the range [min,max].
@@ -20,4 +32,41 @@ public class Util {
         return min + random.nextInt(max - min + 1);
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return a single long that identifies the chunk with the specified chunk
+     * coordinates.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return the chunk key.
+     */
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFF_FFFFL);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the chunk X coordinate of a key returned by
+     * {@link #chunkKey(int, int)}.
+     *
+     * @param key the chunk key.
+     * @return the chunk X coordinate.
+     */
+    public static int chunkX(long key) {
+        return (int) (key >> 32);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the chunk Z coordinate of a key returned by
+     * {@link #chunkKey(int, int)}.
+     *
+     * @param key the chunk key.
+     * @return the chunk Z coordinate.
+     */
+    public static int chunkZ(long key) {
+        return (int) key;
+    }
+
 } // class Util
\ No newline at end of file
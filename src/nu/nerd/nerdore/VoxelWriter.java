@@ -0,0 +1,243 @@
+package nu.nerd.nerdore;
+
+import java.util.Arrays;
+
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+// ----------------------------------------------------------------------------
+/**
+ * Places the blocks of ore deposits centred in one chunk.
+ *
+ * The writer caches the centre chunk and its 8 immediate neighbours for the
+ * duration of the chunk's deposits, so that placing each voxel costs one
+ * Chunk.getBlock() call and an array lookup, with no intermediate Location
+ * objects or repeated chunk lookups. Whether the existing block can be
+ * replaced is tested against a bitset indexed by Material ordinal. The writer
+ * allocates nothing per voxel, but placing a voxel is not free of allocation:
+ * the server creates a new Block for every Chunk.getBlock() call.
+ *
+ * Voxels that fall in a neighbouring chunk that is not loaded are queued in
+ * {@link NerdOre#DEFERRED} rather than loading the chunk, which could stall the
+ * tick or even generate terrain. They are also recorded in the
+ * {@link SpilledBlocks} of the centre chunk, for its journal record. In legacy
+ * determinism mode, neighbours that already exist are loaded synchronously
+ * (without generation) to reproduce earlier results exactly; missing neighbours
+ * are still deferred.
+ *
+ * Every voxel outside the centre chunk counts towards the size of its deposit,
+ * whether it is placed, found not to be replaceable, or deferred, so that the
+ * size and shape of a deposit do not depend on which neighbours happened to be
+ * loaded. Voxels in the centre chunk count only if they are placed. In legacy
+ * determinism mode, voxels in loaded neighbours also count only if they are
+ * placed, as in earlier versions.
+ *
+ * Every replaced block is recorded in the {@link NerdOre#UNDO} journal.
+ *
+ * A single instance is reused for every chunk; call
+ * {@link #begin(Chunk, Job, SpilledBlocks)} before placing voxels and
+ * {@link #end()} afterwards.
+ */
+public class VoxelWriter {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param workingSet the working set that records neighbours that are
+     *        loaded to place voxels.
+     */
+    public VoxelWriter(ChunkWorkingSet workingSet) {
+        _workingSet = workingSet;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start placing voxels of deposits centred in the specified chunk.
+     *
+     * @param centre the centre chunk.
+     * @param job the job placing the deposits.
+     */
+    public void begin(Chunk centre, Job job) {
+        begin(centre, job, null);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start placing voxels of deposits centred in the specified chunk,
+     * recording deferred voxels.
+     *
+     * @param centre the centre chunk.
+     * @param job the job placing the deposits.
+     * @param spills if not null, records the voxels that are deferred.
+     */
+    public void begin(Chunk centre, Job job, SpilledBlocks spills) {
+        _spills = spills;
+        _world = centre.getWorld();
+        _worldName = _world.getName();
+        _jobId = job.getId();
+        _centreX = centre.getX();
+        _centreZ = centre.getZ();
+        Arrays.fill(_chunks, null);
+        Arrays.fill(_unloaded, false);
+        _chunks[4] = centre;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop placing voxels and release cached chunks.
+     */
+    public void end() {
+        Arrays.fill(_chunks, null);
+        _world = null;
+        _spills = null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the World that voxels are placed in.
+     *
+     * @return the World that voxels are placed in.
+     */
+    public World getWorld() {
+        return _world;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Place a block of the specified material at the specified world
+     * coordinates, if the existing block can be replaced, or defer placing it
+     * if the chunk is not loaded.
+     *
+     * Deferred blocks count as placed, since the block they will replace
+     * cannot be checked without loading the chunk, and so, for consistency,
+     * do all other blocks outside the centre chunk.
+     *
+     * @param x the world X coordinate.
+     * @param y the world Y coordinate.
+     * @param z the world Z coordinate.
+     * @param material the Material.
+     * @return true if the voxel counts towards the size of the deposit.
+     */
+    public boolean write(int x, int y, int z, Material material) {
+        if (y < 0 || y > 255) {
+            return false;
+        }
+
+        Chunk chunk = getChunk(x >> 4, z >> 4);
+        if (chunk == null) {
+            NerdOre.DEFERRED.add(_world, _jobId, x, y, z, material);
+            if (_spills != null) {
+                _spills.add(x, y, z, material);
+            }
+            return true;
+        }
+
+        Block block = chunk.getBlock(x & 15, y, z & 15);
+        Material original = block.getType();
+        if (NerdOre.CONFIG.isReplaceable(original)) {
+            NerdOre.UNDO.recordChange(_jobId, _worldName, x, y, z, original, material);
+            block.setType(material);
+            return true;
+        }
+        return chunk != _chunks[4] && !NerdOre.CONFIG.LEGACY_DETERMINISM;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the loaded chunk with the specified chunk coordinates, using the
+     * cache for the centre chunk and its neighbours.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return the Chunk, or null if it is not loaded.
+     */
+    protected Chunk getChunk(int chunkX, int chunkZ) {
+        int dx = chunkX - _centreX + 1;
+        int dz = chunkZ - _centreZ + 1;
+        if (dx >= 0 && dx <= 2 && dz >= 0 && dz <= 2) {
+            int i = dx * 3 + dz;
+            Chunk chunk = _chunks[i];
+            if (chunk == null && !_unloaded[i]) {
+                chunk = _chunks[i] = getLoadedChunk(chunkX, chunkZ);
+                _unloaded[i] = (chunk == null);
+            }
+            return chunk;
+        } else {
+            // Only very large deposits extend beyond the neighbours.
+            return getLoadedChunk(chunkX, chunkZ);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the chunk with the specified chunk coordinates if it is loaded.
+     *
+     * In legacy determinism mode, an existing chunk is loaded if necessary.
+     * Chunks are never generated.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return the Chunk, or null if it is not loaded.
+     */
+    protected Chunk getLoadedChunk(int chunkX, int chunkZ) {
+        if (_world.isChunkLoaded(chunkX, chunkZ)) {
+            _workingSet.touch(_world, chunkX, chunkZ);
+        } else if (NerdOre.CONFIG.LEGACY_DETERMINISM && _world.loadChunk(chunkX, chunkZ, false)) {
+            _workingSet.add(_world, chunkX, chunkZ);
+        } else {
+            return null;
+        }
+        return _world.getChunkAt(chunkX, chunkZ);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The working set that records neighbours that are loaded.
+     */
+    protected ChunkWorkingSet _workingSet;
+
+    /**
+     * The World where voxels are placed.
+     */
+    protected World _world;
+
+    /**
+     * The name of the World where voxels are placed.
+     */
+    protected String _worldName;
+
+    /**
+     * The ID of the job placing voxels.
+     */
+    protected String _jobId;
+
+    /**
+     * Records the voxels that are deferred, or null.
+     */
+    protected SpilledBlocks _spills;
+
+    /**
+     * The chunk X coordinate of the centre chunk.
+     */
+    protected int _centreX;
+
+    /**
+     * The chunk Z coordinate of the centre chunk.
+     */
+    protected int _centreZ;
+
+    /**
+     * The centre chunk and its neighbours, indexed by (dx + 1) * 3 + (dz + 1),
+     * where (dx, dz) is the offset from the centre in chunks. Elements are
+     * null until first used.
+     */
+    protected Chunk[] _chunks = new Chunk[9];
+
+    /**
+     * Elements are true if the corresponding element of _chunks was found not
+     * to be loaded.
+     */
+    protected boolean[] _unloaded = new boolean[9];
+} // class VoxelWriter
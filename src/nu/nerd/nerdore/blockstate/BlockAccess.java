@@ -0,0 +1,90 @@
+package nu.nerd.nerdore.blockstate;
+
+import org.bukkit.Material;
+
+// ----------------------------------------------------------------------------
+/**
+ * Headless access to one block, for applying rules without a server.
+ * 
+ * Implementations read and write region files directly, or simulate changes
+ * on top of a ChunkSnapshot; they need not be thread-safe, but must not call
+ * the Bukkit API, so that they can be used on worker threads or offline.
+ */
+public interface BlockAccess {
+    // ------------------------------------------------------------------------
+    /**
+     * Return the name of the block's world.
+     * 
+     * @return the name of the world.
+     */
+    public String getWorldName();
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the world X coordinate.
+     * 
+     * @return the world X coordinate.
+     */
+    public int getX();
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Y coordinate.
+     * 
+     * @return the Y coordinate.
+     */
+    public int getY();
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the world Z coordinate.
+     * 
+     * @return the world Z coordinate.
+     */
+    public int getZ();
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Material of the block.
+     * 
+     * @return the Material.
+     */
+    public Material getType();
+
+    // ------------------------------------------------------------------------
+    /**
+     * Replace the block with the default state of a Material, removing any
+     * tile entity data.
+     * 
+     * @param material the new Material.
+     */
+    public void setType(Material material);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the level of a liquid block.
+     * 
+     * @return the level; 0 for a source block, or a block that is not a
+     *         liquid.
+     */
+    public int getLevel();
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Material of a nearby block.
+     * 
+     * @param dx the X offset.
+     * @param dy the Y offset.
+     * @param dz the Z offset.
+     * @return the Material, or null if the block is not accessible.
+     */
+    public Material getRelativeType(int dx, int dy, int dz);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the settings of the spawner at this block.
+     * 
+     * @return the settings, or null if the block is not a spawner.
+     */
+    public SpawnerAccess getSpawner();
+} // class BlockAccess
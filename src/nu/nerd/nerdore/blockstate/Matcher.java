@@ -35,4 +35,15 @@ public interface Matcher {
      *        the matching BlockState.
      */
     public boolean matches(BlockState state, StringBuilder message);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the block should be affected by the {@link ClearRule}
+     * that owns this Matcher, without using the server.
+     * 
+     * @param block the block.
+     * @param message if not-null, this StringBuilder is used to log details of
+     *        the matching block.
+     */
+    public boolean matches(BlockAccess block, StringBuilder message);
 } // class Matcher
\ No newline at end of file
@@ -54,17 +54,65 @@ public class MatcherForLiquid implements Matcher {
             block.getRelative(BlockFace.EAST),
             block.getRelative(BlockFace.DOWN) };
         for (Block neighbour : checked) {
-            if (neighbour != null && (neighbour.getType() == Material.AIR ||
-                                      neighbour.getType() == Material.CAVE_AIR)) {
-                if (message != null) {
-                    message.append(" (unstable)");
-                }
+            if (neighbour != null && isUnstableNextTo(neighbour.getType(), message)) {
                 return true;
             }
         }
         return false;
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * @see Matcher#matches(BlockAccess, StringBuilder)
+     */
+    @Override
+    public boolean matches(BlockAccess block, StringBuilder message) {
+        if (!_unstable) {
+            return true;
+        }
+        if (block.getLevel() != 0) {
+            return false;
+        }
+
+        // North, south, west, east and down, as above.
+        return isUnstableNextTo(block.getRelativeType(0, 0, -1), message) ||
+               isUnstableNextTo(block.getRelativeType(0, 0, 1), message) ||
+               isUnstableNextTo(block.getRelativeType(-1, 0, 0), message) ||
+               isUnstableNextTo(block.getRelativeType(1, 0, 0), message) ||
+               isUnstableNextTo(block.getRelativeType(0, -1, 0), message);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a liquid source block next to a block of the specified
+     * Material could flow.
+     * 
+     * @param neighbour the Material of the neighbouring block, or null if
+     *        unknown.
+     * @param message if not-null, this StringBuilder is used to log details of
+     *        the matching block.
+     * @return true if the source could flow into the neighbour.
+     */
+    protected boolean isUnstableNextTo(Material neighbour, StringBuilder message) {
+        if (neighbour == Material.AIR || neighbour == Material.CAVE_AIR) {
+            if (message != null) {
+                message.append(" (unstable)");
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if only source blocks that could flow will be affected.
+     * 
+     * @return true if only source blocks that could flow will be affected.
+     */
+    public boolean isUnstable() {
+        return _unstable;
+    }
+
     // ------------------------------------------------------------------------
     /**
      * @see Object#toString()
@@ -50,10 +50,32 @@ public class MatcherForSpawner implements Matcher {
      */
     @Override
     public boolean matches(BlockState state, StringBuilder message) {
-        CreatureSpawner spawnerState = (CreatureSpawner) state;
-        if (_spawnedTypes.isEmpty() || _spawnedTypes.contains(spawnerState.getSpawnedType())) {
+        return matches(((CreatureSpawner) state).getSpawnedType(), message);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see Matcher#matches(BlockAccess, StringBuilder)
+     */
+    @Override
+    public boolean matches(BlockAccess block, StringBuilder message) {
+        SpawnerAccess spawner = block.getSpawner();
+        return spawner != null && matches(spawner.getSpawnedType(), message);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a spawner of the specified type should be affected.
+     * 
+     * @param spawnedType the type of entity spawned.
+     * @param message if not-null, this StringBuilder is used to log details of
+     *        the matching spawner.
+     * @return true if the spawner should be affected.
+     */
+    protected boolean matches(EntityType spawnedType, StringBuilder message) {
+        if (_spawnedTypes.isEmpty() || _spawnedTypes.contains(spawnedType)) {
             if (message != null) {
-                message.append(" (").append(spawnerState.getSpawnedType()).append(')');
+                message.append(" (").append(spawnedType).append(')');
             }
             return true;
         }
@@ -39,6 +39,20 @@ public interface Replacer {
      */
     public void apply(BlockState state, Random random, StringBuilder message);
 
+    // ------------------------------------------------------------------------
+    /**
+     * Apply the changes to the specified block, without using the server.
+     * 
+     * The same random numbers are drawn as by
+     * {@link #apply(BlockState, Random, StringBuilder)}.
+     * 
+     * @param block the block to alter.
+     * @param random the RNG to use.
+     * @param message a StringBuilder used to compose the logged message; null
+     *        if not logged.
+     */
+    public void apply(BlockAccess block, Random random, StringBuilder message);
+
     // ------------------------------------------------------------------------
     /**
      * Common code for loading Replacer properties from a ConfigurationSection.
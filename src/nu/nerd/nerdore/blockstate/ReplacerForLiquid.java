@@ -58,6 +58,17 @@ public class ReplacerForLiquid implements Replacer {
         }
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Physics cannot be updated without the server, so this does nothing; the
+     * liquid flows when it next receives a block update.
+     * 
+     * @see Replacer#apply(BlockAccess, Random, StringBuilder)
+     */
+    @Override
+    public void apply(BlockAccess block, Random random, StringBuilder message) {
+    }
+
     // ------------------------------------------------------------------------
     /**
      * @see Object#toString()
@@ -113,7 +113,33 @@ public class ReplacerForSpawner implements Replacer {
      */
     @Override
     public void apply(BlockState state, Random random, StringBuilder message) {
-        CreatureSpawner spawnerState = (CreatureSpawner) state;
+        apply(SpawnerAccess.of((CreatureSpawner) state), random, message);
+        state.update();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.nerdore.blockstate.Replacer#apply(BlockAccess, Random,
+     *      StringBuilder)
+     */
+    @Override
+    public void apply(BlockAccess block, Random random, StringBuilder message) {
+        SpawnerAccess spawner = block.getSpawner();
+        if (spawner != null) {
+            apply(spawner, random, message);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Apply the changes to the settings of a spawner.
+     * 
+     * @param spawnerState the spawner.
+     * @param random the RNG to use.
+     * @param message a StringBuilder used to compose the logged message; null
+     *        if not logged.
+     */
+    protected void apply(SpawnerAccess spawnerState, Random random, StringBuilder message) {
         if (message != null) {
             message.append(" (");
         }
@@ -171,7 +197,6 @@ public class ReplacerForSpawner implements Replacer {
         if (message != null) {
             message.append(')');
         }
-        state.update();
     }
 
     // ------------------------------------------------------------------------
@@ -0,0 +1,132 @@
+package nu.nerd.nerdore.blockstate;
+
+import org.bukkit.block.CreatureSpawner;
+import org.bukkit.entity.EntityType;
+
+// ----------------------------------------------------------------------------
+/**
+ * The settings of a spawner that {@link Matcher}s and {@link Replacer}s read
+ * and change, independent of where the spawner is stored.
+ * 
+ * On the server, this wraps a CreatureSpawner BlockState; offline, it wraps
+ * the spawner's tile entity data.
+ */
+public interface SpawnerAccess {
+    // ------------------------------------------------------------------------
+    /**
+     * Return a SpawnerAccess that reads and changes a CreatureSpawner.
+     * 
+     * The caller must update the CreatureSpawner after making changes.
+     * 
+     * @param spawner the CreatureSpawner.
+     * @return the SpawnerAccess.
+     */
+    public static SpawnerAccess of(CreatureSpawner spawner) {
+        return new SpawnerAccess() {
+            @Override
+            public EntityType getSpawnedType() {
+                return spawner.getSpawnedType();
+            }
+
+            @Override
+            public void setSpawnedType(EntityType type) {
+                spawner.setSpawnedType(type);
+            }
+
+            @Override
+            public void setRequiredPlayerRange(int range) {
+                spawner.setRequiredPlayerRange(range);
+            }
+
+            @Override
+            public void setMinSpawnDelay(int ticks) {
+                spawner.setMinSpawnDelay(ticks);
+            }
+
+            @Override
+            public void setMaxSpawnDelay(int ticks) {
+                spawner.setMaxSpawnDelay(ticks);
+            }
+
+            @Override
+            public void setSpawnCount(int count) {
+                spawner.setSpawnCount(count);
+            }
+
+            @Override
+            public void setSpawnRange(int range) {
+                spawner.setSpawnRange(range);
+            }
+
+            @Override
+            public void setMaxNearbyEntities(int count) {
+                spawner.setMaxNearbyEntities(count);
+            }
+        };
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the type of entity spawned.
+     * 
+     * @return the type of entity spawned.
+     */
+    public EntityType getSpawnedType();
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the type of entity spawned.
+     * 
+     * @param type the type of entity spawned.
+     */
+    public void setSpawnedType(EntityType type);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the maximum distance of a player for the spawner to be active.
+     * 
+     * @param range the distance in blocks.
+     */
+    public void setRequiredPlayerRange(int range);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the minimum delay between spawns.
+     * 
+     * @param ticks the delay in ticks.
+     */
+    public void setMinSpawnDelay(int ticks);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the maximum delay between spawns.
+     * 
+     * @param ticks the delay in ticks.
+     */
+    public void setMaxSpawnDelay(int ticks);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the number of entities spawned at a time.
+     * 
+     * @param count the number of entities.
+     */
+    public void setSpawnCount(int count);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the horizontal distance from the spawner of spawned entities.
+     * 
+     * @param range the distance in blocks.
+     */
+    public void setSpawnRange(int range);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the maximum number of similar entities near the spawner for it to
+     * spawn more.
+     * 
+     * @param count the number of entities.
+     */
+    public void setMaxNearbyEntities(int count);
+} // class SpawnerAccess
@@ -0,0 +1,248 @@
+package nu.nerd.nerdore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// ----------------------------------------------------------------------------
+/**
+ * Tests of {@link AnvilChunk}, against chunks whose packed block states span
+ * two longs (1.14.4) and chunks whose packed block states do not (1.16.5).
+ */
+public class AnvilChunkTest {
+    // ------------------------------------------------------------------------
+    @Before
+    public void setUp() throws IOException {
+        _folder = Files.createTempDirectory("nerdore-chunk");
+        for (int v = 0; v < RegionFixtures.VERSIONS.length; ++v) {
+            File folder = new File(_folder.toFile(), RegionFixtures.VERSIONS[v]);
+            RegionFixtures.copy(RegionFixtures.VERSIONS[v], folder);
+            _regions[v] = RegionFile.read(new File(folder, "r.0.0.mca"));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    @After
+    public void tearDown() throws IOException {
+        RegionFixtures.delete(_folder);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Both formats decode to the same blocks, liquid levels and biomes.
+     */
+    @Test
+    public void formatsDecodeToTheSameChunk() throws IOException {
+        for (int chunkZ = 0; chunkZ <= 1; ++chunkZ) {
+            for (int chunkX = 30; chunkX <= 31; ++chunkX) {
+                AnvilChunk spanning = RegionFixtures.getChunk(_regions[0], chunkX, chunkZ);
+                AnvilChunk aligned = RegionFixtures.getChunk(_regions[1], chunkX, chunkZ);
+                assertTrue(spanning.isSpanning());
+                assertFalse(aligned.isSpanning());
+                assertSameBlocks("chunk " + chunkX + "," + chunkZ, spanning, aligned, -1, -1, -1);
+
+                ChunkSnapshot spanningSnapshot = spanning.getSnapshot();
+                ChunkSnapshot alignedSnapshot = aligned.getSnapshot();
+                for (int x = 0; x < 16; ++x) {
+                    for (int z = 0; z < 16; ++z) {
+                        assertEquals(spanningSnapshot.getBiome(x, z), alignedSnapshot.getBiome(x, z));
+                    }
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Known blocks of the fixtures decode as expected, including in sections
+     * with 5 bits per block state.
+     */
+    @Test
+    public void decodesKnownBlocks() throws IOException {
+        for (RegionFile region : _regions) {
+            AnvilChunk chunk = RegionFixtures.getChunk(region, 30, 1);
+            assertEquals(30, chunk.getX());
+            assertEquals(1, chunk.getZ());
+            assertTrue(chunk.isFullyGenerated());
+            assertFalse(chunk.isModified());
+            assertEquals(Material.BEDROCK, chunk.getType(0, 0, 0));
+            assertEquals(Material.DIRT, chunk.getType(15, 61, 15));
+            assertEquals(Material.AIR, chunk.getType(7, 63, 7));
+            assertEquals(Material.AIR, chunk.getType(7, 255, 7));
+            assertEquals(Material.CHEST, chunk.getType(5, 30, 9));
+            assertTrue(bitsPerBlock(chunk, 1) > 4);
+
+            int water = 0;
+            int maxLevel = 0;
+            for (int y = 1; y < 60; ++y) {
+                for (int x = 0; x < 16; ++x) {
+                    for (int z = 0; z < 16; ++z) {
+                        if (chunk.getType(x, y, z) == Material.WATER) {
+                            ++water;
+                            maxLevel = Math.max(maxLevel, chunk.getLevel(x, y, z));
+                        }
+                    }
+                }
+            }
+            assertTrue(water > 0);
+            assertEquals(7, maxLevel);
+            assertFalse(RegionFixtures.getChunk(region, 29, 0).isFullyGenerated());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Saving an unchanged chunk leaves its NBT data exactly as it was.
+     */
+    @Test
+    public void unchangedChunkSavesIdentically() throws IOException {
+        for (RegionFile region : _regions) {
+            byte[] original = RegionFixtures.encode(region.getChunk(31, 0));
+            AnvilChunk chunk = new AnvilChunk("world", RegionFixtures.decode(original));
+            assertArrayEquals(original, RegionFixtures.encode(chunk.save()));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Changed blocks are encoded in the chunk's own format, only the changed
+     * sections are encoded again, and all other blocks read back unchanged.
+     */
+    @Test
+    public void changedBlocksRoundTrip() throws IOException {
+        for (RegionFile region : _regions) {
+            Nbt.Compound root = region.getChunk(31, 0);
+            AnvilChunk original = new AnvilChunk("world", RegionFixtures.decode(RegionFixtures.encode(root)));
+            AnvilChunk chunk = new AnvilChunk("world", root);
+            Nbt.Compound untouched = findSection(root, 3);
+            byte[] untouchedBytes = encodeSection(untouched);
+
+            chunk.setType(3, 20, 4, Material.DIAMOND_ORE);
+            chunk.setType(15, 100, 15, Material.IRON_ORE);
+            assertTrue(chunk.isModified());
+            AnvilChunk reread = new AnvilChunk("world", RegionFixtures.decode(RegionFixtures.encode(chunk.save())));
+            assertFalse(chunk.isModified());
+
+            assertEquals(Material.DIAMOND_ORE, reread.getType(3, 20, 4));
+            assertEquals(Material.IRON_ORE, reread.getType(15, 100, 15));
+            assertSameBlocks("changed", original, reread, 3, 20, 4);
+            assertArrayEquals(untouchedBytes, encodeSection(findSection(chunk.save(), 3)));
+
+            // The new section 6 and the re-encoded section 1 use the chunk's
+            // packing.
+            for (int sectionY : new int[] { 1, 6 }) {
+                int bits = bitsPerBlock(reread, sectionY);
+                long[] states = (long[]) findSection(chunk.save(), sectionY).get("BlockStates");
+                int expected = reread.isSpanning() ? 4096 * bits / 64 : (4096 + 64 / bits - 1) / (64 / bits);
+                assertEquals("section " + sectionY + " length", expected, states.length);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Replacing a block removes its tile entity, and placing a spawner adds
+     * one with default settings.
+     */
+    @Test
+    public void tileEntitiesFollowBlocks() throws IOException {
+        for (RegionFile region : _regions) {
+            AnvilChunk chunk = RegionFixtures.getChunk(region, 31, 1);
+            chunk.setType(5, 30, 9, Material.STONE);
+            chunk.setType(1, 40, 2, Material.SPAWNER);
+            assertNotNull(chunk.getSpawner(1, 40, 2));
+            assertNull(chunk.getSpawner(1, 41, 2));
+
+            Nbt.ListTag tileEntities = chunk.save().getCompound("Level").getList("TileEntities");
+            assertEquals(1, tileEntities.size());
+            Nbt.Compound spawner = (Nbt.Compound) tileEntities.get(0);
+            assertEquals("minecraft:mob_spawner", spawner.getString("id"));
+            assertEquals(31 * 16 + 1, spawner.getInt("x", 0));
+            assertEquals(40, spawner.getInt("y", 0));
+            assertEquals(16 + 2, spawner.getInt("z", 0));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Assert that two chunks have the same blocks and liquid levels, except
+     * possibly at one position.
+     *
+     * @param message the message prefix.
+     * @param expected the expected chunk.
+     * @param actual the actual chunk.
+     * @param exceptX the X coordinate of the excepted block, or -1.
+     * @param exceptY the Y coordinate of the excepted block, or -1.
+     * @param exceptZ the Z coordinate of the excepted block, or -1.
+     */
+    protected static void assertSameBlocks(String message, AnvilChunk expected, AnvilChunk actual,
+                                           int exceptX, int exceptY, int exceptZ) {
+        for (int y = 0; y < 100; ++y) {
+            for (int x = 0; x < 16; ++x) {
+                for (int z = 0; z < 16; ++z) {
+                    if (x != exceptX || y != exceptY || z != exceptZ) {
+                        String where = message + " at " + x + "," + y + "," + z;
+                        assertEquals(where, expected.getType(x, y, z), actual.getType(x, y, z));
+                        assertEquals(where, expected.getLevel(x, y, z), actual.getLevel(x, y, z));
+                    }
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of bits per block state of a section of a chunk.
+     */
+    protected static int bitsPerBlock(AnvilChunk chunk, int sectionY) {
+        return AnvilChunk.getBitsPerBlock(chunk._sections[sectionY].getList("Palette").size());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the section of a chunk's NBT data with the specified Y, or null.
+     */
+    protected static Nbt.Compound findSection(Nbt.Compound root, int sectionY) {
+        for (Object section : root.getCompound("Level").getList("Sections")) {
+            if (((Nbt.Compound) section).getInt("Y", -99) == sectionY) {
+                return (Nbt.Compound) section;
+            }
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Encode one section.
+     */
+    protected static byte[] encodeSection(Nbt.Compound section) throws IOException {
+        Nbt.Compound root = new Nbt.Compound();
+        root.put("section", section);
+        return RegionFixtures.encode(root);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The temporary folder of each test.
+     */
+    protected Path _folder;
+
+    /**
+     * r.0.0.mca of each version, indexed as RegionFixtures.VERSIONS.
+     */
+    protected RegionFile[] _regions = new RegionFile[RegionFixtures.VERSIONS.length];
+} // class AnvilChunkTest
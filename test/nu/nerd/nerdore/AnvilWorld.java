@@ -0,0 +1,363 @@
+package nu.nerd.nerdore;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+// ----------------------------------------------------------------------------
+/**
+ * An in-memory World of the fully generated chunks of a folder of region
+ * files, so that {@link OreTask} can be tested without a server.
+ *
+ * The World, Chunk and Block objects handed out are dynamic proxies that
+ * implement the part of those Bukkit interfaces that OreTask uses to place
+ * ore; any other method throws an UnsupportedOperationException naming the
+ * method. Chunks that are not fully generated do not exist: they cannot be
+ * loaded. Chunk snapshots are {@link AnvilChunk#getSnapshot() copies}.
+ *
+ * Worlds are added to a Server proxy that is installed as the Bukkit Server
+ * the first time it is needed; Bukkit's Server can only be set once per JVM,
+ * so the worlds can be replaced but the server cannot.
+ */
+public class AnvilWorld {
+    // ------------------------------------------------------------------------
+    /**
+     * Load the fully generated chunks of every region file in a folder.
+     *
+     * @param name the name of the world.
+     * @param seed the world seed.
+     * @param regionFolder the folder of region files.
+     * @throws IOException if a region file cannot be read.
+     */
+    public AnvilWorld(String name, long seed, File regionFolder) throws IOException {
+        _name = name;
+        _seed = seed;
+        _world = proxy(World.class, this::invokeWorld);
+        File[] files = regionFolder.listFiles();
+        for (File file : (files != null) ? files : new File[0]) {
+            Matcher matcher = REGION_FILE.matcher(file.getName());
+            if (matcher.matches()) {
+                int regionX = Integer.parseInt(matcher.group(1));
+                int regionZ = Integer.parseInt(matcher.group(2));
+                RegionFile region = RegionFile.read(file);
+                for (int i = 0; i < 1024; ++i) {
+                    if (region.hasChunk(i & 31, i >> 5)) {
+                        AnvilChunk chunk = new AnvilChunk(name, region.getChunk(i & 31, i >> 5));
+                        if (chunk.isFullyGenerated()) {
+                            _chunks.put(Util.chunkKey(regionX * 32 + (i & 31), regionZ * 32 + (i >> 5)), chunk);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add this world to the Bukkit Server, installing the server if
+     * necessary, and replacing any world with the same name.
+     */
+    public void install() {
+        synchronized (WORLDS) {
+            if (Bukkit.getServer() == null) {
+                Bukkit.setServer(proxy(Server.class, AnvilWorld::invokeServer));
+            }
+            WORLDS.put(_name, this);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove this world from the Bukkit Server.
+     */
+    public void uninstall() {
+        synchronized (WORLDS) {
+            WORLDS.remove(_name, this);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Bukkit World view of this world.
+     *
+     * @return the World.
+     */
+    public World getWorld() {
+        return _world;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the blocks of a chunk.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return the chunk, or null if it does not exist.
+     */
+    public AnvilChunk getChunk(int chunkX, int chunkZ) {
+        return _chunks.get(Util.chunkKey(chunkX, chunkZ));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the keys of the chunks that exist.
+     *
+     * @return the {@link Util#chunkKey(int, int) chunk keys}.
+     */
+    public Set<Long> getChunkKeys() {
+        return Collections.unmodifiableSet(_chunks.keySet());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load a chunk that exists, and return its Chunk.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return the Chunk.
+     */
+    public Chunk load(int chunkX, int chunkZ) {
+        long key = Util.chunkKey(chunkX, chunkZ);
+        if (_chunks.containsKey(key)) {
+            _loaded.add(key);
+        }
+        return _chunkViews.computeIfAbsent(key, k -> proxy(Chunk.class, (proxy, method, args) ->
+            invokeChunk(proxy, method, args, chunkX, chunkZ, _chunks.get(key))));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle a call to the Server.
+     */
+    protected static Object invokeServer(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+        case "getName":
+        case "getVersion":
+        case "getBukkitVersion":
+            return "AnvilWorld";
+        case "getLogger":
+            return LOGGER;
+        case "getWorld":
+            synchronized (WORLDS) {
+                AnvilWorld world = WORLDS.get(args[0]);
+                return (world != null) ? world._world : null;
+            }
+        case "getWorlds":
+            synchronized (WORLDS) {
+                ArrayList<World> worlds = new ArrayList<>();
+                WORLDS.values().forEach(w -> worlds.add(w._world));
+                return worlds;
+            }
+        case "getOnlinePlayers":
+            return Collections.emptyList();
+        case "broadcast":
+            LOGGER.info((String) args[0]);
+            return 0;
+        }
+        return invokeObject(proxy, method, args, "AnvilWorld Server");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle a call to the World.
+     */
+    protected Object invokeWorld(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+        case "getName":
+            return _name;
+        case "getUID":
+            return UUID.nameUUIDFromBytes(_name.getBytes(StandardCharsets.UTF_8));
+        case "getSeed":
+            return _seed;
+        case "getMaxHeight":
+            return 256;
+        case "getEnvironment":
+            return World.Environment.NORMAL;
+        case "getChunkAt":
+            return load((int) args[0], (int) args[1]);
+        case "isChunkLoaded":
+            return _loaded.contains(Util.chunkKey((int) args[0], (int) args[1]));
+        case "isChunkGenerated":
+            return _chunks.containsKey(Util.chunkKey((int) args[0], (int) args[1]));
+        case "isChunkInUse":
+            return false;
+        case "loadChunk":
+            return load((int) args[0], (int) args[1]).isLoaded();
+        case "unloadChunk":
+        case "unloadChunkRequest":
+            return _loaded.remove(Util.chunkKey((int) args[0], (int) args[1]));
+        case "getPlayers":
+            return Collections.emptyList();
+        }
+        return invokeObject(proxy, method, args, "AnvilWorld{name=" + _name + "}");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle a call to a Chunk.
+     *
+     * @param chunk the chunk's blocks, or null if it does not exist.
+     */
+    protected Object invokeChunk(Object proxy, Method method, Object[] args, int chunkX, int chunkZ,
+                                 AnvilChunk chunk) {
+        long key = Util.chunkKey(chunkX, chunkZ);
+        switch (method.getName()) {
+        case "getX":
+            return chunkX;
+        case "getZ":
+            return chunkZ;
+        case "getWorld":
+            return _world;
+        case "isLoaded":
+            return _loaded.contains(key);
+        case "load":
+            if (chunk != null) {
+                _loaded.add(key);
+            }
+            return chunk != null;
+        case "unload":
+            return _loaded.remove(key);
+        }
+        if (chunk != null && _loaded.contains(key)) {
+            switch (method.getName()) {
+            case "getBlock":
+                return proxy(Block.class, (block, blockMethod, blockArgs) ->
+                    invokeBlock(block, blockMethod, blockArgs, chunk, (int) args[0], (int) args[1], (int) args[2]));
+            case "getChunkSnapshot":
+                return chunk.getSnapshot();
+            }
+        }
+        return invokeObject(proxy, method, args, "AnvilWorld.Chunk{world=" + _name + ",x=" + chunkX +
+                                                 ",z=" + chunkZ + ",exists=" + (chunk != null) + "}");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle a call to a Block.
+     *
+     * @param chunk the chunk's blocks.
+     * @param x the chunk-relative X coordinate.
+     * @param y the Y coordinate.
+     * @param z the chunk-relative Z coordinate.
+     */
+    protected Object invokeBlock(Object proxy, Method method, Object[] args, AnvilChunk chunk, int x, int y, int z) {
+        switch (method.getName()) {
+        case "getType":
+            return chunk.getType(x, y, z);
+        case "setType":
+            chunk.setType(x, y, z, (Material) args[0]);
+            return null;
+        case "getX":
+            return chunk.getX() * 16 + x;
+        case "getY":
+            return y;
+        case "getZ":
+            return chunk.getZ() * 16 + z;
+        case "getWorld":
+            return _world;
+        case "getChunk":
+            return load(chunk.getX(), chunk.getZ());
+        }
+        return invokeObject(proxy, method, args, "AnvilWorld.Block{world=" + _name + ",x=" + (chunk.getX() * 16 + x) +
+                                                 ",y=" + y + ",z=" + (chunk.getZ() * 16 + z) + "}");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle the methods of Object, and reject all others.
+     *
+     * Proxies are equal only to themselves.
+     */
+    protected static Object invokeObject(Object proxy, Method method, Object[] args, String description) {
+        switch (method.getName()) {
+        case "equals":
+            return proxy == args[0];
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        case "toString":
+            return description;
+        }
+        throw new UnsupportedOperationException(method.getDeclaringClass().getSimpleName() + "." + method.getName() +
+                                                "() is not implemented by " + AnvilWorld.class.getSimpleName());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create a proxy instance of an interface.
+     *
+     * @param type the interface.
+     * @param handler the invocation handler.
+     * @return the proxy.
+     */
+    @SuppressWarnings("unchecked")
+    protected static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(AnvilWorld.class.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Pattern matching region file names, capturing the region coordinates.
+     */
+    protected static final Pattern REGION_FILE = Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.mca");
+
+    /**
+     * The worlds of the installed Server, by name.
+     */
+    protected static final Map<String, AnvilWorld> WORLDS = new LinkedHashMap<>();
+
+    /**
+     * The Logger of the installed Server.
+     */
+    protected static final Logger LOGGER = Logger.getLogger("AnvilWorld");
+
+    /**
+     * The name of the world.
+     */
+    protected final String _name;
+
+    /**
+     * The world seed.
+     */
+    protected final long _seed;
+
+    /**
+     * The Bukkit World view.
+     */
+    protected final World _world;
+
+    /**
+     * The fully generated chunks, by {@link Util#chunkKey(int, int)}.
+     */
+    protected final Map<Long, AnvilChunk> _chunks = new HashMap<>();
+
+    /**
+     * The Chunk views of chunks that have been looked up, by chunk key.
+     */
+    protected final Map<Long, Chunk> _chunkViews = new HashMap<>();
+
+    /**
+     * The keys of the loaded chunks.
+     */
+    protected final Set<Long> _loaded = new HashSet<>();
+} // class AnvilWorld
@@ -0,0 +1,131 @@
+package nu.nerd.nerdore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Test;
+
+// ----------------------------------------------------------------------------
+/**
+ * Tests of {@link Nbt}.
+ */
+public class NbtTest {
+    // ------------------------------------------------------------------------
+    /**
+     * Reading and writing the NBT data of every chunk of the fixtures
+     * reproduces it byte for byte.
+     */
+    @Test
+    public void readWriteIsByteIdentical() throws IOException {
+        for (String version : RegionFixtures.VERSIONS) {
+            for (String name : RegionFixtures.REGION_FILES) {
+                for (byte[] data : readChunkData(version, name)) {
+                    assertArrayEquals(version + " " + name, data,
+                                      RegionFixtures.encode(RegionFixtures.decode(data)));
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Tags keep their Java types, compounds keep their order, and empty lists
+     * keep their element types.
+     */
+    @Test
+    public void tagsKeepTypesAndOrder() throws IOException {
+        Nbt.Compound root = new Nbt.Compound();
+        root.put("byte", (byte) -1);
+        root.put("short", (short) 300);
+        root.put("int", 70000);
+        root.put("long", 1L << 40);
+        root.put("float", 1.5f);
+        root.put("double", -2.25);
+        root.put("bytes", new byte[] { 1, 2, 3 });
+        root.put("string", "stone");
+        root.put("empty", new Nbt.ListTag(Nbt.END));
+        root.put("emptyCompounds", new Nbt.ListTag(Nbt.COMPOUND));
+        root.put("ints", new int[] { 4, 5 });
+        root.put("longs", new long[] { 6L, 7L });
+
+        Nbt.Compound copy = RegionFixtures.decode(RegionFixtures.encode(root));
+        assertEquals(new ArrayList<>(root.keySet()), new ArrayList<>(copy.keySet()));
+        assertEquals((byte) -1, copy.get("byte"));
+        assertEquals((short) 300, copy.get("short"));
+        assertEquals(70000, copy.get("int"));
+        assertEquals(1L << 40, copy.get("long"));
+        assertEquals(1.5f, copy.get("float"));
+        assertEquals(-2.25, copy.get("double"));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) copy.get("bytes"));
+        assertEquals("stone", copy.get("string"));
+        assertEquals(Nbt.END, copy.getList("empty").getElementType());
+        assertEquals(Nbt.COMPOUND, copy.getList("emptyCompounds").getElementType());
+        assertArrayEquals(new int[] { 4, 5 }, (int[]) copy.get("ints"));
+        assertArrayEquals(new long[] { 6L, 7L }, (long[]) copy.get("longs"));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the decompressed NBT data of every chunk of a region file of the
+     * fixtures.
+     *
+     * @param version the version.
+     * @param name the name of the region file.
+     * @return the data of each chunk.
+     */
+    protected static List<byte[]> readChunkData(String version, String name) throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        try (InputStream in = RegionFixtures.open(version, name)) {
+            copy(in, file);
+        }
+        byte[] bytes = file.toByteArray();
+
+        List<byte[]> chunks = new ArrayList<>();
+        for (int i = 0; i < 1024; ++i) {
+            int location = readInt(bytes, i * 4);
+            if (location != 0) {
+                int offset = (location >>> 8) * 4096;
+                int length = readInt(bytes, offset);
+                InputStream compressed = new ByteArrayInputStream(bytes, offset + 5, length - 1);
+                InputStream in = (bytes[offset + 4] == 1) ? new GZIPInputStream(compressed)
+                                                          : new InflaterInputStream(compressed);
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                copy(in, data);
+                chunks.add(data.toByteArray());
+            }
+        }
+        assertTrue(version + " " + name + " has chunks", !chunks.isEmpty());
+        return chunks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Copy a stream.
+     */
+    protected static void copy(InputStream in, ByteArrayOutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            out.write(buffer, 0, count);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read a big-endian int.
+     */
+    protected static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16) |
+               ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+} // class NbtTest
@@ -0,0 +1,337 @@
+package nu.nerd.nerdore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.Material;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// ----------------------------------------------------------------------------
+/**
+ * Tests of {@link OfflineProcessor} against the region files of
+ * {@link RegionFixtures}.
+ *
+ * The job processes the four fully generated chunks of r.0.0.mca with one ore
+ * rule. The expected result is computed independently, by planning each chunk
+ * with {@link OreTask#planChunk(org.bukkit.ChunkSnapshot, ClearScanner,
+ * DepositPlanner, long)} and placing the planned voxels as
+ * {@link VoxelWriter} does: a voxel in a chunk that is not available (here, a
+ * chunk of another region file or one that is not fully generated) is queued,
+ * and every voxel outside the planned chunk counts as placed.
+ */
+public class OfflineProcessorTest {
+    // ------------------------------------------------------------------------
+    @Before
+    public void setUp() throws IOException {
+        _folder = Files.createTempDirectory("nerdore-offline");
+        _configFile = _folder.resolve("config.yml").toFile();
+        Files.write(_configFile.toPath(), CONFIG.getBytes(StandardCharsets.UTF_8));
+        NerdOre.DEFERRED = new DeferredWrites();
+    }
+
+    // ------------------------------------------------------------------------
+    @After
+    public void tearDown() throws IOException {
+        NerdOre.DEFERRED = new DeferredWrites();
+        RegionFixtures.delete(_folder);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The chunks of the processed region file hold exactly the ore planned
+     * for them, placed in the order of the region file.
+     */
+    @Test
+    public void processedRegionMatchesPlannedDeposits() throws IOException {
+        for (String version : RegionFixtures.VERSIONS) {
+            Expected expected = process(version);
+            RegionFile region = RegionFile.read(new File(_regionFolder, "r.0.0.mca"));
+            long ores = 0;
+            for (int[] chunk : PROCESSED_CHUNKS) {
+                ores += assertSameChunk(version, expected, region, chunk[0], chunk[1]);
+            }
+            assertTrue(version + ": no ore was placed", ores > 0);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Ore that spills into a chunk of another region file, which the job does
+     * not process, is placed there in the second pass, and nothing else in
+     * that region file changes.
+     */
+    @Test
+    public void crossRegionSpillsArePlacedInTheSecondPass() throws IOException {
+        for (String version : RegionFixtures.VERSIONS) {
+            Expected expected = process(version);
+            RegionFile region = RegionFile.read(new File(_regionFolder, "r.1.0.mca"));
+            long ores = 0;
+            for (int chunkZ = 0; chunkZ <= 1; ++chunkZ) {
+                ores += assertSameChunk(version, expected, region, 32, chunkZ);
+            }
+            assertTrue(version + ": no ore spilled into r.1.0.mca", ores > 0);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Chunks that are not processed, and that nothing spills into, keep their
+     * compressed data and timestamps exactly.
+     */
+    @Test
+    public void untouchedChunksKeepTheirBytes() throws IOException {
+        for (String version : RegionFixtures.VERSIONS) {
+            File originalFolder = new File(_folder.toFile(), "original-" + version);
+            RegionFixtures.copy(version, originalFolder);
+            process(version);
+
+            RegionFile original = RegionFile.read(new File(originalFolder, "r.0.0.mca"));
+            RegionFile processed = RegionFile.read(new File(_regionFolder, "r.0.0.mca"));
+            int index = RegionFile.index(29, 0);
+            assertArrayEquals(version, original._data[index], processed._data[index]);
+            assertEquals(version, original._timestamps[index], processed._timestamps[index]);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run the processor on a fresh copy of the region files of a version, and
+     * compute the expected result from the original chunks.
+     *
+     * @param version the version.
+     * @return the expected chunks.
+     */
+    protected Expected process(String version) throws IOException {
+        File worldFolder = new File(_folder.toFile(), "world-" + version);
+        _regionFolder = new File(worldFolder, "region");
+        RegionFixtures.delete(worldFolder.toPath());
+        RegionFixtures.copy(version, _regionFolder);
+        Expected expected = new Expected(_regionFolder);
+
+        OfflineProcessor processor = new OfflineProcessor();
+        assertTrue(processor.parseArguments(new String[] { _configFile.getPath(), worldFolder.getPath(),
+                                                           "--job", "test", "--seed", Long.toString(SEED),
+                                                           "--threads", "2" }));
+        assertTrue(version + ": processing failed", processor.run());
+
+        expected.process(processor._scanner, processor._planner);
+        return expected;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Assert that a chunk of a processed region file has the expected blocks.
+     *
+     * @param version the version, for messages.
+     * @param expected the expected chunks.
+     * @param region the processed region file.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return the number of ore blocks in the chunk.
+     */
+    protected static long assertSameChunk(String version, Expected expected, RegionFile region,
+                                          int chunkX, int chunkZ) throws IOException {
+        AnvilChunk expectedChunk = expected.getChunk(chunkX, chunkZ);
+        AnvilChunk actualChunk = RegionFixtures.getChunk(region, chunkX, chunkZ);
+        long ores = 0;
+        for (int y = 0; y < 256; ++y) {
+            for (int x = 0; x < 16; ++x) {
+                for (int z = 0; z < 16; ++z) {
+                    Material actual = actualChunk.getType(x, y, z);
+                    assertEquals(version + " chunk " + chunkX + "," + chunkZ + " at " + x + "," + y + "," + z,
+                                 expectedChunk.getType(x, y, z), actual);
+                    if (actual == ORE) {
+                        ++ores;
+                    }
+                }
+            }
+        }
+        return ores;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The expected contents of the fully generated chunks after processing.
+     */
+    protected static final class Expected {
+        /**
+         * Load the original chunks.
+         *
+         * @param regionFolder the folder of region files.
+         */
+        Expected(File regionFolder) throws IOException {
+            for (int regionX = 0; regionX <= 1; ++regionX) {
+                RegionFile region = RegionFile.read(new File(regionFolder, "r." + regionX + ".0.mca"));
+                for (int i = 0; i < 1024; ++i) {
+                    if (region.hasChunk(i & 31, i >> 5)) {
+                        AnvilChunk chunk = RegionFixtures.getChunk(region, regionX * 32 + (i & 31), i >> 5);
+                        if (chunk.isFullyGenerated()) {
+                            _chunks.put(Util.chunkKey(chunk.getX(), chunk.getZ()), chunk);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Plan and place the deposits of the processed chunks in the order
+         * of the region file, and then place the ore that spilled into
+         * r.1.0.mca, in the order it was queued.
+         *
+         * @param scanner the clear scanner.
+         * @param planner the deposit planner.
+         */
+        void process(ClearScanner scanner, DepositPlanner planner) {
+            OreRule[] rules = planner.getOreRules().getRules();
+            List<int[]> spills = new ArrayList<>();
+            for (int[] coords : PROCESSED_CHUNKS) {
+                AnvilChunk chunk = getChunk(coords[0], coords[1]);
+                DepositPlan deposits = OreTask.planChunk(chunk.getSnapshot(), scanner, planner, SEED).getDeposits();
+                for (int deposit = 0; deposit < deposits.getDepositCount(); ++deposit) {
+                    Material material = rules[deposits.getRuleIndex(deposit)].getMaterial().getType();
+                    int size = deposits.getSize(deposit);
+                    int placed = 0;
+                    for (int v = deposits.getVoxelStart(deposit); v < deposits.getVoxelEnd(deposit); ++v) {
+                        int voxel = deposits.getVoxel(v);
+                        int x = chunk.getX() * 16 + DepositPlan.dx(voxel);
+                        int y = DepositPlan.y(voxel);
+                        int z = chunk.getZ() * 16 + DepositPlan.dz(voxel);
+                        boolean written;
+                        if (y < 0 || y > 255) {
+                            written = false;
+                        } else if ((x >> 9) != 0 || (z >> 9) != 0 || !_chunks.containsKey(key(x, z))) {
+                            spills.add(new int[] { x, y, z, material.ordinal() });
+                            written = true;
+                        } else {
+                            boolean inChunk = (x >> 4) == chunk.getX() && (z >> 4) == chunk.getZ();
+                            written = replace(x, y, z, material) || !inChunk;
+                        }
+                        if (written && ++placed >= size) {
+                            break;
+                        }
+                    }
+                }
+            }
+
+            Material[] materials = Material.values();
+            for (int[] spill : spills) {
+                if ((spill[0] >> 9) == 1 && (spill[2] >> 9) == 0 && _chunks.containsKey(key(spill[0], spill[2]))) {
+                    replace(spill[0], spill[1], spill[2], materials[spill[3]]);
+                }
+            }
+        }
+
+        /**
+         * Return an expected chunk.
+         *
+         * @param chunkX the chunk X coordinate.
+         * @param chunkZ the chunk Z coordinate.
+         * @return the chunk.
+         */
+        AnvilChunk getChunk(int chunkX, int chunkZ) {
+            return _chunks.get(Util.chunkKey(chunkX, chunkZ));
+        }
+
+        /**
+         * Replace a block if it is replaceable.
+         *
+         * @return true if the block was replaced.
+         */
+        boolean replace(int x, int y, int z, Material material) {
+            AnvilChunk chunk = _chunks.get(key(x, z));
+            if (NerdOre.CONFIG.isReplaceable(chunk.getType(x & 15, y, z & 15))) {
+                chunk.setType(x & 15, y, z & 15, material);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Return the key of the chunk containing a block.
+         */
+        static long key(int x, int z) {
+            return Util.chunkKey(x >> 4, z >> 4);
+        }
+
+        /**
+         * The fully generated chunks, by key.
+         */
+        final Map<Long, AnvilChunk> _chunks = new HashMap<>();
+    } // class Expected
+
+    // ------------------------------------------------------------------------
+    /**
+     * The ore generation seed, chosen so that ore spills into r.1.0.mca.
+     */
+    protected static final long SEED = 1234;
+
+    /**
+     * The ore placed by the job.
+     */
+    protected static final Material ORE = Material.DIAMOND_ORE;
+
+    /**
+     * The chunks processed by the job, in the order of the region file.
+     */
+    protected static final List<int[]> PROCESSED_CHUNKS = Arrays.asList(new int[] { 30, 0 }, new int[] { 31, 0 },
+                                                                        new int[] { 30, 1 }, new int[] { 31, 1 });
+
+    /**
+     * The plugin configuration. The region traversal, used by
+     * {@link OreTaskTest}, visits the job's chunks in the order of the region
+     * file, as the offline processor does.
+     */
+    protected static final String CONFIG = String.join("\n",
+        "skip-processed: false",
+        "replaceable-materials: [STONE, GRANITE, DIORITE, ANDESITE, DIRT, GRAVEL]",
+        "rules:",
+        "  default:",
+        "    clear: []",
+        "    generate: []",
+        "  world:",
+        "    generate:",
+        "    - block: " + ORE,
+        "      min-size: 12",
+        "      max-size: 24",
+        "      min-rounds: 30",
+        "      min-height: 1",
+        "      max-height: 60",
+        "jobs:",
+        "  test:",
+        "    world: world",
+        "    traversal: region",
+        "    region:",
+        "      shape: rect",
+        "      min: [30, 0]",
+        "      max: [31, 1]",
+        "");
+
+    /**
+     * The temporary folder of each test.
+     */
+    protected Path _folder;
+
+    /**
+     * The plugin configuration file.
+     */
+    protected File _configFile;
+
+    /**
+     * The region folder of the most recently processed world.
+     */
+    protected File _regionFolder;
+} // class OfflineProcessorTest
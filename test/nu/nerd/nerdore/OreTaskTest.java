@@ -0,0 +1,202 @@
+package nu.nerd.nerdore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+
+import org.bukkit.Material;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// ----------------------------------------------------------------------------
+/**
+ * Tests of {@link OreTask}'s apply path, on an {@link AnvilWorld} of the
+ * region files of {@link RegionFixtures}.
+ *
+ * The job of {@link OfflineProcessorTest} is run tick by tick by a real
+ * OreTask, with worker threads, so that its chunks are planned, held back
+ * while a pending neighbour can still spill ore into them, and applied
+ * through {@link VoxelWriter}, with ore for chunks that are not loaded queued
+ * in {@link DeferredWrites}. The result is compared with the
+ * {@link OfflineProcessor}'s result for the same fixtures.
+ */
+public class OreTaskTest {
+    // ------------------------------------------------------------------------
+    @Before
+    public void setUp() throws IOException {
+        _folder = Files.createTempDirectory("nerdore-task");
+        _configFile = _folder.resolve("config.yml").toFile();
+        Files.write(_configFile.toPath(), OfflineProcessorTest.CONFIG.getBytes(StandardCharsets.UTF_8));
+        NerdOre.DEFERRED = new DeferredWrites();
+        NerdOre.PROCESSED.setFolder(_folder.resolve("processed").toFile());
+    }
+
+    // ------------------------------------------------------------------------
+    @After
+    public void tearDown() throws IOException {
+        NerdOre.DEFERRED = new DeferredWrites();
+        NerdOre.PROCESSED.setFolder(null);
+        RegionFixtures.delete(_folder);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Once the chunks that ore spilled into are loaded, every chunk holds the
+     * same blocks as after offline processing, including the chunks of the
+     * other region file.
+     */
+    @Test
+    public void appliedChunksMatchOfflineProcessor() throws IOException, InterruptedException, ExecutionException {
+        for (String version : RegionFixtures.VERSIONS) {
+            File offlineRegions = processOffline(version);
+
+            File regionFolder = new File(_folder.toFile(), "server-" + version);
+            RegionFixtures.copy(version, regionFolder);
+            AnvilWorld world = new AnvilWorld("world", OfflineProcessorTest.SEED, regionFolder);
+            runJob(version, world);
+            assertFalse(version + ": no ore was queued for unloaded chunks", NerdOre.DEFERRED.size() == 0);
+
+            // Load the other chunks, placing the ore queued for them, as
+            // ChunkListener does.
+            for (long key : world.getChunkKeys()) {
+                if (!world.getWorld().isChunkLoaded(Util.chunkX(key), Util.chunkZ(key))) {
+                    NerdOre.DEFERRED.apply(world.load(Util.chunkX(key), Util.chunkZ(key)));
+                }
+            }
+
+            long ores = 0;
+            long spilledOres = 0;
+            for (long key : world.getChunkKeys()) {
+                int chunkX = Util.chunkX(key);
+                int chunkZ = Util.chunkZ(key);
+                RegionFile region = RegionFile.read(new File(offlineRegions, "r." + (chunkX >> 5) + ".0.mca"));
+                long chunkOres = assertSameChunk(version, RegionFixtures.getChunk(region, chunkX, chunkZ),
+                                                 world.getChunk(chunkX, chunkZ));
+                ores += chunkOres;
+                if ((chunkX >> 5) != 0) {
+                    spilledOres += chunkOres;
+                }
+            }
+            assertTrue(version + ": no ore was placed", ores > 0);
+            assertTrue(version + ": no ore spilled into r.1.0.mca", spilledOres > 0);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run the offline processor on a fresh copy of the region files of a
+     * version, which also loads the configuration.
+     *
+     * Jobs keep their progress when the configuration is reloaded, so they
+     * are discarded first, so that the job starts again from its first chunk.
+     *
+     * @param version the version.
+     * @return the folder of processed region files.
+     */
+    protected File processOffline(String version) throws IOException {
+        File worldFolder = new File(_folder.toFile(), "offline-" + version);
+        File regionFolder = new File(worldFolder, "region");
+        RegionFixtures.copy(version, regionFolder);
+
+        NerdOre.CONFIG.JOBS.clear();
+        OfflineProcessor processor = new OfflineProcessor();
+        assertTrue(processor.parseArguments(new String[] { _configFile.getPath(), worldFolder.getPath(),
+                                                           "--job", "test",
+                                                           "--seed", Long.toString(OfflineProcessorTest.SEED),
+                                                           "--threads", "2" }));
+        assertTrue(version + ": offline processing failed", processor.run());
+        NerdOre.DEFERRED = new DeferredWrites();
+        return regionFolder;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run the configured job in a world until it finishes, one tick at a
+     * time, waiting for the plan of the oldest pending chunk between ticks.
+     *
+     * The world seed is the seed given to the offline processor, and the job
+     * has none of its own, so the job resolves the same seed.
+     *
+     * @param version the version, for messages.
+     * @param world the world.
+     */
+    protected void runJob(String version, AnvilWorld world) throws InterruptedException, ExecutionException {
+        NerdOre.CONFIG.SKIP_UNGENERATED = false;
+        NerdOre.CONFIG.PROXIMITY_ENABLED = false;
+        NerdOre.CONFIG.HEALTH_ENABLED = false;
+        NerdOre.CONFIG.UNDO_ENABLED = false;
+        NerdOre.CONFIG.NOTIFY = false;
+        NerdOre.CONFIG.BUDGET_MS = 0;
+        NerdOre.CONFIG.PERIOD_TICKS = 1;
+        Job job = NerdOre.CONFIG.getJob("test");
+
+        world.install();
+        OreTask task = new OreTask();
+        task.setWorkerThreads(2);
+        try {
+            task.start(job);
+            for (int tick = 0; job.isRunning(); ++tick) {
+                assertTrue(version + ": the job did not finish", tick < MAX_TICKS);
+                task.run();
+                PendingChunk pending = task._pending.peek();
+                if (pending != null) {
+                    pending.getPlan().get();
+                }
+            }
+            assertEquals(version, 0, task._pending.size());
+        } finally {
+            task.shutdown();
+            world.uninstall();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Assert that two chunks have the same blocks.
+     *
+     * @param version the version, for messages.
+     * @param expected the expected chunk.
+     * @param actual the actual chunk.
+     * @return the number of ore blocks in the chunk.
+     */
+    protected static long assertSameChunk(String version, AnvilChunk expected, AnvilChunk actual) {
+        long ores = 0;
+        for (int y = 0; y < 256; ++y) {
+            for (int x = 0; x < 16; ++x) {
+                for (int z = 0; z < 16; ++z) {
+                    Material type = actual.getType(x, y, z);
+                    assertEquals(version + " chunk " + actual.getX() + "," + actual.getZ() + " at " + x + "," + y +
+                                 "," + z, expected.getType(x, y, z), type);
+                    if (type == OfflineProcessorTest.ORE) {
+                        ++ores;
+                    }
+                }
+            }
+        }
+        return ores;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The maximum number of ticks that the job may take.
+     */
+    protected static final int MAX_TICKS = 1000;
+
+    /**
+     * The temporary folder of each test.
+     */
+    protected Path _folder;
+
+    /**
+     * The plugin configuration file.
+     */
+    protected File _configFile;
+} // class OreTaskTest
@@ -0,0 +1,125 @@
+package nu.nerd.nerdore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// ----------------------------------------------------------------------------
+/**
+ * Tests of {@link RegionFile}.
+ */
+public class RegionFileTest {
+    // ------------------------------------------------------------------------
+    @Before
+    public void setUp() throws IOException {
+        _folder = Files.createTempDirectory("nerdore-region");
+    }
+
+    // ------------------------------------------------------------------------
+    @After
+    public void tearDown() throws IOException {
+        RegionFixtures.delete(_folder);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Reading and writing a region file reproduces it byte for byte.
+     */
+    @Test
+    public void readWriteIsByteIdentical() throws IOException {
+        for (String version : RegionFixtures.VERSIONS) {
+            File folder = new File(_folder.toFile(), version);
+            RegionFixtures.copy(version, folder);
+            for (String name : RegionFixtures.REGION_FILES) {
+                File original = new File(folder, name);
+                File copy = new File(folder, name + ".copy");
+                RegionFile.read(original).write(copy);
+                assertArrayEquals(version + " " + name, Files.readAllBytes(original.toPath()),
+                                  Files.readAllBytes(copy.toPath()));
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Replacing one chunk leaves the compressed data and timestamps of the
+     * other chunks exactly as they were, and the replaced chunk reads back
+     * as written.
+     */
+    @Test
+    public void setChunkKeepsOtherChunks() throws IOException {
+        for (String version : RegionFixtures.VERSIONS) {
+            File folder = new File(_folder.toFile(), version);
+            RegionFixtures.copy(version, folder);
+            File file = new File(folder, "r.0.0.mca");
+            RegionFile original = RegionFile.read(file);
+
+            RegionFile changed = RegionFile.read(file);
+            Nbt.Compound chunk = changed.getChunk(31, 1);
+            chunk.getCompound("Level").put("LastUpdate", 999L);
+            changed.setChunk(31, 1, chunk);
+            changed.write(file);
+
+            RegionFile reread = RegionFile.read(file);
+            int replaced = RegionFile.index(31, 1);
+            for (int i = 0; i < RegionFile.CHUNKS; ++i) {
+                if (i != replaced) {
+                    assertArrayEquals(version + " chunk " + i, original._data[i], reread._data[i]);
+                    assertEquals(version + " timestamp " + i, original._timestamps[i], reread._timestamps[i]);
+                }
+            }
+            assertEquals(RegionFile.ZLIB, reread._data[replaced][0]);
+            assertArrayEquals(version, RegionFixtures.encode(chunk), RegionFixtures.encode(reread.getChunk(31, 1)));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Chunks compressed with gzip and zlib are both read, and missing chunks
+     * are reported as missing.
+     */
+    @Test
+    public void readsBothCompressionTypes() throws IOException {
+        for (String version : RegionFixtures.VERSIONS) {
+            RegionFile region = RegionFile.read(copy(version, "r.0.0.mca"));
+            assertEquals(RegionFile.GZIP, region._data[RegionFile.index(30, 0)][0]);
+            assertEquals(RegionFile.ZLIB, region._data[RegionFile.index(31, 0)][0]);
+            assertEquals(30, region.getChunk(30, 0).getCompound("Level").getInt("xPos", 0));
+            assertEquals(31, region.getChunk(31, 0).getCompound("Level").getInt("xPos", 0));
+            assertTrue(region.hasChunk(29, 0));
+            assertFalse(region.hasChunk(0, 0));
+            assertNull(region.getChunk(0, 0));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Copy one region file of the fixtures to the temporary folder.
+     *
+     * @param version the version.
+     * @param name the name of the region file.
+     * @return the copy.
+     */
+    protected File copy(String version, String name) throws IOException {
+        File folder = new File(_folder.toFile(), version);
+        RegionFixtures.copy(version, folder);
+        return new File(folder, name);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The temporary folder of each test.
+     */
+    protected Path _folder;
+} // class RegionFileTest
@@ -0,0 +1,150 @@
+package nu.nerd.nerdore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+// ----------------------------------------------------------------------------
+/**
+ * The region files that the tests read, and helpers to handle them.
+ *
+ * There is one set of region files for each supported chunk format, in the
+ * regions/&lt;version&gt; resource folder:
+ *
+ * <ul>
+ * <li>1.14.4 (DataVersion 1976): packed block states span two longs, and
+ * biomes are 2D.</li>
+ * <li>1.16.5 (DataVersion 2586): packed block states do not span longs, and
+ * biomes are 3D.</li>
+ * </ul>
+ *
+ * Both sets hold the same blocks. r.0.0.mca contains chunks (30,0), (31,0),
+ * (30,1) and (31,1), which are fully generated, and chunk (29,0), which is
+ * still being generated ("carvers" status). r.1.0.mca contains chunks (32,0)
+ * and (32,1). Chunk (30,0) is compressed with gzip and the others with zlib.
+ *
+ * The chunks hold sections 0 to 3 (Y 0 to 63) and a light-only section at
+ * Y -1. They are bedrock at Y 0, mostly stone with scattered granite,
+ * diorite, andesite, dirt, gravel, clay, coal ore and water of every level
+ * up to Y 59, with caves of air from Y 20 to 23, dirt from Y 60 to 62 and air
+ * above. Some sections need 5 bits per block state, which is where spanning
+ * and aligned packing differ. Each chunk has a chest at (5, 30, 9) within it,
+ * with its tile entity, and the usual heightmaps, structures and an empty
+ * entity list.
+ */
+public class RegionFixtures {
+    // ------------------------------------------------------------------------
+    /**
+     * The versions of Minecraft whose chunk formats have region files.
+     */
+    public static final String[] VERSIONS = { "1.14.4", "1.16.5" };
+
+    /**
+     * The names of the region files of each version.
+     */
+    public static final String[] REGION_FILES = { "r.0.0.mca", "r.1.0.mca" };
+
+    // ------------------------------------------------------------------------
+    /**
+     * Copy the region files of one version to a folder.
+     *
+     * @param version the version.
+     * @param folder the destination folder, which is created if necessary.
+     * @throws IOException if the files cannot be copied.
+     */
+    public static void copy(String version, File folder) throws IOException {
+        Files.createDirectories(folder.toPath());
+        for (String name : REGION_FILES) {
+            try (InputStream in = open(version, name)) {
+                Files.copy(in, new File(folder, name).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Open a region file resource.
+     *
+     * @param version the version.
+     * @param name the name of the region file.
+     * @return the stream.
+     * @throws IOException if there is no such resource.
+     */
+    public static InputStream open(String version, String name) throws IOException {
+        InputStream in = RegionFixtures.class.getResourceAsStream("regions/" + version + "/" + name);
+        if (in == null) {
+            throw new IOException("missing fixture: regions/" + version + "/" + name);
+        }
+        return in;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read a chunk of a region file and decode it as an {@link AnvilChunk}.
+     *
+     * @param region the region file.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return the chunk.
+     * @throws IOException if the chunk cannot be read.
+     */
+    public static AnvilChunk getChunk(RegionFile region, int chunkX, int chunkZ) throws IOException {
+        return new AnvilChunk("world", region.getChunk(chunkX & 31, chunkZ & 31));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Encode a compound tag.
+     *
+     * @param root the tag.
+     * @return the uncompressed NBT data.
+     * @throws IOException if the tag cannot be encoded.
+     */
+    public static byte[] encode(Nbt.Compound root) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            Nbt.write(out, root);
+        }
+        return bytes.toByteArray();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Decode a compound tag.
+     *
+     * @param bytes the uncompressed NBT data.
+     * @return the tag.
+     * @throws IOException if the data is invalid.
+     */
+    public static Nbt.Compound decode(byte[] bytes) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            return Nbt.read(in);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Delete a folder and everything in it.
+     *
+     * @param folder the folder.
+     * @throws IOException if a file cannot be deleted.
+     */
+    public static void delete(Path folder) throws IOException {
+        if (folder != null && Files.exists(folder)) {
+            try (Stream<Path> paths = Files.walk(folder)) {
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+} // class RegionFixtures